@@ -0,0 +1,73 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic WGS exports shared by the benchmarks. Generating a large workbook takes longer than measuring it,
+ * so every size is written once to {@code target/benchmark-workbooks} and reused by later runs.
+ */
+final class BenchmarkWorkbooks {
+    private static final Path DIRECTORY =
+            Path.of(System.getProperty("benchmark.workbooks", "target/benchmark-workbooks"));
+
+    private BenchmarkWorkbooks() {
+    }
+
+    static Path synthetic(int variantCount) throws IOException {
+        Path workbook = DIRECTORY.resolve("synthetic-" + variantCount + ".xlsx");
+        if (!Files.exists(workbook)) {
+            Files.createDirectories(DIRECTORY);
+            Path temp = Files.createTempFile(DIRECTORY, "synthetic-" + variantCount, ".tmp");
+            new SyntheticWorkbook(1, true).write(temp, variantCount);
+            Files.move(temp, workbook, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return workbook;
+    }
+
+    /**
+     * Reads the header and all variant rows of a synthetic workbook into memory, without filtering them.
+     */
+    static ValuableRows load(int variantCount) throws IOException {
+        try (ReadableWorkbook wb = new ReadableWorkbook(synthetic(variantCount).toFile());
+             Stream<Row> rows = wb.getFirstSheet().openStream()) {
+            Iterator<Row> iterator = rows.iterator();
+            List<Row> headerRows = List.of(iterator.next(), iterator.next());
+            VariantColumns columns = new SchemaResolver(Map.of()).resolve(headerRows);
+
+            List<Row> variantRows = new ArrayList<>(variantCount);
+            iterator.forEachRemaining(variantRows::add);
+            return new ValuableRows(new SheetHeader(headerRows, columns), variantRows);
+        }
+    }
+
+    /**
+     * Reads the header and all variant rows of an open synthetic workbook with the XML of every row, which is what
+     * a report copying the rows needs.
+     */
+    static ValuableRows loadWithSourceXml(ReadableWorkbook wb) throws IOException {
+        try (ProjectedSheetReader rows = ProjectedSheetReader.open(wb.getFirstSheet())) {
+            Map<Row, byte[]> sourceXml = new IdentityHashMap<>();
+            List<Row> allRows = new ArrayList<>();
+            rows.forEachRemaining(row -> {
+                allRows.add(row);
+                sourceXml.put(row, rows.rowXml(row));
+            });
+            List<Row> headerRows = allRows.subList(0, 2);
+            VariantColumns columns = new SchemaResolver(Map.of()).resolve(headerRows);
+            return new ValuableRows(new SheetHeader(List.copyOf(headerRows), columns),
+                    allRows.subList(2, allRows.size()), sourceXml);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.genome;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of canned ClinVar responses into RCV accessions and {@link VariantSummary} records, with the streaming
+ * parser the fetcher uses and the tree-based parser it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClinvarParseBenchmark {
+    // Copies of the fixture submissions in the large document, the way popular variants collect thousands of them
+    private static final int ASSERTION_COPIES = 4000;
+
+    @Param({"esummary", "clinvarset", "large-clinvarset"})
+    public String document;
+
+    @Param({"streaming", "tree"})
+    public String parser;
+
+    private byte[] content;
+    private ClinvarXmlParser streamingParser;
+    private TreeClinvarParser treeParser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = switch (document) {
+            case "esummary" -> fixture("esummary.xml").getBytes(StandardCharsets.UTF_8);
+            case "clinvarset" -> fixture("clinvarset.xml").getBytes(StandardCharsets.UTF_8);
+            default -> largeClinVarSetDocument();
+        };
+        streamingParser = new ClinvarXmlParser();
+        treeParser = new TreeClinvarParser();
+    }
+
+    @Benchmark
+    public Object parse() throws IOException {
+        InputStream stream = new ByteArrayInputStream(content);
+        if (document.equals("esummary")) {
+            return parser.equals("streaming") ? streamingParser.parseRcvNumbers(stream) : treeParser.parseRcvNumbers(stream);
+        }
+        return parser.equals("streaming")
+                ? streamingParser.parseVariantSummaries(stream)
+                : treeParser.parseVariantSummaries(stream);
+    }
+
+    static String fixture(String name) throws IOException {
+        try (InputStream stream = ClinvarParseBenchmark.class.getResourceAsStream("/clinvar/" + name)) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] largeClinVarSetDocument() throws IOException {
+        String fixture = fixture("clinvarset.xml");
+
+        // Repeat the submissions of the first ClinVarSet
+        int assertionsStart = fixture.indexOf("  <ClinVarAssertion ");
+        int assertionsEnd = fixture.indexOf("</ClinVarSet>");
+        String assertions = fixture.substring(assertionsStart, assertionsEnd);
+
+        StringBuilder document = new StringBuilder(fixture.length() + assertions.length() * ASSERTION_COPIES);
+        document.append(fixture, 0, assertionsEnd);
+        document.append(assertions.repeat(ASSERTION_COPIES));
+        document.append(fixture, assertionsEnd, fixture.length());
+        return document.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
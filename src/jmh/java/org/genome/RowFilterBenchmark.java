@@ -0,0 +1,54 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.Row;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Time per row of the variant filters alone, on rows which are already read into memory: compiled from the bundled
+ * filter rules, hand-written as they were before the rules, and the original filter chain. Run with
+ * {@code -prof gc} to see the bytes allocated per row as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class RowFilterBenchmark {
+    private static final int ROWS = 20_000;
+
+    @Param({"rules", "hardCoded", "legacy"})
+    public String filter;
+
+    private List<Row> rows;
+    private Predicate<Row> predicate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rows = BenchmarkWorkbooks.load(ROWS).filteredRows();
+        GenePanel genePanel = TestPanels.bundledPanel();
+        VariantColumns columns = VariantColumns.defaultLayout();
+        predicate = switch (filter) {
+            case "rules" -> FilterPlan.compile(columns, genePanel, FilterRules.bundled()).newRowFilter()::accepts;
+            case "hardCoded" -> HardCodedFilterPlan.compile(columns, genePanel).newRowFilter()::accepts;
+            default -> new LegacyRowFilter(genePanel)::accepts;
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int filterRows() {
+        int accepted = 0;
+        for (Row row : rows) {
+            if (predicate.test(row)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,53 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reading and filtering a whole sheet, the way DataExtractor runs in a report, decoding only the filter columns of
+ * rejected rows or every cell. The largest exports are measured with {@code -p variants=5000000}; their workbooks
+ * take several minutes to generate the first time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SheetFilterBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int variants;
+
+    @Param({"1"})
+    public int parallelism;
+
+    @Param({"true", "false"})
+    public boolean projection;
+
+    private Path workbook;
+    private DataExtractor dataExtractor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workbook = BenchmarkWorkbooks.synthetic(variants);
+        dataExtractor = new DataExtractor(TestPanels.bundledPanel(), FilterRules.bundled(),
+                new SchemaResolver(Map.of()), parallelism, 1_000).withProjection(projection);
+    }
+
+    @Benchmark
+    public long readAndFilter() throws IOException {
+        AtomicLong accepted = new AtomicLong();
+        try (ReadableWorkbook wb = new ReadableWorkbook(workbook.toFile())) {
+            dataExtractor.filterWorkSheet(wb.getFirstSheet(), header -> {
+            }, row -> accepted.incrementAndGet(), new PipelineMetrics("benchmark"));
+        }
+        return accepted.get();
+    }
+}
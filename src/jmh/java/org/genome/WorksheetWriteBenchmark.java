@@ -0,0 +1,95 @@
+package org.genome;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing filtered rows with their phenotype and ClinVar columns into an xlsx report, cell by cell through fastexcel
+ * or copying the XML of the rows with {@code passthrough}. The report is compressed like a real one but discarded,
+ * so disk speed does not count. With {@code passthrough}, {@code deflateThreads} above 1 compresses the report on
+ * that many threads; add {@code -p deflateThreads=1,2,4} to compare.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class WorksheetWriteBenchmark {
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean passthrough;
+
+    @Param({"1"})
+    public int deflateThreads;
+
+    private ReadableWorkbook source;
+    private ValuableRows variants;
+    private WorksheetFiller worksheetFiller;
+    private Map<String, VariantSummary> variantSummaries;
+    private ExecutorService deflatePool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = new ReadableWorkbook(BenchmarkWorkbooks.synthetic(rows).toFile());
+        variants = BenchmarkWorkbooks.loadWithSourceXml(source);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        worksheetFiller = new WorksheetFiller(new ClinvarFetcher(HttpClient.newHttpClient(), new ClinvarXmlParser(),
+                new RateLimiter(3, 1), null, ClinvarCache.inMemory()), genePanel);
+
+        // Every variant with a ClinVar ID gets the submissions of the canned response
+        VariantSummary summary = new ClinvarXmlParser().parseVariantSummaries(new ByteArrayInputStream(
+                        ClinvarParseBenchmark.fixture("clinvarset.xml").getBytes(StandardCharsets.UTF_8)))
+                .values().iterator().next();
+        variantSummaries = new HashMap<>();
+        int clinvarVariantId = variants.header().columns().clinvarVariantId();
+        for (Row row : variants.filteredRows()) {
+            row.getCellAsString(clinvarVariantId).ifPresent(id -> variantSummaries.put(id, summary));
+        }
+        deflatePool = deflateThreads > 1 ? Executors.newFixedThreadPool(deflateThreads) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (deflatePool != null) {
+            deflatePool.shutdown();
+        }
+        source.close();
+    }
+
+    @Benchmark
+    public void writeReport() throws IOException {
+        if (passthrough) {
+            try (PassthroughWorkbook wb = new PassthroughWorkbook(source, BenchmarkWorkbooks.synthetic(rows),
+                    OutputStream.nullOutputStream(), deflatePool)) {
+                worksheetFiller.fillReport(wb.newSheet("Sheet 1"), variants, variantSummaries,
+                        new PipelineMetrics("benchmark"));
+            }
+            return;
+        }
+        try (Workbook wb = new Workbook(OutputStream.nullOutputStream(), "WGS Transformed", "1.0")) {
+            ReportSink sink = ReportSink.of(wb.newWorksheet("Sheet 1"));
+            worksheetFiller.fillHeader(sink, variants.header());
+            int rowIndex = 2;
+            for (Row row : variants.filteredRows()) {
+                worksheetFiller.fillRow(sink, rowIndex++, row, variants.header(), variantSummaries);
+            }
+        }
+    }
+}
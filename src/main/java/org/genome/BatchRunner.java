@@ -0,0 +1,163 @@
+package org.genome;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Transforms every WGS workbook of a sequencing batch on a bounded pool of workers and records the outcome of
+ * each one in a tab-separated summary next to the reports. A failed workbook does not stop the others.
+ */
+public class BatchRunner {
+    static final String SUMMARY_FILE = "batch-summary.tsv";
+    private static final String REPORT_SUFFIX = ".report.xlsx";
+
+    private final WorkbookTransformer transformer;
+    private final int workers;
+
+    /**
+     * Writes the report of an input, replacing {@code output} only once the report is complete, so a failed run
+     * leaves the report of an earlier one as it was.
+     */
+    @FunctionalInterface
+    public interface WorkbookTransformer {
+        SampleReport transform(Path input, Path output) throws IOException;
+    }
+
+    public record SampleReport(int sheets, long filteredRows) {
+    }
+
+    private record Outcome(Path input, Path output, SampleReport report, Duration elapsed, String error) {
+    }
+
+    public BatchRunner(WorkbookTransformer transformer, int workers) {
+        this.transformer = transformer;
+        this.workers = workers;
+    }
+
+    /**
+     * @param source a directory of .xlsx workbooks or a manifest listing one workbook path per line
+     * @return whether every workbook was transformed
+     */
+    public boolean run(Path source, Path outputDirectory) throws IOException {
+        List<Path> inputs = listInputs(source);
+        Map<Path, Path> outputs = outputPaths(inputs, outputDirectory);
+        Files.createDirectories(outputDirectory);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, inputs.size()),
+                r -> new Thread(r, "wgs-batch-worker-" + threadNumber.incrementAndGet()));
+        List<Outcome> outcomes;
+        try {
+            List<CompletableFuture<Outcome>> running = inputs.stream()
+                    .map(input -> CompletableFuture.supplyAsync(() -> transform(input, outputs.get(input)), pool))
+                    .toList();
+            outcomes = running.stream().map(CompletableFuture::join).toList();
+        } finally {
+            pool.shutdown();
+        }
+
+        writeSummary(outputDirectory.resolve(SUMMARY_FILE), outcomes);
+        long failed = outcomes.stream().filter(o -> o.error() != null).count();
+        System.out.printf("Transformed %d of %d workbooks, summary written to %s%n",
+                outcomes.size() - failed, outcomes.size(), outputDirectory.resolve(SUMMARY_FILE));
+        return failed == 0;
+    }
+
+    private Outcome transform(Path input, Path output) {
+        long startTime = System.nanoTime();
+        try {
+            SampleReport report = transformer.transform(input, output);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+            System.out.printf("%s: %d filtered rows in %.1f seconds%n", input.getFileName(), report.filteredRows(),
+                    elapsed.toMillis() / 1000.0);
+            return new Outcome(input, output, report, elapsed, null);
+        } catch (Exception e) {
+            String error = Objects.requireNonNullElse(e.getMessage(), e.getClass().getName());
+            System.err.printf("%s failed: %s%n", input.getFileName(), error);
+            return new Outcome(input, output, null, Duration.ofNanos(System.nanoTime() - startTime), error);
+        }
+    }
+
+    static List<Path> listInputs(Path source) throws IOException {
+        List<Path> inputs;
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.list(source)) {
+                inputs = files
+                        .filter(Files::isRegularFile)
+                        .filter(BatchRunner::isInput)
+                        .sorted()
+                        .toList();
+            }
+        } else {
+            Path base = source.toAbsolutePath().getParent();
+            try (Stream<String> lines = Files.lines(source)) {
+                inputs = lines
+                        .map(String::trim)
+                        .filter(l -> !l.isEmpty() && !l.startsWith("#"))
+                        .map(base::resolve)
+                        .toList();
+            }
+        }
+
+        if (inputs.isEmpty()) {
+            throw new IOException("No WGS workbooks found in " + source);
+        }
+        return inputs;
+    }
+
+    /**
+     * Whether the file is a workbook or VCF to transform, going by its name.
+     */
+    static boolean isInput(Path file) {
+        String name = file.getFileName().toString();
+        // Lock files Excel leaves next to open workbooks
+        return (name.toLowerCase(Locale.ROOT).endsWith(".xlsx") || VcfReader.isVcf(file)) && !name.startsWith("~$");
+    }
+
+    static Path reportPath(Path input, Path outputDirectory) {
+        String name = input.getFileName().toString().replaceFirst("(?i)\\.(xlsx|vcf(\\.gz|\\.bgz)?)$", "");
+        return outputDirectory.resolve(name + REPORT_SUFFIX);
+    }
+
+    private static Map<Path, Path> outputPaths(List<Path> inputs, Path outputDirectory) throws IOException {
+        Map<Path, Path> outputs = new LinkedHashMap<>();
+        Map<Path, Path> inputsByOutput = new HashMap<>();
+        for (Path input : inputs) {
+            Path output = reportPath(input, outputDirectory);
+            Path previous = inputsByOutput.putIfAbsent(output, input);
+            if (previous != null) {
+                throw new IOException("Both " + previous + " and " + input + " would be written to " + output);
+            }
+            outputs.put(input, output);
+        }
+        return outputs;
+    }
+
+    private static void writeSummary(Path summary, List<Outcome> outcomes) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(summary)) {
+            writer.write("input\toutput\tstatus\tsheets\tfiltered_rows\tseconds\terror");
+            writer.newLine();
+            for (Outcome outcome : outcomes) {
+                boolean succeeded = outcome.error() == null;
+                writer.write(String.join("\t",
+                        outcome.input().toString(),
+                        succeeded ? outcome.output().toString() : "",
+                        succeeded ? "OK" : "FAILED",
+                        succeeded ? String.valueOf(outcome.report().sheets()) : "",
+                        succeeded ? String.valueOf(outcome.report().filteredRows()) : "",
+                        String.format(Locale.ROOT, "%.1f", outcome.elapsed().toMillis() / 1000.0),
+                        succeeded ? "" : outcome.error().replaceAll("\\s+", " ")));
+                writer.newLine();
+            }
+        }
+    }
+}
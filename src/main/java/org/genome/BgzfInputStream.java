@@ -0,0 +1,131 @@
+package org.genome;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a bgzip-compressed file: a series of gzip blocks of at most 64 KiB each, which is what lets a tabix index
+ * point into the middle of it. A position is a virtual offset, the file offset of a block shifted left by 16 bits
+ * plus the offset within the uncompressed block, so {@link #seek} only decompresses the block it lands in.
+ */
+final class BgzfInputStream extends InputStream {
+    private static final int HEADER_SIZE = 18;
+    private static final int MAX_BLOCK_SIZE = 65536;
+
+    private final FileChannel channel;
+    private final ByteBuffer compressed = ByteBuffer.allocate(MAX_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] block = new byte[MAX_BLOCK_SIZE];
+    private final Inflater inflater = new Inflater(true);
+    private int blockLength;
+    private int blockPosition;
+    private long nextBlockAddress;
+
+    BgzfInputStream(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Whether the file starts with a gzip block carrying the BGZF block size.
+     */
+    static boolean isBgzf(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            int read = 0;
+            while (header.hasRemaining() && read >= 0) {
+                read = channel.read(header);
+            }
+            return !header.hasRemaining() && (header.get(0) & 0xff) == 0x1f && (header.get(1) & 0xff) == 0x8b
+                    && (header.get(3) & 4) != 0 && header.get(12) == 'B' && header.get(13) == 'C';
+        }
+    }
+
+    void seek(long virtualOffset) throws IOException {
+        nextBlockAddress = virtualOffset >>> 16;
+        blockLength = 0;
+        blockPosition = 0;
+        if (!readBlock()) {
+            throw new EOFException("Virtual offset " + virtualOffset + " is past the end of the file");
+        }
+        blockPosition = (int) (virtualOffset & 0xffff);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (blockPosition == blockLength && !readBlock()) {
+            return -1;
+        }
+        return block[blockPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (blockPosition == blockLength && !readBlock()) {
+            return -1;
+        }
+        int count = Math.min(length, blockLength - blockPosition);
+        System.arraycopy(block, blockPosition, bytes, offset, count);
+        blockPosition += count;
+        return count;
+    }
+
+    // Reads blocks until one holds data, as the empty block bgzip ends a file with does not
+    private boolean readBlock() throws IOException {
+        do {
+            compressed.clear().limit(HEADER_SIZE);
+            if (!fill(nextBlockAddress)) {
+                return false;
+            }
+            if ((compressed.get(0) & 0xff) != 0x1f || (compressed.get(1) & 0xff) != 0x8b
+                    || compressed.get(12) != 'B' || compressed.get(13) != 'C') {
+                throw new IOException("Not a bgzip block at offset " + nextBlockAddress
+                        + "; compress the file with bgzip rather than gzip");
+            }
+            int blockSize = (compressed.getShort(16) & 0xffff) + 1;
+            compressed.limit(blockSize);
+            if (!fill(nextBlockAddress)) {
+                throw new EOFException("Truncated bgzip block at offset " + nextBlockAddress);
+            }
+
+            inflater.reset();
+            inflater.setInput(compressed.array(), HEADER_SIZE, blockSize - HEADER_SIZE - 8);
+            try {
+                blockLength = inflater.inflate(block);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt bgzip block at offset " + nextBlockAddress, e);
+            }
+            blockPosition = 0;
+            nextBlockAddress += blockSize;
+        } while (blockLength == 0);
+        return true;
+    }
+
+    // Fills the rest of the buffer from the block at the given address
+    private boolean fill(long address) throws IOException {
+        long position = address + compressed.position();
+        while (compressed.hasRemaining()) {
+            int read = channel.read(compressed, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+}
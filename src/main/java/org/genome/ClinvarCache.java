@@ -0,0 +1,335 @@
+package org.genome;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Two-tier cache of parsed ClinVar responses: an in-memory map for the current run in front of an on-disk
+ * store with one small binary file per variant ID (its RCV accessions) and per RCV accession (its summary).
+ * Files are written to a temporary name and atomically moved into place, so several JVMs can share the store.
+ */
+public class ClinvarCache {
+    private static final int FORMAT_VERSION = 1;
+    private static final String VARIANTS = "variants";
+    private static final String RCVS = "rcv";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final Duration ttl;
+    private final long maxEntries;
+    private final Clock clock;
+    private final Map<String, CachedRcvNumbers> rcvNumbersInMemory = new ConcurrentHashMap<>();
+    private final Map<String, CachedVariantSummary> summariesInMemory = new ConcurrentHashMap<>();
+
+    private record CachedRcvNumbers(Instant fetchedAt, List<String> rcvNumbers) {
+    }
+
+    private record CachedVariantSummary(Instant fetchedAt, VariantSummary summary) {
+    }
+
+    public ClinvarCache(Path directory, Duration ttl, long maxEntries, Clock clock) {
+        this.directory = directory;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    public static ClinvarCache inMemory() {
+        return new ClinvarCache(null, Duration.ofDays(36500), Long.MAX_VALUE, Clock.systemUTC());
+    }
+
+    public static ClinvarCache fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("clinvar.cache.persistent", "true"))) {
+            return inMemory();
+        }
+
+        Path directory = Path.of(System.getProperty("clinvar.cache.dir",
+                Path.of(System.getProperty("user.home"), ".wgs-report-generator", "clinvar-cache").toString()));
+        Duration ttl = Duration.ofDays(Long.getLong("clinvar.cache.ttlDays", 30));
+        long maxEntries = Long.getLong("clinvar.cache.maxEntries", 200_000);
+
+        return new ClinvarCache(directory, ttl, maxEntries, Clock.systemUTC());
+    }
+
+    public Optional<List<String>> getRcvNumbers(String clinvarVariantId) {
+        CachedRcvNumbers cached = rcvNumbersInMemory.get(clinvarVariantId);
+        if (cached == null) {
+            cached = readFromDisk(VARIANTS, clinvarVariantId, this::readRcvNumbers);
+            if (cached != null) {
+                touch(VARIANTS, clinvarVariantId);
+                rcvNumbersInMemory.put(clinvarVariantId, cached);
+            }
+        }
+
+        return Optional.ofNullable(cached)
+                .filter(c -> isFresh(c.fetchedAt()))
+                .map(CachedRcvNumbers::rcvNumbers);
+    }
+
+    public void putRcvNumbers(String clinvarVariantId, List<String> rcvNumbers) {
+        CachedRcvNumbers cached = new CachedRcvNumbers(clock.instant(), List.copyOf(rcvNumbers));
+        rcvNumbersInMemory.put(clinvarVariantId, cached);
+        writeToDisk(VARIANTS, clinvarVariantId, out -> writeRcvNumbers(out, cached));
+    }
+
+    public Optional<VariantSummary> getVariantSummary(String rcvNumber) {
+        CachedVariantSummary cached = summariesInMemory.get(rcvNumber);
+        if (cached == null) {
+            cached = readFromDisk(RCVS, rcvNumber, this::readVariantSummary);
+            if (cached != null) {
+                touch(RCVS, rcvNumber);
+                summariesInMemory.put(rcvNumber, cached);
+            }
+        }
+
+        return Optional.ofNullable(cached)
+                .filter(c -> isFresh(c.fetchedAt()))
+                .map(CachedVariantSummary::summary);
+    }
+
+    public void putVariantSummary(String rcvNumber, VariantSummary summary) {
+        CachedVariantSummary cached = new CachedVariantSummary(clock.instant(),
+                new VariantSummary(summary.deceaseDefinition(), List.copyOf(summary.summaries())));
+        summariesInMemory.put(rcvNumber, cached);
+        writeToDisk(RCVS, rcvNumber, out -> writeVariantSummary(out, cached));
+    }
+
+    public List<String> staleVariantIds() throws IOException {
+        return staleKeys(VARIANTS, this::readRcvNumbers, CachedRcvNumbers::fetchedAt);
+    }
+
+    public List<String> staleRcvNumbers() throws IOException {
+        return staleKeys(RCVS, this::readVariantSummary, CachedVariantSummary::fetchedAt);
+    }
+
+    /**
+     * Deletes the least recently used files once the store holds more than the configured number of entries.
+     * Only one JVM evicts at a time; the others skip eviction while the lock is held.
+     */
+    public void evictIfOverCapacity() throws IOException {
+        if (directory == null) {
+            return;
+        }
+
+        Files.createDirectories(directory);
+        try (FileChannel lockChannel = FileChannel.open(directory.resolve(".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+
+            List<Path> entries = new ArrayList<>();
+            for (String kind : List.of(VARIANTS, RCVS)) {
+                entries.addAll(listEntries(kind));
+            }
+            if (entries.size() <= maxEntries) {
+                return;
+            }
+
+            // Evict down to 90% of the capacity, so that the next few runs do not have to evict again
+            long toEvict = entries.size() - maxEntries * 9 / 10;
+            entries.stream()
+                    .map(p -> Map.entry(p, lastModified(p)))
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(toEvict)
+                    .forEach(e -> deleteQuietly(e.getKey()));
+        } catch (OverlappingFileLockException e) {
+            // Another thread of this JVM is already evicting
+        }
+    }
+
+    /**
+     * Forgets the entries held in memory once there are more of them than the configured number, for a process
+     * outliving one run. The on-disk store still has them.
+     */
+    public void trimInMemory() {
+        if (directory != null && rcvNumbersInMemory.size() + summariesInMemory.size() > maxEntries) {
+            rcvNumbersInMemory.clear();
+            summariesInMemory.clear();
+        }
+    }
+
+    private boolean isFresh(Instant fetchedAt) {
+        return fetchedAt.plus(ttl).isAfter(clock.instant());
+    }
+
+    private <T> List<String> staleKeys(String kind, EntryReader<T> reader,
+                                       Function<T, Instant> fetchedAt) throws IOException {
+        List<String> staleKeys = new ArrayList<>();
+        for (Path entry : listEntries(kind)) {
+            String key = entry.getFileName().toString();
+            T cached = readFromDisk(kind, key, reader);
+            if (cached != null && !isFresh(fetchedAt.apply(cached))) {
+                staleKeys.add(key);
+            }
+        }
+        return staleKeys;
+    }
+
+    private List<Path> listEntries(String kind) throws IOException {
+        if (directory == null || !Files.isDirectory(directory.resolve(kind))) {
+            return Collections.emptyList();
+        }
+
+        try (Stream<Path> files = Files.list(directory.resolve(kind))) {
+            return files.filter(p -> !p.getFileName().toString().endsWith(TEMP_SUFFIX)).toList();
+        }
+    }
+
+    private <T> T readFromDisk(String kind, String key, EntryReader<T> reader) {
+        if (directory == null) {
+            return null;
+        }
+
+        Path file = entryPath(kind, key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            return reader.read(in);
+        } catch (IOException e) {
+            // A missing, truncated or concurrently evicted entry is treated as a miss
+            return null;
+        }
+    }
+
+    private void touch(String kind, String key) {
+        // The modification time doubles as the last access time for the LRU eviction
+        try {
+            Files.setLastModifiedTime(entryPath(kind, key), FileTime.from(clock.instant()));
+        } catch (IOException e) {
+            // Evicted in the meantime
+        }
+    }
+
+    private void writeToDisk(String kind, String key, EntryWriter writer) {
+        if (directory == null) {
+            return;
+        }
+
+        Path file = entryPath(kind, key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FORMAT_VERSION);
+                writer.write(out);
+            }
+            Files.setLastModifiedTime(temp, FileTime.from(clock.instant()));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The cache is an optimisation, a failed write must not fail the report
+            System.err.printf("Could not cache ClinVar entry %s/%s: %s%n", kind, key, e.getMessage());
+        }
+    }
+
+    private Path entryPath(String kind, String key) {
+        return directory.resolve(kind).resolve(key.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    private CachedRcvNumbers readRcvNumbers(DataInputStream in) throws IOException {
+        Instant fetchedAt = Instant.ofEpochMilli(in.readLong());
+        int count = in.readInt();
+        List<String> rcvNumbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rcvNumbers.add(in.readUTF());
+        }
+        return new CachedRcvNumbers(fetchedAt, List.copyOf(rcvNumbers));
+    }
+
+    private void writeRcvNumbers(DataOutputStream out, CachedRcvNumbers cached) throws IOException {
+        out.writeLong(cached.fetchedAt().toEpochMilli());
+        out.writeInt(cached.rcvNumbers().size());
+        for (String rcvNumber : cached.rcvNumbers()) {
+            out.writeUTF(rcvNumber);
+        }
+    }
+
+    private CachedVariantSummary readVariantSummary(DataInputStream in) throws IOException {
+        Instant fetchedAt = Instant.ofEpochMilli(in.readLong());
+        String deceaseDefinition = readString(in);
+        int count = in.readInt();
+        List<PublicationSummary> summaries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            summaries.add(new PublicationSummary(
+                    LocalDate.ofEpochDay(in.readLong()),
+                    readString(in),
+                    readString(in),
+                    readString(in),
+                    readString(in)));
+        }
+        return new CachedVariantSummary(fetchedAt, new VariantSummary(deceaseDefinition, List.copyOf(summaries)));
+    }
+
+    private void writeVariantSummary(DataOutputStream out, CachedVariantSummary cached) throws IOException {
+        out.writeLong(cached.fetchedAt().toEpochMilli());
+        writeString(out, cached.summary().deceaseDefinition());
+        out.writeInt(cached.summary().summaries().size());
+        for (PublicationSummary summary : cached.summary().summaries()) {
+            out.writeLong(summary.dateUpdated().toEpochDay());
+            writeString(out, summary.submitter());
+            writeString(out, summary.submittedAssembly());
+            writeString(out, summary.classification());
+            writeString(out, summary.summary());
+        }
+    }
+
+    // Unlike writeUTF, this supports nulls and values longer than 64 KB (submission comments can be long)
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Already evicted by someone else
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -1,159 +1,258 @@
 package org.genome;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-
 import java.io.IOException;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
-public class ClinvarFetcher {
-    private final HttpClient client;
-    private final XmlMapper mapper;
-
-    public ClinvarFetcher(HttpClient client, XmlMapper mapper) {
-        this.client = client;
-        this.mapper = mapper;
-    }
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
-    public VariantSummary fetchVariantSummary(String clinvarVariantId) throws IOException, InterruptedException {
-        HttpRequest request = getVariantRequest(clinvarVariantId);
-        HttpResponse<String> clinvarResponse = client.send(request, HttpResponse.BodyHandlers.ofString());
+public class ClinvarFetcher implements ClinvarSource {
+    private static final String EUTILS_URL = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
+    // esummary documents are small, while a single clinvarset document can be several megabytes
+    private static final int SUMMARY_BATCH_SIZE = Integer.getInteger("clinvar.summaryBatchSize", 200);
+    private static final int FETCH_BATCH_SIZE = Integer.getInteger("clinvar.fetchBatchSize", 20);
 
-        return getRCVNumbers(mapper.readTree(clinvarResponse.body())).stream()
-                .map(rcvNumber -> {
-                    try {
-                        return getVariantSummaryForRcvNumber(rcvNumber);
-                    } catch (IOException | InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                })
-                .reduce((vs1, vs2) -> {
-                    vs1.summaries().addAll(vs2.summaries());
-                    return new VariantSummary(
-                        vs1.deceaseDefinition() == null || vs1.deceaseDefinition().isBlank()
-                                ? vs1.deceaseDefinition()
-                                : vs2.deceaseDefinition(),
-                            vs1.summaries());})
-                .orElse(new VariantSummary(null, Collections.emptyList()));
+    private final ResilientHttpClient client;
+    private final ClinvarXmlParser parser;
+    private final String eutilsUrl;
+    private final String apiKey;
+    private final ClinvarCache cache;
+    // Requests still on the wire, so concurrent callers asking for the same variant share one download
+    private final Map<String, CompletableFuture<List<String>>> rcvNumbersInFlight = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<VariantSummary>> summariesInFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Values found for the requested keys, and the keys whose request failed.
+     */
+    private record Lookup<V>(Map<String, V> found, Set<String> failed) {
     }
 
-    private VariantSummary getVariantSummaryForRcvNumber(String rcvNumber) throws IOException, InterruptedException {
-        HttpRequest submissionsRequest = getSubmissionsRequest(rcvNumber);
-        HttpResponse<String> submissionsResponse =
-                client.send(submissionsRequest, HttpResponse.BodyHandlers.ofString());
+    public ClinvarFetcher(HttpClient client, ClinvarXmlParser parser, RateLimiter rateLimiter, String apiKey,
+                          ClinvarCache cache) {
+        this(ResilientHttpClient.fromSystemProperties(client, rateLimiter), parser,
+                System.getProperty("clinvar.eutilsUrl", EUTILS_URL), apiKey, cache);
+    }
+
+    public ClinvarFetcher(ResilientHttpClient client, ClinvarXmlParser parser, String eutilsUrl, String apiKey,
+                          ClinvarCache cache) {
+        this.client = client;
+        this.parser = parser;
+        this.eutilsUrl = eutilsUrl.endsWith("/") ? eutilsUrl : eutilsUrl + "/";
+        this.apiKey = apiKey;
+        this.cache = cache;
+    }
 
-        return constructVariantSummary(mapper.readTree(submissionsResponse.body()));
+    public CompletableFuture<VariantSummary> fetchVariantSummary(String clinvarVariantId) {
+        return fetchVariantSummaries(List.of(clinvarVariantId), new PipelineMetrics(""))
+                .thenApply(variantSummaries -> variantSummaries.get(clinvarVariantId));
     }
 
-    private List<String> getRCVNumbers(JsonNode responseTree) throws IOException {
-        ArrayNode rcvNumbers = responseTree
-                .path("DocumentSummarySet")
-                .path("DocumentSummary")
-                .path("supporting_submissions")
-                .path("rcv")
-                .withArrayProperty("string");
+    /**
+     * Fetches the summaries of all given variants with a handful of batched esummary and efetch calls.
+     * Variants unknown to ClinVar map to an empty summary. Variants whose requests failed are missing from the
+     * result, so a ClinVar outage leaves gaps in the report instead of failing it.
+     */
+    @Override
+    public CompletableFuture<Map<String, VariantSummary>> fetchVariantSummaries(Collection<String> clinvarVariantIds,
+                                                                                PipelineMetrics metrics) {
+        Set<String> uniqueIds = new LinkedHashSet<>(clinvarVariantIds);
 
-        ObjectReader reader = mapper.readerFor(new TypeReference<List<String>>() {});
-        return reader.readValue(rcvNumbers);
+        return fetchRcvNumbers(uniqueIds, metrics).thenCompose(rcvNumbers -> {
+            Set<String> rcvNumbersToFetch = rcvNumbers.found().values().stream()
+                    .flatMap(List::stream)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+
+            return fetchRcvSummaries(rcvNumbersToFetch, metrics).thenApply(summaries -> {
+                Map<String, VariantSummary> variantSummaries = new LinkedHashMap<>();
+                for (String clinvarVariantId : uniqueIds) {
+                    List<String> variantRcvNumbers = rcvNumbers.found().getOrDefault(clinvarVariantId, List.of());
+                    if (rcvNumbers.failed().contains(clinvarVariantId)
+                            || variantRcvNumbers.stream().anyMatch(summaries.failed()::contains)) {
+                        continue;
+                    }
+                    variantSummaries.put(clinvarVariantId, variantRcvNumbers.stream()
+                            .map(summaries.found()::get)
+                            .filter(Objects::nonNull)
+                            .reduce(VariantSummary::merge)
+                            .orElse(new VariantSummary(null, Collections.emptyList())));
+                }
+                metrics.addFailedLookups(uniqueIds.size() - variantSummaries.size());
+                return variantSummaries;
+            });
+        });
     }
 
-    private HttpRequest getVariantRequest(String clinvarVariantId) {
-        return HttpRequest.newBuilder()
-                .uri(URI.create("https://eutils.ncbi.nlm.nih.gov/entrez/eutils/esummary.fcgi?db=clinvar&id=" + clinvarVariantId))
-                .GET()
-                .build();
+    /**
+     * Re-downloads only the cached entries whose TTL has expired, without touching the fresh ones.
+     */
+    public CompletableFuture<Void> refreshStaleCacheEntries() throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics("");
+        return CompletableFuture.allOf(
+                requestRcvNumbers(cache.staleVariantIds(), metrics),
+                requestRcvSummaries(cache.staleRcvNumbers(), metrics));
     }
 
-    private HttpRequest getSubmissionsRequest(String rcvNumber) {
-        return HttpRequest.newBuilder()
-                .uri(URI.create("https://eutils.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi?db=clinvar&rettype=clinvarset&id=" + rcvNumber))
-                .GET()
-                .build();
+    private CompletableFuture<Lookup<List<String>>> fetchRcvNumbers(Collection<String> clinvarVariantIds,
+                                                                    PipelineMetrics metrics) {
+        return fetchOnce(clinvarVariantIds, cache::getRcvNumbers, rcvNumbersInFlight, SUMMARY_BATCH_SIZE,
+                chunk -> requestRcvNumberChunk(chunk, metrics), metrics);
     }
 
-    private VariantSummary constructVariantSummary(JsonNode responseTree) {
-        String deceaseDefinition = getDeceaseDefinition(responseTree);
+    private CompletableFuture<Lookup<VariantSummary>> fetchRcvSummaries(Collection<String> rcvNumbers,
+                                                                        PipelineMetrics metrics) {
+        return fetchOnce(rcvNumbers, cache::getVariantSummary, summariesInFlight, FETCH_BATCH_SIZE,
+                chunk -> requestRcvSummaryChunk(chunk, metrics), metrics);
+    }
 
-        List<PublicationSummary> publicationSummaries = new ArrayList<>();
-        responseTree.path("ClinVarSet")
-                .path("ClinVarAssertion")
-                .forEach(publication -> {
-                    PublicationSummary publicationSummary = new PublicationSummary(
-                            getDateUpdated(publication),
-                            getSubmitter(publication),
-                            getSubmittedAssembly(publication),
-                            getClassification(publication),
-                            getSummary(publication));
+    /**
+     * Looks the keys up in the cache and requests only the ones which are neither cached nor already being
+     * requested by another caller. The keys are requested in chunks and a failed chunk only fails its own keys.
+     * Keys unknown to ClinVar are neither found nor failed.
+     */
+    private <V> CompletableFuture<Lookup<V>> fetchOnce(
+            Collection<String> keys, Function<String, Optional<V>> cached, Map<String, CompletableFuture<V>> inFlight,
+            int chunkSize, Function<List<String>, CompletableFuture<Map<String, V>>> request, PipelineMetrics metrics) {
+        Map<String, V> found = new HashMap<>();
+        Map<String, CompletableFuture<V>> pending = new HashMap<>();
+        Map<String, CompletableFuture<V>> requested = new HashMap<>();
+        for (String key : keys) {
+            Optional<V> value = cached.apply(key);
+            if (value.isPresent()) {
+                metrics.cacheHit();
+                found.put(key, value.get());
+                continue;
+            }
 
-                    publicationSummaries.add(publicationSummary);
-                });
+            CompletableFuture<V> download = new CompletableFuture<>();
+            CompletableFuture<V> running = inFlight.putIfAbsent(key, download);
+            if (running == null) {
+                metrics.cacheMiss();
+                requested.put(key, download);
+            } else {
+                metrics.sharedDownload();
+            }
+            pending.put(key, running == null ? download : running);
+        }
+
+        List<String> toRequest = new ArrayList<>(requested.keySet());
+        for (int from = 0; from < toRequest.size(); from += chunkSize) {
+            List<String> chunk = toRequest.subList(from, Math.min(from + chunkSize, toRequest.size()));
+            CompletableFuture<Map<String, V>> sent;
+            try {
+                sent = request.apply(chunk);
+            } catch (RuntimeException e) {
+                // Failed before it was sent: its keys must still be completed, or later lookups would wait forever
+                sent = CompletableFuture.failedFuture(e);
+            }
+            sent.whenComplete((fetched, error) -> {
+                if (error != null) {
+                    System.err.printf("ClinVar lookup of %d IDs failed: %s%n", chunk.size(),
+                            (error.getCause() == null ? error : error.getCause()).getMessage());
+                }
+                for (String key : chunk) {
+                    CompletableFuture<V> download = requested.get(key);
+                    inFlight.remove(key, download);
+                    if (error != null) {
+                        download.completeExceptionally(error);
+                    } else {
+                        download.complete(fetched.get(key));
+                    }
+                }
+            });
+        }
 
-        return new VariantSummary(deceaseDefinition, publicationSummaries);
+        return CompletableFuture.allOf(pending.values().toArray(CompletableFuture[]::new))
+                .handle((v, error) -> {
+                    Set<String> failed = new HashSet<>();
+                    pending.forEach((key, download) -> {
+                        if (download.isCompletedExceptionally()) {
+                            failed.add(key);
+                        } else if (download.join() != null) {
+                            found.put(key, download.join());
+                        }
+                    });
+                    return new Lookup<>(found, failed);
+                });
     }
 
-    private String getDeceaseDefinition(JsonNode responseTree) {
-        return responseTree
-                .path("ClinVarSet")
-                .path("ReferenceClinVarAssertion")
-                .path("TraitSet")
-                .path("Trait")
-                .path(0)
-                .path("AttributeSet")
-                .path("Attribute")
-                .path(0)
-                .asText();
+    private CompletableFuture<Map<String, List<String>>> requestRcvNumbers(List<String> clinvarVariantIds,
+                                                                           PipelineMetrics metrics) {
+        return requestInChunks(clinvarVariantIds, SUMMARY_BATCH_SIZE, chunk -> requestRcvNumberChunk(chunk, metrics));
     }
 
-    private String getSubmitter(JsonNode publication) {
-        return publication
-                .path("ClinVarSubmissionID")
-                .path("submitter")
-                .asText();
+    private CompletableFuture<Map<String, VariantSummary>> requestRcvSummaries(List<String> rcvNumbers,
+                                                                               PipelineMetrics metrics) {
+        return requestInChunks(rcvNumbers, FETCH_BATCH_SIZE, chunk -> requestRcvSummaryChunk(chunk, metrics));
     }
 
-    private String getSubmittedAssembly(JsonNode publication) {
-        return publication
-                .path("ClinVarSubmissionID")
-                .path("submittedAssembly")
-                .asText();
+    private CompletableFuture<Map<String, List<String>>> requestRcvNumberChunk(List<String> clinvarVariantIds,
+                                                                               PipelineMetrics metrics) {
+        return client.send(getVariantRequest(clinvarVariantIds), "esummary", clinvarVariantIds.size(),
+                        parser::parseRcvNumbers, metrics)
+                .thenApply(rcvNumbersById -> {
+                    Map<String, List<String>> answered = new HashMap<>(rcvNumbersById);
+                    // An ID ClinVar does not know is cached without RCV numbers, so it is not asked for again
+                    // until its entry expires
+                    clinvarVariantIds.forEach(id -> answered.putIfAbsent(id, List.of()));
+                    answered.forEach(cache::putRcvNumbers);
+                    return answered;
+                });
     }
 
-    private LocalDate getDateUpdated(JsonNode publication) {
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        String dateUpdated = publication
-                .path("ClinVarAccession")
-                .path("DateUpdated")
-                .asText();
+    private CompletableFuture<Map<String, VariantSummary>> requestRcvSummaryChunk(List<String> rcvNumbers,
+                                                                                  PipelineMetrics metrics) {
+        return client.send(getSubmissionsRequest(rcvNumbers), "efetch", rcvNumbers.size(),
+                        parser::parseVariantSummaries, metrics)
+                .thenApply(summariesByRcv -> {
+                    Map<String, VariantSummary> answered = new HashMap<>(summariesByRcv);
+                    // Like unknown variant IDs, an RCV accession the answer leaves out is cached without submissions
+                    rcvNumbers.forEach(rcv -> answered.putIfAbsent(rcv, new VariantSummary(null, List.of())));
+                    answered.forEach(cache::putVariantSummary);
+                    return answered;
+                });
+    }
 
-        try {
-            return LocalDate.parse(dateUpdated, dateFormatter);
-        } catch (Exception e) {
-            return LocalDate.MIN;
+    private <V> CompletableFuture<Map<String, V>> requestInChunks(
+            List<String> ids, int chunkSize, Function<List<String>, CompletableFuture<Map<String, V>>> request) {
+        List<CompletableFuture<Map<String, V>>> chunks = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            chunks.add(request.apply(ids.subList(from, Math.min(from + chunkSize, ids.size()))));
         }
+
+        return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new))
+                .thenApply(v -> {
+                    Map<String, V> merged = new HashMap<>();
+                    chunks.forEach(chunk -> merged.putAll(chunk.join()));
+                    return merged;
+                });
+    }
+
+    // Long ID lists are sent as a POST body, which Entrez accepts in place of the query string
+    private HttpRequest getVariantRequest(List<String> clinvarVariantIds) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(eutilsUrl + "esummary.fcgi"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("db=clinvar&id=" + String.join(",", clinvarVariantIds) + apiKeyParameter()))
+                .build();
     }
 
-    private String getClassification(JsonNode publication) {
-        return publication
-                .path("Classification")
-                .path("GermlineClassification")
-                .asText();
+    private HttpRequest getSubmissionsRequest(List<String> rcvNumbers) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(eutilsUrl + "efetch.fcgi"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("db=clinvar&rettype=clinvarset&id=" + String.join(",", rcvNumbers) + apiKeyParameter()))
+                .build();
     }
 
-    private String getSummary(JsonNode publication) {
-        return publication
-                .path("Classification")
-                .path("Comment")
-                .asText();
+    private String apiKeyParameter() {
+        return apiKey == null || apiKey.isBlank()
+                ? ""
+                : "&api_key=" + URLEncoder.encode(apiKey, StandardCharsets.UTF_8);
     }
 }
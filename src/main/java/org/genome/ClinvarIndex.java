@@ -0,0 +1,182 @@
+package org.genome;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Memory-mapped index of a local ClinVar release, built by {@link ClinvarIndexImporter}. Lookups are two binary
+ * searches over sorted tables and never touch the network.
+ *
+ * <p>Layout, all numbers big-endian:
+ * <pre>
+ * header      MAGIC, VERSION, rcv table offset, rcv count, variant table offset, variant count
+ * records     per RCV: decease definition, submission count, per submission: epoch day of the update,
+ *             submitter, submitted assembly, classification, summary
+ * rcv lists   per variant: RCV count, RCV numbers
+ * variants    (variation ID, offset of its rcv list), sorted by variation ID
+ * rcvs        (RCV number, offset of its record), sorted by RCV number
+ * </pre>
+ * Strings are an int byte length, -1 for null, followed by UTF-8 bytes.
+ */
+public class ClinvarIndex implements ClinvarSource {
+    static final int MAGIC = 0x57435649;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int TABLE_ENTRY_SIZE = 16;
+    // Files over 2 GB are mapped in overlapping segments, so a record never has to be read across two of them
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long SEGMENT_OVERLAP = 64L << 20;
+
+    private final ByteBuffer[] segments;
+    private final long rcvTable;
+    private final int rcvCount;
+    private final long variantTable;
+    private final int variantCount;
+
+    private ClinvarIndex(ByteBuffer[] segments) throws IOException {
+        this.segments = segments;
+        if (segments[0].getInt(0) != MAGIC || segments[0].getInt(4) != VERSION) {
+            throw new IOException("Not a ClinVar index of version " + VERSION + ", build it again with "
+                    + "--build-clinvar-index");
+        }
+        this.rcvTable = segments[0].getLong(8);
+        this.rcvCount = segments[0].getInt(16);
+        this.variantTable = segments[0].getLong(20);
+        this.variantCount = segments[0].getInt(28);
+    }
+
+    public static ClinvarIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(file + " is not a ClinVar index");
+            }
+            ByteBuffer[] segments = new ByteBuffer[(int) ((size - 1) / SEGMENT_SIZE) + 1];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start));
+            }
+            return new ClinvarIndex(segments);
+        }
+    }
+
+    /**
+     * Looks the variants up in the mapped file on the calling thread and returns a completed future.
+     */
+    @Override
+    public CompletableFuture<Map<String, VariantSummary>> fetchVariantSummaries(Collection<String> clinvarVariantIds,
+                                                                                PipelineMetrics metrics) {
+        Map<String, VariantSummary> variantSummaries = new LinkedHashMap<>();
+        for (String clinvarVariantId : clinvarVariantIds) {
+            variantSummaries.computeIfAbsent(clinvarVariantId, this::variantSummary);
+        }
+        return CompletableFuture.completedFuture(variantSummaries);
+    }
+
+    public VariantSummary variantSummary(String clinvarVariantId) {
+        long variantId = parseNumber(clinvarVariantId.trim(), "");
+        long rcvList = variantId < 0 ? -1 : find(variantTable, variantCount, variantId);
+        if (rcvList < 0) {
+            return new VariantSummary(null, Collections.emptyList());
+        }
+
+        ByteBuffer buffer = at(rcvList);
+        int count = buffer.getInt();
+        VariantSummary merged = null;
+        for (int i = 0; i < count; i++) {
+            long record = find(rcvTable, rcvCount, buffer.getLong());
+            if (record >= 0) {
+                VariantSummary summary = readRecord(at(record));
+                merged = merged == null ? summary : merged.merge(summary);
+            }
+        }
+        return merged == null ? new VariantSummary(null, Collections.emptyList()) : merged;
+    }
+
+    public int variantCount() {
+        return variantCount;
+    }
+
+    public int rcvCount() {
+        return rcvCount;
+    }
+
+    /**
+     * @return the numeric part of an accession like RCV000019216 or a plain variation ID, or -1 if it has none
+     */
+    static long parseNumber(String accession, String prefix) {
+        if (!accession.startsWith(prefix) || accession.length() == prefix.length()
+                || accession.length() - prefix.length() > 18) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = prefix.length(); i < accession.length(); i++) {
+            char c = accession.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    // Binary search of a table of (key, offset) entries
+    private long find(long table, int count, long key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long entry = table + (long) middle * TABLE_ENTRY_SIZE;
+            long middleKey = getLong(entry);
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return getLong(entry + 8);
+            }
+        }
+        return -1;
+    }
+
+    private static VariantSummary readRecord(ByteBuffer buffer) {
+        String deceaseDefinition = readString(buffer);
+        int count = buffer.getInt();
+        List<PublicationSummary> summaries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            summaries.add(new PublicationSummary(
+                    LocalDate.ofEpochDay(buffer.getLong()),
+                    readString(buffer),
+                    readString(buffer),
+                    readString(buffer),
+                    readString(buffer)));
+        }
+        return new VariantSummary(deceaseDefinition, summaries);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long getLong(long offset) {
+        return segments[(int) (offset / SEGMENT_SIZE)].getLong((int) (offset % SEGMENT_SIZE));
+    }
+
+    private ByteBuffer at(long offset) {
+        return segments[(int) (offset / SEGMENT_SIZE)].duplicate().position((int) (offset % SEGMENT_SIZE));
+    }
+}
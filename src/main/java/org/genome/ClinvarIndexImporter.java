@@ -0,0 +1,232 @@
+package org.genome;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds a {@link ClinvarIndex} from a ClinVarFullRelease XML file, gzipped or not, in one streaming pass. Only the
+ * record of the ClinVarSet being read and two arrays of numbers per RCV accession are held in memory, so the
+ * multi-gigabyte release is never loaded as a whole.
+ */
+public class ClinvarIndexImporter {
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final ClinvarXmlParser parser;
+
+    public record Summary(int rcvs, int variants) {
+    }
+
+    public ClinvarIndexImporter(ClinvarXmlParser parser) {
+        this.parser = parser;
+    }
+
+    public Summary importRelease(Path release, Path index) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(release), READ_BUFFER_SIZE)) {
+            return importRelease(in, index);
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file next to {@code index} and moves it into place once it is complete.
+     */
+    public Summary importRelease(InputStream release, Path index) throws IOException {
+        Path temporary = index.resolveSibling(index.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            IndexWriter writer = new IndexWriter(channel);
+            try {
+                parser.parseClinVarSets(decompressed(release), writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Summary summary = writer.finish();
+            channel.force(true);
+            Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return summary;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static InputStream decompressed(InputStream release) throws IOException {
+        release.mark(2);
+        boolean gzipped = release.read() == 0x1f && release.read() == 0x8b;
+        release.reset();
+        return gzipped ? new GZIPInputStream(release, READ_BUFFER_SIZE) : release;
+    }
+
+    /**
+     * Appends every ClinVarSet to the file as soon as the next one starts, remembering only where it was written.
+     */
+    private static class IndexWriter implements ClinvarXmlParser.ClinVarSetListener {
+        private final FileChannel channel;
+        private final BufferedOutputStream out;
+        private long position = ClinvarIndex.HEADER_SIZE;
+
+        private long[] rcvNumbers = new long[1 << 16];
+        private long[] recordOffsets = new long[1 << 16];
+        private int rcvCount;
+        // Variation ID in the high and RCV number in the low half, so sorting groups the RCVs of each variant
+        private long[] variantRcvs = new long[1 << 16];
+        private int variantRcvCount;
+
+        private String rcvAccession;
+        private String deceaseDefinition;
+        private final List<PublicationSummary> publications = new ArrayList<>();
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+        IndexWriter(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(ClinvarIndex.HEADER_SIZE);
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), READ_BUFFER_SIZE);
+        }
+
+        @Override
+        public void clinVarSet(String rcvAccession, String deceaseDefinition) {
+            writeRecord();
+            this.rcvAccession = rcvAccession;
+            this.deceaseDefinition = deceaseDefinition;
+        }
+
+        @Override
+        public void variation(String rcvAccession, String variationId) {
+            long rcvNumber = ClinvarIndex.parseNumber(rcvAccession, "RCV");
+            long variantId = ClinvarIndex.parseNumber(variationId, "");
+            if (rcvNumber < 0 || rcvNumber > Integer.MAX_VALUE || variantId < 0 || variantId > Integer.MAX_VALUE) {
+                return;
+            }
+            if (variantRcvCount == variantRcvs.length) {
+                variantRcvs = Arrays.copyOf(variantRcvs, variantRcvCount * 2);
+            }
+            variantRcvs[variantRcvCount++] = variantId << 32 | rcvNumber;
+        }
+
+        @Override
+        public void publication(String rcvAccession, PublicationSummary publicationSummary) {
+            publications.add(publicationSummary);
+        }
+
+        Summary finish() throws IOException {
+            writeRecord();
+
+            // RCV lists of the variants, then the two lookup tables
+            Arrays.sort(variantRcvs, 0, variantRcvCount);
+            long[] variantIds = new long[variantRcvCount];
+            long[] rcvListOffsets = new long[variantRcvCount];
+            int variantCount = 0;
+            DataOutputStream data = new DataOutputStream(out);
+            for (int from = 0; from < variantRcvCount; ) {
+                long variantId = variantRcvs[from] >>> 32;
+                int to = from;
+                while (to < variantRcvCount && variantRcvs[to] >>> 32 == variantId) {
+                    to++;
+                }
+                variantIds[variantCount] = variantId;
+                rcvListOffsets[variantCount++] = position;
+                data.writeInt(to - from);
+                for (int i = from; i < to; i++) {
+                    data.writeLong(variantRcvs[i] & 0xFFFFFFFFL);
+                }
+                position += 4 + 8L * (to - from);
+                from = to;
+            }
+
+            long variantTable = position;
+            writeTable(data, variantIds, rcvListOffsets, variantCount);
+            long rcvTable = position;
+            sortByRcvNumber();
+            writeTable(data, rcvNumbers, recordOffsets, rcvCount);
+            data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(ClinvarIndex.HEADER_SIZE)
+                    .putInt(ClinvarIndex.MAGIC)
+                    .putInt(ClinvarIndex.VERSION)
+                    .putLong(rcvTable)
+                    .putInt(rcvCount)
+                    .putLong(variantTable)
+                    .putInt(variantCount)
+                    .flip();
+            channel.write(header, 0);
+            return new Summary(rcvCount, variantCount);
+        }
+
+        private void writeTable(DataOutputStream data, long[] keys, long[] offsets, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                data.writeLong(keys[i]);
+                data.writeLong(offsets[i]);
+            }
+            position += (long) count * ClinvarIndex.TABLE_ENTRY_SIZE;
+        }
+
+        // Releases list the sets by name, so the RCV numbers arrive unsorted
+        private void sortByRcvNumber() {
+            Integer[] order = new Integer[rcvCount];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, (a, b) -> Long.compare(rcvNumbers[a], rcvNumbers[b]));
+            long[] sortedNumbers = new long[rcvCount];
+            long[] sortedOffsets = new long[rcvCount];
+            for (int i = 0; i < rcvCount; i++) {
+                sortedNumbers[i] = rcvNumbers[order[i]];
+                sortedOffsets[i] = recordOffsets[order[i]];
+            }
+            rcvNumbers = sortedNumbers;
+            recordOffsets = sortedOffsets;
+        }
+
+        private void writeRecord() {
+            if (rcvAccession == null) {
+                return;
+            }
+            long rcvNumber = ClinvarIndex.parseNumber(rcvAccession, "RCV");
+            if (rcvNumber >= 0) {
+                try {
+                    record.reset();
+                    DataOutputStream recordData = new DataOutputStream(record);
+                    writeString(recordData, deceaseDefinition);
+                    recordData.writeInt(publications.size());
+                    for (PublicationSummary publication : publications) {
+                        recordData.writeLong(publication.dateUpdated().toEpochDay());
+                        writeString(recordData, publication.submitter());
+                        writeString(recordData, publication.submittedAssembly());
+                        writeString(recordData, publication.classification());
+                        writeString(recordData, publication.summary());
+                    }
+                    record.writeTo(out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                if (rcvCount == rcvNumbers.length) {
+                    rcvNumbers = Arrays.copyOf(rcvNumbers, rcvCount * 2);
+                    recordOffsets = Arrays.copyOf(recordOffsets, rcvCount * 2);
+                }
+                rcvNumbers[rcvCount] = rcvNumber;
+                recordOffsets[rcvCount++] = position;
+                position += record.size();
+            }
+            rcvAccession = null;
+            publications.clear();
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.genome;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Looks up the ClinVar summaries of variants, either from NCBI or from a local ClinVar release.
+ */
+public interface ClinvarSource {
+
+    /**
+     * Variants unknown to ClinVar map to an empty summary, variants which could not be looked up are missing.
+     */
+    CompletableFuture<Map<String, VariantSummary>> fetchVariantSummaries(Collection<String> clinvarVariantIds,
+                                                                         PipelineMetrics metrics);
+}
@@ -0,0 +1,296 @@
+package org.genome;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Extracts the few fields the report needs from esummary and clinvarset documents with a StAX stream,
+ * skipping every other subtree instead of building a document tree first.
+ */
+public class ClinvarXmlParser {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final XMLInputFactory inputFactory;
+
+    private record ReferenceAssertion(String rcvAccession, String variationId, String deceaseDefinition) {
+    }
+
+    public interface ClinVarSetListener {
+        void clinVarSet(String rcvAccession, String deceaseDefinition);
+
+        /**
+         * Reports the ClinVar variation ID the ClinVarSet describes, right after the set itself.
+         */
+        default void variation(String rcvAccession, String variationId) {
+        }
+
+        void publication(String rcvAccession, PublicationSummary publicationSummary);
+    }
+
+    public ClinvarXmlParser() {
+        this.inputFactory = XMLInputFactory.newFactory();
+        this.inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        this.inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * Reads an esummary response into the RCV accessions of each returned variant ID.
+     */
+    public Map<String, List<String>> parseRcvNumbers(InputStream stream) throws IOException {
+        Map<String, List<String>> rcvNumbersById = new HashMap<>();
+        try (stream) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(stream);
+            try {
+                while (nextStartElement(reader)) {
+                    if (reader.getLocalName().equals("DocumentSummary")) {
+                        String uid = reader.getAttributeValue(null, "uid");
+                        List<String> rcvNumbers = new ArrayList<>();
+                        if (readDocumentSummary(reader, rcvNumbers)) {
+                            rcvNumbersById.put(uid, rcvNumbers);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed ClinVar esummary response", e);
+        }
+        return rcvNumbersById;
+    }
+
+    /**
+     * Reads a clinvarset response into one summary per RCV accession.
+     */
+    public Map<String, VariantSummary> parseVariantSummaries(InputStream stream) throws IOException {
+        Map<String, VariantSummary> summariesByRcv = new HashMap<>();
+        parseClinVarSets(stream, new ClinVarSetListener() {
+            @Override
+            public void clinVarSet(String rcvAccession, String deceaseDefinition) {
+                summariesByRcv.put(rcvAccession, new VariantSummary(deceaseDefinition, new ArrayList<>()));
+            }
+
+            @Override
+            public void publication(String rcvAccession, PublicationSummary publicationSummary) {
+                summariesByRcv.computeIfAbsent(rcvAccession, rcv -> new VariantSummary("", new ArrayList<>()))
+                        .summaries().add(publicationSummary);
+            }
+        });
+        return summariesByRcv;
+    }
+
+    /**
+     * Streams a clinvarset response, reporting every ClinVarSet once its reference assertion is read
+     * and every submission as soon as its ClinVarAssertion element closes.
+     */
+    public void parseClinVarSets(InputStream stream, ClinVarSetListener listener) throws IOException {
+        try (stream) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(stream);
+            try {
+                while (nextStartElement(reader)) {
+                    if (reader.getLocalName().equals("ClinVarSet")) {
+                        readClinVarSet(reader, listener);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed ClinVar clinvarset response", e);
+        }
+    }
+
+    private boolean readDocumentSummary(XMLStreamReader reader, List<String> rcvNumbers) throws XMLStreamException {
+        boolean valid = true;
+        while (nextChildElement(reader)) {
+            switch (reader.getLocalName()) {
+                case "error" -> {
+                    valid = false;
+                    skipElement(reader);
+                }
+                case "supporting_submissions" -> {
+                    while (nextChildElement(reader)) {
+                        if (reader.getLocalName().equals("rcv")) {
+                            while (nextChildElement(reader)) {
+                                rcvNumbers.add(reader.getElementText().trim());
+                            }
+                        } else {
+                            skipElement(reader);
+                        }
+                    }
+                }
+                default -> skipElement(reader);
+            }
+        }
+        return valid;
+    }
+
+    private void readClinVarSet(XMLStreamReader reader, ClinVarSetListener listener) throws XMLStreamException {
+        String rcvAccession = "";
+        while (nextChildElement(reader)) {
+            switch (reader.getLocalName()) {
+                case "ReferenceClinVarAssertion" -> {
+                    ReferenceAssertion reference = readReferenceAssertion(reader);
+                    rcvAccession = reference.rcvAccession();
+                    listener.clinVarSet(rcvAccession, reference.deceaseDefinition());
+                    if (reference.variationId() != null) {
+                        listener.variation(rcvAccession, reference.variationId());
+                    }
+                }
+                case "ClinVarAssertion" -> listener.publication(rcvAccession, readAssertion(reader));
+                default -> skipElement(reader);
+            }
+        }
+    }
+
+    private ReferenceAssertion readReferenceAssertion(XMLStreamReader reader) throws XMLStreamException {
+        String rcvAccession = "";
+        String variationId = null;
+        String deceaseDefinition = null;
+        while (nextChildElement(reader)) {
+            switch (reader.getLocalName()) {
+                case "ClinVarAccession" -> {
+                    rcvAccession = Objects.requireNonNullElse(reader.getAttributeValue(null, "Acc"), "");
+                    skipElement(reader);
+                }
+                // Single variants are a MeasureSet, haplotypes and compound heterozygotes a GenotypeSet
+                case "MeasureSet", "GenotypeSet" -> {
+                    variationId = reader.getAttributeValue(null, "ID");
+                    skipElement(reader);
+                }
+                case "TraitSet" -> {
+                    // Only the first attribute of the first trait is reported
+                    while (nextChildElement(reader)) {
+                        if (deceaseDefinition == null && reader.getLocalName().equals("Trait")) {
+                            deceaseDefinition = readFirstTraitAttribute(reader);
+                        } else {
+                            skipElement(reader);
+                        }
+                    }
+                }
+                default -> skipElement(reader);
+            }
+        }
+        return new ReferenceAssertion(rcvAccession, variationId, Objects.requireNonNullElse(deceaseDefinition, ""));
+    }
+
+    private String readFirstTraitAttribute(XMLStreamReader reader) throws XMLStreamException {
+        String attribute = "";
+        boolean attributeSetRead = false;
+        while (nextChildElement(reader)) {
+            if (!attributeSetRead && reader.getLocalName().equals("AttributeSet")) {
+                attributeSetRead = true;
+                boolean attributeRead = false;
+                while (nextChildElement(reader)) {
+                    if (!attributeRead && reader.getLocalName().equals("Attribute")) {
+                        attributeRead = true;
+                        attribute = reader.getElementText();
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+        return attribute;
+    }
+
+    private PublicationSummary readAssertion(XMLStreamReader reader) throws XMLStreamException {
+        String dateUpdated = "";
+        String submitter = "";
+        String submittedAssembly = "";
+        String classification = "";
+        String comment = null;
+        while (nextChildElement(reader)) {
+            switch (reader.getLocalName()) {
+                case "ClinVarAccession" -> {
+                    dateUpdated = Objects.requireNonNullElse(reader.getAttributeValue(null, "DateUpdated"), "");
+                    skipElement(reader);
+                }
+                case "ClinVarSubmissionID" -> {
+                    submitter = Objects.requireNonNullElse(reader.getAttributeValue(null, "submitter"), "");
+                    submittedAssembly = Objects.requireNonNullElse(reader.getAttributeValue(null, "submittedAssembly"), "");
+                    skipElement(reader);
+                }
+                case "Classification" -> {
+                    while (nextChildElement(reader)) {
+                        if (reader.getLocalName().equals("GermlineClassification")) {
+                            classification = reader.getElementText();
+                        } else if (comment == null && reader.getLocalName().equals("Comment")) {
+                            comment = reader.getElementText();
+                        } else {
+                            skipElement(reader);
+                        }
+                    }
+                }
+                default -> skipElement(reader);
+            }
+        }
+
+        return new PublicationSummary(
+                parseDate(dateUpdated),
+                submitter,
+                submittedAssembly,
+                classification,
+                Objects.requireNonNullElse(comment, ""));
+    }
+
+    private LocalDate parseDate(String date) {
+        try {
+            return LocalDate.parse(date, DATE_FORMATTER);
+        } catch (Exception e) {
+            return LocalDate.MIN;
+        }
+    }
+
+    private boolean nextStartElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next child of the current element, or returns false on reaching the element's end tag.
+     */
+    private boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    return true;
+                }
+                case XMLStreamConstants.END_ELEMENT, XMLStreamConstants.END_DOCUMENT -> {
+                    return false;
+                }
+                default -> {
+                    // Text, whitespace and comments between elements are irrelevant
+                }
+            }
+        }
+    }
+
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> depth++;
+                case XMLStreamConstants.END_ELEMENT -> depth--;
+                case XMLStreamConstants.END_DOCUMENT -> depth = 0;
+                default -> {
+                    // Content of skipped elements is never read
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package org.genome;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The reported variants of many samples, with an inverted index from every gene and every variant to the samples
+ * carrying it. Queries look their gene or variant up in the sorted dictionaries and only check the conditions on
+ * the records of its posting list, so they take milliseconds however many samples the cohort has.
+ */
+public final class CohortIndex {
+    private static final int MAGIC = 0x57434f48;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MISSING_DEPTH = Integer.MIN_VALUE;
+
+    // Dictionaries, the genes and variants sorted ignoring case
+    private final String[] samples;
+    private final String[] variants;
+    private final String[] genes;
+    private final String[] classifications;
+
+    // One record per variant of a sample, ordered by variant and sample
+    private final int[] recordSample;
+    private final int[] recordVariant;
+    private final double[] recordVariantAlleleFrequency;
+    private final int[] recordReadDepth;
+    private final int[] recordClinvar;
+    private final int[] recordAcmg;
+    // Genes of record r are recordGenes[recordGeneStart[r]] up to recordGenes[recordGeneStart[r + 1]]
+    private final int[] recordGeneStart;
+    private final int[] recordGenes;
+
+    // Records of variant v start at variantStart[v]; records of gene g are geneRecords[geneStart[g]..geneStart[g + 1]]
+    private final int[] variantStart;
+    private final int[] geneStart;
+    private final int[] geneRecords;
+
+    public record Variant(String key, List<String> genes, double variantAlleleFrequency, long readDepth,
+                          String clinvarClassification, String acmgClassification) {
+    }
+
+    public record Sample(String name, List<Variant> variants) {
+    }
+
+    public record Match(String sample, String variant, List<String> genes, double variantAlleleFrequency,
+                        long readDepth, String clinvarClassification, String acmgClassification) {
+    }
+
+    public record GeneCarriers(String gene, int carriers, int samples) {
+
+        public double frequency() {
+            return samples == 0 ? 0 : (double) carriers / samples;
+        }
+    }
+
+    private CohortIndex(String[] samples, String[] variants, String[] genes, String[] classifications,
+                        int[] recordSample, int[] recordVariant, double[] recordVariantAlleleFrequency,
+                        int[] recordReadDepth, int[] recordClinvar, int[] recordAcmg,
+                        int[] recordGeneStart, int[] recordGenes) {
+        this.samples = samples;
+        this.variants = variants;
+        this.genes = genes;
+        this.classifications = classifications;
+        this.recordSample = recordSample;
+        this.recordVariant = recordVariant;
+        this.recordVariantAlleleFrequency = recordVariantAlleleFrequency;
+        this.recordReadDepth = recordReadDepth;
+        this.recordClinvar = recordClinvar;
+        this.recordAcmg = recordAcmg;
+        this.recordGeneStart = recordGeneStart;
+        this.recordGenes = recordGenes;
+
+        // The posting lists are derived from the records, so the file does not store them
+        this.variantStart = new int[variants.length + 1];
+        for (int variant : recordVariant) {
+            variantStart[variant + 1]++;
+        }
+        for (int v = 0; v < variants.length; v++) {
+            variantStart[v + 1] += variantStart[v];
+        }
+        this.geneStart = new int[genes.length + 1];
+        for (int gene : recordGenes) {
+            geneStart[gene + 1]++;
+        }
+        for (int g = 0; g < genes.length; g++) {
+            geneStart[g + 1] += geneStart[g];
+        }
+        this.geneRecords = new int[recordGenes.length];
+        int[] next = Arrays.copyOf(geneStart, genes.length);
+        for (int record = 0; record < recordSample.length; record++) {
+            for (int i = recordGeneStart[record]; i < recordGeneStart[record + 1]; i++) {
+                geneRecords[next[recordGenes[i]]++] = record;
+            }
+        }
+    }
+
+    public static CohortIndex of(List<Sample> cohort) {
+        String[] samples = cohort.stream().map(Sample::name).toArray(String[]::new);
+        Set<String> names = new HashSet<>();
+        for (String sample : samples) {
+            if (!names.add(sample)) {
+                throw new IllegalArgumentException("The cohort lists the sample " + sample + " twice");
+            }
+        }
+        String[] variants = cohort.stream()
+                .flatMap(sample -> sample.variants().stream())
+                .map(Variant::key)
+                .distinct()
+                .sorted(String.CASE_INSENSITIVE_ORDER)
+                .toArray(String[]::new);
+        String[] genes = cohort.stream()
+                .flatMap(sample -> sample.variants().stream())
+                .flatMap(variant -> variant.genes().stream())
+                .distinct()
+                .sorted(String.CASE_INSENSITIVE_ORDER)
+                .toArray(String[]::new);
+        Map<String, Integer> variantIndexes = indexes(variants);
+        Map<String, Integer> geneIndexes = indexes(genes);
+        Map<String, Integer> classificationIndexes = new LinkedHashMap<>();
+
+        // Sorted by variant, then by sample as the cohort lists them
+        List<int[]> order = new ArrayList<>();
+        for (int s = 0; s < cohort.size(); s++) {
+            List<Variant> sampleVariants = cohort.get(s).variants();
+            for (int v = 0; v < sampleVariants.size(); v++) {
+                order.add(new int[]{variantIndexes.get(sampleVariants.get(v).key()), s, v});
+            }
+        }
+        order.sort(Comparator.<int[]>comparingInt(o -> o[0]).thenComparingInt(o -> o[1]).thenComparingInt(o -> o[2]));
+
+        int recordCount = order.size();
+        int[] recordSample = new int[recordCount];
+        int[] recordVariant = new int[recordCount];
+        double[] recordVariantAlleleFrequency = new double[recordCount];
+        int[] recordReadDepth = new int[recordCount];
+        int[] recordClinvar = new int[recordCount];
+        int[] recordAcmg = new int[recordCount];
+        int[] recordGeneStart = new int[recordCount + 1];
+        List<Integer> recordGenes = new ArrayList<>();
+        for (int record = 0; record < recordCount; record++) {
+            int[] o = order.get(record);
+            Variant variant = cohort.get(o[1]).variants().get(o[2]);
+            recordSample[record] = o[1];
+            recordVariant[record] = o[0];
+            recordVariantAlleleFrequency[record] = variant.variantAlleleFrequency();
+            recordReadDepth[record] = variant.readDepth() <= MISSING_DEPTH || variant.readDepth() > Integer.MAX_VALUE
+                    ? MISSING_DEPTH
+                    : (int) variant.readDepth();
+            recordClinvar[record] = classificationIndexes.computeIfAbsent(
+                    variant.clinvarClassification(), c -> classificationIndexes.size());
+            recordAcmg[record] = classificationIndexes.computeIfAbsent(
+                    variant.acmgClassification(), c -> classificationIndexes.size());
+            variant.genes().stream().distinct().map(geneIndexes::get).forEach(recordGenes::add);
+            recordGeneStart[record + 1] = recordGenes.size();
+        }
+
+        return new CohortIndex(samples, variants, genes, classificationIndexes.keySet().toArray(String[]::new),
+                recordSample, recordVariant, recordVariantAlleleFrequency, recordReadDepth, recordClinvar, recordAcmg,
+                recordGeneStart, recordGenes.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static Map<String, Integer> indexes(String[] values) {
+        Map<String, Integer> indexes = new HashMap<>(values.length * 2);
+        for (int i = 0; i < values.length; i++) {
+            indexes.put(values[i], i);
+        }
+        return indexes;
+    }
+
+    public int sampleCount() {
+        return samples.length;
+    }
+
+    public int recordCount() {
+        return recordSample.length;
+    }
+
+    /**
+     * The variants meeting every condition of the query, ordered by sample and variant.
+     */
+    public List<Match> query(CohortQuery query) {
+        List<Match> matches = new ArrayList<>();
+        forEachMatch(query, record -> {
+            List<String> recordGeneNames = new ArrayList<>();
+            for (int i = recordGeneStart[record]; i < recordGeneStart[record + 1]; i++) {
+                recordGeneNames.add(genes[recordGenes[i]]);
+            }
+            matches.add(new Match(samples[recordSample[record]], variants[recordVariant[record]],
+                    List.copyOf(recordGeneNames), recordVariantAlleleFrequency[record],
+                    recordReadDepth[record] == MISSING_DEPTH ? Long.MIN_VALUE : recordReadDepth[record],
+                    classifications[recordClinvar[record]], classifications[recordAcmg[record]]));
+        });
+        Map<String, Integer> sampleOrder = indexes(samples);
+        matches.sort(Comparator.<Match>comparingInt(match -> sampleOrder.get(match.sample()))
+                .thenComparing(Match::variant, String.CASE_INSENSITIVE_ORDER));
+        return matches;
+    }
+
+    /**
+     * For every gene with a variant meeting the query, how many samples carry at least one such variant, the genes
+     * with most carriers first. Conditions on the gene also choose which genes of a multi-gene variant count.
+     */
+    public List<GeneCarriers> carrierFrequencies(CohortQuery query) {
+        Map<Integer, BitSet> carriers = new HashMap<>();
+        List<CohortQuery.Condition> geneConditions = conditions(query, CohortQuery.Field.GENE);
+        forEachMatch(query, record -> {
+            for (int i = recordGeneStart[record]; i < recordGeneStart[record + 1]; i++) {
+                if (meetsAll(genes[recordGenes[i]], geneConditions)) {
+                    carriers.computeIfAbsent(recordGenes[i], gene -> new BitSet(samples.length))
+                            .set(recordSample[record]);
+                }
+            }
+        });
+        return carriers.entrySet().stream()
+                .map(entry -> new GeneCarriers(genes[entry.getKey()], entry.getValue().cardinality(), samples.length))
+                .sorted(Comparator.comparingInt(GeneCarriers::carriers).reversed()
+                        .thenComparing(GeneCarriers::gene, String.CASE_INSENSITIVE_ORDER))
+                .toList();
+    }
+
+    private interface RecordConsumer {
+        void accept(int record);
+    }
+
+    private void forEachMatch(CohortQuery query, RecordConsumer consumer) {
+        List<CohortQuery.Condition> geneConditions = conditions(query, CohortQuery.Field.GENE);
+        List<CohortQuery.Condition> otherConditions = query.conditions().stream()
+                .filter(condition -> condition.field() != CohortQuery.Field.GENE)
+                .toList();
+
+        String gene = query.equalTo(CohortQuery.Field.GENE);
+        String variant = query.equalTo(CohortQuery.Field.VARIANT);
+        if (gene != null) {
+            int g = Arrays.binarySearch(genes, gene, String.CASE_INSENSITIVE_ORDER);
+            if (g >= 0) {
+                for (int i = geneStart[g]; i < geneStart[g + 1]; i++) {
+                    accept(geneRecords[i], geneConditions, otherConditions, consumer);
+                }
+            }
+        } else if (variant != null) {
+            int v = Arrays.binarySearch(variants, variant, String.CASE_INSENSITIVE_ORDER);
+            if (v >= 0) {
+                for (int record = variantStart[v]; record < variantStart[v + 1]; record++) {
+                    accept(record, geneConditions, otherConditions, consumer);
+                }
+            }
+        } else {
+            for (int record = 0; record < recordSample.length; record++) {
+                accept(record, geneConditions, otherConditions, consumer);
+            }
+        }
+    }
+
+    private void accept(int record, List<CohortQuery.Condition> geneConditions,
+                        List<CohortQuery.Condition> otherConditions, RecordConsumer consumer) {
+        for (CohortQuery.Condition condition : otherConditions) {
+            if (!matches(record, condition)) {
+                return;
+            }
+        }
+        if (!geneConditions.isEmpty()) {
+            boolean anyGene = false;
+            for (int i = recordGeneStart[record]; i < recordGeneStart[record + 1] && !anyGene; i++) {
+                anyGene = meetsAll(genes[recordGenes[i]], geneConditions);
+            }
+            if (!anyGene) {
+                return;
+            }
+        }
+        consumer.accept(record);
+    }
+
+    private boolean matches(int record, CohortQuery.Condition condition) {
+        return switch (condition.field()) {
+            case GENE -> throw new IllegalArgumentException("Gene conditions apply to one gene of the record");
+            case VARIANT -> condition.matches(variants[recordVariant[record]]);
+            case SAMPLE -> condition.matches(samples[recordSample[record]]);
+            case CLINVAR -> condition.matches(classifications[recordClinvar[record]]);
+            case ACMG -> condition.matches(classifications[recordAcmg[record]]);
+            case CLASSIFICATION -> condition.matches(classifications[recordClinvar[record]])
+                    || condition.matches(classifications[recordAcmg[record]]);
+            case VAF -> condition.matches(recordVariantAlleleFrequency[record]);
+            case DEPTH -> recordReadDepth[record] != MISSING_DEPTH && condition.matches(recordReadDepth[record]);
+        };
+    }
+
+    private static boolean meetsAll(String gene, List<CohortQuery.Condition> geneConditions) {
+        for (CohortQuery.Condition condition : geneConditions) {
+            if (!condition.matches(gene)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<CohortQuery.Condition> conditions(CohortQuery query, CohortQuery.Field field) {
+        return query.conditions().stream().filter(condition -> condition.field() == field).toList();
+    }
+
+    /**
+     * Writes the index to a temporary file next to {@code file} and moves it into place once it is complete.
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeStrings(out, samples);
+            writeStrings(out, variants);
+            writeStrings(out, genes);
+            writeStrings(out, classifications);
+            writeInts(out, recordSample);
+            writeInts(out, recordVariant);
+            out.writeInt(recordVariantAlleleFrequency.length);
+            for (double value : recordVariantAlleleFrequency) {
+                out.writeDouble(value);
+            }
+            writeInts(out, recordReadDepth);
+            writeInts(out, recordClinvar);
+            writeInts(out, recordAcmg);
+            writeInts(out, recordGeneStart);
+            writeInts(out, recordGenes);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CohortIndex open(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a cohort index");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file + " has the unsupported cohort index version " + version);
+            }
+            String[] samples = readStrings(in);
+            String[] variants = readStrings(in);
+            String[] genes = readStrings(in);
+            String[] classifications = readStrings(in);
+            int[] recordSample = readInts(in);
+            int[] recordVariant = readInts(in);
+            double[] recordVariantAlleleFrequency = new double[in.readInt()];
+            for (int i = 0; i < recordVariantAlleleFrequency.length; i++) {
+                recordVariantAlleleFrequency[i] = in.readDouble();
+            }
+            int[] recordReadDepth = readInts(in);
+            int[] recordClinvar = readInts(in);
+            int[] recordAcmg = readInts(in);
+            int[] recordGeneStart = readInts(in);
+            int[] recordGenes = readInts(in);
+            return new CohortIndex(samples, variants, genes, classifications, recordSample, recordVariant,
+                    recordVariantAlleleFrequency, recordReadDepth, recordClinvar, recordAcmg, recordGeneStart,
+                    recordGenes);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+}
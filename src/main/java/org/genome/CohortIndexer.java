@@ -0,0 +1,238 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.dhatim.fastexcel.reader.Sheet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Builds a {@link CohortIndex} from a directory of samples, scanned on a pool of workers: WGS exports are filtered
+ * by the {@link DataExtractor} like a report run, while reports and variant tables already hold only the reported
+ * variants. A sample is read from its variant table, else from its report, else from its export, and the parts of
+ * a report split into files are read as one sample.
+ */
+public class CohortIndexer {
+    private static final String REPORT_COLUMN = "OMIM Codes";
+    private static final String VARIANT_TABLE_SUFFIX = ".variants";
+
+    private final DataExtractor dataExtractor;
+    private final SchemaResolver schemaResolver;
+    private final int workers;
+
+    public CohortIndexer(DataExtractor dataExtractor, SchemaResolver schemaResolver, int workers) {
+        this.dataExtractor = dataExtractor;
+        this.schemaResolver = schemaResolver;
+        this.workers = workers;
+    }
+
+    public CohortIndex build(Path directory) throws IOException {
+        Map<String, List<Path>> sampleFiles = listSamples(directory);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, sampleFiles.size())),
+                r -> new Thread(r, "wgs-cohort-worker-" + threadNumber.incrementAndGet()));
+        try {
+            List<CompletableFuture<List<CohortIndex.Sample>>> scans = sampleFiles.entrySet().stream()
+                    .map(sample -> CompletableFuture.supplyAsync(() -> scan(sample.getKey(), sample.getValue()), pool))
+                    .toList();
+            List<CohortIndex.Sample> samples = new ArrayList<>();
+            scans.forEach(scan -> samples.addAll(scan.join()));
+            return CohortIndex.of(samples);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException cause) {
+                throw new IOException(cause.getMessage(), cause.getCause());
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The files to read per sample name: its variant table if it has one, else its report, or the parts of a report
+     * split with {@code -Dreport.splitFiles}, else its export.
+     */
+    static Map<String, List<Path>> listSamples(Path directory) throws IOException {
+        List<SampleFile> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list
+                    .filter(Files::isRegularFile)
+                    .filter(file -> {
+                        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                        return (name.endsWith(".xlsx") || name.endsWith(VARIANT_TABLE_SUFFIX))
+                                // Sidecars of incremental runs and lock files Excel leaves next to open workbooks
+                                && !name.endsWith(".candidates.xlsx") && !name.startsWith("~$");
+                    })
+                    .sorted()
+                    .map(SampleFile::of)
+                    .toList();
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No WGS workbooks, reports or variant tables found in " + directory);
+        }
+
+        Map<String, List<SampleFile>> bySample = new TreeMap<>();
+        files.forEach(file -> bySample.computeIfAbsent(file.sample(), name -> new ArrayList<>()).add(file));
+        Map<String, List<Path>> samples = new LinkedHashMap<>();
+        bySample.forEach((name, sampleFiles) -> {
+            SampleFile first = Collections.min(sampleFiles, Comparator.comparing(SampleFile::kind)
+                    .thenComparing(SampleFile::part));
+            samples.put(name, sampleFiles.stream()
+                    // A whole report shadows the parts of an earlier split one
+                    .filter(file -> file.kind() == first.kind() && (first.part() || !file.part()))
+                    .map(SampleFile::file)
+                    .toList());
+        });
+        return samples;
+    }
+
+    // In the order a sample is best read from
+    private enum Kind {
+        VARIANT_TABLE, REPORT, EXPORT
+    }
+
+    private record SampleFile(Path file, String sample, Kind kind, boolean part) {
+        private static final Pattern REPORT = Pattern.compile("(?i)(.+)\\.report(\\..+)?");
+
+        // A report and the variant table written next to it, and every part of a split report, share their sample
+        static SampleFile of(Path file) {
+            String name = file.getFileName().toString();
+            boolean table = name.endsWith(VARIANT_TABLE_SUFFIX);
+            name = table ? name.substring(0, name.length() - VARIANT_TABLE_SUFFIX.length())
+                    : name.replaceFirst("(?i)\\.xlsx$", "");
+            Matcher report = REPORT.matcher(name);
+            if (report.matches()) {
+                return new SampleFile(file, report.group(1), table ? Kind.VARIANT_TABLE : Kind.REPORT,
+                        report.group(2) != null);
+            }
+            return new SampleFile(file, name, table ? Kind.VARIANT_TABLE : Kind.EXPORT, false);
+        }
+    }
+
+    // The variants of every sheet of the sample, the parts of a split report put together
+    private List<CohortIndex.Sample> scan(String sampleName, List<Path> files) {
+        Map<String, List<CohortIndex.Variant>> sheets = new LinkedHashMap<>();
+        for (Path file : files) {
+            try {
+                for (CohortIndex.Sample sheet : scan(file)) {
+                    sheets.computeIfAbsent(sheet.name(), name -> new ArrayList<>()).addAll(sheet.variants());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+            }
+        }
+        List<CohortIndex.Sample> samples = new ArrayList<>();
+        sheets.forEach((sheet, variants) -> samples.add(new CohortIndex.Sample(
+                sheets.size() == 1 ? sampleName : sampleName + "/" + sheet, variants)));
+        return samples;
+    }
+
+    // The variants of every sheet of the file, by sheet name
+    private List<CohortIndex.Sample> scan(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(VARIANT_TABLE_SUFFIX)) {
+            return scanVariantTable(file);
+        }
+
+        List<CohortIndex.Sample> sheets = new ArrayList<>();
+        try (ReadableWorkbook workbook = new ReadableWorkbook(file.toFile())) {
+            for (Sheet sheet : workbook.getSheets().toList()) {
+                sheets.add(new CohortIndex.Sample(sheet.getName(), scanSheet(sheet)));
+            }
+        }
+        return sheets;
+    }
+
+    private List<CohortIndex.Variant> scanSheet(Sheet sheet) throws IOException {
+        List<Row> headerRows;
+        try (Stream<Row> rows = sheet.openStream()) {
+            headerRows = rows.limit(2).toList();
+        }
+        if (headerRows.size() < 2) {
+            return List.of();
+        }
+        VariantColumns columns = schemaResolver.resolve(headerRows);
+        boolean report = headerRows.get(1).stream()
+                .anyMatch(cell -> cell != null && REPORT_COLUMN.equals(cell.getText()));
+
+        List<CohortIndex.Variant> variants = new ArrayList<>();
+        if (report) {
+            try (Stream<Row> rows = sheet.openStream()) {
+                rows.skip(2).forEach(row -> variants.add(variant(row::getCellText, columns)));
+            }
+        } else {
+            dataExtractor.filterWorkSheet(sheet, header -> {
+            }, row -> variants.add(variant(row::getCellText, columns)), new PipelineMetrics(sheet.getName()));
+        }
+        return variants;
+    }
+
+    private List<CohortIndex.Sample> scanVariantTable(Path file) throws IOException {
+        List<VariantTable.Sheet> sheets = VariantTable.open(file).sheets();
+        List<CohortIndex.Sample> samples = new ArrayList<>();
+        for (VariantTable.Sheet sheet : sheets) {
+            List<String> groups = new ArrayList<>(sheet.columnCount());
+            List<String> names = new ArrayList<>(sheet.columnCount());
+            for (int column = 0; column < sheet.columnCount(); column++) {
+                groups.add(Objects.requireNonNullElse(sheet.columnGroup(column), ""));
+                names.add(Objects.requireNonNullElse(sheet.columnName(column), ""));
+            }
+            VariantColumns columns = schemaResolver.resolve(groups, names);
+
+            List<CohortIndex.Variant> variants = new ArrayList<>(sheet.rowCount());
+            for (int row = 0; row < sheet.rowCount(); row++) {
+                int r = row;
+                variants.add(variant(column -> column < sheet.columnCount() ? text(sheet.value(r, column)) : "",
+                        columns));
+            }
+            samples.add(new CohortIndex.Sample(sheet.name(), variants));
+        }
+        return samples;
+    }
+
+    // Whole numbers as the xlsx report shows them, so a variant has the same key in reports and tables
+    private static String text(Object value) {
+        if (value instanceof Double number && number == Math.rint(number) && Math.abs(number) < 1e15) {
+            return String.valueOf(number.longValue());
+        }
+        return value == null ? "" : value.toString();
+    }
+
+    private static CohortIndex.Variant variant(IntFunction<String> cells, VariantColumns columns) {
+        List<String> genes = new ArrayList<>();
+        for (String gene : cells.apply(columns.geneNames()).split(",")) {
+            if (!gene.isBlank()) {
+                genes.add(gene.trim());
+            }
+        }
+        double readDepth = number(cells.apply(columns.readDepth()));
+        return new CohortIndex.Variant(
+                cells.apply(columns.position()) + " " + cells.apply(columns.reading()),
+                genes,
+                number(cells.apply(columns.variantAlleleFrequency())),
+                Double.isNaN(readDepth) ? Long.MIN_VALUE : (long) readDepth,
+                cells.apply(columns.clinvarClassification()),
+                cells.apply(columns.acmgClassification()));
+    }
+
+    // NaN for an empty cell, or one listing several frequencies
+    private static double number(String text) {
+        try {
+            return text.isBlank() ? Double.NaN : Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.genome;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Conditions on the variants of a {@link CohortIndex}, all of which a variant has to meet, written like
+ * {@code gene=BRCA2 classification~pathogenic vaf>0.4}. Texts are compared ignoring case; {@code ~} matches a part
+ * of the text. Values containing spaces are quoted.
+ */
+public final class CohortQuery {
+    private static final Pattern CONDITION =
+            Pattern.compile("\\s*([a-zA-Z]+)\\s*(>=|<=|=|~|>|<)\\s*(\"[^\"]*\"|[^\\s\"]+)\\s*");
+
+    public enum Field {
+        GENE(false), VARIANT(false), SAMPLE(false), CLINVAR(false), ACMG(false),
+        /** The ClinVar or the ACMG classification. */
+        CLASSIFICATION(false),
+        VAF(true), DEPTH(true);
+
+        private final boolean numeric;
+
+        Field(boolean numeric) {
+            this.numeric = numeric;
+        }
+    }
+
+    public enum Operator {
+        EQUALS("="), CONTAINS("~"), GREATER(">"), GREATER_OR_EQUAL(">="), LESS("<"), LESS_OR_EQUAL("<=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static Operator of(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException(symbol);
+        }
+    }
+
+    public record Condition(Field field, Operator operator, String text, double number) {
+
+        boolean matches(String value) {
+            if (value == null) {
+                return false;
+            }
+            return operator == Operator.EQUALS
+                    ? value.equalsIgnoreCase(text)
+                    : value.toLowerCase(Locale.ROOT).contains(text.toLowerCase(Locale.ROOT));
+        }
+
+        boolean matches(double value) {
+            return switch (operator) {
+                case EQUALS -> value == number;
+                case GREATER -> value > number;
+                case GREATER_OR_EQUAL -> value >= number;
+                case LESS -> value < number;
+                case LESS_OR_EQUAL -> value <= number;
+                case CONTAINS -> false;
+            };
+        }
+    }
+
+    private final List<Condition> conditions;
+
+    private CohortQuery(List<Condition> conditions) {
+        this.conditions = conditions;
+    }
+
+    public static CohortQuery all() {
+        return new CohortQuery(List.of());
+    }
+
+    public static CohortQuery parse(String query) {
+        List<Condition> conditions = new ArrayList<>();
+        Matcher matcher = CONDITION.matcher(query);
+        int end = 0;
+        while (end < query.length() && matcher.find(end) && matcher.start() == end) {
+            Field field;
+            try {
+                field = Field.valueOf(matcher.group(1).toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown field \"" + matcher.group(1) + "\" in the query \"" + query
+                        + "\", expected one of " + List.of(Field.values()).toString().toLowerCase(Locale.ROOT));
+            }
+            Operator operator = Operator.of(matcher.group(2));
+            String text = matcher.group(3).replaceAll("^\"|\"$", "");
+            double number = Double.NaN;
+            if (field.numeric) {
+                if (operator == Operator.CONTAINS) {
+                    throw new IllegalArgumentException(matcher.group(1) + " is a number and cannot be matched with ~");
+                }
+                try {
+                    number = Double.parseDouble(text);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(matcher.group(1) + " needs a number, not \"" + text + "\"");
+                }
+            } else if (operator != Operator.EQUALS && operator != Operator.CONTAINS) {
+                throw new IllegalArgumentException(matcher.group(1) + " is a text and can only be matched with = or ~");
+            }
+            conditions.add(new Condition(field, operator, text, number));
+            end = matcher.end();
+        }
+        if (end < query.length()) {
+            throw new IllegalArgumentException("Cannot read the query \"" + query + "\" from \""
+                    + query.substring(end).trim() + "\"; conditions look like gene=BRCA2 or vaf>0.4");
+        }
+        return new CohortQuery(List.copyOf(conditions));
+    }
+
+    public List<Condition> conditions() {
+        return conditions;
+    }
+
+    /**
+     * The text a field has to equal, if the query has such a condition; used to look variants up in the index.
+     */
+    String equalTo(Field field) {
+        for (Condition condition : conditions) {
+            if (condition.field() == field && condition.operator() == Operator.EQUALS) {
+                return condition.text();
+            }
+        }
+        return null;
+    }
+}
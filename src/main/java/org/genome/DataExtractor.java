@@ -4,194 +4,257 @@ import org.dhatim.fastexcel.reader.Row;
 import org.dhatim.fastexcel.reader.Sheet;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 public class DataExtractor {
-    private final Map<String, Phenotype> genesToPhenotypes;
+    private final Function<VariantColumns, FilterPlan> planner;
+    private final FilterRules filterRules;
+    private final SchemaResolver schemaResolver;
+    private final int chunkSize;
+    private final int chunksInFlight;
+    private final ExecutorService filterPool;
+    private final boolean projection;
 
-    public DataExtractor(Map<String, Phenotype> genesToPhenotypes) {
-        this.genesToPhenotypes = genesToPhenotypes;
+    public DataExtractor(GenePanel genePanel) {
+        this(genePanel, FilterRules.bundled(), SchemaResolver.fromSystemProperties(), 1, 1_000);
     }
 
-    public ValuableRows filterWorkSheet(Sheet sheet) throws IOException {
-        final List<Row> headerRows = new ArrayList<>(2);
-        final List<Row> filteredRows = new ArrayList<>();
-
-        try (Stream<Row> rows = sheet.openStream()) {
-            Iterator<Row> rowIterator = rows.iterator();
-            headerRows.add(rowIterator.next());
-            headerRows.add(rowIterator.next());
-            rowIterator.forEachRemaining(r -> Optional.of(r)
-                    .filter(this::filterBySufficientReadDepth)
-                    .filter(this::filterByVariantAlleleFrequency)
-                    .filter(this::filterBySequenceOntology)
-                    .filter(this::filterByGnomadAltAlleleFreq)
-                    .filter(this::filterByClinvarAndACMGClassification)
-                    .filter(this::filterByGenePanel)
-                    .filter(this::filterByGnomadZigosityDepeningOnInheritance)
-                    .ifPresent(filteredRows::add));
+    /**
+     * @param parallelism number of threads filtering chunks of {@code chunkSize} rows, or 1 to filter on the
+     *                    reading thread
+     */
+    public DataExtractor(GenePanel genePanel, FilterRules filterRules, SchemaResolver schemaResolver,
+                         int parallelism, int chunkSize) {
+        this.planner = columns -> FilterPlan.compile(columns, genePanel, filterRules);
+        this.filterRules = filterRules;
+        this.schemaResolver = schemaResolver;
+        this.chunkSize = chunkSize;
+        // Enough chunks to keep every thread busy while the reader waits for the oldest one
+        this.chunksInFlight = 2 * parallelism;
+        if (parallelism > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.filterPool = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread thread = new Thread(r, "wgs-filter-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.filterPool = null;
         }
-        return new ValuableRows(headerRows, filteredRows);
+        this.projection = true;
     }
 
-
-    private boolean filterBySufficientReadDepth(Row row) {
-        // G := 6 column
-        return row.getCellAsNumber(columnToNumber("G"))
-                .filter(rd -> rd.longValue() > 20)
-                .isPresent();
+    private DataExtractor(DataExtractor extractor, Function<VariantColumns, FilterPlan> planner, boolean projection) {
+        this.planner = planner;
+        this.filterRules = extractor.filterRules;
+        this.schemaResolver = extractor.schemaResolver;
+        this.chunkSize = extractor.chunkSize;
+        this.chunksInFlight = extractor.chunksInFlight;
+        this.filterPool = extractor.filterPool;
+        this.projection = projection;
     }
 
-    // TODO: Figure out how to filter when having more than one value?
-    // TODO: Do I need to know the difference between homozygous and heterozygous for the filtering part?
-    private boolean filterByVariantAlleleFrequency(Row row) {
-        // E := 4 column
-        Optional<String> variantAlleleFrequency = row.getCellAsString(columnToNumber("E"));
-
-        if (variantAlleleFrequency
-                .filter(s -> s.contains(","))
-                .isPresent()) {
-            System.out.printf("There is a problem with position %s and reading %s, having vaf: %s%n",
-                    row.getCellText(columnToNumber("A")),
-                    row.getCellText(columnToNumber("B")),
-                    row.getCellText(columnToNumber("E")));
-            return false;
-        }
+    /**
+     * An extractor on the same threads which only applies the filters that do not depend on the gene panel.
+     */
+    public DataExtractor withoutPanelFilters() {
+        return new DataExtractor(this, columns -> FilterPlan.compileWithoutPanel(columns, filterRules), projection);
+    }
 
-        return variantAlleleFrequency
-                .map(s -> s.split(","))
-                .filter(s -> Arrays.stream(s).count() == 1)
-                .map(s -> s[0])
-//                .filter(s -> !s.contains(","))
-                .map(Float::parseFloat)
-                .filter(vaf -> vaf > 0.25)
-                .isPresent();
+    /**
+     * An extractor which, with {@code projection}, decodes only the columns of the filters until a row is accepted,
+     * and otherwise every cell of every row. The rows it hands over are the same either way.
+     */
+    public DataExtractor withProjection(boolean projection) {
+        return new DataExtractor(this, planner, projection);
     }
 
-    private boolean filterByGnomadAltAlleleFreq(Row row) {
-        // BZ := 77 column
-        return row.getCellAsString(columnToNumber("BZ"))
-                .map(Double::parseDouble)
-                .filter(aaf -> aaf < 0.05)
-                .isPresent();
+    FilterRules filterRules() {
+        return filterRules;
     }
 
-    private boolean filterBySequenceOntology(Row row) {
-        // AE := 30 column
-        return row.getCellAsString(columnToNumber("AE"))
-                .map(String::toLowerCase)
-                .filter(c -> c.contains("frameshift")
-                        || c.contains("missense")
-                        || c.contains("disruptive_inframe")
-                        || c.contains("splice")
-                        || c.contains("stop"))
-                .isPresent();
+    public ValuableRows filterWorkSheet(Sheet sheet) throws IOException {
+        return filterWorkSheet(sheet, new PipelineMetrics(sheet.getName()));
     }
 
-    private boolean filterByClinvarAndACMGClassification(Row row) {
-        // BG := 58 column
-        String clinvarClassification = row.getCellAsString(columnToNumber("BG"))
-                .map(String::toLowerCase)
-                .orElse("");
-
-        // DK:= 113 column
-        String acmgClassification = row.getCellAsString(columnToNumber("DK"))
-                .map(String::toLowerCase)
-                .orElse("");
-
-        // Ако в clinvar е vus -> не се докладва
-        if (clinvarClassification.contains("vus")
-                || clinvarClassification.contains("uncertain")) {
-            return false;
-        }
+    public ValuableRows filterWorkSheet(Sheet sheet, PipelineMetrics metrics) throws IOException {
+        final List<SheetHeader> header = new ArrayList<>(1);
+        final List<Row> filteredRows = new ArrayList<>();
+        final Map<Row, byte[]> sourceXml = new IdentityHashMap<>();
 
-        // Ако в clinvar го няма, а в acmg е VUS -> не се докладва
-        if (clinvarClassification.isEmpty()
-                && acmgClassification.contains("vus")) {
-            return false;
-        }
+        filterWorkSheet(sheet, header::add, filteredRows::add, metrics, sourceXml);
+        return new ValuableRows(header.get(0), filteredRows, sourceXml);
+    }
 
-        // Ако в clinvar го няма, а в acmg е pathogenic -> докладва СЕ
-        if (clinvarClassification.isEmpty()
-                && (acmgClassification.contains("pathogenic")
-                || acmgClassification.contains("conflicting"))) {
-            return true;
-        }
+    /**
+     * Streams the sheet, handing over the header with its resolved columns first and then every row which passes
+     * the filters. The time spent reading and filtering rows is added to the READ and FILTER stages.
+     */
+    public void filterWorkSheet(Sheet sheet, Consumer<SheetHeader> headerConsumer, Consumer<Row> filteredRowConsumer,
+                                PipelineMetrics metrics) throws IOException {
+        filterWorkSheet(sheet, headerConsumer, filteredRowConsumer, metrics, null);
+    }
 
-        // Ако в clinvar е conflicting, гледаме следващата колона и ако там ИМА pathogenic,
-        // гледаме acmg и ако там има Pathogenic (или conflicting),
-        // тогава можем да докладваме
-        // BH := 59 column
-        if (clinvarClassification.contains("conflicting")) {
-            String aggregatedSubmissions = row.getCellAsString(columnToNumber("BH"))
-                    .map(String::toLowerCase)
-                    .orElse("");
-
-            return aggregatedSubmissions.contains("pathogenic")
-                    && (acmgClassification.contains("pathogenic")
-                    || acmgClassification.contains("conflicting"));
+    // Keeps the XML of the header and accepted rows in sourceXml, if given, when the sheet is read projected
+    private void filterWorkSheet(Sheet sheet, Consumer<SheetHeader> headerConsumer,
+                                 Consumer<Row> filteredRowConsumer, PipelineMetrics metrics,
+                                 Map<Row, byte[]> sourceXml) throws IOException {
+        // Without the parts of fastexcel it builds on, the sheet is read in full, which gives the same rows
+        if (projection && FastexcelAccess.canReadSheetXml()) {
+            // Over 99% of the rows are rejected, so the cells the filters do not read are only decoded for the rest
+            try (ProjectedSheetReader rows = ProjectedSheetReader.open(sheet)) {
+                List<Row> headerRows = List.of(rows.next(), rows.next());
+                if (sourceXml != null) {
+                    headerRows.forEach(row -> sourceXml.put(row, rows.rowXml(row)));
+                }
+                SheetHeader header = header(headerRows);
+                rows.project(header.columns().indexes());
+                filterRows(header, rows, row -> {
+                    byte[] xml = rows.rowXml(row);
+                    Row fullRow = rows.fullRow(row);
+                    if (sourceXml != null) {
+                        sourceXml.put(fullRow, xml);
+                    }
+                    return fullRow;
+                }, headerConsumer, filteredRowConsumer, metrics);
+            }
+            return;
         }
-
-        // Ако в clinvar e патогенен, то най-вероятно и в acmg е pathogenic -> докладва СЕ без значение оценката в acmg
-        if (clinvarClassification.contains("pathogenic")) {
-            return true;
+        try (Stream<Row> rows = sheet.openStream()) {
+            Iterator<Row> rowIterator = rows.iterator();
+            SheetHeader header = header(List.of(rowIterator.next(), rowIterator.next()));
+            filterRows(header, rowIterator, UnaryOperator.identity(), headerConsumer, filteredRowConsumer, metrics);
         }
+    }
 
-        return false;
+    /**
+     * Filters the variants of one sample of an annotated VCF, only those overlapping the regions if they are given.
+     * The rows have the columns of a WGS export, so they are filtered and written like the rows of a sheet.
+     */
+    public ValuableRows filterVcf(VcfReader vcf, PanelRegions regions, PipelineMetrics metrics) throws IOException {
+        final List<SheetHeader> header = new ArrayList<>(1);
+        final List<Row> filteredRows = new ArrayList<>();
+        Iterator<Row> variants = regions == null ? vcf.variants() : vcf.variants(regions);
+        try {
+            filterRows(header(vcf.headerRows()), variants, UnaryOperator.identity(), header::add, filteredRows::add,
+                    metrics);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new ValuableRows(header.get(0), filteredRows);
     }
 
-    private boolean filterByGenePanel(Row row) {
-        // AD := 29 column
-        return row.getCellAsString(columnToNumber("AD"))
-                .map(g -> g.split(","))
-                .filter(gs -> Arrays.stream(gs).anyMatch(genesToPhenotypes::containsKey))
-                .isPresent();
+    private SheetHeader header(List<Row> headerRows) throws IOException {
+        return new SheetHeader(headerRows, schemaResolver.resolve(headerRows));
     }
 
-    private boolean filterByGnomadZigosityDepeningOnInheritance(Row row) {
-        // AD := 29 column
-        Phenotype phenotype = row.getCellAsString(columnToNumber("AD"))
-                .flatMap(g -> Arrays.stream(g.split(",")).findFirst())
-                .map(genesToPhenotypes::get)
-                .orElse(null);
-
-        // CA := 78 column
-        if (phenotype != null
-                && (phenotype.inheritance().equals("AR") || phenotype.inheritance().equals("SD"))
-                && row.getCellAsString(columnToNumber("CA"))
-                .map(Integer::parseInt)
-                .filter(homCount -> homCount < 5)
-                .isEmpty()) {
-            return false;
+    /**
+     * Filters the rows after the header, handing over every accepted one as {@code fullRow} returns it.
+     */
+    private void filterRows(SheetHeader header, Iterator<Row> rowIterator, UnaryOperator<Row> fullRow,
+                            Consumer<SheetHeader> headerConsumer, Consumer<Row> filteredRowConsumer,
+                            PipelineMetrics metrics) {
+        headerConsumer.accept(header);
+        FilterPlan filterPlan = planner.apply(header.columns());
+        if (filterPool != null) {
+            filterInParallel(filterPlan, rowIterator, row -> filteredRowConsumer.accept(fullRow.apply(row)), metrics);
+            return;
         }
 
-        // CA := 78 column
-        if (phenotype != null
-                && phenotype.inheritance().equals("AD")
-                && row.getCellAsString(columnToNumber("CA"))
-                .map(Integer::parseInt)
-                .filter(homCount -> homCount < 1)
-                .isEmpty()) {
-            return false;
+        FilterPlan.RowFilter rowFilter = filterPlan.newRowFilter(metrics);
+        long readRows = 0;
+        long acceptedRows = 0;
+        long readNanos = 0;
+        long filterNanos = 0;
+        long start = System.nanoTime();
+        while (rowIterator.hasNext()) {
+            Row row = rowIterator.next();
+            long read = System.nanoTime();
+            boolean accepted = rowFilter.accepts(row);
+            long filtered = System.nanoTime();
+            readNanos += read - start;
+            filterNanos += filtered - read;
+            readRows++;
+            if (accepted) {
+                acceptedRows++;
+                Row acceptedRow = fullRow.apply(row);
+                readNanos += System.nanoTime() - filtered;
+                filteredRowConsumer.accept(acceptedRow);
+            }
+            // The consumer may wait for the writer, which is neither reading nor filtering
+            start = System.nanoTime();
         }
+        rowFilter.finish();
+        metrics.addStage(PipelineMetrics.Stage.READ, readNanos, readRows);
+        metrics.addStage(PipelineMetrics.Stage.FILTER, filterNanos, acceptedRows);
+    }
+
+    /**
+     * Filters chunks of rows on the pool while this thread keeps reading, and hands the accepted rows over in the
+     * order of the sheet. Every pool thread evaluates the plan with its own row filter.
+     */
+    private void filterInParallel(FilterPlan filterPlan, Iterator<Row> rowIterator, Consumer<Row> filteredRowConsumer,
+                                  PipelineMetrics metrics) {
+        Queue<FilterPlan.RowFilter> usedRowFilters = new ConcurrentLinkedQueue<>();
+        ThreadLocal<FilterPlan.RowFilter> rowFilters = ThreadLocal.withInitial(() -> {
+            FilterPlan.RowFilter rowFilter = filterPlan.newRowFilter(metrics);
+            usedRowFilters.add(rowFilter);
+            return rowFilter;
+        });
+        Deque<CompletableFuture<List<Row>>> chunks = new ArrayDeque<>(chunksInFlight);
+        long readRows = 0;
+        long acceptedRows = 0;
+        long readNanos = 0;
+        try {
+            while (rowIterator.hasNext()) {
+                long start = System.nanoTime();
+                List<Row> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && rowIterator.hasNext()) {
+                    chunk.add(rowIterator.next());
+                }
+                readNanos += System.nanoTime() - start;
+                readRows += chunk.size();
 
-        // CB := 79 column
-        if (phenotype != null
-                && phenotype.inheritance().equals("XL")
-                && row.getCellAsString(columnToNumber("CB"))
-                .map(Integer::parseInt)
-                .filter(hemCount -> hemCount < 1)
-                .isEmpty()) {
-            return false;
+                if (chunks.size() == chunksInFlight) {
+                    acceptedRows += emit(chunks.removeFirst(), filteredRowConsumer);
+                }
+                chunks.addLast(CompletableFuture.supplyAsync(() -> {
+                    long filterStart = System.nanoTime();
+                    FilterPlan.RowFilter rowFilter = rowFilters.get();
+                    chunk.removeIf(row -> !rowFilter.accepts(row));
+                    metrics.addStageTime(PipelineMetrics.Stage.FILTER, System.nanoTime() - filterStart);
+                    return chunk;
+                }, filterPool));
+            }
+            while (!chunks.isEmpty()) {
+                acceptedRows += emit(chunks.removeFirst(), filteredRowConsumer);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            // Left over only if reading or filtering failed
+            chunks.forEach(chunk -> chunk.cancel(false));
         }
 
-        return true;
+        // Every chunk has been joined, so the row filters are no longer in use
+        usedRowFilters.forEach(FilterPlan.RowFilter::finish);
+        metrics.addStage(PipelineMetrics.Stage.READ, readNanos, readRows);
+        metrics.addStage(PipelineMetrics.Stage.FILTER, 0, acceptedRows);
     }
 
-    private int columnToNumber(String column) {
-        return column.toLowerCase().chars()
-                .map(charValue -> charValue + 1 - 'a')
-                .reduce(0, (result, charValue) -> result * 26 + charValue) - 1;
+    private static int emit(CompletableFuture<List<Row>> chunk, Consumer<Row> filteredRowConsumer) {
+        List<Row> acceptedRows = chunk.join();
+        acceptedRows.forEach(filteredRowConsumer);
+        return acceptedRows.size();
     }
 }
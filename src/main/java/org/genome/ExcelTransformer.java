@@ -1,33 +1,118 @@
 package org.genome;
 
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import org.dhatim.fastexcel.Workbook;
 import org.dhatim.fastexcel.Worksheet;
 import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
 import org.dhatim.fastexcel.reader.Sheet;
 
 import java.io.*;
 import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ExcelTransformer {
+    private static final String CLINVAR_INDEX = "clinvar.index";
+    private static final boolean STREAMING = Boolean.getBoolean("pipeline.streaming");
+    private static final boolean INCREMENTAL = Boolean.getBoolean("pipeline.incremental");
+    private static final boolean VARIANT_TABLE = Boolean.getBoolean("pipeline.variantTable");
+    private static final boolean PASSTHROUGH = Boolean.getBoolean("pipeline.passthrough");
+    private static final int DEFLATE_THREADS = Integer.getInteger("report.deflateThreads", 1);
+    private static final boolean SPLIT_FILES = Boolean.getBoolean("report.splitFiles");
+    private static final boolean METRICS_JSON = Boolean.parseBoolean(System.getProperty("metrics.json", "true"));
+    private static final String VCF_REGIONS = System.getProperty("vcf.regions");
+    private static final int BATCH_WORKERS = Integer.getInteger("batch.workers", Runtime.getRuntime().availableProcessors());
+
+    private final SchemaResolver schemaResolver;
+    private final GenePanel genePanel;
     private final DataExtractor dataExtractor;
     private final WorksheetFiller worksheetFiller;
+    private final StreamingPipeline streamingPipeline;
+    private final IncrementalRun incrementalRun;
+    private final ClinvarFetcher clinvarFetcher;
+    private final ClinvarCache clinvarCache;
+    private final ReportSplit reportSplit;
+    private final ExecutorService deflatePool;
     private final Scanner scanner;
 
 
     public ExcelTransformer() {
-        Map<String, Phenotype> genesToPhenotypes = loadGenesToPhenotypes();
-        this.dataExtractor = new DataExtractor(genesToPhenotypes);
-        this.worksheetFiller = new WorksheetFiller(
-                new ClinvarFetcher(HttpClient.newHttpClient(), new XmlMapper()),
-                genesToPhenotypes);
+        boolean projection = Boolean.parseBoolean(System.getProperty("filter.projection", "true"));
+        if (projection && !FastexcelAccess.canReadSheetXml()) {
+            System.err.println("Reading every cell of every row, as filter.projection needs parts of fastexcel this "
+                    + "version of it does not have: " + String.join(", ", FastexcelAccess.missing()));
+        }
+        this.genePanel = GenePanel.fromSystemProperties();
+        this.schemaResolver = SchemaResolver.fromSystemProperties();
+        this.dataExtractor = new DataExtractor(genePanel, FilterRules.fromSystemProperties(), schemaResolver,
+                Integer.getInteger("filter.parallelism", 1), Integer.getInteger("filter.chunkSize", 1_000))
+                .withProjection(projection);
+        String ncbiApiKey = System.getenv("NCBI_API_KEY");
+        this.clinvarCache = ClinvarCache.fromSystemProperties();
+        this.clinvarFetcher = new ClinvarFetcher(HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build(),
+                new ClinvarXmlParser(),
+                RateLimiter.forNcbi(ncbiApiKey), ncbiApiKey, clinvarCache);
+        this.worksheetFiller = new WorksheetFiller(clinvarSource(), genePanel);
+        this.streamingPipeline = new StreamingPipeline(dataExtractor, worksheetFiller,
+                Integer.getInteger("pipeline.batchSize", 500), Integer.getInteger("pipeline.batchesInFlight", 4));
+        this.incrementalRun = new IncrementalRun(dataExtractor, schemaResolver, genePanel, worksheetFiller);
+        this.reportSplit = ReportSplit.fromSystemProperties();
+        Set<String> flags = new HashSet<>();
+        Map.of("pipeline.streaming", STREAMING, "pipeline.incremental", INCREMENTAL,
+                "pipeline.variantTable", VARIANT_TABLE, "pipeline.passthrough", PASSTHROUGH,
+                "report.deflateThreads", DEFLATE_THREADS > 1, "report.split", reportSplit != null,
+                "report.splitFiles", SPLIT_FILES).forEach((flag, set) -> {
+            if (set) {
+                flags.add(flag);
+            }
+        });
+        checkFlags(flags);
+        if (DEFLATE_THREADS > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.deflatePool = Executors.newFixedThreadPool(DEFLATE_THREADS, r -> {
+                Thread thread = new Thread(r, "wgs-deflate-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.deflatePool = null;
+        }
         this.scanner = new Scanner(System.in);
     }
 
 
+    /**
+     * Rejects settings which each pick another way of writing the report, naming both, instead of following one of
+     * them and ignoring the other.
+     */
+    static void checkFlags(Set<String> flags) {
+        if (flags.contains("report.splitFiles") && !flags.contains("report.split")) {
+            throw new IllegalArgumentException("-Dreport.splitFiles needs -Dreport.split");
+        }
+        for (String pipeline : List.of("pipeline.streaming", "pipeline.incremental", "pipeline.variantTable")) {
+            for (String writer : List.of("pipeline.passthrough", "report.deflateThreads", "report.split")) {
+                if (flags.contains(pipeline) && flags.contains(writer)) {
+                    throw new IllegalArgumentException(
+                            "-D" + pipeline + " cannot be combined with -D" + writer + ", which writes the report "
+                                    + "with another writer");
+                }
+            }
+        }
+    }
+
+
     public void run() throws IOException {
         String wgsFilePath = getWGSFilePath();
         String newFileLocation = getTransformedWGSFilePath();
@@ -35,22 +120,415 @@ public class ExcelTransformer {
         System.out.println("Data is processed. Please wait ...");
         long startTime = System.currentTimeMillis();
 
-        ValuableRows rows;
-        try (InputStream is = new FileInputStream(wgsFilePath); ReadableWorkbook wb = new ReadableWorkbook(is)) {
-            Sheet sheet = wb.getFirstSheet();
-            rows = dataExtractor.filterWorkSheet(sheet);
+        transform(Path.of(wgsFilePath), Path.of(newFileLocation), false);
+        clinvarCache.evictIfOverCapacity();
+
+        long estimatedTime = System.currentTimeMillis() - startTime;
+        System.out.println("The processing was successful. A new file was created.");
+        System.out.printf("Total processing time: %f seconds. \r", estimatedTime / 1000.0);
+    }
+
+    /**
+     * Transforms every workbook of a directory or manifest, sharing the ClinVar lookups of all samples.
+     *
+     * @return whether every workbook was transformed
+     */
+    public boolean runBatch(Path source, Path outputDirectory) throws IOException {
+        System.out.printf("Processing the WGS workbooks of %s with %d workers. Please wait ...%n", source, BATCH_WORKERS);
+        long startTime = System.currentTimeMillis();
+
+        boolean succeeded = new BatchRunner((input, output) -> transform(input, output, true), BATCH_WORKERS)
+                .run(source, outputDirectory);
+        clinvarCache.evictIfOverCapacity();
+
+        long estimatedTime = System.currentTimeMillis() - startTime;
+        System.out.printf("Total processing time: %f seconds.%n", estimatedTime / 1000.0);
+        return succeeded;
+    }
+
+    /**
+     * Keeps running, with everything loaded, and transforms the workbooks sent to the socket or put into the drop
+     * directory until a client asks it to shut down. Either may be null.
+     */
+    public void runDaemon(Path socket, Path dropDirectory) throws IOException, InterruptedException {
+        int workers = Integer.getInteger("daemon.workers", BATCH_WORKERS);
+        try (ReportDaemon daemon = new ReportDaemon((input, output) -> transform(input, output, true), workers, () -> {
+            clinvarCache.evictIfOverCapacity();
+            clinvarCache.trimInMemory();
+        })) {
+            if (socket != null) {
+                daemon.listen(socket);
+            }
+            if (dropDirectory != null) {
+                daemon.watch(dropDirectory, Long.getLong("daemon.pollMillis", 500));
+            }
+            daemon.awaitShutdown();
+        }
+    }
+
+    /**
+     * Writes one report worksheet per input sheet, or only for the first sheet unless {@code allSheets} is set.
+     */
+    BatchRunner.SampleReport transform(Path wgsFile, Path newFile, boolean allSheets) throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics(wgsFile.getFileName().toString());
+        BatchRunner.SampleReport report;
+        if (VcfReader.isVcf(wgsFile)) {
+            report = transformVcf(wgsFile, newFile, metrics);
+        } else if (INCREMENTAL) {
+            report = transformIncrementally(wgsFile, newFile, allSheets, metrics);
+        } else if (VARIANT_TABLE) {
+            report = transformThroughVariantTable(wgsFile, newFile, allSheets, metrics);
+        } else if (PASSTHROUGH || DEFLATE_THREADS > 1 || reportSplit != null) {
+            report = transformInParts(wgsFile, newFile, allSheets, metrics);
+        } else {
+            report = transformAll(wgsFile, newFile, allSheets, metrics);
+        }
+
+        metrics.commitEvents();
+        Path metricsFile = sidecar(newFile, ".metrics.json");
+        if (METRICS_JSON) {
+            metrics.writeJson(metricsFile);
         }
+        if (metrics.variantAlleleFrequencyProblemCount() > 0) {
+            System.out.printf("%s: %d variants list several variant allele frequencies and were left out%s%n",
+                    wgsFile.getFileName(), metrics.variantAlleleFrequencyProblemCount(),
+                    METRICS_JSON ? ", see " + metricsFile : "");
+        }
+        if (metrics.failedLookups() > 0) {
+            System.out.printf("%s: %d variants could not be looked up in ClinVar and are marked \"%s\" in %s. "
+                            + "Run with --re-enrich %s to fill them in later.%n", wgsFile.getFileName(),
+                    metrics.failedLookups(), WorksheetFiller.CLINVAR_LOOKUP_FAILED, newFile, newFile);
+        }
+        return report;
+    }
 
-        try (OutputStream os = new FileOutputStream(newFileLocation);
-             Workbook wb = new Workbook(os, "WGS Transformed", "1.0")) {
-            Worksheet ws = wb.newWorksheet("Sheet 1");
+    private BatchRunner.SampleReport transformAll(Path wgsFile, Path newFile, boolean allSheets,
+                                                  PipelineMetrics metrics) throws IOException {
+        return writeAtomically(newFile, report -> {
+            try (ReadableWorkbook input = new ReadableWorkbook(wgsFile.toFile());
+                 OutputStream os = Files.newOutputStream(report);
+                 Workbook output = new Workbook(os, "WGS Transformed", "1.0")) {
+                List<Sheet> sheets = allSheets ? input.getSheets().toList() : List.of(input.getFirstSheet());
 
-            worksheetFiller.fillWorksheet(ws, rows);
+                long filteredRows = 0;
+                for (Sheet sheet : sheets) {
+                    Worksheet ws = output.newWorksheet(allSheets ? sheet.getName() : "Sheet 1");
+                    // Streaming reads and writes at the same time, so only a few batches of filtered rows are held
+                    // in memory
+                    filteredRows += STREAMING
+                            ? streamingPipeline.run(sheet, ws, metrics)
+                            : transformInMemory(sheet, ws, metrics);
+                }
+
+                long finishStart = System.nanoTime();
+                output.finish();
+                metrics.addStageTime(PipelineMetrics.Stage.WRITE, System.nanoTime() - finishStart);
+                return new BatchRunner.SampleReport(sheets.size(), filteredRows);
+            }
+        });
+    }
+
+    /**
+     * Writes the report with its own xlsx writer, which copies the accepted rows as the XML they were read from with
+     * {@code -Dpipeline.passthrough}, compresses on {@code -Dreport.deflateThreads} threads, and splits the rows
+     * by {@code -Dreport.split} into worksheets, or into files next to {@code newFile} with
+     * {@code -Dreport.splitFiles}.
+     */
+    private BatchRunner.SampleReport transformInParts(Path wgsFile, Path newFile, boolean allSheets,
+                                                      PipelineMetrics metrics) throws IOException {
+        Map<String, PassthroughWorkbook> partFiles = new LinkedHashMap<>();
+        boolean splitFiles = SPLIT_FILES && reportSplit != null;
+        // Written under their temporary names and moved into place together once all of them are complete
+        List<Path> reportFiles = new ArrayList<>();
+        if (!splitFiles) {
+            reportFiles.add(newFile);
         }
+        BatchRunner.SampleReport report;
+        try {
+            try (ReadableWorkbook input = new ReadableWorkbook(wgsFile.toFile());
+                 OutputStream os = splitFiles ? null : Files.newOutputStream(temporary(newFile));
+                 PassthroughWorkbook output = splitFiles ? null
+                         : new PassthroughWorkbook(input, wgsFile, os, deflatePool)) {
+                List<Sheet> sheets = allSheets ? input.getSheets().toList() : List.of(input.getFirstSheet());
 
-        long estimatedTime = System.currentTimeMillis() - startTime;
-        System.out.println("The processing was successful. A new file was created.");
-        System.out.printf("Total processing time: %f seconds. \r", estimatedTime / 1000.0);
+                long filteredRows = 0;
+                try {
+                    for (Sheet sheet : sheets) {
+                        ValuableRows rows = dataExtractor.filterWorkSheet(sheet, metrics);
+                        if (!PASSTHROUGH) {
+                            rows = new ValuableRows(rows.header(), rows.filteredRows());
+                        }
+                        String sheetName = allSheets ? sheet.getName() : "Sheet 1";
+                        List<ReportSplit.Part> parts = reportSplit == null
+                                ? List.of(new ReportSplit.Part(sheetName, rows))
+                                : reportSplit.split(rows);
+                        for (ReportSplit.Part part : parts) {
+                            if (splitFiles) {
+                                PassthroughWorkbook partFile = partFiles.get(part.name());
+                                if (partFile == null) {
+                                    Path partPath = sidecar(newFile, "." + ReportSplit.fileName(part.name()) + ".xlsx");
+                                    reportFiles.add(partPath);
+                                    partFile = new PassthroughWorkbook(input, wgsFile,
+                                            Files.newOutputStream(temporary(partPath)), deflatePool);
+                                    partFiles.put(part.name(), partFile);
+                                }
+                                worksheetFiller.fillReport(partFile.newSheet(sheetName), part.rows(), metrics);
+                            } else {
+                                String name = reportSplit == null ? sheetName : ReportSplit.worksheetName(
+                                        allSheets ? sheetName + " " + part.name() : part.name());
+                                worksheetFiller.fillReport(output.newSheet(name), part.rows(), metrics);
+                            }
+                        }
+                        filteredRows += rows.filteredRows().size();
+                    }
+
+                    long finishStart = System.nanoTime();
+                    if (output != null) {
+                        output.finish();
+                    }
+                    for (PassthroughWorkbook partFile : partFiles.values()) {
+                        partFile.finish();
+                    }
+                    metrics.addStageTime(PipelineMetrics.Stage.WRITE, System.nanoTime() - finishStart);
+                } finally {
+                    for (PassthroughWorkbook partFile : partFiles.values()) {
+                        partFile.close();
+                    }
+                }
+                report = new BatchRunner.SampleReport(sheets.size(), filteredRows);
+            }
+            for (Path file : reportFiles) {
+                Files.move(temporary(file), file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            return report;
+        } finally {
+            for (Path file : reportFiles) {
+                Files.deleteIfExists(temporary(file));
+            }
+        }
+    }
+
+    /**
+     * Writes the report of one sample of an annotated VCF. With {@code -Dvcf.regions} and a tabix index, only the
+     * parts of the file holding panel genes are read.
+     */
+    private BatchRunner.SampleReport transformVcf(Path vcfFile, Path newFile, PipelineMetrics metrics)
+            throws IOException {
+        return writeAtomically(newFile, report -> {
+            try (VcfReader vcf = VcfReader.fromSystemProperties(vcfFile);
+                 OutputStream os = Files.newOutputStream(report);
+                 Workbook output = new Workbook(os, "WGS Transformed", "1.0")) {
+                PanelRegions regions = null;
+                if (VCF_REGIONS != null && vcf.isIndexed()) {
+                    regions = PanelRegions.load(Path.of(VCF_REGIONS), genePanel);
+                } else if (VCF_REGIONS != null) {
+                    System.out.printf("%s has no tabix index, so all of it is read%n", vcfFile.getFileName());
+                }
+                ValuableRows rows = dataExtractor.filterVcf(vcf, regions, metrics);
+                worksheetFiller.fillWorksheet(output.newWorksheet(vcf.sampleName()), rows, metrics);
+
+                long finishStart = System.nanoTime();
+                output.finish();
+                metrics.addStageTime(PipelineMetrics.Stage.WRITE, System.nanoTime() - finishStart);
+                return new BatchRunner.SampleReport(1, rows.filteredRows().size());
+            }
+        });
+    }
+
+    /**
+     * Writes the filtered and enriched rows to {@code <report>.variants} and renders the report from that table.
+     */
+    private BatchRunner.SampleReport transformThroughVariantTable(Path wgsFile, Path newFile, boolean allSheets,
+                                                                  PipelineMetrics metrics) throws IOException {
+        Path tableFile = sidecar(newFile, ".variants");
+        VariantTableWriter table = new VariantTableWriter();
+        int sheetCount;
+        long filteredRows = 0;
+        try (ReadableWorkbook input = new ReadableWorkbook(wgsFile.toFile())) {
+            List<Sheet> sheets = allSheets ? input.getSheets().toList() : List.of(input.getFirstSheet());
+            for (Sheet sheet : sheets) {
+                ValuableRows rows = dataExtractor.filterWorkSheet(sheet, metrics);
+                worksheetFiller.fillReport(table.newSheet(allSheets ? sheet.getName() : "Sheet 1"), rows, metrics);
+                filteredRows += rows.filteredRows().size();
+            }
+            sheetCount = sheets.size();
+        }
+
+        long writeStart = System.nanoTime();
+        table.write(tableFile);
+        VariantTable variants = VariantTable.open(tableFile);
+        writeAtomically(newFile, report -> {
+            try (OutputStream os = Files.newOutputStream(report);
+                 Workbook output = new Workbook(os, "WGS Transformed", "1.0")) {
+                for (VariantTable.Sheet sheet : variants.sheets()) {
+                    worksheetFiller.renderWorksheet(output.newWorksheet(sheet.name()), sheet);
+                }
+                output.finish();
+            }
+            return null;
+        });
+        metrics.addStageTime(PipelineMetrics.Stage.WRITE, System.nanoTime() - writeStart);
+        return new BatchRunner.SampleReport(sheetCount, filteredRows);
+    }
+
+    private BatchRunner.SampleReport transformIncrementally(Path wgsFile, Path newFile, boolean allSheets,
+                                                            PipelineMetrics metrics) throws IOException {
+        IncrementalRun.Result result = incrementalRun.transform(wgsFile, newFile, allSheets, metrics);
+        System.out.printf("%s: %s, %d candidate rows filtered, %d variants with new ClinVar summaries%s, %s%n",
+                wgsFile.getFileName(), result.inputRead() ? "input read" : "input unchanged", result.refilteredRows(),
+                result.changedVariants(), result.previousRun() == null ? "" : " since " + result.previousRun(),
+                result.reportWritten() ? "report written" : "report up to date");
+        return result.report();
+    }
+
+    /**
+     * Looks up the variants of a report whose ClinVar lookup failed again, and rewrites the report in place.
+     *
+     * @return the number of rows whose lookup failed again
+     */
+    public int reEnrich(Path report) throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics(report.getFileName().toString());
+        Path rewritten = report.resolveSibling(report.getFileName() + ".tmp");
+        ReportPatch patch = new ReportPatch();
+        int stillFailing = 0;
+        try (ReadableWorkbook input = new ReadableWorkbook(report.toFile())) {
+            List<Sheet> sheets = input.getSheets().toList();
+            for (int i = 0; i < sheets.size(); i++) {
+                List<Row> rows = sheets.get(i).read();
+                VariantColumns columns = schemaResolver.resolve(rows.subList(0, Math.min(2, rows.size())));
+                stillFailing += worksheetFiller.reEnrichWorksheet(patch.sheet(i), rows, columns, metrics);
+            }
+        }
+        // Only the ClinVar cells of the rows looked up again change, the rest is copied as the report has it
+        if (!patch.isEmpty()) {
+            try {
+                patch.apply(report, rewritten);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(rewritten);
+                throw e;
+            }
+            Files.move(rewritten, report, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        clinvarCache.evictIfOverCapacity();
+
+        System.out.printf("%s: %d rows are still missing their ClinVar information%n", report.getFileName(),
+                stillFailing);
+        return stillFailing;
+    }
+
+    private int transformInMemory(Sheet sheet, Worksheet ws, PipelineMetrics metrics) throws IOException {
+        ValuableRows rows = dataExtractor.filterWorkSheet(sheet, metrics);
+        worksheetFiller.fillWorksheet(ws, rows, metrics);
+        return rows.filteredRows().size();
+    }
+
+    public void buildCohortIndex(Path directory, Path index) throws IOException {
+        System.out.printf("Indexing the samples of %s with %d workers. Please wait ...%n", directory, BATCH_WORKERS);
+        long startTime = System.currentTimeMillis();
+
+        CohortIndex cohort = new CohortIndexer(dataExtractor, schemaResolver, BATCH_WORKERS).build(directory);
+        cohort.write(index);
+
+        System.out.printf("Indexed %d variants of %d samples into %s in %.1f seconds%n", cohort.recordCount(),
+                cohort.sampleCount(), index, (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+
+    /**
+     * Prints the variants of the cohort meeting the query as tab-separated lines.
+     */
+    public void queryCohort(Path index, String query) throws IOException {
+        CohortIndex cohort = CohortIndex.open(index);
+        long start = System.nanoTime();
+        List<CohortIndex.Match> matches = cohort.query(CohortQuery.parse(query));
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("sample\tvariant\tgenes\tvaf\tread depth\tclinvar\tacmg");
+        for (CohortIndex.Match match : matches) {
+            System.out.printf("%s\t%s\t%s\t%s\t%s\t%s\t%s%n", match.sample(), match.variant(),
+                    String.join(",", match.genes()),
+                    Double.isNaN(match.variantAlleleFrequency()) ? "" : match.variantAlleleFrequency(),
+                    match.readDepth() == Long.MIN_VALUE ? "" : match.readDepth(),
+                    match.clinvarClassification(), match.acmgClassification());
+        }
+        System.err.printf("%d variants of %d samples in %.1f ms%n", matches.size(),
+                matches.stream().map(CohortIndex.Match::sample).distinct().count(), elapsed / 1e6);
+    }
+
+    /**
+     * Prints how many samples of the cohort carry a variant meeting the query, per gene, with the gene's phenotype.
+     */
+    public void cohortCarriers(Path index, String query) throws IOException {
+        CohortIndex cohort = CohortIndex.open(index);
+        List<CohortIndex.GeneCarriers> carriers = cohort.carrierFrequencies(CohortQuery.parse(query));
+
+        System.out.println("gene\tcarriers\tsamples\tfrequency\tinheritance\tphenotype");
+        for (CohortIndex.GeneCarriers gene : carriers) {
+            Phenotype phenotype = genePanel.get(gene.gene());
+            System.out.printf("%s\t%d\t%d\t%.4f\t%s\t%s%n", gene.gene(), gene.carriers(), gene.samples(),
+                    gene.frequency(), phenotype == null ? "" : phenotype.inheritance().code(),
+                    phenotype == null ? "" : phenotype.name());
+        }
+    }
+
+    /**
+     * Converts an existing xlsx report into a variant table.
+     */
+    public void convertToVariantTable(Path report, Path table) throws IOException {
+        VariantTableWriter.fromReport(report).write(table);
+        VariantTable variants = VariantTable.open(table);
+        System.out.printf("Wrote %d variants of %d sheets of %s to %s%n",
+                variants.sheets().stream().mapToLong(VariantTable.Sheet::rowCount).sum(), variants.sheets().size(),
+                report, table);
+    }
+
+    /**
+     * A file next to a report, named after it without the {@code .xlsx} extension.
+     */
+    static Path sidecar(Path report, String suffix) {
+        return report.resolveSibling(report.getFileName().toString().replaceFirst("(?i)\\.xlsx$", "") + suffix);
+    }
+
+    @FunctionalInterface
+    interface ReportWriter<T> {
+        T write(Path file) throws IOException;
+    }
+
+    /**
+     * Writes a report to {@code <file>.tmp} and moves it into place once it is complete, so a failed run leaves the
+     * report of an earlier one as it was.
+     */
+    static <T> T writeAtomically(Path file, ReportWriter<T> writer) throws IOException {
+        Path temporary = temporary(file);
+        try {
+            T result = writer.write(temporary);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return result;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static Path temporary(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    public void buildClinvarIndex(Path release, Path index) throws IOException {
+        System.out.printf("Indexing the ClinVar release %s. Please wait ...%n", release);
+        long startTime = System.currentTimeMillis();
+
+        ClinvarIndexImporter.Summary summary = new ClinvarIndexImporter(new ClinvarXmlParser()).importRelease(release, index);
+
+        System.out.printf("Indexed %d RCV accessions of %d variants into %s in %.1f seconds. Run with -D%s=%s to use it.%n",
+                summary.rcvs(), summary.variants(), index, (System.currentTimeMillis() - startTime) / 1000.0,
+                CLINVAR_INDEX, index);
+    }
+
+    public void refreshStaleCache() throws IOException {
+        System.out.println("Refreshing stale ClinVar cache entries. Please wait ...");
+        clinvarFetcher.refreshStaleCacheEntries().join();
+        clinvarCache.evictIfOverCapacity();
+        System.out.println("The ClinVar cache is up to date.");
     }
 
     private String getWGSFilePath() {
@@ -63,12 +541,16 @@ public class ExcelTransformer {
         return scanner.nextLine();
     }
 
-    private Map<String, Phenotype> loadGenesToPhenotypes() {
-        InputStream stream = ExcelTransformer.class.getResourceAsStream("/genes.csv");
-
-        return new BufferedReader(new InputStreamReader(stream)).lines()
-                .map(l -> l.split(","))
-                .collect(Collectors.toMap(l -> l[0], l -> new Phenotype(l[2], l[1], l[3])));
-
+    // A local ClinVar release replaces the NCBI requests, for nodes without outbound network access
+    private ClinvarSource clinvarSource() {
+        String index = System.getProperty(CLINVAR_INDEX);
+        if (index == null || index.isBlank()) {
+            return clinvarFetcher;
+        }
+        try {
+            return ClinvarIndex.open(Path.of(index));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the ClinVar index " + index, e);
+        }
     }
 }
@@ -0,0 +1,162 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+
+/**
+ * The package-private parts of fastexcel's reader, for rows which do not come from {@link Sheet#openStream()}:
+ * creating rows and cells, and parsing rows of a sheet's XML with fastexcel's own cell parser.
+ *
+ * <p>These are internals of the fastexcel-reader version in the pom. Whatever another version no longer has is
+ * listed by {@link #missing()}; {@link #canReadSheetXml()} tells whether sheets can still be read projected, and
+ * the methods needing a missing part throw an {@link IllegalStateException} naming it.
+ */
+final class FastexcelAccess {
+    private static final List<String> MISSING = new ArrayList<>();
+    private static final MethodHandle NEW_ROW = resolve("Row(int, int, List)", lookup -> lookup.findConstructor(
+            Row.class, MethodType.methodType(void.class, int.class, int.class, List.class)), Row.class);
+    private static final MethodHandle NEW_CELL = resolve("Cell(ReadableWorkbook, CellType, Object, CellAddress, "
+            + "String, String)", lookup -> lookup.findConstructor(Cell.class, MethodType.methodType(void.class,
+            ReadableWorkbook.class, CellType.class, Object.class, CellAddress.class, String.class, String.class)),
+            Cell.class);
+    private static final MethodHandle NEW_ROW_SPLITERATOR = resolve("RowSpliterator(ReadableWorkbook, InputStream)",
+            lookup -> lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class,
+                    ReadableWorkbook.class, InputStream.class)), "org.dhatim.fastexcel.reader.RowSpliterator");
+    private static final MethodHandle SHEET_WORKBOOK = resolve("Sheet.workbook", lookup -> lookup.findGetter(
+            Sheet.class, "workbook", ReadableWorkbook.class), Sheet.class);
+    private static final MethodHandle WORKBOOK_PACKAGE = resolve("ReadableWorkbook.pkg", lookup -> lookup.findGetter(
+            ReadableWorkbook.class, "pkg", Class.forName("org.dhatim.fastexcel.reader.OPCPackage")),
+            ReadableWorkbook.class);
+    private static final MethodHandle SHEET_CONTENT = resolve("OPCPackage.getSheetContent(Sheet)",
+            lookup -> lookup.findVirtual(lookup.lookupClass(), "getSheetContent",
+                    MethodType.methodType(InputStream.class, Sheet.class)), "org.dhatim.fastexcel.reader.OPCPackage");
+    private static final MethodHandle SHARED_STRINGS = resolve("ReadableWorkbook.getSharedStringsTable()",
+            lookup -> lookup.findVirtual(ReadableWorkbook.class, "getSharedStringsTable",
+                    MethodType.methodType(Class.forName("org.dhatim.fastexcel.reader.SST"))), ReadableWorkbook.class);
+    private static final MethodHandle SHARED_STRING = resolve("SST.getItemAt(int)", lookup -> lookup.findVirtual(
+            lookup.lookupClass(), "getItemAt", MethodType.methodType(String.class, int.class)),
+            "org.dhatim.fastexcel.reader.SST");
+
+    @FunctionalInterface
+    private interface Resolver {
+        MethodHandle resolve(MethodHandles.Lookup lookup) throws ReflectiveOperationException;
+    }
+
+    private static MethodHandle resolve(String name, Resolver resolver, Object target) {
+        try {
+            Class<?> targetClass = target instanceof Class<?> c ? c : Class.forName((String) target);
+            return resolver.resolve(MethodHandles.privateLookupIn(targetClass, MethodHandles.lookup()));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            MISSING.add(name);
+            return null;
+        }
+    }
+
+    private FastexcelAccess() {
+    }
+
+    /**
+     * The parts of fastexcel's reader this version of it does not have, if any.
+     */
+    static List<String> missing() {
+        return List.copyOf(MISSING);
+    }
+
+    /**
+     * Whether {@link #sheetContent}, {@link #rowSpliterator} and {@link #sharedString} work with this fastexcel.
+     */
+    static boolean canReadSheetXml() {
+        return NEW_ROW_SPLITERATOR != null && SHEET_WORKBOOK != null && WORKBOOK_PACKAGE != null
+                && SHEET_CONTENT != null && SHARED_STRINGS != null && SHARED_STRING != null;
+    }
+
+    private static MethodHandle required(MethodHandle handle) {
+        if (handle == null) {
+            throw new IllegalStateException("The fastexcel reader on the class path is not the version this was "
+                    + "built with, it has no " + String.join(", ", MISSING));
+        }
+        return handle;
+    }
+
+    static Row row(int rowNum, List<Cell> cells) {
+        try {
+            return (Row) required(NEW_ROW).invoke(rowNum, (int) cells.stream().filter(cell -> cell != null).count(),
+                    cells);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Cell cell(CellType type, Object value, CellAddress address, String rawValue) {
+        try {
+            return (Cell) required(NEW_CELL).invoke((ReadableWorkbook) null, type, value, address, (String) null,
+                    rawValue);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static ReadableWorkbook workbook(Sheet sheet) {
+        try {
+            return (ReadableWorkbook) required(SHEET_WORKBOOK).invoke(sheet);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The uncompressed XML of the sheet.
+     */
+    static InputStream sheetContent(Sheet sheet) throws IOException {
+        try {
+            Object opcPackage = required(WORKBOOK_PACKAGE).invoke(workbook(sheet));
+            return (InputStream) required(SHEET_CONTENT).invoke(opcPackage, sheet);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The text of an entry of the workbook's shared strings, read up to it on first use.
+     */
+    static String sharedString(ReadableWorkbook workbook, int index) throws IOException {
+        try {
+            return (String) required(SHARED_STRING).invoke(required(SHARED_STRINGS).invoke(workbook), index);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Cannot read shared string " + index, e);
+        }
+    }
+
+    /**
+     * Parses the rows of sheet XML the way {@link Sheet#openStream()} does, resolving shared strings and number
+     * formats through the workbook.
+     */
+    @SuppressWarnings("unchecked")
+    static Spliterator<Row> rowSpliterator(ReadableWorkbook workbook, InputStream sheetXml) throws IOException {
+        try {
+            return (Spliterator<Row>) required(NEW_ROW_SPLITERATOR).invoke(workbook, sheetXml);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Cannot parse the sheet", e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.Row;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The DataExtractor filter chain compiled once per sheet: column indexes are resolved up front and every filter
+ * is a predicate over a reusable {@link VariantRecord}, compiled from the {@link FilterRules}, so the per-row path
+ * does no column lookups, Optional wrapping, string splitting or rule interpretation. Each {@link RowFilter}
+ * samples how often every filter rejects a row and then runs the filters in the order which rejects rows with the
+ * least work.
+ */
+public class FilterPlan {
+    /**
+     * Bumped whenever a filter changes, so incremental runs do not reuse the verdicts of the previous filters.
+     */
+    static final int VERSION = 1;
+    private static final int SAMPLED_ROWS = 10_000;
+    private static final String VARIANT_ALLELE_FREQUENCY = "variantAlleleFrequency";
+    private static final String READ_DEPTH = "sufficientReadDepth";
+
+    private final VariantColumns columns;
+    private final GenePanel genePanel;
+    private final List<Stage> stages;
+
+    @FunctionalInterface
+    interface VariantPredicate {
+        boolean test(VariantRecord record);
+    }
+
+    /**
+     * A named filter with a rough relative cost of evaluating it, used to order the filters.
+     */
+    record Stage(String name, int cost, VariantPredicate predicate) {
+    }
+
+    private FilterPlan(VariantColumns columns, GenePanel genePanel, List<Stage> stages) {
+        this.columns = columns;
+        this.genePanel = genePanel;
+        this.stages = stages;
+    }
+
+    public static FilterPlan compile(VariantColumns columns, GenePanel genePanel) {
+        return compile(columns, genePanel, FilterRules.bundled());
+    }
+
+    public static FilterPlan compile(VariantColumns columns, GenePanel genePanel, FilterRules rules) {
+        List<Stage> stages = new ArrayList<>(rules.panelIndependentStages());
+        stages.add(new Stage("genePanel", 3, VariantRecord::hasPanelGene));
+        stages.add(new Stage("gnomadZygosityDependingOnInheritance", 3, rules::hasExpectedZygosity));
+        return new FilterPlan(columns, genePanel, List.copyOf(stages));
+    }
+
+    /**
+     * Only the filters which do not depend on the gene panel. The rows it accepts are the candidates which every
+     * panel filters out of, so they are all that has to be filtered again when the panel changes.
+     */
+    public static FilterPlan compileWithoutPanel(VariantColumns columns, FilterRules rules) {
+        return new FilterPlan(columns, GenePanel.of(Map.of()), List.copyOf(rules.panelIndependentStages()));
+    }
+
+    /**
+     * A plan of the given filters, for comparing other implementations of them.
+     */
+    static FilterPlan of(VariantColumns columns, GenePanel genePanel, List<Stage> stages) {
+        return new FilterPlan(columns, genePanel, List.copyOf(stages));
+    }
+
+    public RowFilter newRowFilter() {
+        return newRowFilter(new PipelineMetrics(""));
+    }
+
+    public RowFilter newRowFilter(PipelineMetrics metrics) {
+        return new RowFilter(metrics);
+    }
+
+    /**
+     * Evaluates the plan for one thread; it reuses a single record for all rows, so it must not be shared.
+     */
+    public class RowFilter {
+        private final VariantRecord record = new VariantRecord(columns, genePanel);
+        private final PipelineMetrics metrics;
+        private final Stage[] plan = stages.toArray(Stage[]::new);
+        private final long[] evaluated = new long[plan.length];
+        private final long[] rejections = new long[plan.length];
+        private final VariantPredicate readDepth = stages.stream()
+                .filter(stage -> stage.name().equals(READ_DEPTH))
+                .map(Stage::predicate)
+                .findFirst()
+                .orElse(record -> true);
+        private int[] order = IntStream.range(0, plan.length).toArray();
+        private long rows;
+
+        private RowFilter(PipelineMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public boolean accepts(Row row) {
+            record.reset(row);
+            if (rows < SAMPLED_ROWS) {
+                return sample();
+            }
+
+            for (int stage : order) {
+                evaluated[stage]++;
+                if (!plan[stage].predicate().test(record)) {
+                    reject(stage);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds the rows every filter evaluated and rejected to the metrics, once this filter has seen all its rows.
+         */
+        public void finish() {
+            for (int stage = 0; stage < plan.length; stage++) {
+                metrics.addFilterCounts(plan[stage].name(), evaluated[stage], rejections[stage]);
+            }
+        }
+
+        // Evaluates every filter on the first rows to learn how selective each one is on this sheet
+        private boolean sample() {
+            boolean accepted = true;
+            for (int stage : order) {
+                evaluated[stage]++;
+                if (!plan[stage].predicate().test(record)) {
+                    reject(stage);
+                    accepted = false;
+                }
+            }
+
+            if (++rows == SAMPLED_ROWS) {
+                order = IntStream.range(0, plan.length)
+                        .boxed()
+                        .sorted(Comparator.comparingDouble(stage -> -(double) rejections[stage] / plan[stage].cost()))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+            }
+            return accepted;
+        }
+
+        private void reject(int stage) {
+            rejections[stage]++;
+            // Reported for the rows the read depth filter lets through, regardless of the evaluation order
+            if (plan[stage].name().equals(VARIANT_ALLELE_FREQUENCY)
+                    && record.hasMultipleVariantAlleleFrequencies()
+                    && readDepth.test(record)) {
+                Row row = record.row();
+                metrics.addVariantAlleleFrequencyProblem(
+                        row.getCellText(columns.position()),
+                        row.getCellText(columns.reading()),
+                        row.getCellText(columns.variantAlleleFrequency()));
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.genome;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The thresholds, keywords and classification decisions of the variant filters, read from a rules file and compiled
+ * once into the predicates of a {@link FilterPlan}. The rules shipped in {@code filter-rules.txt} are the ones the
+ * reports have always used; a clinical indication needing others gets its own file through {@code -Dfilter.rules}.
+ *
+ * <p>A rules file has three sections, each holding one rule per line; {@code #} starts a comment:
+ * <ul>
+ *     <li>{@code [filters]}: conditions a variant has to meet, e.g. {@code readDepth > 20}</li>
+ *     <li>{@code [zygosity]}: conditions per inheritance of the first panel gene, e.g.
+ *     {@code AR, SD: homozygousCount < 5}</li>
+ *     <li>{@code [classification]}: {@code report if} or {@code reject if} conditions, of which the first that holds
+ *     decides; a variant no rule matches is rejected</li>
+ * </ul>
+ * Conditions are joined with {@code and}. Numbers are compared with {@code <, <=, >, >=} or {@code =}, and texts
+ * with {@code contains} and a comma-separated keyword list, or with {@code is empty} and {@code is not empty}.
+ */
+public final class FilterRules {
+    static final String BUNDLED = "bundled";
+    private static final Pattern NUMBER_CONDITION = Pattern.compile("(\\w+)\\s*(<=|>=|<|>|=)\\s*(\\S+)");
+    private static final Pattern CONTAINS_CONDITION = Pattern.compile("(\\w+)\\s+contains\\s+(.+)");
+    private static final Pattern EMPTY_CONDITION = Pattern.compile("(\\w+)\\s+is\\s+(not\\s+)?empty");
+    private static final Pattern ZYGOSITY_RULE = Pattern.compile("([\\w\\s,]+):(.+)");
+    private static final Pattern CLASSIFICATION_RULE = Pattern.compile("(report|reject)(?:\\s+if\\s+(.+))?");
+    private static final Pattern AND = Pattern.compile("\\s+and\\s+");
+
+    private static FilterRules bundled;
+
+    private final List<FilterPlan.Stage> filterStages;
+    private final Map<Inheritance, FilterPlan.VariantPredicate> zygosity;
+    private final FilterPlan.VariantPredicate[] classificationConditions;
+    private final boolean[] classificationVerdicts;
+    private final long fingerprint;
+
+    private FilterRules(List<FilterPlan.Stage> filterStages, Map<Inheritance, FilterPlan.VariantPredicate> zygosity,
+                        List<FilterPlan.VariantPredicate> classificationConditions,
+                        List<Boolean> classificationVerdicts, long fingerprint) {
+        this.filterStages = List.copyOf(filterStages);
+        this.zygosity = zygosity;
+        this.classificationConditions = classificationConditions.toArray(FilterPlan.VariantPredicate[]::new);
+        this.classificationVerdicts = new boolean[classificationVerdicts.size()];
+        for (int i = 0; i < this.classificationVerdicts.length; i++) {
+            this.classificationVerdicts[i] = classificationVerdicts.get(i);
+        }
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * The rules shipped with the application, {@code filter-rules.txt}.
+     */
+    public static synchronized FilterRules bundled() {
+        if (bundled == null) {
+            try {
+                bundled = load(BUNDLED);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return bundled;
+    }
+
+    /**
+     * Loads the rules file given in {@code -Dfilter.rules}, or the bundled rules.
+     */
+    public static FilterRules fromSystemProperties() {
+        try {
+            return load(System.getProperty("filter.rules", BUNDLED));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the rules file at the given path, or the bundled rules for {@value #BUNDLED}.
+     */
+    public static FilterRules load(String rules) throws IOException {
+        String name = rules.trim();
+        if (name.equals(BUNDLED)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    FilterRules.class.getResourceAsStream("/filter-rules.txt"), StandardCharsets.UTF_8))) {
+                return read(reader, "filter-rules.txt");
+            }
+        }
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(name))) {
+            return read(reader, name);
+        }
+    }
+
+    static FilterRules read(BufferedReader reader, String source) throws IOException {
+        List<FilterPlan.Stage> filterStages = new ArrayList<>();
+        Map<Inheritance, FilterPlan.VariantPredicate> zygosity = new EnumMap<>(Inheritance.class);
+        List<FilterPlan.VariantPredicate> classificationConditions = new ArrayList<>();
+        List<Boolean> classificationVerdicts = new ArrayList<>();
+        long fingerprint = 1;
+
+        String section = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            String rule = (comment < 0 ? line : line.substring(0, comment)).trim().replaceAll("\\s+", " ");
+            if (rule.isEmpty()) {
+                continue;
+            }
+            fingerprint = 31 * fingerprint + rule.hashCode();
+
+            try {
+                if (rule.startsWith("[") && rule.endsWith("]")) {
+                    section = rule.substring(1, rule.length() - 1).trim().toLowerCase(Locale.ROOT);
+                    if (!List.of("filters", "zygosity", "classification").contains(section)) {
+                        throw new IllegalArgumentException("unknown section " + rule
+                                + ", expected [filters], [zygosity] or [classification]");
+                    }
+                } else if (section == null) {
+                    throw new IllegalArgumentException("rule outside of a section");
+                } else if (section.equals("filters")) {
+                    filterStages.add(filterStage(rule));
+                } else if (section.equals("zygosity")) {
+                    Matcher matcher = ZYGOSITY_RULE.matcher(rule);
+                    if (!matcher.matches()) {
+                        throw new IllegalArgumentException("expected <inheritance codes>: <conditions>");
+                    }
+                    FilterPlan.VariantPredicate conditions = conditions(matcher.group(2).trim()).predicate();
+                    for (String code : matcher.group(1).split(",")) {
+                        Inheritance inheritance = Inheritance.fromCode(code);
+                        if (inheritance == Inheritance.OTHER) {
+                            throw new IllegalArgumentException("unknown inheritance code \"" + code.trim()
+                                    + "\", expected one of " + Arrays.stream(Inheritance.values())
+                                    .filter(known -> known != Inheritance.OTHER).map(Inheritance::code).toList());
+                        }
+                        zygosity.put(inheritance, conditions);
+                    }
+                } else {
+                    Matcher matcher = CLASSIFICATION_RULE.matcher(rule);
+                    if (!matcher.matches()) {
+                        throw new IllegalArgumentException("expected report if <conditions> or reject if <conditions>");
+                    }
+                    classificationConditions.add(matcher.group(2) == null
+                            ? record -> true
+                            : conditions(matcher.group(2)).predicate());
+                    classificationVerdicts.add(matcher.group(1).equals("report"));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(source + ":" + lineNumber + ": " + e.getMessage() + " in \"" + rule + "\"");
+            }
+        }
+        return new FilterRules(filterStages, zygosity, classificationConditions, classificationVerdicts, fingerprint);
+    }
+
+    /**
+     * Changes whenever a rule does, but not with comments or spacing; incremental runs refilter when it changes.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The filters which do not depend on the gene panel: the {@code [filters]} rules and the classification.
+     */
+    List<FilterPlan.Stage> panelIndependentStages() {
+        List<FilterPlan.Stage> stages = new ArrayList<>(filterStages);
+        if (classificationConditions.length > 0) {
+            stages.add(new FilterPlan.Stage("clinvarAndACMGClassification", 5, this::isReportedClassification));
+        }
+        return stages;
+    }
+
+    boolean hasExpectedZygosity(VariantRecord record) {
+        Phenotype phenotype = record.firstGenePhenotype();
+        if (phenotype == null) {
+            return true;
+        }
+        FilterPlan.VariantPredicate conditions = zygosity.get(phenotype.inheritance());
+        return conditions == null || conditions.test(record);
+    }
+
+    private boolean isReportedClassification(VariantRecord record) {
+        for (int rule = 0; rule < classificationConditions.length; rule++) {
+            if (classificationConditions[rule].test(record)) {
+                return classificationVerdicts[rule];
+            }
+        }
+        return false;
+    }
+
+    private record Conditions(String field, int cost, FilterPlan.VariantPredicate predicate) {
+    }
+
+    // Named after the filter the field had before the rules were configurable, so the metrics keep their names
+    private static FilterPlan.Stage filterStage(String rule) {
+        Conditions conditions = conditions(rule);
+        String name = switch (conditions.field()) {
+            case "readDepth" -> "sufficientReadDepth";
+            case "gnomadAltAlleleFrequency" -> "gnomadAltAlleleFreq";
+            default -> conditions.field();
+        };
+        return new FilterPlan.Stage(name, conditions.cost(), conditions.predicate());
+    }
+
+    private static Conditions conditions(String text) {
+        List<Conditions> conditions = new ArrayList<>();
+        for (String condition : AND.split(text.trim())) {
+            conditions.add(condition(condition.trim()));
+        }
+        FilterPlan.VariantPredicate[] predicates = conditions.stream()
+                .map(Conditions::predicate)
+                .toArray(FilterPlan.VariantPredicate[]::new);
+        FilterPlan.VariantPredicate predicate = predicates.length == 1 ? predicates[0] : record -> {
+            for (FilterPlan.VariantPredicate p : predicates) {
+                if (!p.test(record)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+        return new Conditions(conditions.get(0).field(), conditions.stream().mapToInt(Conditions::cost).sum(),
+                predicate);
+    }
+
+    private static Conditions condition(String text) {
+        Matcher contains = CONTAINS_CONDITION.matcher(text);
+        if (contains.matches()) {
+            TextField field = TextField.of(contains.group(1));
+            List<String> keywords = Arrays.stream(contains.group(2).split(",")).map(String::trim).toList();
+            KeywordMatcher matcher = new KeywordMatcher(keywords);
+            Function<VariantRecord, String> value = field.value;
+            return new Conditions(field.name, 4, record -> matcher.matchesAny(value.apply(record)));
+        }
+
+        Matcher empty = EMPTY_CONDITION.matcher(text);
+        if (empty.matches()) {
+            TextField field = TextField.of(empty.group(1));
+            boolean expected = empty.group(2) == null;
+            Function<VariantRecord, String> value = field.value;
+            return new Conditions(field.name, 1, record -> {
+                String cell = value.apply(record);
+                return (cell == null || cell.isEmpty()) == expected;
+            });
+        }
+
+        Matcher number = NUMBER_CONDITION.matcher(text);
+        if (number.matches()) {
+            NumberField field = NumberField.of(number.group(1));
+            double threshold;
+            try {
+                threshold = Double.parseDouble(number.group(3));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(field.name + " needs a number, not \"" + number.group(3) + "\"");
+            }
+            return new Conditions(field.name, field.cost, comparison(field, number.group(2), threshold));
+        }
+        throw new IllegalArgumentException("cannot read the condition \"" + text
+                + "\", expected <field> <comparison> <number>, <field> contains <keywords> or <field> is empty");
+    }
+
+    private static FilterPlan.VariantPredicate comparison(NumberField field, String operator, double threshold) {
+        ToDoubleFunction<VariantRecord> value = field.value;
+        FilterPlan.VariantPredicate comparison = switch (operator) {
+            case "<" -> record -> value.applyAsDouble(record) < threshold;
+            case "<=" -> record -> value.applyAsDouble(record) <= threshold;
+            case ">" -> record -> value.applyAsDouble(record) > threshold;
+            case ">=" -> record -> value.applyAsDouble(record) >= threshold;
+            default -> record -> value.applyAsDouble(record) == threshold;
+        };
+        // Rows listing several frequencies are left out and recorded in the pipeline metrics by the row filter
+        return field == NumberField.VARIANT_ALLELE_FREQUENCY
+                ? record -> !record.hasMultipleVariantAlleleFrequencies() && comparison.test(record)
+                : comparison;
+    }
+
+    private enum NumberField {
+        READ_DEPTH("readDepth", 1, VariantRecord::readDepth),
+        VARIANT_ALLELE_FREQUENCY("variantAlleleFrequency", 2, VariantRecord::variantAlleleFrequency),
+        GNOMAD_ALT_ALLELE_FREQUENCY("gnomadAltAlleleFrequency", 2, VariantRecord::gnomadAltAlleleFrequency),
+        HOMOZYGOUS_COUNT("homozygousCount", 2, VariantRecord::homozygousCount),
+        HEMIZYGOUS_COUNT("hemizygousCount", 2, VariantRecord::hemizygousCount);
+
+        private final String name;
+        private final int cost;
+        private final ToDoubleFunction<VariantRecord> value;
+
+        NumberField(String name, int cost, ToDoubleFunction<VariantRecord> value) {
+            this.name = name;
+            this.cost = cost;
+            this.value = value;
+        }
+
+        static NumberField of(String name) {
+            for (NumberField field : values()) {
+                if (field.name.equalsIgnoreCase(name)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("unknown number field \"" + name + "\", expected one of "
+                    + Arrays.stream(values()).map(field -> field.name).toList());
+        }
+    }
+
+    private enum TextField {
+        SEQUENCE_ONTOLOGY("sequenceOntology", VariantRecord::sequenceOntology),
+        CLINVAR("clinvar", VariantRecord::clinvarClassification),
+        SUBMISSIONS("submissions", VariantRecord::clinvarAggregatedSubmissions),
+        ACMG("acmg", VariantRecord::acmgClassification);
+
+        private final String name;
+        private final Function<VariantRecord, String> value;
+
+        TextField(String name, Function<VariantRecord, String> value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        static TextField of(String name) {
+            for (TextField field : values()) {
+                if (field.name.equalsIgnoreCase(name)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("unknown text field \"" + name + "\", expected one of "
+                    + Arrays.stream(values()).map(field -> field.name).toList());
+        }
+    }
+}
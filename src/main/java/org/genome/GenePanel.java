@@ -0,0 +1,198 @@
+package org.genome;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Genes of one or more panels with their phenotype, in an open-addressing table keyed by the {@link String#hashCode}
+ * of the gene symbol. A gene is found from a range of a cell's text, so a comma-separated gene list is matched
+ * without splitting it into substrings or allocating anything.
+ */
+public final class GenePanel {
+    static final String BUNDLED = "bundled";
+
+    private final String[] genes;
+    private final int[] hashes;
+    private final Phenotype[] phenotypes;
+    private final int mask;
+    private final int size;
+
+    private GenePanel(Map<String, Phenotype> genesToPhenotypes) {
+        // At most half full, so a miss ends after a probe or two
+        int capacity = Integer.highestOneBit(Math.max(genesToPhenotypes.size(), 1) * 4 - 1);
+        this.genes = new String[capacity];
+        this.hashes = new int[capacity];
+        this.phenotypes = new Phenotype[capacity];
+        this.mask = capacity - 1;
+        this.size = genesToPhenotypes.size();
+
+        genesToPhenotypes.forEach((gene, phenotype) -> {
+            int hash = gene.hashCode();
+            int slot = spread(hash) & mask;
+            while (genes[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            genes[slot] = gene.intern();
+            hashes[slot] = hash;
+            phenotypes[slot] = phenotype;
+        });
+    }
+
+    public static GenePanel of(Map<String, Phenotype> genesToPhenotypes) {
+        return new GenePanel(genesToPhenotypes);
+    }
+
+    /**
+     * The panel shipped with the application, {@code genes.csv}.
+     */
+    public static GenePanel bundled() {
+        try {
+            return load(List.of(BUNDLED));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads the panels listed in {@code -Dgene.panels}, separated by commas, or the bundled panel.
+     */
+    public static GenePanel fromSystemProperties() {
+        try {
+            return load(List.of(System.getProperty("gene.panels", BUNDLED).split(",")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Combines CSV panels given by path, or {@value #BUNDLED} for the bundled one. A gene listed by several panels
+     * keeps the phenotype of the first.
+     */
+    public static GenePanel load(List<String> panels) throws IOException {
+        Map<String, Phenotype> genesToPhenotypes = new LinkedHashMap<>();
+        for (String panel : panels) {
+            String name = panel.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (name.equals(BUNDLED)) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        GenePanel.class.getResourceAsStream("/genes.csv"), StandardCharsets.UTF_8))) {
+                    read(reader, "genes.csv", genesToPhenotypes);
+                }
+            } else {
+                try (BufferedReader reader = Files.newBufferedReader(Path.of(name))) {
+                    read(reader, name, genesToPhenotypes);
+                }
+            }
+        }
+        return new GenePanel(genesToPhenotypes);
+    }
+
+    public Phenotype get(String gene) {
+        return gene == null ? null : find(gene, 0, gene.length());
+    }
+
+    /**
+     * Looks up the gene spelled by {@code text} from {@code start} to {@code end}, exclusive.
+     */
+    public Phenotype find(String text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+
+        int length = end - start;
+        for (int slot = spread(hash) & mask; genes[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && genes[slot].length() == length
+                    && text.regionMatches(start, genes[slot], 0, length)) {
+                return phenotypes[slot];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Hash of every gene with its phenotype, the same for equal panels whatever order their genes were listed in.
+     */
+    public long fingerprint() {
+        long fingerprint = size;
+        for (int slot = 0; slot < genes.length; slot++) {
+            if (genes[slot] != null) {
+                Phenotype phenotype = phenotypes[slot];
+                long entry = 31L * Objects.hash(genes[slot], phenotype.name(), phenotype.inheritance().code(),
+                        phenotype.mimCodes());
+                // Spread every entry over all 64 bits before summing, so entries do not cancel each other out
+                entry *= 0x9E3779B97F4A7C15L;
+                fingerprint += entry ^ (entry >>> 29);
+            }
+        }
+        return fingerprint;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // gene,inheritance,phenotype,OMIM codes; fields may be quoted, and a first line starting with "gene" is a header
+    private static void read(BufferedReader reader, String source, Map<String, Phenotype> genesToPhenotypes)
+            throws IOException {
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> fields = splitCsv(line);
+            if (lineNumber == 1 && fields.get(0).trim().equalsIgnoreCase("gene")) {
+                continue;
+            }
+            if (fields.size() < 4 || fields.get(0).isBlank()) {
+                throw new IOException(source + ":" + lineNumber + ": expected gene,inheritance,phenotype,OMIM codes "
+                        + "but found " + line);
+            }
+            genesToPhenotypes.putIfAbsent(fields.get(0).trim(), new Phenotype(fields.get(2).trim(),
+                    Inheritance.fromCode(fields.get(1)), fields.get(3).trim()));
+        }
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,374 @@
+package org.genome;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.dhatim.fastexcel.reader.Sheet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transforms a sample again from what its previous run left next to the report: a {@code .state} file with the
+ * digest of the input, the fingerprints of the gene panel and of every ClinVar summary, and a
+ * {@code .candidates.xlsx} workbook with the rows which pass every filter that does not depend on the gene panel.
+ * An unchanged input is not read again, the candidates are only filtered again when the panel changed, and the
+ * report is only rewritten when its rows or their ClinVar summaries changed.
+ */
+public class IncrementalRun {
+    private static final int FORMAT_VERSION = 2;
+    private static final int DIGEST_BUFFER_SIZE = 1 << 20;
+
+    private final DataExtractor candidateExtractor;
+    private final SchemaResolver schemaResolver;
+    private final GenePanel genePanel;
+    private final FilterRules filterRules;
+    private final WorksheetFiller worksheetFiller;
+
+    /**
+     * @param inputRead       whether the input workbook was read, because it is new or changed since the last run
+     * @param refilteredRows  the candidate rows filtered with the gene panel
+     * @param changedVariants the variants whose ClinVar summary is new or changed since the last run
+     * @param reportWritten   whether the report was rewritten, or was still up to date
+     * @param previousRun     when the ClinVar summaries were last looked up, or null on the first run
+     */
+    public record Result(BatchRunner.SampleReport report, boolean inputRead, int refilteredRows, int changedVariants,
+                         boolean reportWritten, Instant previousRun) {
+    }
+
+    private record SheetState(String name, String columns, int candidates, int[] accepted) {
+    }
+
+    private record State(byte[] inputDigest, boolean allSheets, long panelFingerprint, long reportSize,
+                         long reportModified, long enrichedAt, List<SheetState> sheets,
+                         Map<String, Integer> summaryFingerprints) {
+    }
+
+    private record SheetRows(String name, ValuableRows rows) {
+    }
+
+    public IncrementalRun(DataExtractor dataExtractor, SchemaResolver schemaResolver, GenePanel genePanel,
+                          WorksheetFiller worksheetFiller) {
+        this.candidateExtractor = dataExtractor.withoutPanelFilters();
+        this.filterRules = dataExtractor.filterRules();
+        this.schemaResolver = schemaResolver;
+        this.genePanel = genePanel;
+        this.worksheetFiller = worksheetFiller;
+    }
+
+    public Result transform(Path wgsFile, Path newFile, boolean allSheets, PipelineMetrics metrics)
+            throws IOException {
+        Path statePath = ExcelTransformer.sidecar(newFile, ".state");
+        Path candidatesPath = ExcelTransformer.sidecar(newFile, ".candidates.xlsx");
+
+        byte[] inputDigest = digest(wgsFile);
+        State previous = readState(statePath);
+        List<SheetRows> candidates = null;
+        if (previous != null && Arrays.equals(previous.inputDigest(), inputDigest)
+                && previous.allSheets() == allSheets) {
+            candidates = readCandidates(candidatesPath, previous, metrics);
+        }
+        Instant previousRun = previous == null ? null : Instant.ofEpochMilli(previous.enrichedAt());
+        boolean inputRead = candidates == null;
+        if (inputRead) {
+            previous = null;
+            candidates = extractCandidates(wgsFile, allSheets, metrics);
+            writeCandidates(candidatesPath, candidates);
+        }
+
+        long panelFingerprint = genePanel.fingerprint();
+        boolean panelUnchanged = previous != null && previous.panelFingerprint() == panelFingerprint;
+        List<SheetRows> accepted = new ArrayList<>(candidates.size());
+        List<int[]> acceptedIndexes = new ArrayList<>(candidates.size());
+        int refilteredRows = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            SheetRows sheet = candidates.get(i);
+            int[] indexes = panelUnchanged ? previous.sheets().get(i).accepted() : filter(sheet.rows(), metrics);
+            if (!panelUnchanged) {
+                refilteredRows += sheet.rows().filteredRows().size();
+            }
+            List<Row> rows = new ArrayList<>(indexes.length);
+            for (int index : indexes) {
+                rows.add(sheet.rows().filteredRows().get(index));
+            }
+            accepted.add(new SheetRows(sheet.name(), new ValuableRows(sheet.rows().header(), rows)));
+            acceptedIndexes.add(indexes);
+        }
+
+        Map<String, VariantSummary> variantSummaries = enrich(accepted, metrics);
+        Set<String> variantIds = new HashSet<>();
+        Map<String, Integer> summaryFingerprints = new HashMap<>();
+        for (SheetRows sheet : accepted) {
+            int idColumn = sheet.rows().header().columns().clinvarVariantId();
+            for (Row row : sheet.rows().filteredRows()) {
+                row.getCellAsString(idColumn).ifPresent(variantIds::add);
+            }
+        }
+        int changedVariants = 0;
+        for (String id : variantIds) {
+            VariantSummary summary = variantSummaries.get(id);
+            if (summary != null) {
+                summaryFingerprints.put(id, fingerprint(summary));
+            }
+            if (previous == null
+                    || !Objects.equals(previous.summaryFingerprints().get(id), summaryFingerprints.get(id))) {
+                changedVariants++;
+            }
+        }
+
+        boolean reportCurrent = previous != null && panelUnchanged && changedVariants == 0 && Files.exists(newFile)
+                && Files.size(newFile) == previous.reportSize()
+                && Files.getLastModifiedTime(newFile).toMillis() == previous.reportModified();
+        long filteredRows = 0;
+        for (SheetRows sheet : accepted) {
+            filteredRows += sheet.rows().filteredRows().size();
+        }
+        if (!reportCurrent) {
+            writeReport(newFile, accepted, allSheets, variantSummaries, metrics);
+        }
+
+        List<SheetState> sheets = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            SheetRows sheet = candidates.get(i);
+            sheets.add(new SheetState(sheet.name(), sheet.rows().header().columns().toString(),
+                    sheet.rows().filteredRows().size(), acceptedIndexes.get(i)));
+        }
+        writeState(statePath, new State(inputDigest, allSheets, panelFingerprint, Files.size(newFile),
+                Files.getLastModifiedTime(newFile).toMillis(), Instant.now().toEpochMilli(), sheets,
+                summaryFingerprints));
+
+        return new Result(new BatchRunner.SampleReport(candidates.size(), filteredRows), inputRead, refilteredRows,
+                changedVariants, !reportCurrent, previousRun);
+    }
+
+    private List<SheetRows> extractCandidates(Path wgsFile, boolean allSheets, PipelineMetrics metrics)
+            throws IOException {
+        List<SheetRows> candidates = new ArrayList<>();
+        try (ReadableWorkbook input = new ReadableWorkbook(wgsFile.toFile())) {
+            List<Sheet> sheets = allSheets ? input.getSheets().toList() : List.of(input.getFirstSheet());
+            for (Sheet sheet : sheets) {
+                candidates.add(new SheetRows(sheet.getName(), candidateExtractor.filterWorkSheet(sheet, metrics)));
+            }
+        }
+        return candidates;
+    }
+
+    private static void writeCandidates(Path candidatesPath, List<SheetRows> candidates) throws IOException {
+        Path temporary = candidatesPath.resolveSibling(candidatesPath.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(temporary);
+             Workbook output = new Workbook(os, "WGS Candidates", "1.0")) {
+            for (SheetRows sheet : candidates) {
+                ReportSink sink = ReportSink.of(output.newWorksheet(sheet.name()));
+                List<Row> headerRows = sheet.rows().header().rows();
+                WorksheetFiller.saveRow(sink, 0, headerRows.get(0));
+                WorksheetFiller.saveRow(sink, 1, headerRows.get(1));
+                List<Row> rows = sheet.rows().filteredRows();
+                for (int i = 0; i < rows.size(); i++) {
+                    WorksheetFiller.saveRow(sink, i + 2, rows.get(i));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, candidatesPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The candidates of the previous run, or null if they are missing or do not match what the state recorded
+    private List<SheetRows> readCandidates(Path candidatesPath, State previous, PipelineMetrics metrics) {
+        if (!Files.exists(candidatesPath)) {
+            return null;
+        }
+
+        long readStart = System.nanoTime();
+        long readRows = 0;
+        List<SheetRows> candidates = new ArrayList<>();
+        try (ReadableWorkbook input = new ReadableWorkbook(candidatesPath.toFile())) {
+            List<Sheet> sheets = input.getSheets().toList();
+            if (sheets.size() != previous.sheets().size()) {
+                return null;
+            }
+            for (int i = 0; i < sheets.size(); i++) {
+                SheetState state = previous.sheets().get(i);
+                List<Row> rows = sheets.get(i).read();
+                if (rows.size() != state.candidates() + 2 || !sheets.get(i).getName().equals(state.name())) {
+                    return null;
+                }
+                List<Row> headerRows = rows.subList(0, 2);
+                VariantColumns columns = schemaResolver.resolve(headerRows);
+                // A changed schema override picks other columns, so the candidates were filtered on the wrong ones
+                if (!columns.toString().equals(state.columns())) {
+                    return null;
+                }
+                candidates.add(new SheetRows(state.name(),
+                        new ValuableRows(new SheetHeader(headerRows, columns), rows.subList(2, rows.size()))));
+                readRows += state.candidates();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        metrics.addStage(PipelineMetrics.Stage.READ, System.nanoTime() - readStart, readRows);
+        return candidates;
+    }
+
+    private int[] filter(ValuableRows candidates, PipelineMetrics metrics) {
+        long filterStart = System.nanoTime();
+        FilterPlan.RowFilter rowFilter = FilterPlan.compile(candidates.header().columns(), genePanel, filterRules)
+                .newRowFilter(metrics);
+        List<Row> rows = candidates.filteredRows();
+        int[] accepted = new int[rows.size()];
+        int acceptedCount = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            if (rowFilter.accepts(rows.get(i))) {
+                accepted[acceptedCount++] = i;
+            }
+        }
+        rowFilter.finish();
+        metrics.addStageTime(PipelineMetrics.Stage.FILTER, System.nanoTime() - filterStart);
+        return Arrays.copyOf(accepted, acceptedCount);
+    }
+
+    private Map<String, VariantSummary> enrich(List<SheetRows> accepted, PipelineMetrics metrics) {
+        long enrichStart = System.nanoTime();
+        long rows = 0;
+        List<CompletableFuture<Map<String, VariantSummary>>> lookups = new ArrayList<>();
+        for (SheetRows sheet : accepted) {
+            lookups.add(worksheetFiller.fetchVariantSummaries(sheet.rows().filteredRows(),
+                    sheet.rows().header().columns(), metrics));
+            rows += sheet.rows().filteredRows().size();
+        }
+        Map<String, VariantSummary> variantSummaries = new HashMap<>();
+        lookups.forEach(lookup -> variantSummaries.putAll(lookup.join()));
+        metrics.addStage(PipelineMetrics.Stage.ENRICH, System.nanoTime() - enrichStart, rows);
+        return variantSummaries;
+    }
+
+    private void writeReport(Path newFile, List<SheetRows> accepted, boolean allSheets,
+                             Map<String, VariantSummary> variantSummaries, PipelineMetrics metrics)
+            throws IOException {
+        ExcelTransformer.writeAtomically(newFile, report -> {
+            try (OutputStream os = Files.newOutputStream(report);
+                 Workbook output = new Workbook(os, "WGS Transformed", "1.0")) {
+                for (SheetRows sheet : accepted) {
+                    ReportSink sink = ReportSink.of(output.newWorksheet(allSheets ? sheet.name() : "Sheet 1"));
+                    worksheetFiller.fillReport(sink, sheet.rows(), variantSummaries, metrics);
+                }
+
+                long finishStart = System.nanoTime();
+                output.finish();
+                metrics.addStageTime(PipelineMetrics.Stage.WRITE, System.nanoTime() - finishStart);
+            }
+            return null;
+        });
+    }
+
+    private static byte[] digest(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    // Stable across runs, unlike the record hash codes of the summaries
+    private static int fingerprint(VariantSummary summary) {
+        int fingerprint = Objects.hashCode(summary.deceaseDefinition());
+        for (PublicationSummary publication : summary.summaries()) {
+            fingerprint = 31 * fingerprint + Objects.hash(publication.dateUpdated(), publication.submitter(),
+                    publication.submittedAssembly(), publication.classification(), publication.summary());
+        }
+        return fingerprint;
+    }
+
+    private State readState(Path statePath) {
+        if (!Files.exists(statePath)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statePath)))) {
+            if (in.readInt() != FORMAT_VERSION || in.readInt() != FilterPlan.VERSION
+                    || in.readLong() != filterRules.fingerprint()) {
+                return null;
+            }
+            byte[] inputDigest = in.readNBytes(in.readInt());
+            boolean allSheets = in.readBoolean();
+            long panelFingerprint = in.readLong();
+            long reportSize = in.readLong();
+            long reportModified = in.readLong();
+            long enrichedAt = in.readLong();
+
+            int sheetCount = in.readInt();
+            List<SheetState> sheets = new ArrayList<>(sheetCount);
+            for (int i = 0; i < sheetCount; i++) {
+                String name = in.readUTF();
+                String columns = in.readUTF();
+                int candidates = in.readInt();
+                int[] accepted = new int[in.readInt()];
+                for (int j = 0; j < accepted.length; j++) {
+                    accepted[j] = in.readInt();
+                }
+                sheets.add(new SheetState(name, columns, candidates, accepted));
+            }
+
+            int variantCount = in.readInt();
+            Map<String, Integer> summaryFingerprints = new HashMap<>(variantCount * 2);
+            for (int i = 0; i < variantCount; i++) {
+                summaryFingerprints.put(in.readUTF(), in.readInt());
+            }
+            return new State(inputDigest, allSheets, panelFingerprint, reportSize, reportModified, enrichedAt,
+                    sheets, summaryFingerprints);
+        } catch (IOException e) {
+            // A truncated or foreign state file only means the sample is transformed from scratch
+            return null;
+        }
+    }
+
+    private void writeState(Path statePath, State state) throws IOException {
+        Path temporary = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(FilterPlan.VERSION);
+            out.writeLong(filterRules.fingerprint());
+            out.writeInt(state.inputDigest().length);
+            out.write(state.inputDigest());
+            out.writeBoolean(state.allSheets());
+            out.writeLong(state.panelFingerprint());
+            out.writeLong(state.reportSize());
+            out.writeLong(state.reportModified());
+            out.writeLong(state.enrichedAt());
+
+            out.writeInt(state.sheets().size());
+            for (SheetState sheet : state.sheets()) {
+                out.writeUTF(sheet.name());
+                out.writeUTF(sheet.columns());
+                out.writeInt(sheet.candidates());
+                out.writeInt(sheet.accepted().length);
+                for (int index : sheet.accepted()) {
+                    out.writeInt(index);
+                }
+            }
+
+            out.writeInt(state.summaryFingerprints().size());
+            for (Map.Entry<String, Integer> entry : state.summaryFingerprints().entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        Files.move(temporary, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
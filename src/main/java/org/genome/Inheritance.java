@@ -0,0 +1,35 @@
+package org.genome;
+
+import java.util.Locale;
+
+/**
+ * Mode of inheritance of a panel gene, which decides how many homozygous or hemizygous carriers gnomAD may list.
+ */
+public enum Inheritance {
+    AUTOSOMAL_DOMINANT("AD"),
+    AUTOSOMAL_RECESSIVE("AR"),
+    SEMIDOMINANT("SD"),
+    X_LINKED("XL"),
+    // Any other code, for which the zygosity filter lets every variant through
+    OTHER("");
+
+    private final String code;
+
+    Inheritance(String code) {
+        this.code = code;
+    }
+
+    public String code() {
+        return code;
+    }
+
+    public static Inheritance fromCode(String code) {
+        String normalized = code.trim().toUpperCase(Locale.ROOT);
+        for (Inheritance inheritance : values()) {
+            if (inheritance != OTHER && inheritance.code.equals(normalized)) {
+                return inheritance;
+            }
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,102 @@
+package org.genome;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * Finds whether a text contains any of a set of ASCII keywords, ignoring case, in a single pass over the text. The
+ * keywords are compiled into an Aho–Corasick automaton whose failure links are folded into a full transition table,
+ * so every character costs one array lookup however many keywords there are.
+ */
+final class KeywordMatcher {
+    private static final int ALPHABET = 128;
+
+    // Transition of state s on character c is transitions[s * ALPHABET + c]
+    private final int[] transitions;
+    private final boolean[] accepting;
+
+    KeywordMatcher(List<String> keywords) {
+        List<int[]> states = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        states.add(newState());
+        ends.add(false);
+        for (String keyword : keywords) {
+            String lowerCase = keyword.toLowerCase(Locale.ROOT);
+            if (lowerCase.isEmpty() || !lowerCase.chars().allMatch(c -> c < ALPHABET)) {
+                throw new IllegalArgumentException("Keywords have to be non-empty ASCII text, not \"" + keyword + "\"");
+            }
+            int state = 0;
+            for (int i = 0; i < lowerCase.length(); i++) {
+                int c = lowerCase.charAt(i);
+                if (states.get(state)[c] == 0) {
+                    states.get(state)[c] = states.size();
+                    states.add(newState());
+                    ends.add(false);
+                }
+                state = states.get(state)[c];
+            }
+            ends.set(state, true);
+        }
+
+        this.transitions = new int[states.size() * ALPHABET];
+        this.accepting = new boolean[states.size()];
+        int[] failure = new int[states.size()];
+        for (int state = 0; state < states.size(); state++) {
+            accepting[state] = ends.get(state);
+        }
+
+        // Breadth first, so the failure state of every state is complete before the state itself
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = states.get(0)[c];
+            transitions[c] = child;
+            if (child != 0) {
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            accepting[state] |= accepting[failure[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = states.get(state)[c];
+                if (child == 0) {
+                    transitions[state * ALPHABET + c] = transitions[failure[state] * ALPHABET + c];
+                } else {
+                    failure[child] = transitions[failure[state] * ALPHABET + c];
+                    transitions[state * ALPHABET + c] = child;
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private static int[] newState() {
+        return new int[ALPHABET];
+    }
+
+    boolean matchesAny(String text) {
+        if (text == null) {
+            return false;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.charAt(i);
+            if (c >= ALPHABET) {
+                // No keyword contains it, so no match can span it
+                state = 0;
+                continue;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            state = transitions[state * ALPHABET + c];
+            if (accepting[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,12 +1,78 @@
 package org.genome;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 public class Launcher {
 
     private static final ExcelTransformer transformer = new ExcelTransformer();
 
-    public static void main(String[] args) throws IOException {
-        transformer.run();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> arguments = Arrays.asList(args);
+        if (arguments.contains("--warm-up")) {
+            // Everything is loaded by now; the cds build profile runs this to record the classes of a start
+            System.out.println("Started in " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        } else if (arguments.contains("--daemon")) {
+            Path socket = arguments.contains("--socket") ? Path.of(argumentValue(arguments, "--socket")) : null;
+            Path dropDirectory = arguments.contains("--watch") ? Path.of(argumentValue(arguments, "--watch")) : null;
+            if (socket == null && dropDirectory == null) {
+                throw new IllegalArgumentException("--daemon needs --socket <path> or --watch <directory>");
+            }
+            transformer.runDaemon(socket, dropDirectory);
+        } else if (arguments.contains("--refresh-stale-cache")) {
+            transformer.refreshStaleCache();
+        } else if (arguments.contains("--build-clinvar-index")) {
+            Path release = Path.of(argumentValue(arguments, "--build-clinvar-index"));
+            Path index = arguments.contains("--output")
+                    ? Path.of(argumentValue(arguments, "--output"))
+                    : release.toAbsolutePath().resolveSibling("clinvar.index");
+            transformer.buildClinvarIndex(release, index);
+        } else if (arguments.contains("--build-cohort-index")) {
+            Path directory = Path.of(argumentValue(arguments, "--build-cohort-index"));
+            Path index = arguments.contains("--output")
+                    ? Path.of(argumentValue(arguments, "--output"))
+                    : directory.resolve("cohort.index");
+            transformer.buildCohortIndex(directory, index);
+        } else if (arguments.contains("--cohort-query")) {
+            int index = arguments.indexOf("--cohort-query");
+            transformer.queryCohort(Path.of(argumentValue(arguments, "--cohort-query")),
+                    String.join(" ", arguments.subList(index + 2, arguments.size())));
+        } else if (arguments.contains("--cohort-carriers")) {
+            int index = arguments.indexOf("--cohort-carriers");
+            transformer.cohortCarriers(Path.of(argumentValue(arguments, "--cohort-carriers")),
+                    String.join(" ", arguments.subList(index + 2, arguments.size())));
+        } else if (arguments.contains("--to-variant-table")) {
+            Path report = Path.of(argumentValue(arguments, "--to-variant-table"));
+            Path table = arguments.contains("--output")
+                    ? Path.of(argumentValue(arguments, "--output"))
+                    : ExcelTransformer.sidecar(report, ".variants");
+            transformer.convertToVariantTable(report, table);
+        } else if (arguments.contains("--re-enrich")) {
+            if (transformer.reEnrich(Path.of(argumentValue(arguments, "--re-enrich"))) > 0) {
+                System.exit(1);
+            }
+        } else if (arguments.contains("--batch")) {
+            Path source = Path.of(argumentValue(arguments, "--batch"));
+            // Reports go next to the inputs unless another directory is given
+            Path outputDirectory = arguments.contains("--output")
+                    ? Path.of(argumentValue(arguments, "--output"))
+                    : (source.toFile().isDirectory() ? source : source.toAbsolutePath().getParent()).resolve("reports");
+            if (!transformer.runBatch(source, outputDirectory)) {
+                System.exit(1);
+            }
+        } else {
+            transformer.run();
+        }
+    }
+
+    private static String argumentValue(List<String> arguments, String name) {
+        int index = arguments.indexOf(name);
+        if (index + 1 >= arguments.size()) {
+            throw new IllegalArgumentException(name + " needs a value");
+        }
+        return arguments.get(index + 1);
     }
 }
@@ -0,0 +1,76 @@
+package org.genome;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The genomic intervals of the panel genes, from a BED file listing {@code chromosome, start, end, gene} per line
+ * with zero-based, half-open coordinates. The gene panel itself has no coordinates, so this is what lets a VCF input
+ * be read only where panel genes are. Overlapping intervals are merged and every chromosome's are sorted.
+ */
+public final class PanelRegions {
+
+    public record Region(String chromosome, int begin, int end) {
+    }
+
+    private final List<Region> regions;
+
+    private PanelRegions(List<Region> regions) {
+        this.regions = regions;
+    }
+
+    /**
+     * The intervals of the BED file whose gene is in the panel.
+     */
+    public static PanelRegions load(Path bed, GenePanel genePanel) throws IOException {
+        Map<String, List<Region>> byChromosome = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(bed)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 4) {
+                    throw new IOException(bed + ":" + lineNumber + ": expected chromosome, start, end and gene");
+                }
+                if (genePanel.get(fields[3].trim()) == null) {
+                    continue;
+                }
+                try {
+                    byChromosome.computeIfAbsent(fields[0], chromosome -> new ArrayList<>()).add(new Region(
+                            fields[0], Integer.parseInt(fields[1].trim()), Integer.parseInt(fields[2].trim())));
+                } catch (NumberFormatException e) {
+                    throw new IOException(bed + ":" + lineNumber + ": start and end must be whole numbers");
+                }
+            }
+        }
+
+        List<Region> merged = new ArrayList<>();
+        byChromosome.values().forEach(regions -> {
+            regions.sort(Comparator.comparingInt(Region::begin));
+            Region current = null;
+            for (Region region : regions) {
+                if (current != null && region.begin() <= current.end()) {
+                    current = new Region(current.chromosome(), current.begin(), Math.max(current.end(), region.end()));
+                } else {
+                    if (current != null) {
+                        merged.add(current);
+                    }
+                    current = region;
+                }
+            }
+            merged.add(current);
+        });
+        return new PanelRegions(List.copyOf(merged));
+    }
+
+    public List<Region> regions() {
+        return regions;
+    }
+}
@@ -0,0 +1,243 @@
+package org.genome;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive whose entries are compressed in blocks on a pool of threads, the way pigz compresses: every
+ * block is deflated on its own, primed with the last 32 KiB of the block before it so the compression stays as good
+ * as in one stream, and ends on a byte boundary so the blocks can simply be concatenated. Only the checksum is
+ * computed on the writing thread.
+ *
+ * <p>Without a pool, the blocks are deflated on the writing thread. Entries are limited to 4 GiB, which is far more
+ * than a worksheet Excel can open.
+ */
+final class ParallelZipOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long MAX_SIZE = 0xffffffffL;
+    // DOS date of 1980-01-01, the earliest there is, so that a report does not depend on when it was written
+    private static final int DOS_DATE = 1 << 5 | 1;
+
+    private record Entry(byte[] name, long offset, long crc, long compressedSize, long size) {
+    }
+
+    private final OutputStream out;
+    private final int level;
+    private final Executor deflatePool;
+    private final int blocksInFlight;
+    private final ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] oneByte = new byte[1];
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] previousBlock;
+    private int previousBlockLength;
+
+    private byte[] entryName;
+    private long entryOffset;
+    private long entrySize;
+    private long entryCompressedSize;
+    private long position;
+    private boolean finished;
+
+    /**
+     * @param deflatePool threads deflating the blocks, or null to deflate them on the writing thread
+     */
+    ParallelZipOutputStream(OutputStream out, int level, Executor deflatePool) {
+        this.out = out;
+        this.level = level;
+        this.deflatePool = deflatePool;
+        // Enough blocks to keep every thread busy while the writer waits for the oldest one
+        this.blocksInFlight = deflatePool == null ? 1 : 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    void putNextEntry(String name) throws IOException {
+        if (entryName != null) {
+            closeEntry();
+        }
+        entryName = name.getBytes(StandardCharsets.UTF_8);
+        entryOffset = position;
+        entrySize = 0;
+        entryCompressedSize = 0;
+        crc.reset();
+        previousBlock = null;
+
+        // Sizes and checksum follow the data, as they are only known once it is written
+        ByteBuffer header = littleEndian(30 + entryName.length)
+                .putInt(0x04034b50).putShort((short) 20).putShort((short) 0x0808).putShort((short) 8)
+                .putShort((short) 0).putShort((short) DOS_DATE).putInt(0).putInt(0).putInt(0)
+                .putShort((short) entryName.length).putShort((short) 0).put(entryName);
+        writeOut(header.array(), header.array().length);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        oneByte[0] = (byte) b;
+        write(oneByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (entryName == null) {
+            throw new IOException("No zip entry to write to");
+        }
+        while (length > 0) {
+            int count = Math.min(length, block.length - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == block.length) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    void closeEntry() throws IOException {
+        if (entryName == null) {
+            return;
+        }
+        submitBlock(true);
+        while (!inFlight.isEmpty()) {
+            writeCompressed(inFlight.removeFirst());
+        }
+        if (entrySize > MAX_SIZE || entryCompressedSize > MAX_SIZE || entryOffset > MAX_SIZE) {
+            throw new IOException(new String(entryName, StandardCharsets.UTF_8) + " is larger than 4 GiB");
+        }
+        ByteBuffer descriptor = littleEndian(16).putInt(0x08074b50).putInt((int) crc.getValue())
+                .putInt((int) entryCompressedSize).putInt((int) entrySize);
+        writeOut(descriptor.array(), 16);
+        entries.add(new Entry(entryName, entryOffset, crc.getValue(), entryCompressedSize, entrySize));
+        entryName = null;
+    }
+
+    // Hands the block to a deflating thread, and writes the oldest blocks once enough are waiting
+    private void submitBlock(boolean last) throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        byte[] dictionary = previousBlock;
+        int dictionaryLength = previousBlockLength;
+        crc.update(data, 0, length);
+        entrySize += length;
+
+        CompletableFuture<byte[]> compressed = deflatePool == null
+                ? CompletableFuture.completedFuture(deflate(data, length, dictionary, dictionaryLength, last))
+                : CompletableFuture.supplyAsync(() -> deflate(data, length, dictionary, dictionaryLength, last),
+                        deflatePool);
+        inFlight.addLast(compressed);
+        previousBlock = data;
+        previousBlockLength = length;
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        while (inFlight.size() > blocksInFlight) {
+            writeCompressed(inFlight.removeFirst());
+        }
+    }
+
+    private byte[] deflate(byte[] data, int length, byte[] dictionary, int dictionaryLength, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int size = Math.min(DICTIONARY_SIZE, dictionaryLength);
+                deflater.setDictionary(dictionary, dictionaryLength - size, size);
+            }
+            deflater.setInput(data, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] output = new byte[length + length / 8 + 64];
+            int size = 0;
+            while (true) {
+                size += deflater.deflate(output, size, output.length - size,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                // A sync flush is complete once the deflater leaves room in the output, the last block once finished
+                if (last ? deflater.finished() : size < output.length) {
+                    return Arrays.copyOf(output, size);
+                }
+                if (size == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeCompressed(CompletableFuture<byte[]> compressed) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = compressed.join();
+        } catch (CompletionException e) {
+            throw new IOException("Cannot compress " + new String(entryName, StandardCharsets.UTF_8), e.getCause());
+        }
+        writeOut(bytes, bytes.length);
+        entryCompressedSize += bytes.length;
+    }
+
+    private void writeOut(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        position += length;
+    }
+
+    /**
+     * Ends the last entry and writes the central directory, leaving the underlying stream open.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        closeEntry();
+        finished = true;
+        long directoryOffset = position;
+        for (Entry entry : entries) {
+            ByteBuffer header = littleEndian(46 + entry.name().length)
+                    .putInt(0x02014b50).putShort((short) 20).putShort((short) 20).putShort((short) 0x0808)
+                    .putShort((short) 8).putShort((short) 0).putShort((short) DOS_DATE).putInt((int) entry.crc())
+                    .putInt((int) entry.compressedSize()).putInt((int) entry.size())
+                    .putShort((short) entry.name().length).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) entry.offset()).put(entry.name());
+            writeOut(header.array(), header.array().length);
+        }
+        if (position > MAX_SIZE) {
+            throw new IOException("The zip archive is larger than 4 GiB");
+        }
+        ByteBuffer end = littleEndian(22).putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+                .putShort((short) entries.size()).putShort((short) entries.size())
+                .putInt((int) (position - directoryOffset)).putInt((int) directoryOffset).putShort((short) 0);
+        writeOut(end.array(), 22);
+        out.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ByteBuffer littleEndian(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,684 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes report worksheets which copy the rows of the input as the XML they were read from, instead of writing them
+ * cell by cell: cell types, style references, formulas and error values stay as they were, only the row numbers
+ * change and shared string indexes are mapped to the report's own shared strings. The styles of the input are
+ * copied with the report, so the style references keep their meaning.
+ *
+ * <p>Rows are written in order. A row may still be added to while the next one is being written, which is how
+ * {@link WorksheetFiller} appends the columns of the header and of every row. The report is compressed with
+ * {@link ParallelZipOutputStream}, on a pool of threads when one is given.
+ */
+final class PassthroughWorkbook implements Closeable {
+    private static final String MAIN_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String MINIMAL_STYLES = "<styleSheet xmlns=\"" + MAIN_NAMESPACE + "\">"
+            + "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>"
+            + "<fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            + "<cellXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/></cellXfs>"
+            + "</styleSheet>";
+    private static final Pattern COUNT = Pattern.compile("count=\"(\\d+)\"");
+    private static final byte[] REFERENCE = " r=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SHARED = "shared".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] COLUMN_NAMES = new byte[1024][];
+    static final Pattern INVALID_XML =
+            Pattern.compile("[^\\t\\n\\r\\x20-\\uD7FF\\uE000-\\uFFFD\\x{10000}-\\x{10FFFF}]");
+
+    private final ReadableWorkbook source;
+    private final ParallelZipOutputStream zip;
+    private final OutputStream out;
+
+    private final String styles;
+    private final boolean sourceStyles;
+    private final int fillCount;
+    private final int cellStyleCount;
+    private final List<String> fillColors = new ArrayList<>();
+
+    private final Map<String, Integer> sharedStrings = new LinkedHashMap<>();
+    // The report's index of every shared string of the input, -1 until it is first used
+    private int[] sourceSharedStrings = new int[0];
+    private final List<String> sheetNames = new ArrayList<>();
+    private SheetSink sheet;
+    private boolean finished;
+
+    PassthroughWorkbook(ReadableWorkbook source, Path sourceFile, OutputStream out) throws IOException {
+        this(source, sourceFile, out, null);
+    }
+
+    /**
+     * @param deflatePool threads compressing the report, or null to compress it on the writing thread
+     */
+    PassthroughWorkbook(ReadableWorkbook source, Path sourceFile, OutputStream out, Executor deflatePool)
+            throws IOException {
+        this.source = source;
+        // At the level fastexcel writes its workbooks with
+        this.zip = new ParallelZipOutputStream(new BufferedOutputStream(out, 1 << 16), 4, deflatePool);
+        this.out = new BufferedOutputStream(zip, 1 << 16);
+
+        String styles = sourceStyles(sourceFile);
+        Matcher fills = styles == null ? null : COUNT.matcher(section(styles, "fills"));
+        Matcher cellStyles = styles == null ? null : COUNT.matcher(section(styles, "cellXfs"));
+        this.sourceStyles = fills != null && fills.find() && cellStyles.find();
+        this.styles = sourceStyles ? styles : MINIMAL_STYLES;
+        this.fillCount = sourceStyles ? Integer.parseInt(fills.group(1)) : 2;
+        this.cellStyleCount = sourceStyles ? Integer.parseInt(cellStyles.group(1)) : 1;
+    }
+
+    // The styles part of the input if it is where Excel and fastexcel put it, with unprefixed element names
+    private static String sourceStyles(Path sourceFile) throws IOException {
+        try (ZipFile input = new ZipFile(sourceFile.toFile())) {
+            ZipEntry entry = input.getEntry("xl/styles.xml");
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = input.getInputStream(entry)) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    // The start tag of an element of the styles, or an empty string
+    private static String section(String styles, String element) {
+        int start = styles.indexOf("<" + element + " ");
+        return start < 0 || styles.indexOf("</" + element + ">", start) < 0 ? ""
+                : styles.substring(start, styles.indexOf('>', start));
+    }
+
+    /**
+     * Starts the next worksheet of the report, which ends the one before.
+     */
+    ReportSink newSheet(String name) throws IOException {
+        endSheet();
+        sheetNames.add(name);
+        zip.putNextEntry("xl/worksheets/sheet" + sheetNames.size() + ".xml");
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><worksheet xmlns=\"" + MAIN_NAMESPACE + "\"><sheetData>");
+        sheet = new SheetSink();
+        return sheet;
+    }
+
+    private void endSheet() throws IOException {
+        if (sheet != null) {
+            sheet.flushRowsBefore(Integer.MAX_VALUE);
+            write("</sheetData></worksheet>");
+            out.flush();
+            zip.closeEntry();
+            sheet = null;
+        }
+    }
+
+    /**
+     * Ends the last worksheet and writes the parts of the workbook which depend on all of them.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        endSheet();
+        finished = true;
+
+        StringBuilder contentTypes = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\" "
+                + "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/styles.xml\" "
+                + "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+                + "<Override PartName=\"/xl/sharedStrings.xml\" "
+                + "ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>");
+        StringBuilder workbook = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><workbook xmlns=\""
+                + MAIN_NAMESPACE + "\" xmlns:r=\"" + RELATIONSHIPS + "\"><sheets>");
+        StringBuilder workbookRelationships = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            contentTypes.append("<Override PartName=\"/xl/worksheets/sheet").append(i).append(".xml\" ")
+                    .append("ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+            workbook.append("<sheet name=\"").append(escape(sheetNames.get(i - 1))).append("\" sheetId=\"").append(i)
+                    .append("\" r:id=\"rId").append(i).append("\"/>");
+            workbookRelationships.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(RELATIONSHIPS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        int styles = sheetNames.size() + 1;
+        workbookRelationships.append("<Relationship Id=\"rId").append(styles).append("\" Type=\"").append(RELATIONSHIPS)
+                .append("/styles\" Target=\"styles.xml\"/>")
+                .append("<Relationship Id=\"rId").append(styles + 1).append("\" Type=\"").append(RELATIONSHIPS)
+                .append("/sharedStrings\" Target=\"sharedStrings.xml\"/></Relationships>");
+
+        write("[Content_Types].xml", contentTypes.append("</Types>"));
+        write("_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+        write("xl/workbook.xml", workbook.append("</sheets></workbook>"));
+        write("xl/_rels/workbook.xml.rels", workbookRelationships);
+        write("xl/styles.xml", styles());
+
+        zip.putNextEntry("xl/sharedStrings.xml");
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst xmlns=\"" + MAIN_NAMESPACE + "\" count=\""
+                + sharedStrings.size() + "\" uniqueCount=\"" + sharedStrings.size() + "\">");
+        for (String text : sharedStrings.keySet()) {
+            write("<si><t xml:space=\"preserve\">" + escape(text) + "</t></si>");
+        }
+        write("</sst>");
+        out.flush();
+        zip.finish();
+    }
+
+    private void write(String name, CharSequence content) throws IOException {
+        zip.putNextEntry(name);
+        write(content);
+        out.flush();
+        zip.closeEntry();
+    }
+
+    private void write(CharSequence text) throws IOException {
+        out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The styles with a solid fill and a cell style using it for every highlight color
+    private String styles() {
+        if (fillColors.isEmpty()) {
+            return styles;
+        }
+        StringBuilder fills = new StringBuilder();
+        StringBuilder cellStyles = new StringBuilder();
+        for (int i = 0; i < fillColors.size(); i++) {
+            fills.append("<fill><patternFill patternType=\"solid\"><fgColor rgb=\"").append(escape(fillColors.get(i)))
+                    .append("\"/></patternFill></fill>");
+            cellStyles.append("<xf numFmtId=\"0\" fontId=\"0\" fillId=\"").append(fillCount + i)
+                    .append("\" borderId=\"0\" xfId=\"0\" applyFill=\"1\"/>");
+        }
+        String withFills = append(styles, "fills", fills, fillCount + fillColors.size());
+        return append(withFills, "cellXfs", cellStyles, cellStyleCount + fillColors.size());
+    }
+
+    private static String append(String styles, String element, CharSequence children, int count) {
+        int start = styles.indexOf("<" + element + " ");
+        int startEnd = styles.indexOf('>', start);
+        int end = styles.indexOf("</" + element + ">", start);
+        String startTag = COUNT.matcher(styles.substring(start, startEnd)).replaceFirst("count=\"" + count + "\"");
+        return styles.substring(0, start) + startTag + styles.substring(startEnd, end) + children
+                + styles.substring(end);
+    }
+
+    private int highlightStyle(String fillColor) {
+        int index = fillColors.indexOf(fillColor);
+        if (index < 0) {
+            index = fillColors.size();
+            fillColors.add(fillColor);
+        }
+        return cellStyleCount + index;
+    }
+
+    private int sharedString(String text) {
+        return sharedStrings.computeIfAbsent(text, t -> sharedStrings.size());
+    }
+
+    private int sourceSharedString(int index) {
+        if (index >= sourceSharedStrings.length) {
+            int length = sourceSharedStrings.length;
+            sourceSharedStrings = Arrays.copyOf(sourceSharedStrings, Math.max(index + 1, length * 2));
+            Arrays.fill(sourceSharedStrings, length, sourceSharedStrings.length, -1);
+        }
+        if (sourceSharedStrings[index] < 0) {
+            try {
+                sourceSharedStrings[index] = sharedString(FastexcelAccess.sharedString(source, index));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return sourceSharedStrings[index];
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            zip.close();
+        }
+    }
+
+
+    /**
+     * A worksheet of the report, whose rows are written once a later row than the one after them is started.
+     */
+    private final class SheetSink implements ReportSink {
+        private final TreeMap<Integer, PendingRow> rows = new TreeMap<>();
+        private int written = -1;
+
+        @Override
+        public void value(int row, int column, String value) {
+            pending(row).added.put(column, "<c r=\"" + reference(row, column) + "\" t=\"s\"><v>"
+                    + sharedString(value) + "</v></c>");
+        }
+
+        @Override
+        public void value(int row, int column, Number value) {
+            String number = value instanceof BigDecimal decimal ? decimal.toPlainString() : value.toString();
+            pending(row).added.put(column, "<c r=\"" + reference(row, column) + "\"><v>" + number + "</v></c>");
+        }
+
+        @Override
+        public void value(int row, int column, Boolean value) {
+            pending(row).added.put(column, "<c r=\"" + reference(row, column) + "\" t=\"b\"><v>"
+                    + (value ? 1 : 0) + "</v></c>");
+        }
+
+        @Override
+        public void highlight(int row, int column, String fillColor) {
+            pending(row).styles.put(column, highlightStyle(fillColor));
+        }
+
+        @Override
+        public void copyRow(int row, Row source, byte[] sourceXml) {
+            if (sourceXml == null) {
+                ReportSink.super.copyRow(row, source, null);
+                return;
+            }
+            new RowCopy(sourceXml, row, pending(row)).copy();
+        }
+
+        private PendingRow pending(int row) {
+            if (row <= written) {
+                throw new IllegalStateException("Row " + (row + 1) + " of the report has already been written");
+            }
+            try {
+                flushRowsBefore(row - 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return rows.computeIfAbsent(row, r -> new PendingRow());
+        }
+
+        void flushRowsBefore(int row) throws IOException {
+            while (!rows.isEmpty() && rows.firstKey() < row) {
+                Map.Entry<Integer, PendingRow> first = rows.pollFirstEntry();
+                writeRow(first.getKey(), first.getValue());
+                written = first.getKey();
+            }
+        }
+
+        // The copied cells and the added ones in the order of their columns, an added one replacing a copied one
+        private void writeRow(int row, PendingRow pending) throws IOException {
+            write("<row r=\"" + (row + 1) + "\"");
+            out.write(pending.attributes.buffer(), 0, pending.attributes.size());
+            out.write('>');
+            Iterator<Map.Entry<Integer, String>> added = pending.added.entrySet().iterator();
+            Map.Entry<Integer, String> next = added.hasNext() ? added.next() : null;
+            for (int i = 0; i < pending.copiedCount; i++) {
+                int column = pending.copiedColumns[i];
+                while (next != null && next.getKey() < column) {
+                    writeAdded(pending, next);
+                    next = added.hasNext() ? added.next() : null;
+                }
+                if (next != null && next.getKey() == column) {
+                    continue;
+                }
+                int start = pending.copiedStarts[i];
+                int end = i + 1 < pending.copiedCount ? pending.copiedStarts[i + 1] : pending.copied.size();
+                Integer style = pending.styles.get(column);
+                if (style == null) {
+                    out.write(pending.copied.buffer(), start, end - start);
+                } else {
+                    write(withStyle(new String(pending.copied.buffer(), start, end - start, StandardCharsets.UTF_8),
+                            style));
+                }
+            }
+            while (next != null) {
+                writeAdded(pending, next);
+                next = added.hasNext() ? added.next() : null;
+            }
+            write("</row>");
+        }
+
+        private void writeAdded(PendingRow pending, Map.Entry<Integer, String> cell) throws IOException {
+            Integer style = pending.styles.get(cell.getKey());
+            write(style == null ? cell.getValue() : withStyle(cell.getValue(), style));
+        }
+    }
+
+    /**
+     * Copies the XML of one row into a pending row: the row's attributes, then its cells with their references
+     * moved to the report row. Element prefixes and attributes of other namespaces are left out, as the report
+     * declares neither, and cells sharing a formula keep only its value, since the cells they share it with may not
+     * be in the report.
+     */
+    private final class RowCopy {
+        private final byte[] xml;
+        private final byte[] rowNumber;
+        private final PendingRow pending;
+        private final Bytes copied;
+        private int prefixLength;
+        // Bounds of the last attribute read: name start, name end, value start, value end
+        private final int[] attribute = new int[4];
+
+        RowCopy(byte[] xml, int row, PendingRow pending) {
+            this.xml = xml;
+            this.rowNumber = Integer.toString(row + 1).getBytes(StandardCharsets.US_ASCII);
+            this.pending = pending;
+            this.copied = pending.copied;
+        }
+
+        void copy() {
+            int rowTagEnd = indexOf('>', 0);
+            for (int i = 1; !isNameEnd(xml[i]); i++) {
+                if (xml[i] == ':') {
+                    prefixLength = i;
+                }
+            }
+            boolean emptyRow = xml[rowTagEnd - 1] == '/';
+            pending.attributes.reset();
+            for (int i = 1 + prefixLength + 3; (i = nextAttribute(i, emptyRow ? rowTagEnd - 1 : rowTagEnd)) >= 0; ) {
+                // The extent of the row changes
+                if (!isAttribute("r") && !isAttribute("spans") && !isPrefixed()) {
+                    pending.attributes.write(' ');
+                    pending.attributes.write(xml, attribute[0], attribute[3] + 1 - attribute[0]);
+                }
+            }
+            if (emptyRow) {
+                return;
+            }
+
+            int column = -1;
+            int tag = rowTagEnd + 1;
+            while ((tag = indexOf('<', tag)) >= 0 && xml[tag + 1] != '/') {
+                int tagEnd = indexOf('>', tag);
+                int name = tag + 1 + prefixLength;
+                if (xml[name] != 'c' || !isNameEnd(xml[name + 1])) {
+                    tag = tagEnd + 1;
+                    continue;
+                }
+                boolean emptyCell = xml[tagEnd - 1] == '/';
+                int start = copied.size();
+                boolean sharedString = false;
+                // A cell without a reference follows the one before it
+                int cellColumn = column + 1;
+                copied.write('<');
+                copied.write('c');
+                for (int i = name + 1; (i = nextAttribute(i, emptyCell ? tagEnd - 1 : tagEnd)) >= 0; ) {
+                    if (isAttribute("r")) {
+                        cellColumn = column(xml, attribute[2], attribute[3]) - 1;
+                    } else if (!isPrefixed() && (sourceStyles || !isAttribute("s"))) {
+                        sharedString |= isAttribute("t") && attribute[3] - attribute[2] == 1 && xml[attribute[2]] == 's';
+                        copied.write(' ');
+                        copied.write(xml, attribute[0], attribute[3] + 1 - attribute[0]);
+                    }
+                }
+                column = cellColumn;
+                pending.addCopied(column, start);
+                copied.writeBytes(REFERENCE);
+                copied.writeBytes(columnName(column));
+                copied.writeBytes(rowNumber);
+                copied.write('"');
+                if (emptyCell) {
+                    copied.write('/');
+                    copied.write('>');
+                    tag = tagEnd + 1;
+                } else {
+                    copied.write('>');
+                    tag = copyContent(tagEnd + 1, sharedString);
+                }
+            }
+        }
+
+        // Copies the content and end tag of a cell, returning the index after them
+        private int copyContent(int from, boolean sharedString) {
+            int index = from;
+            while (true) {
+                int tag = indexOf('<', index);
+                copied.write(xml, index, tag - index);
+                int tagEnd = indexOf('>', tag);
+                boolean endTag = xml[tag + 1] == '/';
+                int name = tag + (endTag ? 2 : 1) + prefixLength;
+                if (!endTag && xml[name] == 'f' && isNameEnd(xml[name + 1]) && sharesFormula(name + 1, tagEnd)) {
+                    index = xml[tagEnd - 1] == '/' ? tagEnd + 1 : indexOf('>', indexOf('<', tagEnd)) + 1;
+                    continue;
+                }
+                copied.write('<');
+                if (endTag) {
+                    copied.write('/');
+                }
+                copied.write(xml, name, tagEnd + 1 - name);
+                index = tagEnd + 1;
+                if (endTag && xml[name] == 'c' && isNameEnd(xml[name + 1])) {
+                    return index;
+                }
+                if (!endTag && sharedString && xml[name] == 'v' && xml[name + 1] == '>') {
+                    int valueEnd = indexOf('<', index);
+                    int sourceIndex = 0;
+                    for (int i = index; i < valueEnd; i++) {
+                        if (!isWhitespace(xml[i])) {
+                            sourceIndex = sourceIndex * 10 + xml[i] - '0';
+                        }
+                    }
+                    writeNumber(sourceSharedString(sourceIndex));
+                    index = valueEnd;
+                }
+            }
+        }
+
+        private void writeNumber(int number) {
+            int divisor = 1;
+            while (divisor <= number / 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                copied.write('0' + number / divisor % 10);
+            }
+        }
+
+        private boolean sharesFormula(int from, int tagEnd) {
+            for (int i = from; (i = nextAttribute(i, tagEnd)) >= 0; ) {
+                if (isAttribute("t") && attribute[3] - attribute[2] == 6
+                        && Arrays.equals(xml, attribute[2], attribute[3], SHARED, 0, SHARED.length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Reads the next attribute of a start tag into attribute[], returning the index after it or -1
+        private int nextAttribute(int from, int tagEnd) {
+            int i = from;
+            while (i < tagEnd && isWhitespace(xml[i])) {
+                i++;
+            }
+            if (i >= tagEnd) {
+                return -1;
+            }
+            attribute[0] = i;
+            while (xml[i] != '=' && !isWhitespace(xml[i])) {
+                i++;
+            }
+            attribute[1] = i;
+            while (xml[i] != '"' && xml[i] != '\'') {
+                i++;
+            }
+            attribute[2] = i + 1;
+            attribute[3] = indexOf(xml[i], i + 1);
+            return attribute[3] + 1;
+        }
+
+        private boolean isAttribute(String name) {
+            if (attribute[1] - attribute[0] != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (xml[attribute[0] + i] != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isPrefixed() {
+            for (int i = attribute[0]; i < attribute[1]; i++) {
+                if (xml[i] == ':') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int indexOf(int b, int from) {
+            for (int i = from; i < xml.length; i++) {
+                if (xml[i] == b) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("The row XML ends within an element: "
+                    + new String(xml, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * A row of a worksheet being written: the cells copied from the input, one after the other, and the cells
+     * added to them.
+     */
+    private static final class PendingRow {
+        private final Bytes attributes = new Bytes(64);
+        private final Bytes copied = new Bytes(1024);
+        private int[] copiedColumns = new int[16];
+        private int[] copiedStarts = new int[16];
+        private int copiedCount;
+        private final TreeMap<Integer, String> added = new TreeMap<>();
+        private final Map<Integer, Integer> styles = new HashMap<>(4);
+
+        void addCopied(int column, int start) {
+            if (copiedCount == copiedColumns.length) {
+                copiedColumns = Arrays.copyOf(copiedColumns, copiedCount * 2);
+                copiedStarts = Arrays.copyOf(copiedStarts, copiedCount * 2);
+            }
+            copiedColumns[copiedCount] = column;
+            copiedStarts[copiedCount++] = start;
+        }
+    }
+
+    /**
+     * A growing byte array, like ByteArrayOutputStream without its locking, which costs more than copying a byte.
+     */
+    private static final class Bytes {
+        private byte[] buffer;
+        private int size;
+
+        Bytes(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(size + length, buffer.length * 2));
+            }
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        void writeBytes(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+    }
+
+    private static byte[] columnName(int column) {
+        if (column >= COLUMN_NAMES.length) {
+            return columnLetters(column).getBytes(StandardCharsets.US_ASCII);
+        }
+        byte[] name = COLUMN_NAMES[column];
+        if (name == null) {
+            name = columnLetters(column).getBytes(StandardCharsets.US_ASCII);
+            COLUMN_NAMES[column] = name;
+        }
+        return name;
+    }
+
+    private static String columnLetters(int column) {
+        StringBuilder letters = new StringBuilder(3);
+        for (int c = column + 1; c > 0; c = (c - 1) / 26) {
+            letters.insert(0, (char) ('A' + (c - 1) % 26));
+        }
+        return letters.toString();
+    }
+
+    private static String reference(int row, int column) {
+        return columnLetters(column) + (row + 1);
+    }
+
+    // The one-based column of a cell reference
+    private static int column(byte[] xml, int from, int to) {
+        int column = 0;
+        for (int i = from; i < to && xml[i] >= 'A' && xml[i] <= 'Z'; i++) {
+            column = column * 26 + xml[i] - 'A' + 1;
+        }
+        return column;
+    }
+
+    // The cell with the given style in place of its own
+    private static String withStyle(String cell, int style) {
+        int tagEnd = cell.indexOf('>');
+        int attributesEnd = cell.charAt(tagEnd - 1) == '/' ? tagEnd - 1 : tagEnd;
+        String attributes = cell.substring(2, attributesEnd).replaceAll("\\ss\\s*=\\s*(\"[^\"]*\"|'[^']*')", "");
+        return "<c" + attributes + " s=\"" + style + "\"" + cell.substring(attributesEnd);
+    }
+
+    private static boolean isNameEnd(byte b) {
+        return isWhitespace(b) || b == '>' || b == '/';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static String escape(String text) {
+        String valid = INVALID_XML.matcher(text).replaceAll("");
+        StringBuilder escaped = new StringBuilder(valid.length() + 16);
+        for (int i = 0; i < valid.length(); i++) {
+            char c = valid.charAt(i);
+            switch (c) {
+                case '<' -> escaped.append("&lt;");
+                case '>' -> escaped.append("&gt;");
+                case '&' -> escaped.append("&amp;");
+                case '"' -> escaped.append("&quot;");
+                case '\r' -> escaped.append("&#13;");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
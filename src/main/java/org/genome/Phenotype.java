@@ -1,4 +1,4 @@
 package org.genome;
 
-public record Phenotype(String name, String inheritance, String mimCodes) {
+public record Phenotype(String name, Inheritance inheritance, String mimCodes) {
 }
@@ -0,0 +1,69 @@
+package org.genome;
+
+import jdk.jfr.*;
+
+/**
+ * JFR events of the report pipeline. They cost nothing unless a recording is started, e.g. with
+ * {@code -XX:StartFlightRecording:filename=report.jfr}.
+ */
+final class PipelineEvents {
+
+    private PipelineEvents() {
+    }
+
+    @Name("org.genome.ClinvarRequest")
+    @Label("ClinVar Request")
+    @Category({"WGS Report", "ClinVar"})
+    static final class ClinvarRequest extends Event {
+        @Label("Sample")
+        String sample;
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Requested IDs")
+        int ids;
+
+        @Label("HTTP Status")
+        int status;
+
+        @Label("Response Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("org.genome.StageSummary")
+    @Label("Pipeline Stage Summary")
+    @Category("WGS Report")
+    static final class StageSummary extends Event {
+        @Label("Sample")
+        String sample;
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+
+    @Name("org.genome.FilterSummary")
+    @Label("Variant Filter Summary")
+    @Category("WGS Report")
+    static final class FilterSummary extends Event {
+        @Label("Sample")
+        String sample;
+
+        @Label("Filter")
+        String filter;
+
+        @Label("Evaluated Rows")
+        long evaluated;
+
+        @Label("Rejected Rows")
+        long rejected;
+    }
+}
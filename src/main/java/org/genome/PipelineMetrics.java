@@ -0,0 +1,238 @@
+package org.genome;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of one sample's run through the read, filter, enrich and write stages. Stages running on
+ * several threads add up their time, so the stage times of a parallel or streaming run can exceed the wall time.
+ * The metrics are written as a JSON sidecar next to the report, and as JFR events when a recording is running.
+ */
+public class PipelineMetrics {
+    // Keeps the sidecar small for samples where a whole region lists several frequencies
+    private static final int MAX_REPORTED_PROBLEM_ROWS = 1000;
+    private static final long[] LATENCY_BUCKETS_MILLIS = {50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final String sample;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder[] stageNanos = adders(Stage.values().length);
+    private final LongAdder[] stageRows = adders(Stage.values().length);
+    private final Map<String, long[]> filterCounts = new LinkedHashMap<>();
+    private final List<Map<String, String>> variantAlleleFrequencyProblems = new ArrayList<>();
+    private long variantAlleleFrequencyProblemCount;
+
+    private final LongAdder clinvarRequests = new LongAdder();
+    private final LongAdder clinvarRetries = new LongAdder();
+    private final LongAdder failedLookups = new LongAdder();
+    private final LongAdder clinvarBytes = new LongAdder();
+    private final LongAdder clinvarLatencyNanos = new LongAdder();
+    private final AtomicLongArray clinvarLatencyBuckets = new AtomicLongArray(LATENCY_BUCKETS_MILLIS.length + 1);
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder sharedDownloads = new LongAdder();
+
+    public enum Stage {
+        READ, FILTER, ENRICH, WRITE
+    }
+
+    /**
+     * A ClinVar request from the moment it is sent until its response is parsed, so rate limiting is not included.
+     */
+    public class ClinvarRequest {
+        private final PipelineEvents.ClinvarRequest event = new PipelineEvents.ClinvarRequest();
+        private final long startNanos = System.nanoTime();
+
+        private ClinvarRequest(String endpoint, int ids) {
+            event.begin();
+            event.sample = sample;
+            event.endpoint = endpoint;
+            event.ids = ids;
+        }
+
+        public void finish(int status, long bytes) {
+            long nanos = System.nanoTime() - startNanos;
+            clinvarRequests.increment();
+            clinvarBytes.add(bytes);
+            clinvarLatencyNanos.add(nanos);
+            clinvarLatencyBuckets.incrementAndGet(latencyBucket(TimeUnit.NANOSECONDS.toMillis(nanos)));
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.status = status;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    public PipelineMetrics(String sample) {
+        this.sample = sample;
+    }
+
+    public void addStage(Stage stage, long nanos, long rows) {
+        stageNanos[stage.ordinal()].add(nanos);
+        stageRows[stage.ordinal()].add(rows);
+    }
+
+    public void addStageTime(Stage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+    }
+
+    public long stageRows(Stage stage) {
+        return stageRows[stage.ordinal()].sum();
+    }
+
+    public synchronized void addFilterCounts(String filter, long evaluated, long rejected) {
+        long[] counts = filterCounts.computeIfAbsent(filter, f -> new long[2]);
+        counts[0] += evaluated;
+        counts[1] += rejected;
+    }
+
+    /**
+     * Records a row left out because its variant allele frequency cell lists several frequencies.
+     */
+    public synchronized void addVariantAlleleFrequencyProblem(String position, String reading, String frequencies) {
+        variantAlleleFrequencyProblemCount++;
+        if (variantAlleleFrequencyProblems.size() < MAX_REPORTED_PROBLEM_ROWS) {
+            variantAlleleFrequencyProblems.add(Map.of(
+                    "position", position,
+                    "reading", reading,
+                    "variantAlleleFrequency", frequencies));
+        }
+    }
+
+    public synchronized long variantAlleleFrequencyProblemCount() {
+        return variantAlleleFrequencyProblemCount;
+    }
+
+    public ClinvarRequest startClinvarRequest(String endpoint, int ids) {
+        return new ClinvarRequest(endpoint, ids);
+    }
+
+    public void clinvarRetry() {
+        clinvarRetries.increment();
+    }
+
+    /**
+     * Records variants whose ClinVar lookup failed, so their rows are written without ClinVar information.
+     */
+    public void addFailedLookups(long variants) {
+        failedLookups.add(variants);
+    }
+
+    public long failedLookups() {
+        return failedLookups.sum();
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * A lookup which waited for a download another sample had already started.
+     */
+    public void sharedDownload() {
+        sharedDownloads.increment();
+    }
+
+    /**
+     * Commits the stage and filter totals as JFR events; ClinVar requests are committed as they finish.
+     */
+    public synchronized void commitEvents() {
+        for (Stage stage : Stage.values()) {
+            PipelineEvents.StageSummary event = new PipelineEvents.StageSummary();
+            if (event.shouldCommit()) {
+                event.sample = sample;
+                event.stage = stage.name().toLowerCase(Locale.ROOT);
+                event.rows = stageRows[stage.ordinal()].sum();
+                event.time = stageNanos[stage.ordinal()].sum();
+                event.commit();
+            }
+        }
+        filterCounts.forEach((filter, counts) -> {
+            PipelineEvents.FilterSummary event = new PipelineEvents.FilterSummary();
+            if (event.shouldCommit()) {
+                event.sample = sample;
+                event.filter = filter;
+                event.evaluated = counts[0];
+                event.rejected = counts[1];
+                event.commit();
+            }
+        });
+    }
+
+    public synchronized void writeJson(Path file) throws IOException {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            stages.put(stage.name().toLowerCase(Locale.ROOT), Map.of(
+                    "seconds", seconds(stageNanos[stage.ordinal()].sum()),
+                    "rows", stageRows[stage.ordinal()].sum()));
+        }
+
+        List<Map<String, Object>> filters = new ArrayList<>();
+        filterCounts.forEach((filter, counts) -> filters.add(Map.of(
+                "name", filter,
+                "evaluated", counts[0],
+                "rejected", counts[1],
+                "passed", counts[0] - counts[1])));
+
+        Map<String, Long> latencyBuckets = new LinkedHashMap<>();
+        for (int i = 0; i < clinvarLatencyBuckets.length(); i++) {
+            latencyBuckets.put(i < LATENCY_BUCKETS_MILLIS.length
+                    ? "<=" + LATENCY_BUCKETS_MILLIS[i]
+                    : ">" + LATENCY_BUCKETS_MILLIS[LATENCY_BUCKETS_MILLIS.length - 1], clinvarLatencyBuckets.get(i));
+        }
+        long requests = clinvarRequests.sum();
+        Map<String, Object> clinvar = new LinkedHashMap<>();
+        clinvar.put("requests", requests);
+        clinvar.put("retries", clinvarRetries.sum());
+        clinvar.put("failedLookups", failedLookups.sum());
+        clinvar.put("bytesDownloaded", clinvarBytes.sum());
+        clinvar.put("cacheHits", cacheHits.sum());
+        clinvar.put("cacheMisses", cacheMisses.sum());
+        clinvar.put("sharedDownloads", sharedDownloads.sum());
+        clinvar.put("meanLatencyMillis", requests == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(clinvarLatencyNanos.sum() / requests));
+        clinvar.put("latencyMillis", latencyBuckets);
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("sample", sample);
+        metrics.put("totalSeconds", seconds(System.nanoTime() - startNanos));
+        metrics.put("stages", stages);
+        metrics.put("filters", filters);
+        metrics.put("variantAlleleFrequencyProblems", Map.of(
+                "count", variantAlleleFrequencyProblemCount,
+                "rows", variantAlleleFrequencyProblems));
+        metrics.put("clinvar", clinvar);
+
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), metrics);
+    }
+
+    private static int latencyBucket(long millis) {
+        for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+            if (millis <= LATENCY_BUCKETS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKETS_MILLIS.length;
+    }
+
+    private static double seconds(long nanos) {
+        return Math.round(nanos / 1e6) / 1000.0;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        Arrays.setAll(adders, i -> new LongAdder());
+        return adders;
+    }
+}
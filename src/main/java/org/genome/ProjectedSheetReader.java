@@ -0,0 +1,406 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.dhatim.fastexcel.reader.Sheet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads a sheet decoding only some of its columns. The sheet XML is split into rows by scanning its bytes, and
+ * fastexcel's row parser is handed each row with only the cells of the projected columns, so the other cells of a
+ * row are neither parsed nor looked up in the shared strings. {@link #fullRow} parses a row read that way again with
+ * all its cells, from bytes kept for as long as the projected row is in use.
+ *
+ * <p>Until {@link #project} is called, rows are read with all their cells, which is how the header rows are read.
+ * Rows with formulas are always read with all their cells, and by both parsers as soon as they are read: a shared
+ * formula refers to the cell it was first given in, which the parsers must have seen even if its row is rejected.
+ */
+final class ProjectedSheetReader implements Iterator<Row>, Closeable {
+    private static final byte[] SPACE = {' '};
+
+    private final InputStream sheetXml;
+    private byte[] data = new byte[1 << 16];
+    private int position;
+    private int limit;
+    private boolean endOfSheetXml;
+
+    private final byte[] preamble;
+    private final byte[] closing;
+    private final byte[] rowTag;
+    private final byte[] rowEndTag;
+    private final byte[] cellTag;
+    private final byte[] cellEndTag;
+    private final byte[] formulaTag;
+    private boolean endOfRows;
+
+    private boolean[] projected;
+    private final Outbox projectedXml = new Outbox();
+    private final Outbox fullXml = new Outbox();
+    // Rows whose projection has been scanned but not yet parsed, and the rows parsed but not yet released
+    private final ArrayDeque<ScannedRow> scannedRows = new ArrayDeque<>();
+    private final Map<Row, byte[]> rowBytes = new WeakHashMap<>();
+    private final Map<Row, Row> parsedFullRows = new WeakHashMap<>();
+    private final Spliterator<Row> projectedRows;
+    private final Spliterator<Row> fullRows;
+    private Row next;
+
+    private ProjectedSheetReader(ReadableWorkbook workbook, InputStream sheetXml) throws IOException {
+        this.sheetXml = sheetXml;
+        int sheetData = find("sheetData".getBytes(StandardCharsets.US_ASCII), 0, true);
+        if (sheetData < 0) {
+            throw new IOException("The sheet has no sheetData element");
+        }
+        int tagStart = lastIndexOf((byte) '<', sheetData);
+        String prefix = new String(data, tagStart + 1, sheetData - tagStart - 1, StandardCharsets.US_ASCII);
+        int tagEnd = find(new byte[]{'>'}, sheetData, true);
+        boolean empty = data[tagEnd - 1] == '/';
+
+        ByteArrayOutputStream start = new ByteArrayOutputStream(tagEnd + 1);
+        start.write(data, 0, empty ? tagEnd - 1 : tagEnd);
+        start.write('>');
+        this.preamble = start.toByteArray();
+        this.closing = ("</" + prefix + "sheetData></" + rootName() + ">").getBytes(StandardCharsets.US_ASCII);
+        this.rowTag = ("<" + prefix + "row").getBytes(StandardCharsets.US_ASCII);
+        this.rowEndTag = ("</" + prefix + "row>").getBytes(StandardCharsets.US_ASCII);
+        this.cellTag = ("<" + prefix + "c").getBytes(StandardCharsets.US_ASCII);
+        this.cellEndTag = ("</" + prefix + "c>").getBytes(StandardCharsets.US_ASCII);
+        this.formulaTag = ("<" + prefix + "f").getBytes(StandardCharsets.US_ASCII);
+        this.position = tagEnd + 1;
+        this.endOfRows = empty;
+
+        projectedXml.add(preamble);
+        fullXml.add(preamble);
+        this.projectedRows = FastexcelAccess.rowSpliterator(workbook, new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return readByte(this);
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                while (projectedXml.isEmpty() && !projectedXml.closed) {
+                    scanRow();
+                }
+                return projectedXml.read(bytes, offset, length);
+            }
+        });
+        this.fullRows = FastexcelAccess.rowSpliterator(workbook, new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return readByte(this);
+            }
+
+            // Only asked for more than it was given when looking past a row; whitespace lets it stop there
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (fullXml.isEmpty() && !fullXml.closed) {
+                    fullXml.add(SPACE);
+                }
+                return fullXml.read(bytes, offset, length);
+            }
+        });
+    }
+
+    // Both streams hand over at least one byte per read until they end
+    private static int readByte(InputStream in) throws IOException {
+        byte[] b = new byte[1];
+        return in.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    static ProjectedSheetReader open(Sheet sheet) throws IOException {
+        InputStream sheetXml = FastexcelAccess.sheetContent(sheet);
+        try {
+            return new ProjectedSheetReader(FastexcelAccess.workbook(sheet), sheetXml);
+        } catch (IOException | RuntimeException e) {
+            sheetXml.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads only the given zero-based columns of the rows from here on.
+     */
+    void project(Collection<Integer> columns) {
+        int width = columns.stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+        projected = new boolean[width];
+        columns.stream().filter(column -> column >= 0).forEach(column -> projected[column] = true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            projectedRows.tryAdvance(row -> next = row);
+            if (next != null) {
+                ScannedRow scanned = scannedRows.removeFirst();
+                rowBytes.put(next, scanned.xml());
+                if (scanned.formulas()) {
+                    parsedFullRows.put(next, parseFull(scanned.xml()));
+                }
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Row row = next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * The row read as {@code row} by this reader, with all its cells.
+     */
+    Row fullRow(Row row) {
+        byte[] bytes = rowBytes.remove(row);
+        if (bytes == null) {
+            throw new IllegalArgumentException("Row " + row.getRowNum() + " was not read by this reader or already "
+                    + "read in full");
+        }
+        Row parsed = parsedFullRows.remove(row);
+        return parsed != null ? parsed : parseFull(bytes);
+    }
+
+    private Row parseFull(byte[] bytes) {
+        fullXml.add(bytes);
+        Row[] full = new Row[1];
+        fullRows.tryAdvance(parsed -> full[0] = parsed);
+        return full[0];
+    }
+
+    /**
+     * The {@code <row>} element the row was read from, while it can still be read in full.
+     */
+    byte[] rowXml(Row row) {
+        return rowBytes.get(row);
+    }
+
+    // Hands the next row of the sheet XML to the projected parser, and keeps its bytes for a full parse
+    private void scanRow() throws IOException {
+        if (endOfRows) {
+            projectedXml.add(closing);
+            projectedXml.closed = true;
+            return;
+        }
+        int start = find(new byte[]{'<'}, position, false);
+        if (start < 0 || !available(start + rowTag.length + 1) || !startsWith(start, rowTag)
+                || !isNameEnd(start + rowTag.length)) {
+            // The end of sheetData, or anything else where a row should be
+            endOfRows = true;
+            return;
+        }
+        int startTagEnd = find(new byte[]{'>'}, start, true);
+        int end = data[startTagEnd - 1] == '/'
+                ? startTagEnd + 1
+                : find(rowEndTag, startTagEnd, true) + rowEndTag.length;
+        boolean formulas = containsElement(formulaTag, startTagEnd, end);
+        scannedRows.addLast(new ScannedRow(Arrays.copyOfRange(data, start, end), formulas));
+
+        if (projected == null || formulas || data[startTagEnd - 1] == '/') {
+            projectedXml.add(Arrays.copyOfRange(data, start, end));
+        } else {
+            ByteArrayOutputStream row = new ByteArrayOutputStream(1024);
+            row.write(data, start, startTagEnd + 1 - start);
+            int cell = startTagEnd + 1;
+            int rowEnd = end - rowEndTag.length;
+            while ((cell = indexOf((byte) '<', cell, rowEnd)) >= 0) {
+                int cellTagEnd = indexOf((byte) '>', cell, rowEnd);
+                if (!startsWith(cell, cellTag) || !isNameEnd(cell + cellTag.length)) {
+                    cell = cellTagEnd + 1;
+                    continue;
+                }
+                int cellEnd = data[cellTagEnd - 1] == '/' ? cellTagEnd + 1
+                        : indexOf(cellEndTag, cellTagEnd, rowEnd) + cellEndTag.length;
+                int column = column(cell, cellTagEnd);
+                if (column >= 0 && column < projected.length && projected[column]) {
+                    row.write(data, cell, cellEnd - cell);
+                }
+                cell = cellEnd;
+            }
+            row.write(rowEndTag, 0, rowEndTag.length);
+            projectedXml.add(row.toByteArray());
+        }
+        position = end;
+        // Keeps the buffer from growing with the sheet: what is before the current row is no longer needed
+        if (position > data.length / 2) {
+            System.arraycopy(data, position, data, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+    }
+
+    private boolean containsElement(byte[] tag, int from, int to) {
+        for (int i = from; (i = indexOf(tag, i, to)) >= 0; i += tag.length) {
+            if (isNameEnd(i + tag.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The zero-based column of the r attribute of a cell, or -1 without one
+    private int column(int cellStart, int cellTagEnd) {
+        for (int i = cellStart + cellTag.length; i + 3 < cellTagEnd; i++) {
+            if (data[i] == 'r' && data[i + 1] == '=' && (data[i + 2] == '"' || data[i + 2] == '\'')
+                    && isWhitespace(data[i - 1])) {
+                int column = 0;
+                for (int letter = i + 3; letter < cellTagEnd && data[letter] >= 'A' && data[letter] <= 'Z'; letter++) {
+                    column = column * 26 + data[letter] - 'A' + 1;
+                }
+                return column - 1;
+            }
+        }
+        return -1;
+    }
+
+    private String rootName() {
+        for (int i = 0; i < limit - 1; i++) {
+            if (data[i] == '<' && data[i + 1] != '?' && data[i + 1] != '!') {
+                int end = i + 1;
+                while (!isNameEnd(end)) {
+                    end++;
+                }
+                return new String(data, i + 1, end - i - 1, StandardCharsets.US_ASCII);
+            }
+        }
+        throw new IllegalStateException("The sheet has no root element");
+    }
+
+    private boolean isNameEnd(int index) {
+        return index >= limit || isWhitespace(data[index]) || data[index] == '>' || data[index] == '/';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private boolean startsWith(int index, byte[] prefix) {
+        return index + prefix.length <= limit
+                && Arrays.equals(data, index, index + prefix.length, prefix, 0, prefix.length);
+    }
+
+    private int lastIndexOf(byte b, int before) {
+        for (int i = before - 1; i >= 0; i--) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(byte[] pattern, int from, int to) {
+        for (int i = from; i + pattern.length <= to; i++) {
+            if (data[i] == pattern[0] && Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of the pattern from {@code from} on, reading more of the sheet XML as needed; -1 if the XML ends first,
+     * which is an error if the pattern is required.
+     */
+    private int find(byte[] pattern, int from, boolean required) throws IOException {
+        int searched = from;
+        while (true) {
+            int index = indexOf(pattern, searched, limit);
+            if (index >= 0) {
+                return index;
+            }
+            searched = Math.max(from, limit - pattern.length + 1);
+            if (!readMore()) {
+                if (required) {
+                    throw new IOException("The sheet XML ends in the middle of a row");
+                }
+                return -1;
+            }
+        }
+    }
+
+    // Whether the XML is read up to the given index, reading more of it if needed
+    private boolean available(int end) throws IOException {
+        while (limit < end) {
+            if (!readMore()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean readMore() throws IOException {
+        if (endOfSheetXml) {
+            return false;
+        }
+        if (limit == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        int read = sheetXml.read(data, limit, data.length - limit);
+        if (read < 0) {
+            endOfSheetXml = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sheetXml.close();
+    }
+
+    private record ScannedRow(byte[] xml, boolean formulas) {
+    }
+
+    /**
+     * Bytes waiting to be read by one of the parsers.
+     */
+    private static final class Outbox {
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private int offset;
+        private boolean closed;
+
+        void add(byte[] chunk) {
+            if (chunk.length > 0) {
+                chunks.addLast(chunk);
+            }
+        }
+
+        boolean isEmpty() {
+            return chunks.isEmpty();
+        }
+
+        int read(byte[] bytes, int offset, int length) {
+            if (chunks.isEmpty()) {
+                return closed ? -1 : 0;
+            }
+            byte[] chunk = chunks.peekFirst();
+            int count = Math.min(length, chunk.length - this.offset);
+            System.arraycopy(chunk, this.offset, bytes, offset, count);
+            this.offset += count;
+            if (this.offset == chunk.length) {
+                chunks.removeFirst();
+                this.offset = 0;
+            }
+            return count;
+        }
+    }
+}
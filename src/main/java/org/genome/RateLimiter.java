@@ -0,0 +1,60 @@
+package org.genome;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiter {
+    // NCBI E-utilities allow 3 requests per second without an API key and 10 with one
+    private static final double NCBI_REQUESTS_PER_SECOND = 3;
+    private static final double NCBI_REQUESTS_PER_SECOND_WITH_KEY = 10;
+
+    private final long intervalNanos;
+    private final double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate limiter needs a positive rate and a burst of at least one permit");
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public static RateLimiter forNcbi(String apiKey) {
+        double defaultRate = apiKey == null || apiKey.isBlank()
+                ? NCBI_REQUESTS_PER_SECOND
+                : NCBI_REQUESTS_PER_SECOND_WITH_KEY;
+        double rate = Double.parseDouble(System.getProperty("clinvar.requestsPerSecond", String.valueOf(defaultRate)));
+        int burst = Integer.getInteger("clinvar.burst", 1);
+
+        return new RateLimiter(rate, burst);
+    }
+
+    /**
+     * Takes one permit and returns how many nanoseconds the caller has to wait before using it.
+     */
+    public synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (double) (now - lastRefillNanos) / intervalNanos);
+        lastRefillNanos = now;
+
+        // A negative balance means the permit is borrowed from tokens which have not been refilled yet
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens * intervalNanos);
+    }
+
+    public void acquire() throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(reserve());
+    }
+
+    /**
+     * Executor which runs the submitted task as soon as a permit is available, without blocking the caller.
+     */
+    public Executor permitExecutor() {
+        return task -> CompletableFuture.delayedExecutor(reserve(), TimeUnit.NANOSECONDS).execute(task);
+    }
+}
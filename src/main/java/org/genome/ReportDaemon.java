@@ -0,0 +1,279 @@
+package org.genome;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one transformer, with its gene panel, filters, HTTP client and ClinVar cache, running between reports and
+ * takes jobs from a local socket and from a drop directory. Jobs run on a bounded pool of workers; each has its own
+ * metrics and output, and a failed job fails only itself.
+ *
+ * <p>On the socket, every line {@code <input>[TAB<report>]} is a job, answered once it is done with
+ * {@code OK TAB <sheets> TAB <filtered rows> TAB <seconds>} or {@code FAILED TAB <error>}; the line
+ * {@code shutdown} stops the daemon. A workbook or VCF put into the drop directory is transformed into its
+ * {@code reports} directory once it has stopped changing, and then moved to {@code done} or {@code failed}.
+ */
+final class ReportDaemon implements Closeable {
+    static final String SHUTDOWN = "shutdown";
+
+    private final BatchRunner.WorkbookTransformer transformer;
+    private final IdleTask idleTask;
+    private final ExecutorService workers;
+    private final ExecutorService listeners;
+    private final ExecutorService idleRunner;
+    // Held shared by every running job and exclusively by the idle task, which therefore never overlaps a job
+    private final ReadWriteLock jobsLock = new ReentrantReadWriteLock();
+    private final Set<Path> reportsInProgress = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final List<Closeable> resources = new CopyOnWriteArrayList<>();
+
+    /**
+     * Runs on a thread of its own once the last running job is done, e.g. to trim caches. Jobs submitted meanwhile
+     * wait for it to finish.
+     */
+    @FunctionalInterface
+    interface IdleTask {
+        void run() throws IOException;
+    }
+
+    ReportDaemon(BatchRunner.WorkbookTransformer transformer, int workers, IdleTask idleTask) {
+        this.transformer = transformer;
+        this.idleTask = idleTask;
+        this.workers = Executors.newFixedThreadPool(workers, threadFactory("wgs-daemon-worker-"));
+        this.listeners = Executors.newCachedThreadPool(threadFactory("wgs-daemon-listener-"));
+        this.idleRunner = Executors.newSingleThreadExecutor(threadFactory("wgs-daemon-idle-"));
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Takes jobs from connections to a Unix domain socket at the path, replacing a socket file no daemon listens on.
+     */
+    void listen(Path socket) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        if (Files.exists(socket)) {
+            if (isListening(address)) {
+                throw new IOException("A daemon is already listening on " + socket);
+            }
+            // Left behind by a daemon which did not stop cleanly
+            Files.delete(socket);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        resources.add(() -> {
+            server.close();
+            Files.deleteIfExists(socket);
+        });
+        listeners.execute(() -> {
+            while (server.isOpen()) {
+                try {
+                    SocketChannel connection = server.accept();
+                    listeners.execute(() -> serve(connection));
+                } catch (IOException e) {
+                    if (server.isOpen()) {
+                        System.err.printf("Cannot accept a connection on %s: %s%n", socket, e.getMessage());
+                    }
+                }
+            }
+        });
+        System.out.printf("Listening for reports on %s%n", socket);
+    }
+
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void serve(SocketChannel connection) {
+        try (connection;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(connection),
+                     StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(Channels.newOutputStream(connection), StandardCharsets.UTF_8)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (line.trim().equals(SHUTDOWN)) {
+                    out.write("OK\n");
+                    out.flush();
+                    stopped.countDown();
+                    return;
+                }
+                String[] paths = line.split("\t");
+                Path input = Path.of(paths[0].trim());
+                Path report = paths.length > 1 ? Path.of(paths[1].trim())
+                        : BatchRunner.reportPath(input, input.toAbsolutePath().getParent());
+                out.write(submit(input, report).handle((sampleReport, error) -> error == null
+                        ? String.format(Locale.ROOT, "OK\t%d\t%d\t%.1f\n", sampleReport.report().sheets(),
+                        sampleReport.report().filteredRows(), sampleReport.seconds())
+                        : "FAILED\t" + message(error).replaceAll("\\s+", " ") + "\n").join());
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.printf("Lost a connection: %s%n", e.getMessage());
+        }
+    }
+
+    /**
+     * Transforms every workbook or VCF put into the directory, checking for new ones at the interval.
+     */
+    void watch(Path dropDirectory, long pollMillis) throws IOException {
+        Path reports = Files.createDirectories(dropDirectory.resolve("reports"));
+        Path done = Files.createDirectories(dropDirectory.resolve("done"));
+        Path failed = Files.createDirectories(dropDirectory.resolve("failed"));
+        ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(
+                threadFactory("wgs-daemon-watcher-"));
+        resources.add(poller::shutdownNow);
+
+        // A file is taken once its size and modification time are the same on two checks in a row
+        Map<Path, FileState> lastSeen = new HashMap<>();
+        Set<Path> taken = ConcurrentHashMap.newKeySet();
+        poller.scheduleWithFixedDelay(() -> {
+            Map<Path, FileState> seen = new HashMap<>();
+            try (Stream<Path> files = Files.list(dropDirectory)) {
+                for (Path file : files.filter(Files::isRegularFile).filter(BatchRunner::isInput).toList()) {
+                    FileState state = new FileState(Files.size(file), Files.getLastModifiedTime(file));
+                    seen.put(file, state);
+                    if (state.equals(lastSeen.get(file)) && taken.add(file)) {
+                        submit(file, BatchRunner.reportPath(file, reports)).whenComplete((report, error) -> {
+                            try {
+                                Path target = (error == null ? done : failed).resolve(file.getFileName());
+                                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                                if (error != null) {
+                                    Files.writeString(failed.resolve(file.getFileName() + ".error"), message(error));
+                                }
+                            } catch (IOException e) {
+                                System.err.printf("Cannot move %s out of the drop directory: %s%n", file,
+                                        e.getMessage());
+                            } finally {
+                                taken.remove(file);
+                            }
+                        });
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                System.err.printf("Cannot read the drop directory %s: %s%n", dropDirectory, e.getMessage());
+            }
+            lastSeen.clear();
+            lastSeen.putAll(seen);
+        }, 0, pollMillis, TimeUnit.MILLISECONDS);
+        System.out.printf("Watching %s for workbooks, reports are written to %s%n", dropDirectory, reports);
+    }
+
+    private record FileState(long size, FileTime modified) {
+    }
+
+    private record Job(BatchRunner.SampleReport report, double seconds) {
+    }
+
+    private CompletableFuture<Job> submit(Path input, Path report) {
+        Path key = report.toAbsolutePath().normalize();
+        if (!reportsInProgress.add(key)) {
+            return CompletableFuture.failedFuture(new IOException(report + " is already being written"));
+        }
+        runningJobs.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            jobsLock.readLock().lock();
+            long startTime = System.nanoTime();
+            try {
+                BatchRunner.SampleReport sampleReport = transformer.transform(input, report);
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                System.out.printf("%s: %d filtered rows in %.1f seconds%n", input.getFileName(),
+                        sampleReport.filteredRows(), seconds);
+                return new Job(sampleReport, seconds);
+            } catch (Exception e) {
+                // The report is left as it was, the transformer only replaces it with a complete one
+                System.err.printf("%s failed: %s%n", input.getFileName(), message(e));
+                throw new CompletionException(e);
+            } finally {
+                jobsLock.readLock().unlock();
+                reportsInProgress.remove(key);
+                if (runningJobs.decrementAndGet() == 0) {
+                    idleRunner.execute(this::runIdleTask);
+                }
+            }
+        }, workers);
+    }
+
+    private void runIdleTask() {
+        jobsLock.writeLock().lock();
+        try {
+            // A job submitted since will run it again once it is done
+            if (runningJobs.get() == 0) {
+                idleTask.run();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("Cannot tidy up between jobs: %s%n", e.getMessage());
+        } finally {
+            jobsLock.writeLock().unlock();
+        }
+    }
+
+    private static String message(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return Objects.requireNonNullElse(cause.getMessage(), cause.getClass().getName());
+    }
+
+    /**
+     * Blocks until a client asks the daemon to shut down.
+     */
+    void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops taking jobs and waits for the running ones to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        stopped.countDown();
+        IOException failure = null;
+        for (Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        listeners.shutdownNow();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.HOURS);
+            // Idle tasks are queued only by jobs, which are all done by now
+            idleRunner.shutdown();
+            idleRunner.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.genome;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Text cells to set in an existing report, written by copying the report and rewriting only those cells. Every other
+ * part of the report, and every other cell of a patched worksheet, keeps its content, type, style and formula,
+ * whichever writer produced it. A patched cell is written as an inline string without a style.
+ */
+final class ReportPatch {
+    private static final Pattern SHEET = Pattern.compile("<(?:\\w+:)?sheet\\b[^>]*?\\br:id=\"([^\"]+)\"");
+    private static final Pattern RELATIONSHIP = Pattern.compile("<(?:\\w+:)?Relationship\\b[^>]*>");
+    private static final Pattern ATTRIBUTE = Pattern.compile("\\b(Id|Target)=\"([^\"]+)\"");
+    private static final XMLInputFactory INPUT = XMLInputFactory.newFactory();
+    private static final XMLOutputFactory OUTPUT = XMLOutputFactory.newFactory();
+    private static final XMLEventFactory EVENTS = XMLEventFactory.newFactory();
+
+    // Per worksheet in workbook order, the one-based row numbers and zero-based columns of the cells to set
+    private final Map<Integer, Map<Integer, TreeMap<Integer, String>>> cells = new HashMap<>();
+
+    /**
+     * The cells of the worksheet at the zero-based index, set with the zero-based rows and columns of a
+     * {@link ReportSink}.
+     */
+    ReportSink sheet(int sheetIndex) {
+        Map<Integer, TreeMap<Integer, String>> rows = cells.computeIfAbsent(sheetIndex, index -> new HashMap<>());
+        return new ReportSink() {
+            @Override
+            public void value(int row, int column, String value) {
+                rows.computeIfAbsent(row + 1, r -> new TreeMap<>()).put(column, value);
+            }
+
+            @Override
+            public void value(int row, int column, Number value) {
+                value(row, column, String.valueOf(value));
+            }
+
+            @Override
+            public void value(int row, int column, Boolean value) {
+                value(row, column, String.valueOf(value));
+            }
+        };
+    }
+
+    boolean isEmpty() {
+        return cells.values().stream().allMatch(Map::isEmpty);
+    }
+
+    /**
+     * Writes the report with the cells set to {@code patched}.
+     */
+    void apply(Path report, Path patched) throws IOException {
+        try (ZipFile zip = new ZipFile(report.toFile());
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(patched),
+                     1 << 16))) {
+            // The level fastexcel writes its workbooks with
+            out.setLevel(4);
+            Map<String, Map<Integer, TreeMap<Integer, String>>> cellsByEntry = new HashMap<>();
+            List<String> worksheets = worksheetEntries(zip);
+            cells.forEach((sheetIndex, rows) -> {
+                if (sheetIndex < worksheets.size() && !rows.isEmpty()) {
+                    cellsByEntry.put(worksheets.get(sheetIndex), rows);
+                }
+            });
+
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    Map<Integer, TreeMap<Integer, String>> rows = cellsByEntry.get(entry.getName());
+                    if (rows == null) {
+                        in.transferTo(out);
+                    } else {
+                        patchWorksheet(in, out, rows);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    // The parts of the worksheets, in the order of the workbook
+    private static List<String> worksheetEntries(ZipFile zip) throws IOException {
+        Map<String, String> targets = new HashMap<>();
+        Matcher relationship = RELATIONSHIP.matcher(read(zip, "xl/_rels/workbook.xml.rels"));
+        while (relationship.find()) {
+            Map<String, String> attributes = new HashMap<>();
+            Matcher attribute = ATTRIBUTE.matcher(relationship.group());
+            while (attribute.find()) {
+                attributes.put(attribute.group(1), attribute.group(2));
+            }
+            String target = attributes.getOrDefault("Target", "");
+            targets.put(attributes.get("Id"), target.startsWith("/") ? target.substring(1) : "xl/" + target);
+        }
+
+        List<String> worksheets = new ArrayList<>();
+        Matcher sheet = SHEET.matcher(read(zip, "xl/workbook.xml"));
+        while (sheet.find()) {
+            worksheets.add(targets.get(sheet.group(1)));
+        }
+        return worksheets;
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("The report has no " + name + ", it is not an xlsx workbook");
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void patchWorksheet(InputStream in, OutputStream out, Map<Integer, TreeMap<Integer, String>> rows)
+            throws IOException {
+        try {
+            XMLEventReader reader = INPUT.createXMLEventReader(in);
+            XMLEventWriter writer = OUTPUT.createXMLEventWriter(out, "UTF-8");
+            int rowNumber = 0;
+            int column = -1;
+            QName rowName = null;
+            TreeMap<Integer, String> pending = null;
+            // Depth within a cell being replaced, whose events are left out
+            int skipped = 0;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (skipped > 0) {
+                    skipped += event.isStartElement() ? 1 : event.isEndElement() ? -1 : 0;
+                    continue;
+                }
+                if (event.isStartElement()) {
+                    StartElement start = event.asStartElement();
+                    String name = start.getName().getLocalPart();
+                    if (name.equals("row")) {
+                        Attribute r = start.getAttributeByName(new QName("r"));
+                        rowNumber = r == null ? rowNumber + 1 : Integer.parseInt(r.getValue());
+                        column = -1;
+                        rowName = start.getName();
+                        pending = rows.containsKey(rowNumber) ? new TreeMap<>(rows.get(rowNumber)) : null;
+                    } else if (name.equals("c") && pending != null) {
+                        Attribute r = start.getAttributeByName(new QName("r"));
+                        column = r == null ? column + 1 : column(r.getValue());
+                        boolean replaced = pending.containsKey(column);
+                        writeCells(writer, rowName, rowNumber, pending.headMap(column, replaced));
+                        if (replaced) {
+                            skipped = 1;
+                            continue;
+                        }
+                    }
+                } else if (event.isEndElement() && pending != null
+                        && event.asEndElement().getName().getLocalPart().equals("row")) {
+                    writeCells(writer, rowName, rowNumber, pending);
+                    pending = null;
+                }
+                writer.add(event);
+            }
+            writer.flush();
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Cannot rewrite a worksheet of the report", e);
+        }
+    }
+
+    // Writes the cells and takes them off the pending ones
+    private static void writeCells(XMLEventWriter writer, QName rowName, int rowNumber,
+                                   SortedMap<Integer, String> cells) throws XMLStreamException {
+        QName cell = new QName(rowName.getNamespaceURI(), "c", rowName.getPrefix());
+        QName inlineString = new QName(rowName.getNamespaceURI(), "is", rowName.getPrefix());
+        QName text = new QName(rowName.getNamespaceURI(), "t", rowName.getPrefix());
+        for (Map.Entry<Integer, String> entry : cells.entrySet()) {
+            writer.add(EVENTS.createStartElement(cell, List.of(
+                    EVENTS.createAttribute("r", columnName(entry.getKey()) + rowNumber),
+                    EVENTS.createAttribute("t", "inlineStr")).iterator(), null));
+            writer.add(EVENTS.createStartElement(inlineString, null, null));
+            writer.add(EVENTS.createStartElement(text, null, null));
+            String value = Objects.requireNonNullElse(entry.getValue(), "");
+            writer.add(EVENTS.createCharacters(PassthroughWorkbook.INVALID_XML.matcher(value).replaceAll("")));
+            writer.add(EVENTS.createEndElement(text, null));
+            writer.add(EVENTS.createEndElement(inlineString, null));
+            writer.add(EVENTS.createEndElement(cell, null));
+        }
+        cells.clear();
+    }
+
+    // The zero-based column of a cell reference such as AB12
+    private static int column(String reference) {
+        int column = 0;
+        for (int i = 0; i < reference.length() && Character.isLetter(reference.charAt(i)); i++) {
+            column = column * 26 + Character.toUpperCase(reference.charAt(i)) - 'A' + 1;
+        }
+        return column - 1;
+    }
+
+    private static String columnName(int column) {
+        StringBuilder name = new StringBuilder();
+        for (int c = column + 1; c > 0; c = (c - 1) / 26) {
+            name.insert(0, (char) ('A' + (c - 1) % 26));
+        }
+        return name.toString();
+    }
+}
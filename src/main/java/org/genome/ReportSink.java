@@ -0,0 +1,68 @@
+package org.genome;
+
+import org.dhatim.fastexcel.Worksheet;
+import org.dhatim.fastexcel.reader.Cell;
+import org.dhatim.fastexcel.reader.Row;
+
+/**
+ * Where {@link WorksheetFiller} writes the cells of a report worksheet: an xlsx worksheet, or a sheet of a
+ * {@link VariantTable}.
+ */
+public interface ReportSink {
+
+    void value(int row, int column, String value);
+
+    void value(int row, int column, Number value);
+
+    void value(int row, int column, Boolean value);
+
+    /**
+     * Copies a row of the input. Its strings, numbers and booleans are written cell by cell, unless the sink can
+     * copy the XML the row was parsed from, when it is given.
+     *
+     * @param sourceXml the {@code <row>} element of the row in the input sheet, or null
+     */
+    default void copyRow(int row, Row source, byte[] sourceXml) {
+        for (int column = 0; column < source.getCellCount(); column++) {
+            Cell cell = source.getCell(column);
+            if (cell == null) {
+                continue;
+            }
+            switch (cell.getType()) {
+                case STRING -> value(row, column, cell.asString());
+                case NUMBER -> value(row, column, cell.asNumber());
+                case BOOLEAN -> value(row, column, cell.asBoolean());
+            }
+        }
+    }
+
+    /**
+     * Fills the background of a cell which needs attention, where the sink can show it.
+     */
+    default void highlight(int row, int column, String fillColor) {
+    }
+
+    static ReportSink of(Worksheet ws) {
+        return new ReportSink() {
+            @Override
+            public void value(int row, int column, String value) {
+                ws.value(row, column, value);
+            }
+
+            @Override
+            public void value(int row, int column, Number value) {
+                ws.value(row, column, value);
+            }
+
+            @Override
+            public void value(int row, int column, Boolean value) {
+                ws.value(row, column, value);
+            }
+
+            @Override
+            public void highlight(int row, int column, String fillColor) {
+                ws.style(row, column).fillColor(fillColor).set();
+            }
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.Row;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Splits the rows of a report which would be too long for one worksheet into parts by chromosome or by gene. The
+ * groups are taken in the order their first row appears and packed into as few parts as fit, so a report under the
+ * limit stays in one part; a single group over the limit is cut into numbered parts of its own.
+ */
+final class ReportSplit {
+    /**
+     * Rows of a worksheet below its two header rows.
+     */
+    static final int WORKSHEET_ROWS = 1_048_576 - 2;
+
+    enum By {
+        CHROMOSOME, GENE
+    }
+
+    record Part(String name, ValuableRows rows) {
+    }
+
+    private final By by;
+    private final int maxRows;
+
+    ReportSplit(By by, int maxRows) {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("A report part needs room for at least one row, not " + maxRows);
+        }
+        this.by = by;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * The split configured by {@code -Dreport.split=chromosome|gene} and {@code -Dreport.splitRows}, or null
+     * without one.
+     */
+    static ReportSplit fromSystemProperties() {
+        String by = System.getProperty("report.split");
+        if (by == null || by.isBlank() || by.equalsIgnoreCase("none")) {
+            return null;
+        }
+        return new ReportSplit(By.valueOf(by.trim().toUpperCase(Locale.ROOT)),
+                Integer.getInteger("report.splitRows", WORKSHEET_ROWS));
+    }
+
+    /**
+     * The parts of the rows, named after their first and last group, e.g. {@code chr1-chr3}.
+     */
+    List<Part> split(ValuableRows rows) {
+        Function<Row, String> key = key(rows.header().columns());
+        Map<String, List<Row>> groups = new LinkedHashMap<>();
+        for (Row row : rows.filteredRows()) {
+            groups.computeIfAbsent(key.apply(row), k -> new ArrayList<>()).add(row);
+        }
+
+        List<Part> parts = new ArrayList<>();
+        List<Row> partRows = new ArrayList<>();
+        String first = null;
+        String last = null;
+        for (Map.Entry<String, List<Row>> group : groups.entrySet()) {
+            List<Row> groupRows = group.getValue();
+            if (!partRows.isEmpty() && partRows.size() + groupRows.size() > maxRows) {
+                parts.add(part(first, last, partRows, rows));
+                partRows = new ArrayList<>();
+            }
+            if (groupRows.size() > maxRows) {
+                for (int from = 0, piece = 1; from < groupRows.size(); from += maxRows, piece++) {
+                    List<Row> pieceRows = groupRows.subList(from, Math.min(groupRows.size(), from + maxRows));
+                    parts.add(part(group.getKey() + " (" + piece + ")", null, pieceRows, rows));
+                }
+                continue;
+            }
+            if (partRows.isEmpty()) {
+                first = group.getKey();
+            }
+            last = group.getKey();
+            partRows.addAll(groupRows);
+        }
+        if (!partRows.isEmpty() || parts.isEmpty()) {
+            parts.add(part(first, last, partRows, rows));
+        }
+        return parts;
+    }
+
+    /**
+     * The name as a worksheet may have it: at most 31 characters, without the ones Excel does not allow.
+     */
+    static String worksheetName(String name) {
+        String valid = name.replaceAll("[\\[\\]:*?/\\\\]", "_");
+        return valid.length() > 31 ? valid.substring(0, 31) : valid;
+    }
+
+    /**
+     * The name as part of a file name.
+     */
+    static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]+", "_");
+    }
+
+    private static Part part(String first, String last, List<Row> partRows, ValuableRows rows) {
+        String name = first == null ? "empty" : last == null || last.equals(first) ? first : first + "-" + last;
+        return new Part(name, new ValuableRows(rows.header(), List.copyOf(partRows), rows.sourceXml()));
+    }
+
+    private Function<Row, String> key(VariantColumns columns) {
+        return switch (by) {
+            // Positions are written as chromosome:position
+            case CHROMOSOME -> row -> {
+                String position = row.getCellText(columns.position());
+                int colon = position.indexOf(':');
+                return colon < 0 ? "unplaced" : position.substring(0, colon);
+            };
+            case GENE -> row -> {
+                String genes = row.getCellText(columns.geneNames());
+                return genes.isBlank() ? "intergenic" : genes;
+            };
+        };
+    }
+}
@@ -0,0 +1,254 @@
+package org.genome;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+
+/**
+ * Sends rate limited requests and retries them with jittered exponential backoff, honouring the Retry-After
+ * header of throttled responses. Every attempt has its own timeout, which also covers reading the response body,
+ * and no attempt is started after the deadline of the whole call. A circuit breaker makes calls fail at once while
+ * the service keeps failing, so a report does not wait out the retries of every request.
+ */
+public class ResilientHttpClient {
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final Duration requestTimeout;
+    private final Duration deadline;
+    private final int maxAttempts;
+    private final Duration backoff;
+
+    @FunctionalInterface
+    public interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    private static class ResponseStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        private final Duration retryAfter;
+
+        ResponseStatusException(String endpoint, int status, Duration retryAfter) {
+            super(endpoint + " answered with HTTP status " + status);
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    public ResilientHttpClient(HttpClient client, RateLimiter rateLimiter, CircuitBreaker circuitBreaker,
+                               Duration requestTimeout, Duration deadline, int maxAttempts, Duration backoff) {
+        this.client = client;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.requestTimeout = requestTimeout;
+        this.deadline = deadline;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+    }
+
+    public static ResilientHttpClient fromSystemProperties(HttpClient client, RateLimiter rateLimiter) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(Integer.getInteger("clinvar.breaker.failures", 5),
+                Duration.ofSeconds(Long.getLong("clinvar.breaker.openSeconds", 30)));
+
+        return new ResilientHttpClient(client, rateLimiter, circuitBreaker,
+                Duration.ofSeconds(Long.getLong("clinvar.requestTimeoutSeconds", 30)),
+                Duration.ofSeconds(Long.getLong("clinvar.deadlineSeconds", 120)),
+                Integer.getInteger("clinvar.maxAttempts", 5),
+                Duration.ofMillis(Long.getLong("clinvar.backoffMillis", 500)));
+    }
+
+    /**
+     * Sends the request until a response is parsed, a response status is not worth retrying, the attempts or the
+     * deadline run out or the circuit breaker is open. The returned future then fails with an {@link IOException}.
+     */
+    public <T> CompletableFuture<T> send(HttpRequest request, String endpoint, int ids, BodyParser<T> parser,
+                                         PipelineMetrics metrics) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(request, endpoint, ids, parser, metrics, 1, System.nanoTime() + deadline.toNanos(), result);
+        return result;
+    }
+
+    private <T> void attempt(HttpRequest request, String endpoint, int ids, BodyParser<T> parser,
+                             PipelineMetrics metrics, int attempt, long deadlineNanos, CompletableFuture<T> result) {
+        // The request is only handed to the client once the rate limiter grants a permit
+        CompletableFuture.supplyAsync(() -> request, rateLimiter.permitExecutor())
+                .thenCompose(r -> {
+                    if (!circuitBreaker.tryAcquire()) {
+                        throw new CompletionException(new IOException(
+                                "Not sending the " + endpoint + " request, ClinVar failed too often and is skipped for now"));
+                    }
+                    long timeoutNanos = Math.min(requestTimeout.toNanos(), deadlineNanos - System.nanoTime());
+                    HttpRequest timed = HttpRequest.newBuilder(r, (name, value) -> true)
+                            .timeout(Duration.ofNanos(Math.max(timeoutNanos, 1)))
+                            .build();
+                    PipelineMetrics.ClinvarRequest clinvarRequest = metrics.startClinvarRequest(endpoint, ids);
+                    return client.sendAsync(timed, HttpResponse.BodyHandlers.ofInputStream())
+                            .whenComplete((response, error) -> {
+                                if (error != null) {
+                                    clinvarRequest.finish(0, 0);
+                                }
+                            })
+                            .thenApply(response -> handle(response, endpoint, parser, clinvarRequest,
+                                    System.nanoTime() + timeoutNanos))
+                            .whenComplete((parsed, error) -> {
+                                if (error == null || isResponseFrom(error, s -> s < 500)) {
+                                    circuitBreaker.recordSuccess();
+                                } else {
+                                    circuitBreaker.recordFailure();
+                                }
+                            });
+                })
+                .whenComplete((parsed, error) -> {
+                    if (error == null) {
+                        result.complete(parsed);
+                        return;
+                    }
+
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    long delayNanos = retryDelayNanos(cause, attempt);
+                    if (delayNanos < 0 || System.nanoTime() + delayNanos >= deadlineNanos) {
+                        result.completeExceptionally(new IOException("ClinVar " + endpoint + " request failed after "
+                                + attempt + (attempt == 1 ? " attempt: " : " attempts: ") + describe(cause), cause));
+                        return;
+                    }
+                    metrics.clinvarRetry();
+                    CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() ->
+                            attempt(request, endpoint, ids, parser, metrics, attempt + 1, deadlineNanos, result));
+                });
+    }
+
+    private <T> T handle(HttpResponse<InputStream> response, String endpoint, BodyParser<T> parser,
+                         PipelineMetrics.ClinvarRequest clinvarRequest, long timeoutAtNanos) {
+        CountingInputStream body = new CountingInputStream(response.body());
+        try (body) {
+            if (response.statusCode() != 200) {
+                throw new ResponseStatusException(endpoint, response.statusCode(),
+                        retryAfter(response).orElse(null));
+            }
+
+            // A stalled body is closed under the parser, which then fails like any other broken connection
+            AtomicBoolean parsed = new AtomicBoolean();
+            CompletableFuture.delayedExecutor(Math.max(timeoutAtNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS)
+                    .execute(() -> {
+                        if (!parsed.get()) {
+                            body.timedOut = true;
+                            closeQuietly(body);
+                        }
+                    });
+            try {
+                return parser.parse(body);
+            } catch (IOException e) {
+                throw body.timedOut ? new HttpTimeoutException("Reading the " + endpoint + " response timed out") : e;
+            } finally {
+                parsed.set(true);
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            clinvarRequest.finish(response.statusCode(), body.count);
+        }
+    }
+
+    /**
+     * @return nanoseconds to wait before the next attempt, or -1 if the request should not be retried
+     */
+    private long retryDelayNanos(Throwable cause, int attempt) {
+        if (attempt >= maxAttempts || !(cause instanceof IOException) || circuitBreaker.isOpen()) {
+            return -1;
+        }
+        if (cause instanceof ResponseStatusException statusException) {
+            if (statusException.status != 429 && statusException.status < 500) {
+                return -1;
+            }
+            if (statusException.retryAfter != null) {
+                return Math.max(statusException.retryAfter.toNanos(), jitteredBackoffNanos(attempt));
+            }
+        }
+        return jitteredBackoffNanos(attempt);
+    }
+
+    // Half of the exponential backoff plus a random share of the other half, so concurrent retries spread out
+    private long jitteredBackoffNanos(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF.toNanos(), backoff.toNanos() << Math.min(attempt - 1, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private static Optional<Duration> retryAfter(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After").map(String::trim).flatMap(value -> {
+            try {
+                return Optional.of(Duration.ofSeconds(Long.parseLong(value)));
+            } catch (NumberFormatException e) {
+                try {
+                    Instant retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                    return Optional.of(Duration.between(Instant.now(), retryAt));
+                } catch (DateTimeParseException unparsable) {
+                    return Optional.empty();
+                }
+            }
+        });
+    }
+
+    private static boolean isResponseFrom(Throwable error, IntPredicate status) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        return cause instanceof ResponseStatusException statusException && status.test(statusException.status);
+    }
+
+    private static String describe(Throwable cause) {
+        return cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignored) {
+            // The parser reports the broken stream
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+        private volatile boolean timedOut;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.Row;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the columns the report reads from the two header rows of a WGS export instead of fixed letters.
+ * The first header row names column groups, each spanning every column up to the next non-blank group cell,
+ * and the second row names the columns. Resolved layouts are cached by a fingerprint of the header, so every
+ * further sheet with a known layout costs a single map lookup.
+ */
+public class SchemaResolver {
+    private static final String OVERRIDE_PREFIX = "schema.column.";
+
+    private final Map<Field, Integer> overrides;
+    private final Map<String, VariantColumns> layoutsByFingerprint = new ConcurrentHashMap<>();
+
+    /**
+     * A field of {@link VariantColumns} with the header names it is known under. A column only matches if its
+     * group contains {@code group}; when several columns match, the ones in {@code preferredGroup} win.
+     */
+    enum Field {
+        POSITION("position", null, null, "chr:pos", "position"),
+        READING("reading", null, null, "ref/alt"),
+        VARIANT_ALLELE_FREQUENCY("variantAlleleFrequency", null, null,
+                "variant allele freq", "variant allele frequency", "vaf"),
+        READ_DEPTH("readDepth", null, null, "read depth"),
+        GENE_NAMES("geneNames", null, "refseq", "gene names", "gene name"),
+        SEQUENCE_ONTOLOGY("sequenceOntology", null, "refseq", "sequence ontology"),
+        CLINVAR_VARIANT_ID("clinvarVariantId", "clinvar", null, "variation id", "variant id"),
+        CLINVAR_CLASSIFICATION("clinvarClassification", "clinvar", null,
+                "classification", "clinical significance"),
+        CLINVAR_AGGREGATED_SUBMISSIONS("clinvarAggregatedSubmissions", "clinvar", null, "aggregated submissions"),
+        GNOMAD_ALT_ALLELE_FREQUENCY("gnomadAltAlleleFrequency", "gnomad", "genomes", "alt allele freq", "af"),
+        HOMOZYGOUS_COUNT("homozygousCount", "gnomad", "genomes", "# hom alt", "hom alt"),
+        HEMIZYGOUS_COUNT("hemizygousCount", "gnomad", "genomes", "# hemi alt", "hemi alt"),
+        ACMG_CLASSIFICATION("acmgClassification", "acmg", null, "acmg classification", "classification");
+
+        private final String key;
+        private final String group;
+        private final String preferredGroup;
+        private final List<String> names;
+
+        Field(String key, String group, String preferredGroup, String... names) {
+            this.key = key;
+            this.group = group;
+            this.preferredGroup = preferredGroup;
+            this.names = List.of(names);
+        }
+
+        private List<Integer> candidates(List<String> groups, List<String> names) {
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                if (this.names.contains(names.get(i)) && (group == null || groups.get(i).contains(group))) {
+                    candidates.add(i);
+                }
+            }
+
+            if (candidates.size() > 1 && preferredGroup != null) {
+                List<Integer> preferred = candidates.stream()
+                        .filter(i -> groups.get(i).contains(preferredGroup))
+                        .toList();
+                if (preferred.size() == 1) {
+                    return preferred;
+                }
+            }
+            return candidates;
+        }
+    }
+
+    /**
+     * @param columnOverrides column letters by {@link VariantColumns} field name, used instead of the header
+     */
+    public SchemaResolver(Map<String, String> columnOverrides) {
+        Map<String, Field> fieldsByKey = Arrays.stream(Field.values())
+                .collect(Collectors.toMap(f -> f.key, f -> f));
+
+        Map<Field, Integer> overrides = new EnumMap<>(Field.class);
+        columnOverrides.forEach((key, column) -> {
+            Field field = fieldsByKey.get(key);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown column override " + key + ", expected one of "
+                        + fieldsByKey.keySet());
+            }
+            if (!column.trim().matches("[A-Za-z]{1,3}")) {
+                throw new IllegalArgumentException("Column override " + key + " must be a column letter, not " + column);
+            }
+            overrides.put(field, VariantColumns.columnToNumber(column.trim()));
+        });
+        this.overrides = overrides;
+    }
+
+    /**
+     * Takes the column overrides from {@code -Dschema.column.<field>=<letter>} system properties.
+     */
+    public static SchemaResolver fromSystemProperties() {
+        Map<String, String> columnOverrides = new HashMap<>();
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(OVERRIDE_PREFIX))
+                .forEach(name -> columnOverrides.put(name.substring(OVERRIDE_PREFIX.length()), System.getProperty(name)));
+
+        return new SchemaResolver(columnOverrides);
+    }
+
+    public VariantColumns resolve(List<Row> headerRows) throws IOException {
+        Row groupRow = headerRows.get(0);
+        Row nameRow = headerRows.get(1);
+        int width = Math.max(groupRow.getCellCount(), nameRow.getCellCount());
+
+        List<String> groups = new ArrayList<>(width);
+        List<String> names = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            groups.add(i < groupRow.getCellCount() ? groupRow.getCellText(i) : "");
+            names.add(i < nameRow.getCellCount() ? nameRow.getCellText(i) : "");
+        }
+        return resolve(groups, names);
+    }
+
+    VariantColumns resolve(List<String> groupHeader, List<String> nameHeader) throws IOException {
+        List<String> groups = new ArrayList<>(groupHeader.size());
+        String group = "";
+        for (String text : groupHeader) {
+            if (!text.isBlank()) {
+                group = normalize(text);
+            }
+            groups.add(group);
+        }
+        List<String> names = nameHeader.stream().map(SchemaResolver::normalize).toList();
+
+        String fingerprint = fingerprint(groups, names);
+        VariantColumns columns = layoutsByFingerprint.get(fingerprint);
+        if (columns == null) {
+            columns = resolveLayout(groups, names);
+            layoutsByFingerprint.put(fingerprint, columns);
+        }
+        return columns;
+    }
+
+    private VariantColumns resolveLayout(List<String> groups, List<String> names) throws IOException {
+        int[] indexes = new int[Field.values().length];
+        List<String> problems = new ArrayList<>();
+        for (Field field : Field.values()) {
+            Integer override = overrides.get(field);
+            List<Integer> candidates = override != null ? List.of(override) : field.candidates(groups, names);
+
+            if (candidates.size() == 1) {
+                indexes[field.ordinal()] = candidates.get(0);
+            } else if (candidates.isEmpty()) {
+                problems.add(field.key + ": no column named " + field.names.stream()
+                        .map(name -> '"' + name + '"')
+                        .collect(Collectors.joining(" or "))
+                        + (field.group == null ? "" : " under a \"" + field.group + "\" group"));
+            } else {
+                problems.add(field.key + ": several matching columns " + candidates.stream()
+                        .map(VariantColumns::numberToColumn)
+                        .collect(Collectors.joining(", ")));
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            throw new IOException("The header of the WGS export does not match the expected columns. Choose the "
+                    + "columns with -D" + OVERRIDE_PREFIX + "<field>=<column letter>:\n  "
+                    + String.join("\n  ", problems));
+        }
+
+        return new VariantColumns(
+                indexes[Field.POSITION.ordinal()],
+                indexes[Field.READING.ordinal()],
+                indexes[Field.VARIANT_ALLELE_FREQUENCY.ordinal()],
+                indexes[Field.READ_DEPTH.ordinal()],
+                indexes[Field.GENE_NAMES.ordinal()],
+                indexes[Field.SEQUENCE_ONTOLOGY.ordinal()],
+                indexes[Field.CLINVAR_VARIANT_ID.ordinal()],
+                indexes[Field.CLINVAR_CLASSIFICATION.ordinal()],
+                indexes[Field.CLINVAR_AGGREGATED_SUBMISSIONS.ordinal()],
+                indexes[Field.GNOMAD_ALT_ALLELE_FREQUENCY.ordinal()],
+                indexes[Field.HOMOZYGOUS_COUNT.ordinal()],
+                indexes[Field.HEMIZYGOUS_COUNT.ordinal()],
+                indexes[Field.ACMG_CLASSIFICATION.ordinal()]);
+    }
+
+    private static String normalize(String header) {
+        return header.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String fingerprint(List<String> groups, List<String> names) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (int i = 0; i < names.size(); i++) {
+                digest.update((groups.get(i) + '\t' + names.get(i) + '\n').getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
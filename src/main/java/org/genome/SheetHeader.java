@@ -0,0 +1,18 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.Row;
+
+import java.util.List;
+
+/**
+ * The two header rows of a WGS export together with the column layout resolved from them.
+ */
+public record SheetHeader(List<Row> rows, VariantColumns columns) {
+
+    /**
+     * First column after the exported ones, where the report appends its additional information.
+     */
+    public int additionalInformationColumn() {
+        return rows.get(1).getCellCount();
+    }
+}
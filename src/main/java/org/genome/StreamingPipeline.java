@@ -0,0 +1,125 @@
+package org.genome;
+
+import org.dhatim.fastexcel.Worksheet;
+import org.dhatim.fastexcel.reader.Row;
+import org.dhatim.fastexcel.reader.Sheet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Filters, enriches and writes a sheet in bounded batches instead of collecting all filtered rows first.
+ * A reader thread filters the input and starts the ClinVar fetch of every full batch, while the calling
+ * thread writes the enriched batches in order and flushes them to the output. At most
+ * {@code batchesInFlight} batches wait for the writer, so the memory use does not depend on the input size.
+ */
+public class StreamingPipeline {
+    private static final CompletableFuture<EnrichedBatch> END_OF_SHEET = new CompletableFuture<>();
+
+    private final DataExtractor dataExtractor;
+    private final WorksheetFiller worksheetFiller;
+    private final int batchSize;
+    private final int batchesInFlight;
+
+    private record EnrichedBatch(List<Row> rows, Map<String, VariantSummary> variantSummaries) {
+    }
+
+    public StreamingPipeline(DataExtractor dataExtractor, WorksheetFiller worksheetFiller,
+                             int batchSize, int batchesInFlight) {
+        this.dataExtractor = dataExtractor;
+        this.worksheetFiller = worksheetFiller;
+        this.batchSize = batchSize;
+        this.batchesInFlight = batchesInFlight;
+    }
+
+    /**
+     * @return the number of filtered rows written to the worksheet
+     */
+    public int run(Sheet sheet, Worksheet ws, PipelineMetrics metrics) throws IOException {
+        BlockingQueue<CompletableFuture<EnrichedBatch>> batches = new ArrayBlockingQueue<>(batchesInFlight);
+        CompletableFuture<SheetHeader> sheetHeader = new CompletableFuture<>();
+
+        ExecutorService reader = Executors.newSingleThreadExecutor(r -> new Thread(r, "wgs-sheet-reader"));
+        try {
+            reader.execute(() -> readSheet(sheet, sheetHeader, batches, metrics));
+
+            SheetHeader header = sheetHeader.join();
+            ReportSink sink = ReportSink.of(ws);
+            worksheetFiller.fillHeader(sink, header);
+
+            int rowIndex = 2;
+            for (CompletableFuture<EnrichedBatch> batch = batches.take(); batch != END_OF_SHEET; batch = batches.take()) {
+                EnrichedBatch enrichedBatch = batch.join();
+                long writeStart = System.nanoTime();
+                for (Row row : enrichedBatch.rows()) {
+                    worksheetFiller.fillRow(sink, rowIndex++, row, header, enrichedBatch.variantSummaries());
+                }
+                ws.flush();
+                metrics.addStage(PipelineMetrics.Stage.WRITE, System.nanoTime() - writeStart, enrichedBatch.rows().size());
+            }
+            return rowIndex - 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the worksheet", e);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        } finally {
+            // Stops the reader if the writer failed while it was still filtering
+            reader.shutdownNow();
+        }
+    }
+
+    private void readSheet(Sheet sheet, CompletableFuture<SheetHeader> sheetHeader,
+                           BlockingQueue<CompletableFuture<EnrichedBatch>> batches, PipelineMetrics metrics) {
+        try {
+            List<List<Row>> pending = new ArrayList<>(List.of(new ArrayList<>(batchSize)));
+            dataExtractor.filterWorkSheet(sheet, sheetHeader::complete, row -> {
+                List<Row> batch = pending.get(0);
+                batch.add(row);
+                if (batch.size() == batchSize) {
+                    put(batches, enrich(batch, sheetHeader.join().columns(), metrics));
+                    pending.set(0, new ArrayList<>(batchSize));
+                }
+            }, metrics);
+
+            if (!pending.get(0).isEmpty()) {
+                put(batches, enrich(pending.get(0), sheetHeader.join().columns(), metrics));
+            }
+            put(batches, END_OF_SHEET);
+        } catch (Throwable e) {
+            sheetHeader.completeExceptionally(e);
+            try {
+                batches.put(CompletableFuture.failedFuture(e));
+            } catch (InterruptedException interrupted) {
+                // The writer has stopped already
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Batches are enriched concurrently, so the ENRICH stage adds up the latency of every batch
+    private CompletableFuture<EnrichedBatch> enrich(List<Row> batch, VariantColumns columns, PipelineMetrics metrics) {
+        long enrichStart = System.nanoTime();
+        return worksheetFiller.fetchVariantSummaries(batch, columns, metrics)
+                .thenApply(variantSummaries -> {
+                    metrics.addStage(PipelineMetrics.Stage.ENRICH, System.nanoTime() - enrichStart, batch.size());
+                    return new EnrichedBatch(batch, variantSummaries);
+                });
+    }
+
+    private static void put(BlockingQueue<CompletableFuture<EnrichedBatch>> batches,
+                            CompletableFuture<EnrichedBatch> batch) {
+        try {
+            batches.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The worksheet writer stopped");
+        }
+    }
+}
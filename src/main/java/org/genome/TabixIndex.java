@@ -0,0 +1,152 @@
+package org.genome;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A tabix index ({@code .tbi}) of a bgzip-compressed VCF, as written by {@code tabix -p vcf}. It bins the records
+ * of every sequence by position in the UCSC binning scheme and keeps a linear index of the first record in every
+ * 16 kbp window, so the records overlapping an interval are found without reading the file up to them.
+ */
+final class TabixIndex {
+    private static final int MAGIC = 0x01494254;
+    private static final int LINEAR_SHIFT = 14;
+    private static final int[] LEVEL_OFFSETS = {1, 9, 73, 585, 4681};
+    private static final int[] LEVEL_SHIFTS = {26, 23, 20, 17, 14};
+
+    private final Map<String, Integer> sequences;
+    private final List<Map<Integer, long[]>> bins;
+    private final long[][] linearIndexes;
+
+    private TabixIndex(Map<String, Integer> sequences, List<Map<Integer, long[]>> bins, long[][] linearIndexes) {
+        this.sequences = sequences;
+        this.bins = bins;
+        this.linearIndexes = linearIndexes;
+    }
+
+    static Path of(Path vcf) {
+        return vcf.resolveSibling(vcf.getFileName() + ".tbi");
+    }
+
+    static TabixIndex read(Path file) throws IOException {
+        byte[] bytes;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            bytes = in.readAllBytes();
+        }
+        ByteBuffer index = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (index.getInt() != MAGIC) {
+                throw new IOException(file + " is not a tabix index");
+            }
+            int sequenceCount = index.getInt();
+            index.position(index.position() + 6 * 4);
+            byte[] names = new byte[index.getInt()];
+            index.get(names);
+
+            Map<String, Integer> sequences = new HashMap<>();
+            int start = 0;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == 0) {
+                    sequences.put(new String(names, start, i - start, StandardCharsets.UTF_8), sequences.size());
+                    start = i + 1;
+                }
+            }
+
+            List<Map<Integer, long[]>> bins = new ArrayList<>(sequenceCount);
+            long[][] linearIndexes = new long[sequenceCount][];
+            for (int sequence = 0; sequence < sequenceCount; sequence++) {
+                int binCount = index.getInt();
+                Map<Integer, long[]> sequenceBins = new HashMap<>(binCount * 2);
+                bins.add(sequenceBins);
+                for (int i = 0; i < binCount; i++) {
+                    int bin = index.getInt();
+                    // Begin and end virtual offset of every chunk of the bin
+                    long[] chunks = new long[2 * index.getInt()];
+                    for (int chunk = 0; chunk < chunks.length; chunk++) {
+                        chunks[chunk] = index.getLong();
+                    }
+                    sequenceBins.put(bin, chunks);
+                }
+                linearIndexes[sequence] = new long[index.getInt()];
+                for (int i = 0; i < linearIndexes[sequence].length; i++) {
+                    linearIndexes[sequence][i] = index.getLong();
+                }
+            }
+            return new TabixIndex(sequences, bins, linearIndexes);
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is not a valid tabix index", e);
+        }
+    }
+
+    /**
+     * Name under which the index knows a chromosome, with or without a {@code chr} prefix, or null.
+     */
+    String sequence(String chromosome) {
+        if (sequences.containsKey(chromosome)) {
+            return chromosome;
+        }
+        String other = chromosome.startsWith("chr") ? chromosome.substring(3) : "chr" + chromosome;
+        return sequences.containsKey(other) ? other : null;
+    }
+
+    /**
+     * Position of the sequence in the file, as a sorted file holds the records of one sequence after another.
+     */
+    int order(String sequence) {
+        return sequences.getOrDefault(sequence, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Virtual offset of the first record which may overlap the zero-based, half-open interval, or -1 if the file
+     * has none. Records from there on are sorted by position, so reading stops at the first one past the interval.
+     */
+    long firstOffset(String sequence, int begin, int end) {
+        Integer id = sequences.get(sequence);
+        if (id == null || begin >= end) {
+            return -1;
+        }
+        long[] linearIndex = linearIndexes[id];
+        int window = begin >> LINEAR_SHIFT;
+        long minimum = linearIndex.length == 0 ? 0 : linearIndex[Math.min(window, linearIndex.length - 1)];
+
+        long first = -1;
+        for (int bin : overlappingBins(begin, end)) {
+            long[] chunks = bins.get(id).get(bin);
+            if (chunks == null) {
+                continue;
+            }
+            for (int chunk = 0; chunk < chunks.length; chunk += 2) {
+                if (Long.compareUnsigned(chunks[chunk + 1], minimum) > 0
+                        && (first < 0 || Long.compareUnsigned(chunks[chunk], first) < 0)) {
+                    first = chunks[chunk];
+                }
+            }
+        }
+        return first < 0 || Long.compareUnsigned(first, minimum) >= 0 ? first : minimum;
+    }
+
+    // The bins of the UCSC scheme which may hold records overlapping the interval, from the largest to the smallest
+    private static int[] overlappingBins(int begin, int end) {
+        end--;
+        int[] bins = new int[37450];
+        int count = 0;
+        bins[count++] = 0;
+        for (int level = 0; level < LEVEL_OFFSETS.length; level++) {
+            int last = LEVEL_OFFSETS[level] + (end >> LEVEL_SHIFTS[level]);
+            for (int bin = LEVEL_OFFSETS[level] + (begin >> LEVEL_SHIFTS[level]); bin <= last; bin++) {
+                bins[count++] = bin;
+            }
+        }
+        return Arrays.copyOf(bins, count);
+    }
+}
@@ -3,6 +3,15 @@ package org.genome;
 import org.dhatim.fastexcel.reader.Row;
 
 import java.util.List;
+import java.util.Map;
 
-public record ValuableRows (List<Row> headerRows, List<Row> filteredRows) {
+/**
+ * The header and the accepted rows of a sheet, with the XML the rows were parsed from where the sheet was read
+ * through a {@link ProjectedSheetReader}, so that a report can copy them as they are.
+ */
+public record ValuableRows (SheetHeader header, List<Row> filteredRows, Map<Row, byte[]> sourceXml) {
+
+    public ValuableRows(SheetHeader header, List<Row> filteredRows) {
+        this(header, filteredRows, Map.of());
+    }
 }
@@ -0,0 +1,66 @@
+package org.genome;
+
+import java.util.List;
+
+/**
+ * Zero-based indexes of the columns the filters and the report read, resolved from the header rows of a sheet
+ * by {@link SchemaResolver}.
+ */
+public record VariantColumns(
+        int position,
+        int reading,
+        int variantAlleleFrequency,
+        int readDepth,
+        int geneNames,
+        int sequenceOntology,
+        int clinvarVariantId,
+        int clinvarClassification,
+        int clinvarAggregatedSubmissions,
+        int gnomadAltAlleleFrequency,
+        int homozygousCount,
+        int hemizygousCount,
+        int acmgClassification) {
+
+    /**
+     * Layout of the VarSeq export the filters were originally written against.
+     */
+    public static VariantColumns defaultLayout() {
+        return new VariantColumns(
+                columnToNumber("A"),
+                columnToNumber("B"),
+                columnToNumber("E"),
+                columnToNumber("G"),
+                columnToNumber("AD"),
+                columnToNumber("AE"),
+                columnToNumber("BF"),
+                columnToNumber("BG"),
+                columnToNumber("BH"),
+                columnToNumber("BZ"),
+                columnToNumber("CA"),
+                columnToNumber("CB"),
+                columnToNumber("DK"));
+    }
+
+    /**
+     * Every column of the layout, in the order of the fields.
+     */
+    public List<Integer> indexes() {
+        return List.of(position, reading, variantAlleleFrequency, readDepth, geneNames, sequenceOntology,
+                clinvarVariantId, clinvarClassification, clinvarAggregatedSubmissions, gnomadAltAlleleFrequency,
+                homozygousCount, hemizygousCount, acmgClassification);
+    }
+
+    public static int columnToNumber(String column) {
+        return column.toLowerCase().chars()
+                .map(charValue -> charValue + 1 - 'a')
+                .reduce(0, (result, charValue) -> result * 26 + charValue) - 1;
+    }
+
+    public static String numberToColumn(int number) {
+        StringBuilder column = new StringBuilder();
+        for (int n = number + 1; n > 0; n = (n - 1) / 26) {
+            column.insert(0, (char) ('A' + (n - 1) % 26));
+        }
+        return column.toString();
+    }
+}
@@ -0,0 +1,207 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.Cell;
+import org.dhatim.fastexcel.reader.Row;
+
+/**
+ * Reusable view of the filtered columns of one row. Every column is decoded at most once per row, and only when
+ * a filter asks for it, so rows rejected by the first filters never pay for parsing the remaining columns.
+ */
+final class VariantRecord {
+    private static final int READ_DEPTH = 1;
+    private static final int VARIANT_ALLELE_FREQUENCY = 1 << 1;
+    private static final int GNOMAD_ALT_ALLELE_FREQUENCY = 1 << 2;
+    private static final int GENES = 1 << 3;
+    private static final int HOMOZYGOUS_COUNT = 1 << 4;
+    private static final int HEMIZYGOUS_COUNT = 1 << 5;
+
+    private final VariantColumns columns;
+    private final GenePanel genePanel;
+
+    private Row row;
+    private int decoded;
+    private long readDepth;
+    private float variantAlleleFrequency;
+    private boolean multipleVariantAlleleFrequencies;
+    private double gnomadAltAlleleFrequency;
+    private boolean hasPanelGene;
+    private Phenotype firstGenePhenotype;
+    private int homozygousCount;
+    private int hemizygousCount;
+
+    VariantRecord(VariantColumns columns, GenePanel genePanel) {
+        this.columns = columns;
+        this.genePanel = genePanel;
+    }
+
+    void reset(Row row) {
+        this.row = row;
+        this.decoded = 0;
+    }
+
+    Row row() {
+        return row;
+    }
+
+    /**
+     * Read depth truncated to a whole number, or {@code Long.MIN_VALUE} if the cell is empty or not a number.
+     */
+    long readDepth() {
+        if ((decoded & READ_DEPTH) == 0) {
+            decoded |= READ_DEPTH;
+            double value = parseDouble(text(columns.readDepth()));
+            readDepth = Double.isNaN(value) ? Long.MIN_VALUE : (long) value;
+        }
+        return readDepth;
+    }
+
+    /**
+     * Single variant allele frequency, or NaN if the cell is empty, malformed or lists several frequencies.
+     */
+    float variantAlleleFrequency() {
+        decodeVariantAlleleFrequency();
+        return variantAlleleFrequency;
+    }
+
+    boolean hasMultipleVariantAlleleFrequencies() {
+        decodeVariantAlleleFrequency();
+        return multipleVariantAlleleFrequencies;
+    }
+
+    double gnomadAltAlleleFrequency() {
+        if ((decoded & GNOMAD_ALT_ALLELE_FREQUENCY) == 0) {
+            decoded |= GNOMAD_ALT_ALLELE_FREQUENCY;
+            gnomadAltAlleleFrequency = parseDouble(text(columns.gnomadAltAlleleFrequency()));
+        }
+        return gnomadAltAlleleFrequency;
+    }
+
+    boolean hasPanelGene() {
+        decodeGenes();
+        return hasPanelGene;
+    }
+
+    Phenotype firstGenePhenotype() {
+        decodeGenes();
+        return firstGenePhenotype;
+    }
+
+    /**
+     * Homozygous count, or {@code Integer.MAX_VALUE} if the cell is empty or malformed.
+     */
+    int homozygousCount() {
+        if ((decoded & HOMOZYGOUS_COUNT) == 0) {
+            decoded |= HOMOZYGOUS_COUNT;
+            homozygousCount = parseInt(text(columns.homozygousCount()));
+        }
+        return homozygousCount;
+    }
+
+    int hemizygousCount() {
+        if ((decoded & HEMIZYGOUS_COUNT) == 0) {
+            decoded |= HEMIZYGOUS_COUNT;
+            hemizygousCount = parseInt(text(columns.hemizygousCount()));
+        }
+        return hemizygousCount;
+    }
+
+    String sequenceOntology() {
+        return text(columns.sequenceOntology());
+    }
+
+    String clinvarClassification() {
+        return textOrEmpty(columns.clinvarClassification());
+    }
+
+    String clinvarAggregatedSubmissions() {
+        return textOrEmpty(columns.clinvarAggregatedSubmissions());
+    }
+
+    String acmgClassification() {
+        return textOrEmpty(columns.acmgClassification());
+    }
+
+    String text(int column) {
+        if (column < 0 || column >= row.getCellCount()) {
+            return null;
+        }
+        Cell cell = row.getCell(column);
+        return cell == null ? null : cell.getRawValue();
+    }
+
+    private String textOrEmpty(int column) {
+        String text = text(column);
+        return text == null ? "" : text;
+    }
+
+    private void decodeVariantAlleleFrequency() {
+        if ((decoded & VARIANT_ALLELE_FREQUENCY) == 0) {
+            decoded |= VARIANT_ALLELE_FREQUENCY;
+            String text = text(columns.variantAlleleFrequency());
+            multipleVariantAlleleFrequencies = text != null && text.indexOf(',') >= 0;
+            variantAlleleFrequency = text == null || multipleVariantAlleleFrequencies
+                    ? Float.NaN
+                    : parseFloat(text);
+        }
+    }
+
+    private void decodeGenes() {
+        if ((decoded & GENES) == 0) {
+            decoded |= GENES;
+            hasPanelGene = false;
+            firstGenePhenotype = null;
+
+            String genes = text(columns.geneNames());
+            if (genes == null) {
+                return;
+            }
+
+            int start = 0;
+            while (start <= genes.length()) {
+                int end = genes.indexOf(',', start);
+                if (end < 0) {
+                    end = genes.length();
+                }
+                Phenotype phenotype = genePanel.find(genes, start, end);
+                if (start == 0) {
+                    firstGenePhenotype = phenotype;
+                }
+                if (phenotype != null) {
+                    hasPanelGene = true;
+                    return;
+                }
+                start = end + 1;
+            }
+        }
+    }
+
+    private static double parseDouble(String text) {
+        if (text == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static float parseFloat(String text) {
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    private static int parseInt(String text) {
+        if (text == null) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+}
@@ -1,8 +1,24 @@
 package org.genome;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public record VariantSummary(
         String deceaseDefinition,
         List<PublicationSummary> summaries) {
+
+    /**
+     * Combines the summaries of two RCV accessions of the same variant, keeping the first decease definition.
+     */
+    public VariantSummary merge(VariantSummary other) {
+        // Cached summaries are shared, so they are combined into a new list
+        List<PublicationSummary> merged = new ArrayList<>(summaries);
+        merged.addAll(other.summaries());
+
+        return new VariantSummary(
+                deceaseDefinition == null || deceaseDefinition.isBlank()
+                        ? other.deceaseDefinition()
+                        : deceaseDefinition,
+                merged);
+    }
 }
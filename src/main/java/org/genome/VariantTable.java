@@ -0,0 +1,260 @@
+package org.genome;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The filtered and enriched variants of a report in a memory-mapped columnar file, written by
+ * {@link VariantTableWriter}. A column is read without decoding the others, so cohort tools scan the few columns
+ * they need instead of unzipping and parsing the xlsx report.
+ *
+ * <p>The file starts with a header of magic, version and the position of the directory at its end. The directory
+ * lists every sheet with its name, row count and columns, and every column with the texts of its two header cells
+ * and the position of its data. The data of a column starts with its {@link ColumnType}:
+ * <ul>
+ *     <li>{@code NUMBER}: a double per row, NaN for an empty cell</li>
+ *     <li>{@code DICTIONARY}: the distinct texts, then an int code per row, -1 for an empty cell</li>
+ *     <li>{@code TEXT}: a {@link CellKind} byte per row, the end offset of every row's text and the UTF-8 texts</li>
+ * </ul>
+ */
+public final class VariantTable {
+    static final int MAGIC = 0x57475356;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final List<Sheet> sheets;
+
+    public enum ColumnType {
+        NUMBER, DICTIONARY, TEXT
+    }
+
+    enum CellKind {
+        EMPTY, STRING, NUMBER, BOOLEAN;
+
+        static CellKind of(Object value) {
+            if (value == null) {
+                return EMPTY;
+            }
+            if (value instanceof Number) {
+                return NUMBER;
+            }
+            return value instanceof Boolean ? BOOLEAN : STRING;
+        }
+    }
+
+    private VariantTable(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a variant table");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported variant table version " + buffer.getInt(4));
+        }
+
+        ByteBuffer directory = buffer.duplicate().position(Math.toIntExact(buffer.getLong(8)));
+        int sheetCount = directory.getInt();
+        List<Sheet> sheets = new ArrayList<>(sheetCount);
+        for (int i = 0; i < sheetCount; i++) {
+            String name = readString(directory);
+            int rowCount = directory.getInt();
+            Column[] columns = new Column[directory.getInt()];
+            for (int column = 0; column < columns.length; column++) {
+                String group = readString(directory);
+                String columnName = readString(directory);
+                columns[column] = new Column(group, columnName, Math.toIntExact(directory.getLong()), rowCount);
+            }
+            sheets.add(new Sheet(name, rowCount, columns));
+        }
+        this.sheets = List.copyOf(sheets);
+    }
+
+    public static VariantTable open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large for a variant table");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return new VariantTable(buffer);
+            } catch (RuntimeException e) {
+                throw new IOException(file + " is not a valid variant table", e);
+            }
+        }
+    }
+
+    public List<Sheet> sheets() {
+        return sheets;
+    }
+
+    /**
+     * One report worksheet. Rows are numbered from 0, without the two header rows.
+     */
+    public final class Sheet {
+        private final String name;
+        private final int rowCount;
+        private final Column[] columns;
+
+        private Sheet(String name, int rowCount, Column[] columns) {
+            this.name = name;
+            this.rowCount = rowCount;
+            this.columns = columns;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int rowCount() {
+            return rowCount;
+        }
+
+        public int columnCount() {
+            return columns.length;
+        }
+
+        /**
+         * Text of the column's cell in the first header row, or null.
+         */
+        public String columnGroup(int column) {
+            return columns[column].group;
+        }
+
+        /**
+         * Text of the column's cell in the second header row, or null.
+         */
+        public String columnName(int column) {
+            return columns[column].name;
+        }
+
+        /**
+         * Index of the first column with the given name, or -1.
+         */
+        public int column(String name) {
+            for (int column = 0; column < columns.length; column++) {
+                if (name.equals(columns[column].name)) {
+                    return column;
+                }
+            }
+            return -1;
+        }
+
+        public ColumnType columnType(int column) {
+            return columns[column].type;
+        }
+
+        /**
+         * The cell as a {@link String}, {@link Double} or {@link BigDecimal}, {@link Boolean}, or null if empty.
+         */
+        public Object value(int row, int column) {
+            return columns[column].value(row);
+        }
+
+        /**
+         * The cell's number, or NaN if it is empty or not a number.
+         */
+        public double number(int row, int column) {
+            Column c = columns[column];
+            if (c.type == ColumnType.NUMBER) {
+                return buffer.getDouble(c.data + 8 * row);
+            }
+            return c.value(row) instanceof Number number ? number.doubleValue() : Double.NaN;
+        }
+
+        /**
+         * The cell's text, or null if it is empty.
+         */
+        public String text(int row, int column) {
+            Object value = columns[column].value(row);
+            return value == null ? null : value.toString();
+        }
+    }
+
+    private final class Column {
+        private final String group;
+        private final String name;
+        private final ColumnType type;
+        // Position of the per-row data, after the type and the dictionary
+        private final int data;
+        private final String[] dictionary;
+        // TEXT columns: the end offsets follow the kind of every row, and the texts follow the offsets
+        private final int ends;
+        private final int texts;
+
+        Column(String group, String name, int offset, int rowCount) {
+            this.group = group;
+            this.name = name;
+            this.type = ColumnType.values()[buffer.get(offset)];
+            if (type == ColumnType.DICTIONARY) {
+                ByteBuffer in = buffer.duplicate().position(offset + 1);
+                this.dictionary = new String[in.getInt()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString(in);
+                }
+                this.data = in.position();
+            } else {
+                this.dictionary = null;
+                this.data = offset + 1;
+            }
+            this.ends = data + rowCount;
+            this.texts = ends + 4 * (rowCount + 1);
+        }
+
+        Object value(int row) {
+            return switch (type) {
+                case NUMBER -> {
+                    double value = buffer.getDouble(data + 8 * row);
+                    yield Double.isNaN(value) ? null : value;
+                }
+                case DICTIONARY -> {
+                    int code = buffer.getInt(data + 4 * row);
+                    yield code < 0 ? null : dictionary[code];
+                }
+                case TEXT -> {
+                    CellKind kind = CellKind.values()[buffer.get(data + row)];
+                    if (kind == CellKind.EMPTY) {
+                        yield null;
+                    }
+                    int start = buffer.getInt(ends + 4 * row);
+                    byte[] bytes = new byte[buffer.getInt(ends + 4 * row + 4) - start];
+                    buffer.get(texts + start, bytes);
+                    String text = new String(bytes, StandardCharsets.UTF_8);
+                    yield switch (kind) {
+                        case NUMBER -> new BigDecimal(text);
+                        case BOOLEAN -> Boolean.valueOf(text);
+                        default -> text;
+                    };
+                }
+            };
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
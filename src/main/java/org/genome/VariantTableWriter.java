@@ -0,0 +1,253 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.dhatim.fastexcel.reader.Sheet;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Collects report worksheets as a {@link ReportSink} and writes them as a {@link VariantTable}. Every column gets the
+ * narrowest encoding its cells allow: numbers as doubles, often repeated texts such as genes and classifications
+ * as codes into a dictionary, and anything else as text.
+ */
+public class VariantTableWriter {
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final List<SheetBuilder> sheets = new ArrayList<>();
+
+    public ReportSink newSheet(String name) {
+        SheetBuilder sheet = new SheetBuilder(name);
+        sheets.add(sheet);
+        return sheet;
+    }
+
+    /**
+     * Reads every worksheet of an xlsx report, for reports written before the pipeline wrote variant tables.
+     */
+    public static VariantTableWriter fromReport(Path report) throws IOException {
+        VariantTableWriter writer = new VariantTableWriter();
+        try (ReadableWorkbook input = new ReadableWorkbook(report.toFile())) {
+            for (Sheet sheet : input.getSheets().toList()) {
+                ReportSink sink = writer.newSheet(sheet.getName());
+                int rowIndex = 0;
+                for (Row row : sheet.read()) {
+                    WorksheetFiller.saveRow(sink, rowIndex++, row);
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Writes the table to a temporary file next to {@code table} and moves it into place once it is complete.
+     */
+    public void write(Path table) throws IOException {
+        Path temporary = table.resolveSibling(table.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(VariantTable.HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE));
+            List<long[]> columnOffsets = new ArrayList<>(sheets.size());
+            for (SheetBuilder sheet : sheets) {
+                long[] offsets = new long[sheet.columnCount()];
+                for (int column = 0; column < offsets.length; column++) {
+                    offsets[column] = VariantTable.HEADER_SIZE + out.size();
+                    sheet.writeColumn(out, column);
+                }
+                columnOffsets.add(offsets);
+            }
+
+            long directory = VariantTable.HEADER_SIZE + out.size();
+            out.writeInt(sheets.size());
+            for (int i = 0; i < sheets.size(); i++) {
+                sheets.get(i).writeDirectory(out, columnOffsets.get(i));
+            }
+            out.flush();
+            if (VariantTable.HEADER_SIZE + out.size() > Integer.MAX_VALUE) {
+                throw new IOException("The variant table of " + table + " is larger than 2 GB");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(VariantTable.HEADER_SIZE)
+                    .putInt(VariantTable.MAGIC)
+                    .putInt(VariantTable.VERSION)
+                    .putLong(directory)
+                    .flip();
+            channel.write(header, 0);
+            channel.force(true);
+            Files.move(temporary, table, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Cells of one worksheet as they were written, the first two rows being the header.
+     */
+    private static class SheetBuilder implements ReportSink {
+        private final String name;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        SheetBuilder(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void value(int row, int column, String value) {
+            set(row, column, value);
+        }
+
+        @Override
+        public void value(int row, int column, Number value) {
+            set(row, column, value);
+        }
+
+        @Override
+        public void value(int row, int column, Boolean value) {
+            set(row, column, value);
+        }
+
+        private void set(int row, int column, Object value) {
+            while (rows.size() <= row) {
+                rows.add(new Object[0]);
+            }
+            Object[] cells = rows.get(row);
+            if (cells.length <= column) {
+                cells = Arrays.copyOf(cells, Math.max(column + 1, cells.length * 2));
+                rows.set(row, cells);
+            }
+            cells[column] = value;
+        }
+
+        int columnCount() {
+            int columnCount = 0;
+            for (Object[] cells : rows) {
+                for (int column = cells.length - 1; column >= columnCount; column--) {
+                    if (cells[column] != null) {
+                        columnCount = column + 1;
+                        break;
+                    }
+                }
+            }
+            return columnCount;
+        }
+
+        int rowCount() {
+            return Math.max(rows.size() - 2, 0);
+        }
+
+        private Object cell(int row, int column) {
+            if (row >= rows.size()) {
+                return null;
+            }
+            Object[] cells = rows.get(row);
+            return column < cells.length ? cells[column] : null;
+        }
+
+        private VariantTable.ColumnType typeOf(int column) {
+            boolean numbers = true;
+            boolean texts = true;
+            int textCount = 0;
+            Set<String> distinct = new HashSet<>();
+            for (int row = 2; row < rows.size() && (numbers || texts); row++) {
+                Object value = cell(row, column);
+                if (value instanceof String text) {
+                    numbers = false;
+                    textCount++;
+                    distinct.add(text);
+                } else if (value != null) {
+                    numbers &= value instanceof Number;
+                    texts = false;
+                }
+            }
+            if (numbers) {
+                return VariantTable.ColumnType.NUMBER;
+            }
+            // A dictionary pays off once every text is repeated on average
+            if (texts && distinct.size() * 2 <= textCount) {
+                return VariantTable.ColumnType.DICTIONARY;
+            }
+            return VariantTable.ColumnType.TEXT;
+        }
+
+        void writeColumn(DataOutputStream out, int column) throws IOException {
+            VariantTable.ColumnType type = typeOf(column);
+            out.writeByte(type.ordinal());
+            switch (type) {
+                case NUMBER -> {
+                    for (int row = 2; row < rows.size(); row++) {
+                        Object value = cell(row, column);
+                        out.writeDouble(value == null ? Double.NaN : ((Number) value).doubleValue());
+                    }
+                }
+                case DICTIONARY -> {
+                    Map<Object, Integer> codes = new LinkedHashMap<>();
+                    for (int row = 2; row < rows.size(); row++) {
+                        Object value = cell(row, column);
+                        if (value != null) {
+                            codes.putIfAbsent(value, codes.size());
+                        }
+                    }
+                    out.writeInt(codes.size());
+                    for (Object text : codes.keySet()) {
+                        VariantTable.writeString(out, (String) text);
+                    }
+                    for (int row = 2; row < rows.size(); row++) {
+                        Object value = cell(row, column);
+                        out.writeInt(value == null ? -1 : codes.get(value));
+                    }
+                }
+                case TEXT -> {
+                    List<byte[]> texts = new ArrayList<>(rowCount());
+                    for (int row = 2; row < rows.size(); row++) {
+                        Object value = cell(row, column);
+                        VariantTable.CellKind kind = VariantTable.CellKind.of(value);
+                        out.writeByte(kind.ordinal());
+                        texts.add(kind == VariantTable.CellKind.EMPTY
+                                ? new byte[0]
+                                : text(value).getBytes(StandardCharsets.UTF_8));
+                    }
+                    int end = 0;
+                    out.writeInt(end);
+                    for (byte[] text : texts) {
+                        end += text.length;
+                        out.writeInt(end);
+                    }
+                    for (byte[] text : texts) {
+                        out.write(text);
+                    }
+                }
+            }
+        }
+
+        private static String text(Object value) {
+            return value instanceof BigDecimal decimal ? decimal.toString() : value.toString();
+        }
+
+        void writeDirectory(DataOutputStream out, long[] columnOffsets) throws IOException {
+            VariantTable.writeString(out, name);
+            out.writeInt(rowCount());
+            out.writeInt(columnOffsets.length);
+            for (int column = 0; column < columnOffsets.length; column++) {
+                VariantTable.writeString(out, headerText(cell(0, column)));
+                VariantTable.writeString(out, headerText(cell(1, column)));
+                out.writeLong(columnOffsets[column]);
+            }
+        }
+
+        private static String headerText(Object value) {
+            return value == null ? null : text(value);
+        }
+    }
+}
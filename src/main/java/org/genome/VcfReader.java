@@ -0,0 +1,687 @@
+package org.genome;
+
+import org.dhatim.fastexcel.reader.*;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the variants of one sample of an annotated VCF as rows in the column layout of a WGS export, so the filters
+ * and the report take them like the rows of a workbook. Plain, gzip and bgzip files are streamed; a bgzip file with
+ * a {@code .tbi} index next to it can be read only where the panel genes are.
+ *
+ * <p>A line is kept as bytes and only the fields of the report are decoded from it: the INFO field is scanned once
+ * for the keys of {@link #INFO_FIELDS}, and the genes and sequence ontology are taken from the SnpEff {@code ANN} or
+ * the VEP {@code CSQ} annotation. Everything else on the line is never turned into a string.
+ */
+public final class VcfReader implements Closeable {
+    /**
+     * The report fields read from INFO keys, with their default keys; {@code -Dvcf.info.<field>=<key>} overrides one.
+     */
+    static final Map<String, String> INFO_FIELDS = Map.of(
+            "readDepth", "DP",
+            "clinvarVariantId", "CLNVID",
+            "clinvarClassification", "CLNSIG",
+            "clinvarAggregatedSubmissions", "CLNSIGCONF",
+            "gnomadAltAlleleFrequency", "gnomAD_AF",
+            "homozygousCount", "gnomAD_nhomalt",
+            "hemizygousCount", "gnomAD_nhemi",
+            "acmgClassification", "ACMG");
+    private static final String INFO_PREFIX = "vcf.info.";
+
+    private static final int POSITION = 0;
+    private static final int READING = 1;
+    private static final int IDENTIFIER = 2;
+    private static final int ZYGOSITY = 3;
+    private static final int VARIANT_ALLELE_FREQUENCY = 4;
+    private static final int READ_DEPTH = 5;
+    private static final int GENE_NAMES = 6;
+    private static final int SEQUENCE_ONTOLOGY = 7;
+    private static final int CLINVAR_VARIANT_ID = 8;
+    private static final int CLINVAR_CLASSIFICATION = 9;
+    private static final int CLINVAR_AGGREGATED_SUBMISSIONS = 10;
+    private static final int GNOMAD_ALT_ALLELE_FREQUENCY = 11;
+    private static final int HOMOZYGOUS_COUNT = 12;
+    private static final int HEMIZYGOUS_COUNT = 13;
+    private static final int ACMG_CLASSIFICATION = 14;
+    private static final String[] COLUMN_GROUPS = {"Variant Info", null, null, null, null, null, "Genes", null,
+            "ClinVar", null, null, "gnomAD Genomes", null, null, "ACMG"};
+    private static final String[] COLUMN_NAMES = {"Chr:Pos", "Ref/Alt", "Identifier", "Zygosity",
+            "Variant Allele Freq", "Read Depth", "Gene Names", "Sequence Ontology", "Variation ID", "Classification",
+            "Aggregated Submissions", "Alt Allele Freq", "# Hom Alt", "# Hemi Alt", "ACMG Classification"};
+    // The INFO keys are looked up in this order, the first being the read depth used without a FORMAT DP
+    private static final String[] INFO_ORDER = {"readDepth", "clinvarVariantId", "clinvarClassification",
+            "clinvarAggregatedSubmissions", "gnomadAltAlleleFrequency", "homozygousCount", "hemizygousCount",
+            "acmgClassification"};
+    private static final int[] INFO_COLUMNS = {READ_DEPTH, CLINVAR_VARIANT_ID, CLINVAR_CLASSIFICATION,
+            CLINVAR_AGGREGATED_SUBMISSIONS, GNOMAD_ALT_ALLELE_FREQUENCY, HOMOZYGOUS_COUNT, HEMIZYGOUS_COUNT,
+            ACMG_CLASSIFICATION};
+
+    private final Path file;
+    private final boolean bgzf;
+    private final InputStream in;
+    private final byte[][] infoKeys;
+    private final String sampleName;
+    private final int sampleColumn;
+    private final String annotationKey;
+    private final int annotationGene;
+    private final int annotationConsequence;
+    private final List<Row> headerRows;
+
+    private final byte[] buffer = new byte[1 << 16];
+    private int bufferPosition;
+    private int bufferLength;
+    private byte[] line = new byte[1 << 12];
+    private int lineLength;
+    private final int[] tabs = new int[10];
+    private final int[] infoStarts = new int[INFO_ORDER.length];
+    private final int[] infoEnds = new int[INFO_ORDER.length];
+    private int rowNum = 2;
+
+    private VcfReader(Path file, Map<String, String> infoKeys, String sample) throws IOException {
+        this.file = file;
+        this.bgzf = BgzfInputStream.isBgzf(file);
+        this.in = bgzf ? new BgzfInputStream(file) : isGzip(file)
+                ? new GZIPInputStream(Files.newInputStream(file), 1 << 16)
+                : Files.newInputStream(file);
+        this.infoKeys = new byte[INFO_ORDER.length][];
+        for (int i = 0; i < INFO_ORDER.length; i++) {
+            this.infoKeys[i] = infoKeys.getOrDefault(INFO_ORDER[i], INFO_FIELDS.get(INFO_ORDER[i]))
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+
+        String annotationKey = null;
+        String annotationFormat = null;
+        String header = null;
+        try {
+            while (nextLine() && line[0] == '#') {
+                String text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+                if (text.startsWith("##INFO=<ID=ANN,") || text.startsWith("##INFO=<ID=CSQ,") && annotationKey == null) {
+                    annotationKey = text.substring(11, 14);
+                    int format = text.indexOf("Format: ");
+                    annotationFormat = format < 0 ? "" : text.substring(format + 8).replaceAll("[\"'>\\s]+$", "");
+                } else if (text.startsWith("#CHROM")) {
+                    header = text;
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        if (header == null) {
+            in.close();
+            throw new IOException(file + " is not a VCF: it has no #CHROM header line");
+        }
+
+        List<String> columns = List.of(header.split("\t"));
+        int sampleColumn = sample == null ? 9 : columns.indexOf(sample);
+        if (columns.size() < 10 || sampleColumn < 9) {
+            in.close();
+            throw new IOException(sample == null
+                    ? file + " has no sample column"
+                    : file + " has no sample " + sample + ", only " + columns.subList(Math.min(9, columns.size()),
+                    columns.size()));
+        }
+        this.sampleColumn = sampleColumn;
+        this.sampleName = columns.get(sampleColumn);
+
+        // SnpEff lists Allele | Annotation | Impact | Gene_Name ..., VEP describes its fields in the header
+        List<String> annotationFields = annotationFormat == null || annotationFormat.isEmpty()
+                ? List.of()
+                : List.of(annotationFormat.split("\\|"));
+        this.annotationKey = annotationKey;
+        if ("CSQ".equals(annotationKey)) {
+            this.annotationGene = annotationFields.indexOf("SYMBOL");
+            this.annotationConsequence = annotationFields.indexOf("Consequence");
+        } else {
+            this.annotationGene = 3;
+            this.annotationConsequence = 1;
+        }
+
+        List<Cell> groups = new ArrayList<>(COLUMN_NAMES.length);
+        List<Cell> names = new ArrayList<>(COLUMN_NAMES.length);
+        for (int column = 0; column < COLUMN_NAMES.length; column++) {
+            groups.add(COLUMN_GROUPS[column] == null ? null : text(0, column, COLUMN_GROUPS[column]));
+            names.add(text(1, column, COLUMN_NAMES[column]));
+        }
+        this.headerRows = List.of(row(1, groups), row(2, names));
+    }
+
+    /**
+     * Opens the VCF and reads its header, taking the sample from {@code sample} or the first one if it is null.
+     */
+    public static VcfReader open(Path file, Map<String, String> infoKeys, String sample) throws IOException {
+        return new VcfReader(file, infoKeys, sample);
+    }
+
+    /**
+     * Opens the VCF with the INFO keys of {@code -Dvcf.info.<field>} and the sample of {@code -Dvcf.sample}.
+     */
+    public static VcfReader fromSystemProperties(Path file) throws IOException {
+        Map<String, String> infoKeys = new HashMap<>();
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(INFO_PREFIX))
+                .forEach(name -> {
+                    String field = name.substring(INFO_PREFIX.length());
+                    if (!INFO_FIELDS.containsKey(field)) {
+                        throw new IllegalArgumentException("Unknown VCF INFO field " + field + ", expected one of "
+                                + new TreeSet<>(INFO_FIELDS.keySet()));
+                    }
+                    infoKeys.put(field, System.getProperty(name));
+                });
+        return open(file, infoKeys, System.getProperty("vcf.sample"));
+    }
+
+    public static boolean isVcf(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).matches(".*\\.vcf(\\.gz|\\.bgz)?");
+    }
+
+    private static boolean isGzip(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    public String sampleName() {
+        return sampleName;
+    }
+
+    /**
+     * The two header rows of a WGS export with the columns this reader fills in.
+     */
+    public List<Row> headerRows() {
+        return headerRows;
+    }
+
+    /**
+     * Whether the file is bgzip-compressed and has a tabix index, so that {@link #variants(PanelRegions)} can skip
+     * to the regions.
+     */
+    public boolean isIndexed() {
+        return bgzf && Files.exists(TabixIndex.of(file));
+    }
+
+    /**
+     * Every variant of the file, in the order of the file. Read errors are thrown as {@link UncheckedIOException}.
+     */
+    public Iterator<Row> variants() {
+        return new Iterator<>() {
+            private Row next = readRow(null, 0, Integer.MAX_VALUE, Map.of());
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Row next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Row row = next;
+                next = readRow(null, 0, Integer.MAX_VALUE, Map.of());
+                return row;
+            }
+        };
+    }
+
+    /**
+     * The variants overlapping the regions, read through the tabix index so that only the compressed blocks holding
+     * them are decompressed. A variant overlapping several regions is read once.
+     */
+    public Iterator<Row> variants(PanelRegions regions) throws IOException {
+        if (!isIndexed()) {
+            throw new IOException(file + " needs to be compressed with bgzip and indexed with tabix -p vcf");
+        }
+        TabixIndex index = TabixIndex.read(TabixIndex.of(file));
+        BgzfInputStream bgzfIn = (BgzfInputStream) in;
+        // In the order of the file, so that the reads only move forward through it
+        Iterator<PanelRegions.Region> remaining = regions.regions().stream()
+                .filter(region -> index.sequence(region.chromosome()) != null)
+                .sorted(Comparator.comparingInt((PanelRegions.Region region) ->
+                        index.order(index.sequence(region.chromosome()))).thenComparingInt(PanelRegions.Region::begin))
+                .iterator();
+
+        return new Iterator<>() {
+            private String sequence;
+            private int begin;
+            private int end;
+            // The variants read from the sequence which may overlap the regions still to come, by their POS, ID, REF
+            // and ALT, with their last base. A seek to the next region may land on them again.
+            private final Map<String, Integer> read = new HashMap<>();
+            private Row next = advance();
+
+            // Seeks to the next region holding a variant, reading on from the current one while it has variants
+            private Row advance() {
+                try {
+                    while (true) {
+                        if (sequence != null) {
+                            Row row = readRow(sequence, begin, end, read);
+                            if (row != null) {
+                                read.put(recordKey(), lastBase());
+                                return row;
+                            }
+                        }
+                        if (!remaining.hasNext()) {
+                            return null;
+                        }
+                        PanelRegions.Region region = remaining.next();
+                        String previousSequence = sequence;
+                        sequence = index.sequence(region.chromosome());
+                        if (!sequence.equals(previousSequence)) {
+                            read.clear();
+                        }
+                        read.values().removeIf(lastBase -> lastBase <= region.begin());
+                        long offset = index.firstOffset(sequence, region.begin(), region.end());
+                        if (offset < 0) {
+                            sequence = null;
+                            continue;
+                        }
+                        begin = region.begin();
+                        end = region.end();
+                        bgzfIn.seek(offset);
+                        bufferPosition = 0;
+                        bufferLength = 0;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Row next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Row row = next;
+                next = advance();
+                return row;
+            }
+        };
+    }
+
+    /**
+     * Reads up to the next record overlapping the zero-based interval of the sequence, or of any sequence if it is
+     * null, which is not one of the {@code read} ones. Returns null at the end of the file or of the interval.
+     */
+    private Row readRow(String sequence, int begin, int end, Map<String, Integer> read) {
+        try {
+            while (nextLine()) {
+                if (lineLength == 0 || line[0] == '#') {
+                    continue;
+                }
+                int fields = splitFields();
+                if (fields <= 9) {
+                    throw new IOException(file + ": record " + (rowNum - 1) + " has " + fields + " fields");
+                }
+                if (sequence != null) {
+                    if (!equals(0, tabs[0], sequence)) {
+                        return null;
+                    }
+                    int position = parseInt(tabs[0] + 1, tabs[1]);
+                    if (position > end) {
+                        return null;
+                    }
+                    if (lastBase() <= begin || !read.isEmpty() && read.containsKey(recordKey())) {
+                        continue;
+                    }
+                }
+                return record();
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // POS, ID, REF and ALT of the current record, which tell apart the records at the same position
+    private String recordKey() {
+        return string(tabs[0] + 1, tabs[4]);
+    }
+
+    // The 1-based position of the last reference base of the current record
+    private int lastBase() throws IOException {
+        return parseInt(tabs[0] + 1, tabs[1]) + tabs[3] - tabs[2] - 2;
+    }
+
+    private Row record() throws IOException {
+        int row = rowNum++;
+        Cell[] cells = new Cell[COLUMN_NAMES.length];
+        cells[POSITION] = text(row, POSITION, string(0, tabs[0]) + ":" + string(tabs[0] + 1, tabs[1]));
+        cells[READING] = text(row, READING, string(tabs[2] + 1, tabs[3]) + "/" + string(tabs[3] + 1, tabs[4]));
+        cells[IDENTIFIER] = text(row, IDENTIFIER, value(tabs[1] + 1, tabs[2], false));
+
+        scanInfo(tabs[6] + 1, tabs[7]);
+        for (int i = 0; i < INFO_ORDER.length; i++) {
+            if (infoStarts[i] >= 0) {
+                int column = INFO_COLUMNS[i];
+                cells[column] = text(row, column, value(infoStarts[i], infoEnds[i],
+                        column == CLINVAR_CLASSIFICATION || column == CLINVAR_AGGREGATED_SUBMISSIONS));
+            }
+        }
+        readAnnotation(row, cells);
+        readSample(row, cells);
+        if (cells[READ_DEPTH] != null) {
+            String readDepth = cells[READ_DEPTH].getRawValue();
+            cells[READ_DEPTH] = readDepth.matches("\\d{1,18}")
+                    ? cell(row, READ_DEPTH, CellType.NUMBER, new BigDecimal(readDepth), readDepth)
+                    : cells[READ_DEPTH];
+        }
+        return row(row, Arrays.asList(cells));
+    }
+
+    // Finds the value of every looked-up key in a single pass over the INFO field
+    private void scanInfo(int start, int end) {
+        Arrays.fill(infoStarts, -1);
+        int entry = start;
+        while (entry < end) {
+            int entryEnd = indexOf((byte) ';', entry, end);
+            int equals = indexOf((byte) '=', entry, entryEnd);
+            for (int i = 0; i < infoKeys.length; i++) {
+                if (infoStarts[i] < 0 && regionEquals(entry, equals, infoKeys[i])) {
+                    infoStarts[i] = equals < entryEnd ? equals + 1 : equals;
+                    infoEnds[i] = entryEnd;
+                }
+            }
+            entry = entryEnd + 1;
+        }
+    }
+
+    private void readAnnotation(int row, Cell[] cells) {
+        if (annotationKey == null || annotationGene < 0) {
+            return;
+        }
+        byte[] key = annotationKey.getBytes(StandardCharsets.US_ASCII);
+        int entry = tabs[6] + 1;
+        int infoEnd = tabs[7];
+        while (entry < infoEnd) {
+            int entryEnd = indexOf((byte) ';', entry, infoEnd);
+            int equals = indexOf((byte) '=', entry, entryEnd);
+            if (regionEquals(entry, equals, key) && equals < entryEnd) {
+                List<String> genes = new ArrayList<>(2);
+                List<String> consequences = new ArrayList<>(2);
+                int annotation = equals + 1;
+                while (annotation < entryEnd) {
+                    int annotationEnd = indexOf((byte) ',', annotation, entryEnd);
+                    int field = 0;
+                    int fieldStart = annotation;
+                    while (fieldStart <= annotationEnd) {
+                        int fieldEnd = indexOf((byte) '|', fieldStart, annotationEnd);
+                        if (field == annotationGene && fieldEnd > fieldStart) {
+                            addDistinct(genes, value(fieldStart, fieldEnd, false));
+                        } else if (field == annotationConsequence && fieldEnd > fieldStart) {
+                            for (String consequence : value(fieldStart, fieldEnd, false).split("&")) {
+                                addDistinct(consequences, consequence);
+                            }
+                        }
+                        field++;
+                        fieldStart = fieldEnd + 1;
+                    }
+                    annotation = annotationEnd + 1;
+                }
+                if (!genes.isEmpty()) {
+                    cells[GENE_NAMES] = text(row, GENE_NAMES, String.join(",", genes));
+                }
+                if (!consequences.isEmpty()) {
+                    cells[SEQUENCE_ONTOLOGY] = text(row, SEQUENCE_ONTOLOGY, String.join(",", consequences));
+                }
+                return;
+            }
+            entry = entryEnd + 1;
+        }
+    }
+
+    private static void addDistinct(List<String> values, String value) {
+        if (value != null && !values.contains(value)) {
+            values.add(value);
+        }
+    }
+
+    // Zygosity from GT, VAF from AF or AD, and the read depth from DP if the sample has one
+    private void readSample(int row, Cell[] cells) {
+        int formatStart = tabs[7] + 1;
+        int formatEnd = tabs[8];
+        int sampleStart = sampleColumn == 9 ? tabs[8] + 1 : nthField(sampleColumn);
+        int sampleEnd = indexOf((byte) '\t', sampleStart, lineLength);
+
+        String genotype = null;
+        String alleleDepths = null;
+        String alleleFrequency = null;
+        int key = formatStart;
+        int value = sampleStart;
+        while (key < formatEnd && value <= sampleEnd) {
+            int keyEnd = indexOf((byte) ':', key, formatEnd);
+            int valueEnd = indexOf((byte) ':', value, sampleEnd);
+            if (regionEquals(key, keyEnd, "GT")) {
+                genotype = value(value, valueEnd, false);
+            } else if (regionEquals(key, keyEnd, "AD")) {
+                alleleDepths = value(value, valueEnd, false);
+            } else if (regionEquals(key, keyEnd, "AF")) {
+                alleleFrequency = value(value, valueEnd, false);
+            } else if (regionEquals(key, keyEnd, "DP") && valueEnd > value) {
+                String depth = value(value, valueEnd, false);
+                if (depth != null) {
+                    cells[READ_DEPTH] = text(row, READ_DEPTH, depth);
+                }
+            }
+            key = keyEnd + 1;
+            value = valueEnd + 1;
+        }
+
+        if (genotype != null) {
+            cells[ZYGOSITY] = text(row, ZYGOSITY, zygosity(genotype));
+        }
+        String variantAlleleFrequency = alleleFrequency != null ? alleleFrequency : fromDepths(alleleDepths);
+        if (variantAlleleFrequency != null) {
+            cells[VARIANT_ALLELE_FREQUENCY] = text(row, VARIANT_ALLELE_FREQUENCY, variantAlleleFrequency);
+        }
+    }
+
+    private static String zygosity(String genotype) {
+        String[] alleles = genotype.split("[/|]");
+        boolean called = Arrays.stream(alleles).noneMatch(allele -> allele.equals("."));
+        if (!called) {
+            return "No Call";
+        }
+        if (Arrays.stream(alleles).allMatch(allele -> allele.equals("0"))) {
+            return "Ref";
+        }
+        return Arrays.stream(alleles).distinct().count() == 1 ? "Hom" : "Het";
+    }
+
+    // Fraction of the reads of every alternate allele, separated by commas like the export lists them
+    private static String fromDepths(String alleleDepths) {
+        if (alleleDepths == null) {
+            return null;
+        }
+        String[] depths = alleleDepths.split(",");
+        long[] counts = new long[depths.length];
+        long total = 0;
+        try {
+            for (int i = 0; i < depths.length; i++) {
+                counts[i] = Long.parseLong(depths[i]);
+                total += counts[i];
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (depths.length < 2 || total == 0) {
+            return null;
+        }
+        StringJoiner fractions = new StringJoiner(",");
+        for (int i = 1; i < counts.length; i++) {
+            fractions.add(String.valueOf((double) counts[i] / total));
+        }
+        return fractions.toString();
+    }
+
+    // Finds the tabs after the first ten fields, the line's end standing in for a missing one; returns the fields found
+    private int splitFields() {
+        int count = 0;
+        for (int i = 0; i < lineLength && count < tabs.length; i++) {
+            if (line[i] == '\t') {
+                tabs[count++] = i;
+            }
+        }
+        if (count < tabs.length) {
+            // The last field ends with the line
+            tabs[count] = lineLength;
+            return count + 1;
+        }
+        return count + 1;
+    }
+
+    private int nthField(int field) {
+        int count = 0;
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == '\t' && ++count == field) {
+                return i + 1;
+            }
+        }
+        return lineLength;
+    }
+
+    private boolean nextLine() throws IOException {
+        lineLength = 0;
+        boolean read = false;
+        while (true) {
+            if (bufferPosition == bufferLength) {
+                bufferLength = in.read(buffer, 0, buffer.length);
+                bufferPosition = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    return read;
+                }
+            }
+            read = true;
+            int newline = bufferPosition;
+            while (newline < bufferLength && buffer[newline] != '\n') {
+                newline++;
+            }
+            int length = newline - bufferPosition;
+            if (lineLength + length > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+            }
+            System.arraycopy(buffer, bufferPosition, line, lineLength, length);
+            lineLength += length;
+            bufferPosition = newline;
+            if (newline < bufferLength) {
+                bufferPosition++;
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+        }
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private boolean regionEquals(int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (line[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start, int end, String key) {
+        if (end - start != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (line[start + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equals(int start, int end, String text) {
+        return regionEquals(start, end, text);
+    }
+
+    private int parseInt(int start, int end) throws IOException {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException(file + ": malformed position " + string(start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private String string(int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The text of a VCF value with its percent-encoded characters decoded, or null for a missing value.
+     */
+    private String value(int start, int end, boolean underscoresAsSpaces) {
+        if (end <= start || end - start == 1 && line[start] == '.') {
+            return null;
+        }
+        boolean plain = true;
+        for (int i = start; i < end && plain; i++) {
+            plain = line[i] != '%' && !(underscoresAsSpaces && line[i] == '_');
+        }
+        if (plain) {
+            return string(start, end);
+        }
+
+        byte[] decoded = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = line[i];
+            if (b == '%' && i + 2 < end && Character.digit(line[i + 1], 16) >= 0 && Character.digit(line[i + 2], 16) >= 0) {
+                decoded[length++] = (byte) (Character.digit(line[i + 1], 16) * 16 + Character.digit(line[i + 2], 16));
+                i += 2;
+            } else {
+                decoded[length++] = underscoresAsSpaces && b == '_' ? (byte) ' ' : b;
+            }
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static Cell text(int row, int column, String value) {
+        return value == null ? null : cell(row, column, CellType.STRING, value, value);
+    }
+
+    private static Cell cell(int row, int column, CellType type, Object value, String rawValue) {
+        return FastexcelAccess.cell(type, value, new CellAddress(row - 1, column), rawValue);
+    }
+
+    private static Row row(int rowNum, List<Cell> cells) {
+        return FastexcelAccess.row(rowNum, cells);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -1,100 +1,222 @@
 package org.genome;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import org.dhatim.fastexcel.Worksheet;
-import org.dhatim.fastexcel.reader.Cell;
 import org.dhatim.fastexcel.reader.Row;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class WorksheetFiller {
-    private final ClinvarFetcher clinvarFetcher;
-    private final Map<String, Phenotype> genesToPhenotypes;
+    static final String CLINVAR_LOOKUP_FAILED = "ClinVar lookup failed";
+    private static final String LOOKUP_FAILED_FILL = "FFC7CE";
 
-    public WorksheetFiller(ClinvarFetcher clinvarFetcher, Map<String, Phenotype> genesToPhenotypes) {
-        this.clinvarFetcher = clinvarFetcher;
-        this.genesToPhenotypes = genesToPhenotypes;
+    private final ClinvarSource clinvarSource;
+    private final GenePanel genePanel;
+
+    public WorksheetFiller(ClinvarSource clinvarSource, GenePanel genePanel) {
+        this.clinvarSource = clinvarSource;
+        this.genePanel = genePanel;
     }
 
     public void fillWorksheet(Worksheet ws, ValuableRows rows) {
+        fillWorksheet(ws, rows, new PipelineMetrics(""));
+    }
+
+    public void fillWorksheet(Worksheet ws, ValuableRows rows, PipelineMetrics metrics) {
+        fillReport(ReportSink.of(ws), rows, metrics);
+    }
+
+    public void fillReport(ReportSink sink, ValuableRows rows, PipelineMetrics metrics) {
+        SheetHeader header = rows.header();
+
+        // Resolve all ClinVar variants up front, so the requests run concurrently
+        long enrichStart = System.nanoTime();
+        Map<String, VariantSummary> variantSummaries =
+                fetchVariantSummaries(rows.filteredRows(), header.columns(), metrics).join();
+        metrics.addStage(PipelineMetrics.Stage.ENRICH, System.nanoTime() - enrichStart, rows.filteredRows().size());
+        fillReport(sink, rows, variantSummaries, metrics);
+    }
+
+    /**
+     * Writes the rows with ClinVar summaries which have already been looked up.
+     */
+    public void fillReport(ReportSink sink, ValuableRows rows, Map<String, VariantSummary> variantSummaries,
+                           PipelineMetrics metrics) {
+        SheetHeader header = rows.header();
+        long writeStart = System.nanoTime();
+        fillHeader(sink, header, rows.sourceXml());
+        // Append filtered rows
+        for (int i = 0; i < rows.filteredRows().size(); i++) {
+            Row row = rows.filteredRows().get(i);
+            fillRow(sink, i + 2, row, rows.sourceXml().get(row), header, variantSummaries);
+        }
+        metrics.addStage(PipelineMetrics.Stage.WRITE, System.nanoTime() - writeStart, rows.filteredRows().size());
+    }
+
+    public void fillHeader(ReportSink sink, SheetHeader header) {
+        fillHeader(sink, header, Map.of());
+    }
+
+    private void fillHeader(ReportSink sink, SheetHeader header, Map<Row, byte[]> sourceXml) {
+        List<Row> headerRows = header.rows();
+
         // Insert header rows
-        saveRowToWS(ws, 0, rows.headerRows().get(0));
-        saveRowToWS(ws, 1, rows.headerRows().get(1));
+        sink.copyRow(0, headerRows.get(0), sourceXml.get(headerRows.get(0)));
+        sink.copyRow(1, headerRows.get(1), sourceXml.get(headerRows.get(1)));
 
         // Insert additional header rows
-        ws.value(0, rows.headerRows().get(1).getCellCount(), "Additional Information");
-        ws.value(0, rows.headerRows().get(1).getCellCount() + 3, "Publication Summary");
-
-        ws.value(1, rows.headerRows().get(1).getCellCount(), "OMIM Codes");
-        ws.value(1, rows.headerRows().get(1).getCellCount() + 1, "Phenotype");
-        ws.value(1, rows.headerRows().get(1).getCellCount() + 2, "Decease Definition");
-        ws.value(1, rows.headerRows().get(1).getCellCount() + 3, "Submitted Classification");
-        ws.value(1, rows.headerRows().get(1).getCellCount() + 4, "Submitted Date Updated");
-        ws.value(1, rows.headerRows().get(1).getCellCount() + 5, "Submitter");
-        ws.value(1, rows.headerRows().get(1).getCellCount() + 6, "Submitted Assembly");
-        ws.value(1, rows.headerRows().get(1).getCellCount() + 7, "Variant Summary");
+        sink.value(0, headerRows.get(1).getCellCount(), "Additional Information");
+        sink.value(0, headerRows.get(1).getCellCount() + 3, "Publication Summary");
 
-        // Append filtered rows
-        for (int i = 2; i < rows.filteredRows().size(); i++) {
-            saveRowToWS(ws, i, rows.filteredRows().get(i));
-            // Include additional information about phenotypes and OMIM codes
-            Phenotype phenotype = rows.filteredRows().get(i).getCellAsString(29)
-                    .map(genesToPhenotypes::get)
+        sink.value(1, headerRows.get(1).getCellCount(), "OMIM Codes");
+        sink.value(1, headerRows.get(1).getCellCount() + 1, "Phenotype");
+        sink.value(1, headerRows.get(1).getCellCount() + 2, "Decease Definition");
+        sink.value(1, headerRows.get(1).getCellCount() + 3, "Submitted Classification");
+        sink.value(1, headerRows.get(1).getCellCount() + 4, "Submitted Date Updated");
+        sink.value(1, headerRows.get(1).getCellCount() + 5, "Submitter");
+        sink.value(1, headerRows.get(1).getCellCount() + 6, "Submitted Assembly");
+        sink.value(1, headerRows.get(1).getCellCount() + 7, "Variant Summary");
+    }
+
+    public CompletableFuture<Map<String, VariantSummary>> fetchVariantSummaries(List<Row> filteredRows,
+                                                                                VariantColumns columns,
+                                                                                PipelineMetrics metrics) {
+        List<String> clinvarVariantIds = new ArrayList<>();
+        for (Row row : filteredRows) {
+            row.getCellAsString(columns.clinvarVariantId()).ifPresent(clinvarVariantIds::add);
+        }
+
+        return clinvarSource.fetchVariantSummaries(clinvarVariantIds, metrics);
+    }
+
+    public void fillRow(ReportSink sink, int rowIndex, Row row, SheetHeader header,
+                        Map<String, VariantSummary> variantSummaries) {
+        fillRow(sink, rowIndex, row, null, header, variantSummaries);
+    }
+
+    private void fillRow(ReportSink sink, int rowIndex, Row row, byte[] sourceXml, SheetHeader header,
+                         Map<String, VariantSummary> variantSummaries) {
+        int additionalInformationColumn = header.additionalInformationColumn();
+        sink.copyRow(rowIndex, row, sourceXml);
+        // Include additional information about phenotypes and OMIM codes
+        Phenotype phenotype = row.getCellAsString(header.columns().geneNames())
+                .map(genePanel::get)
+                .orElse(null);
+        if (phenotype != null) {
+            sink.value(rowIndex, additionalInformationColumn, phenotype.mimCodes());
+            sink.value(rowIndex, additionalInformationColumn + 1, phenotype.name());
+        }
+
+        row.getCellAsString(header.columns().clinvarVariantId())
+                .ifPresent(id -> fillVariantSummary(sink, rowIndex, additionalInformationColumn, variantSummaries.get(id)));
+    }
+
+    /**
+     * Fills in the ClinVar columns of the report rows whose lookup had failed, writing only those cells to the sink.
+     *
+     * @param reportRows all rows of a report worksheet, including its two header rows
+     * @return the number of rows whose ClinVar lookup failed again
+     */
+    public int reEnrichWorksheet(ReportSink sink, List<Row> reportRows, VariantColumns columns,
+                                 PipelineMetrics metrics) throws IOException {
+        int additionalInformationColumn = findColumn(reportRows.get(1), "OMIM Codes");
+        int deceaseDefinitionColumn = additionalInformationColumn + 2;
+        List<Row> failedRows = reportRows.stream()
+                .skip(2)
+                .filter(row -> CLINVAR_LOOKUP_FAILED.equals(row.getCellText(deceaseDefinitionColumn)))
+                .toList();
+
+        long enrichStart = System.nanoTime();
+        Map<String, VariantSummary> variantSummaries = fetchVariantSummaries(failedRows, columns, metrics).join();
+        metrics.addStage(PipelineMetrics.Stage.ENRICH, System.nanoTime() - enrichStart, failedRows.size());
+
+        int stillFailing = 0;
+        for (Row row : failedRows) {
+            VariantSummary variantSummary = row.getCellAsString(columns.clinvarVariantId())
+                    .map(variantSummaries::get)
                     .orElse(null);
-            if (phenotype != null) {
-                ws.value(i, rows.headerRows().get(1).getCellCount(), phenotype.mimCodes());
-                ws.value(i, rows.headerRows().get(1).getCellCount() + 1, phenotype.name());
+            if (variantSummary == null) {
+                stillFailing++;
+            } else {
+                fillVariantSummary(sink, row.getRowNum() - 1, additionalInformationColumn, variantSummary);
             }
-
-            final int rowIndex = i;
-            rows.filteredRows().get(i).getCellAsString(57)
-                    .map(clinvarVariantId -> {
-                        try {
-                            return clinvarFetcher.fetchVariantSummary(clinvarVariantId);
-                        } catch (IOException | InterruptedException e) {
-                            throw new RuntimeException(e);
-                        }
-                    })
-                    .ifPresent(vs -> {
-                        ws.value(rowIndex, rows.headerRows().get(1).getCellCount() + 2, vs.deceaseDefinition());
-
-                        vs.summaries().stream()
-                                .filter(s -> s.classification().toLowerCase().contains("pathogenic"))
-                                .filter(s -> !s.summary().isBlank())
-                                .max(Comparator.comparing(PublicationSummary::dateUpdated))
-                                .ifPresent(s -> {
-                                    ws.value(rowIndex, rows.headerRows().get(1).getCellCount() + 3, s.classification());
-                                    ws.value(rowIndex, rows.headerRows().get(1).getCellCount() + 4, s.dateUpdated().toString());
-                                    ws.value(rowIndex, rows.headerRows().get(1).getCellCount() + 5, s.submitter());
-                                    ws.value(rowIndex, rows.headerRows().get(1).getCellCount() + 6, s.submittedAssembly());
-                                    ws.value(rowIndex, rows.headerRows().get(1).getCellCount() + 7, s.summary());
-                                });
-                    });
         }
+        return stillFailing;
     }
 
-    private void saveRowToWS(Worksheet worksheet, int rowNum, Row row) {
-        for (int i = 0; i < row.getCellCount(); i++) {
-            saveCellToWS(worksheet, rowNum, i, row.getCell(i));
+    /**
+     * Writes a sheet of a variant table as a report worksheet, highlighting the rows whose ClinVar lookup failed.
+     */
+    public void renderWorksheet(Worksheet ws, VariantTable.Sheet sheet) {
+        ReportSink sink = ReportSink.of(ws);
+        for (int column = 0; column < sheet.columnCount(); column++) {
+            if (sheet.columnGroup(column) != null) {
+                sink.value(0, column, sheet.columnGroup(column));
+            }
+            if (sheet.columnName(column) != null) {
+                sink.value(1, column, sheet.columnName(column));
+            }
+        }
+
+        int deceaseDefinitionColumn = sheet.column("Decease Definition");
+        for (int row = 0; row < sheet.rowCount(); row++) {
+            for (int column = 0; column < sheet.columnCount(); column++) {
+                Object value = sheet.value(row, column);
+                if (value instanceof String text) {
+                    sink.value(row + 2, column, text);
+                } else if (value instanceof Boolean bool) {
+                    sink.value(row + 2, column, bool);
+                } else if (value instanceof Double number && number == Math.rint(number) && Math.abs(number) < 1e15) {
+                    // Written as a whole number, as the export had it, rather than with a trailing ".0"
+                    sink.value(row + 2, column, number.longValue());
+                } else if (value instanceof Number number) {
+                    sink.value(row + 2, column, number);
+                }
+            }
+            if (deceaseDefinitionColumn >= 0
+                    && CLINVAR_LOOKUP_FAILED.equals(sheet.text(row, deceaseDefinitionColumn))) {
+                sink.highlight(row + 2, deceaseDefinitionColumn, LOOKUP_FAILED_FILL);
+            }
         }
     }
 
-    private void saveCellToWS(Worksheet worksheet, int rowNum, int colNum, Cell cell) {
-        if (cell == null) {
+    // A variant missing from the summaries could not be looked up, which the report has to show
+    private void fillVariantSummary(ReportSink sink, int rowIndex, int additionalInformationColumn, VariantSummary vs) {
+        if (vs == null) {
+            sink.value(rowIndex, additionalInformationColumn + 2, CLINVAR_LOOKUP_FAILED);
+            sink.highlight(rowIndex, additionalInformationColumn + 2, LOOKUP_FAILED_FILL);
             return;
         }
 
-        switch (cell.getType()) {
-            case STRING -> worksheet.value(rowNum, colNum, cell.asString());
-            case NUMBER -> worksheet.value(rowNum, colNum, cell.asNumber());
-            case BOOLEAN -> worksheet.value(rowNum, colNum, cell.asBoolean());
+        sink.value(rowIndex, additionalInformationColumn + 2, vs.deceaseDefinition());
+
+        vs.summaries().stream()
+                .filter(s -> s.classification().toLowerCase().contains("pathogenic"))
+                .filter(s -> !s.summary().isBlank())
+                .max(Comparator.comparing(PublicationSummary::dateUpdated))
+                .ifPresent(s -> {
+                    sink.value(rowIndex, additionalInformationColumn + 3, s.classification());
+                    sink.value(rowIndex, additionalInformationColumn + 4, s.dateUpdated().toString());
+                    sink.value(rowIndex, additionalInformationColumn + 5, s.submitter());
+                    sink.value(rowIndex, additionalInformationColumn + 6, s.submittedAssembly());
+                    sink.value(rowIndex, additionalInformationColumn + 7, s.summary());
+                });
+    }
+
+    private static int findColumn(Row row, String name) throws IOException {
+        for (int i = 0; i < row.getCellCount(); i++) {
+            if (name.equals(row.getCellText(i))) {
+                return i;
+            }
         }
+        throw new IOException("The worksheet has no \"" + name + "\" column, it is not a WGS report");
+    }
+
+    static void saveRow(ReportSink sink, int rowNum, Row row) {
+        sink.copyRow(rowNum, row, null);
     }
 }
@@ -0,0 +1,64 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class BatchRunnerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void transformsEveryWorkbookAndReportsFailures() throws IOException {
+        Path samples = Files.createDirectory(directory.resolve("samples"));
+        for (String sample : List.of("S1.xlsx", "S2.xlsx", "broken.xlsx", "~$S1.xlsx", "notes.txt")) {
+            Files.writeString(samples.resolve(sample), sample);
+        }
+        Path reports = Files.createDirectory(directory.resolve("reports"));
+        Files.writeString(reports.resolve("broken.report.xlsx"), "earlier");
+
+        boolean succeeded = new BatchRunner((input, output) -> ExcelTransformer.writeAtomically(output, report -> {
+            if (input.getFileName().toString().startsWith("broken")) {
+                Files.writeString(report, "partial");
+                throw new IOException("Not a workbook");
+            }
+            Files.copy(input, report);
+            return new BatchRunner.SampleReport(1, 42);
+        }), 2).run(samples, reports);
+
+        assertFalse(succeeded);
+        assertTrue(Files.exists(reports.resolve("S1.report.xlsx")));
+        assertTrue(Files.exists(reports.resolve("S2.report.xlsx")));
+        assertEquals("earlier", Files.readString(reports.resolve("broken.report.xlsx")),
+                "A failed run replaced the report of an earlier one");
+        assertFalse(Files.exists(reports.resolve("broken.report.xlsx.tmp")), "Partial reports are removed");
+
+        List<String> summary = Files.readAllLines(reports.resolve(BatchRunner.SUMMARY_FILE));
+        assertEquals(4, summary.size());
+        assertTrue(summary.get(1).contains("S1.report.xlsx\tOK\t1\t42\t"), summary.get(1));
+        assertTrue(summary.get(3).contains("broken.xlsx\t\tFAILED\t\t\t"), summary.get(3));
+        assertTrue(summary.get(3).endsWith("Not a workbook"), summary.get(3));
+    }
+
+    @Test
+    public void readsManifestsRelativeToTheirDirectory() throws IOException {
+        Path manifest = Files.writeString(directory.resolve("batch.txt"), """
+                # sequencing batch 12
+                samples/S1.xlsx
+
+                %s
+                """.formatted(directory.resolve("S2.xlsx")));
+
+        assertEquals(List.of(directory.resolve("samples/S1.xlsx"), directory.resolve("S2.xlsx")),
+                BatchRunner.listInputs(manifest));
+    }
+}
@@ -0,0 +1,74 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public class ClinvarCacheTest {
+    private static final Instant NOW = Instant.parse("2024-05-01T10:00:00Z");
+
+    @TempDir
+    Path cacheDirectory;
+
+    @Test
+    public void entriesSurviveAcrossInstances() {
+        VariantSummary summary = new VariantSummary("Hereditary breast cancer", List.of(
+                new PublicationSummary(LocalDate.of(2023, 2, 1), "Lab", "GRCh38", "Pathogenic", "Comment"),
+                new PublicationSummary(LocalDate.MIN, "Other lab", "GRCh37", "Likely pathogenic", "")));
+
+        ClinvarCache writer = cacheAt(NOW);
+        writer.putRcvNumbers("17661", List.of("RCV000019216", "RCV000077517"));
+        writer.putVariantSummary("RCV000019216", summary);
+
+        ClinvarCache reader = cacheAt(NOW.plus(Duration.ofDays(1)));
+        assertEquals(Optional.of(List.of("RCV000019216", "RCV000077517")), reader.getRcvNumbers("17661"));
+        assertEquals(Optional.of(summary), reader.getVariantSummary("RCV000019216"));
+        assertEquals(Optional.empty(), reader.getVariantSummary("RCV000077517"));
+    }
+
+    @Test
+    public void expiredEntriesAreReportedAsStale() throws IOException {
+        cacheAt(NOW).putRcvNumbers("17661", List.of("RCV000019216"));
+        cacheAt(NOW.plus(Duration.ofDays(20))).putRcvNumbers("12345", List.of());
+
+        ClinvarCache cache = cacheAt(NOW.plus(Duration.ofDays(40)));
+        assertEquals(Optional.empty(), cache.getRcvNumbers("17661"));
+        assertEquals(List.of("17661"), cache.staleVariantIds());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            cacheAt(NOW.plusSeconds(i)).putRcvNumbers(String.valueOf(i), List.of("RCV" + i));
+        }
+        // Reading the oldest entry makes it the most recently used one
+        cacheAt(NOW.plusSeconds(100)).getRcvNumbers("0");
+
+        new ClinvarCache(cacheDirectory, Duration.ofDays(30), 5, Clock.fixed(NOW, ZoneOffset.UTC))
+                .evictIfOverCapacity();
+
+        try (Stream<Path> files = Files.list(cacheDirectory.resolve("variants"))) {
+            List<String> remaining = files.map(p -> p.getFileName().toString()).sorted().toList();
+            assertEquals(List.of("0", "7", "8", "9"), remaining);
+        }
+        assertTrue(cacheAt(NOW).getRcvNumbers("0").isPresent());
+    }
+
+    private ClinvarCache cacheAt(Instant instant) {
+        return new ClinvarCache(cacheDirectory, Duration.ofDays(30), 1000, Clock.fixed(instant, ZoneOffset.UTC));
+    }
+}
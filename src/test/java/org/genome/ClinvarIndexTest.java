@@ -0,0 +1,59 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class ClinvarIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void servesTheSummariesOfAGzippedRelease() throws IOException {
+        Path release = directory.resolve("ClinVarFullRelease.xml.gz");
+        try (InputStream in = ClinvarIndexTest.class.getResourceAsStream("/clinvar/clinvarset.xml");
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(release))) {
+            in.transferTo(out);
+        }
+        Path indexFile = directory.resolve("clinvar.index");
+
+        ClinvarIndexImporter.Summary summary = new ClinvarIndexImporter(new ClinvarXmlParser())
+                .importRelease(release, indexFile);
+        ClinvarIndex index = ClinvarIndex.open(indexFile);
+
+        assertEquals(new ClinvarIndexImporter.Summary(2, 1), summary);
+        Map<String, VariantSummary> bySummaries;
+        try (InputStream in = ClinvarIndexTest.class.getResourceAsStream("/clinvar/clinvarset.xml")) {
+            bySummaries = new ClinvarXmlParser().parseVariantSummaries(in);
+        }
+        // The same merge of both RCV accessions the NCBI lookup produces
+        VariantSummary expected = bySummaries.get("RCV000019216").merge(bySummaries.get("RCV000077517"));
+        Map<String, VariantSummary> found = index.fetchVariantSummaries(List.of("17661", "99999", "not an id"),
+                new PipelineMetrics("test")).join();
+
+        assertEquals(expected, found.get("17661"));
+        assertTrue(found.get("99999").summaries().isEmpty());
+        assertNull(found.get("not an id").deceaseDefinition());
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Path file = Files.writeString(directory.resolve("clinvar.index"), "not an index, but long enough for a header");
+
+        assertThrows(IOException.class, () -> ClinvarIndex.open(file));
+    }
+}
@@ -0,0 +1,59 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+public class ClinvarXmlParserTest {
+    private final ClinvarXmlParser parser = new ClinvarXmlParser();
+    private final TreeClinvarParser treeParser = new TreeClinvarParser();
+
+    @Test
+    public void readsRcvNumbersOfEveryDocumentSummary() throws IOException {
+        Map<String, List<String>> rcvNumbers = parser.parseRcvNumbers(fixture("esummary.xml"));
+
+        assertEquals(Map.of(
+                "17661", List.of("RCV000019216", "RCV000077517"),
+                "12345", List.of("RCV000013170")), rcvNumbers);
+        assertEquals(treeParser.parseRcvNumbers(fixture("esummary.xml")), rcvNumbers);
+    }
+
+    @Test
+    public void readsSummariesOfEveryClinVarSet() throws IOException {
+        Map<String, VariantSummary> summaries = parser.parseVariantSummaries(fixture("clinvarset.xml"));
+
+        VariantSummary hboc = summaries.get("RCV000077517");
+        assertEquals("Hereditary breast and ovarian cancer syndrome is characterized by an increased risk for "
+                + "female and male breast cancer, ovarian cancer and to a lesser extent other cancers.",
+                hboc.deceaseDefinition());
+        assertEquals(List.of(
+                new PublicationSummary(LocalDate.of(2024, 9, 29),
+                        "Evidence-based Network for the Interpretation of Germline Mutant Alleles (ENIGMA)",
+                        "GRCh38", "Pathogenic",
+                        "Variant allele predicted to encode a truncated non-functional protein."),
+                new PublicationSummary(LocalDate.of(2013, 4, 4),
+                        "Sharing Clinical Reports Project (SCRP)", "GRCh37", "Pathogenic",
+                        "Converted during submission to Pathogenic."),
+                new PublicationSummary(LocalDate.MIN, "Counsyl", "", "Likely pathogenic", "")), hboc.summaries());
+
+        VariantSummary familial = summaries.get("RCV000019216");
+        assertEquals("", familial.deceaseDefinition());
+        assertEquals(1, familial.summaries().size());
+    }
+
+    @Test
+    public void matchesTheTreeBasedParser() throws IOException {
+        assertEquals(treeParser.parseVariantSummaries(fixture("clinvarset.xml")),
+                parser.parseVariantSummaries(fixture("clinvarset.xml")));
+    }
+
+    private InputStream fixture(String name) {
+        return ClinvarXmlParserTest.class.getResourceAsStream("/clinvar/" + name);
+    }
+}
@@ -0,0 +1,173 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class CohortIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private final ClinvarSource clinvarSource = (ids, metrics) -> {
+        Map<String, VariantSummary> summaries = new HashMap<>();
+        ids.forEach(id -> summaries.put(id, new VariantSummary("Disease " + id, List.of())));
+        return CompletableFuture.completedFuture(summaries);
+    };
+
+    @Test
+    public void answersQueriesOverExportsReportsAndVariantTables() throws IOException {
+        GenePanel genePanel = TestPanels.bundledPanel();
+        DataExtractor dataExtractor = new DataExtractor(genePanel);
+        WorksheetFiller worksheetFiller = new WorksheetFiller(clinvarSource, genePanel);
+        Path inputs = Files.createDirectory(directory.resolve("inputs"));
+        Path samples = Files.createDirectory(directory.resolve("samples"));
+
+        Map<String, List<Row>> expected = new TreeMap<>();
+        for (int seed = 1; seed <= 3; seed++) {
+            Path input = new SyntheticWorkbook(seed, true).write(inputs.resolve("sample" + seed + ".xlsx"), 10_000);
+            ValuableRows rows;
+            try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+                rows = dataExtractor.filterWorkSheet(wb.getFirstSheet());
+            }
+            expected.put("sample" + seed, rows.filteredRows());
+
+            if (seed == 1) {
+                Files.copy(input, samples.resolve("sample1.xlsx"));
+                continue;
+            }
+            Path report = samples.resolve("sample" + seed + ".report.xlsx");
+            try (OutputStream os = Files.newOutputStream(report); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+                worksheetFiller.fillWorksheet(wb.newWorksheet("Sheet 1"), rows);
+            }
+            if (seed == 3) {
+                VariantTableWriter.fromReport(report).write(samples.resolve("sample3.report.variants"));
+            }
+        }
+        Files.copy(inputs.resolve("sample1.xlsx"), samples.resolve("~$sample1.xlsx"));
+
+        CohortIndex built = new CohortIndexer(dataExtractor, new SchemaResolver(Map.of()), 2).build(samples);
+        Path indexFile = directory.resolve("cohort.index");
+        built.write(indexFile);
+        CohortIndex index = CohortIndex.open(indexFile);
+
+        assertEquals(3, index.sampleCount());
+        assertEquals(expected.values().stream().mapToInt(List::size).sum(), index.recordCount());
+
+        String gene = mostFrequentGene(expected);
+        String query = "gene=" + gene.toLowerCase(Locale.ROOT) + " classification~pathogenic vaf>0.4";
+        List<String> matches = index.query(CohortQuery.parse(query)).stream()
+                .map(match -> match.sample() + " " + match.variant())
+                .toList();
+        List<String> bruteForce = new ArrayList<>();
+        Set<String> carriers = new HashSet<>();
+        VariantColumns columns = VariantColumns.defaultLayout();
+        expected.forEach((sample, rows) -> rows.stream()
+                .filter(row -> genes(row, columns).contains(gene))
+                .filter(row -> (row.getCellText(columns.clinvarClassification())
+                        + "|" + row.getCellText(columns.acmgClassification())).toLowerCase(Locale.ROOT)
+                        .contains("pathogenic"))
+                .filter(row -> vaf(row, columns) > 0.4)
+                .map(row -> row.getCellText(columns.position()) + " " + row.getCellText(columns.reading()))
+                .sorted()
+                .forEach(variant -> {
+                    bruteForce.add(sample + " " + variant);
+                    carriers.add(sample);
+                }));
+        assertFalse(bruteForce.isEmpty());
+        assertEquals(bruteForce, matches);
+
+        CohortIndex.GeneCarriers geneCarriers = index.carrierFrequencies(CohortQuery.parse(query)).stream()
+                .filter(carrier -> carrier.gene().equals(gene))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(carriers.size(), geneCarriers.carriers());
+        assertEquals(3, geneCarriers.samples());
+
+        assertThrows(IllegalArgumentException.class, () -> CohortQuery.parse("vaf~0.4"));
+        assertThrows(IllegalArgumentException.class, () -> CohortQuery.parse("zygosity=hom"));
+    }
+
+    @Test
+    public void readsEverySampleOnceWhateverFilesItHas() throws IOException {
+        GenePanel genePanel = TestPanels.bundledPanel();
+        DataExtractor dataExtractor = new DataExtractor(genePanel);
+        WorksheetFiller worksheetFiller = new WorksheetFiller(clinvarSource, genePanel);
+
+        // An export with its report next to it, as the daemon writes them
+        Path export = new SyntheticWorkbook(1, true).write(directory.resolve("S1.xlsx"), 5_000);
+        ValuableRows s1;
+        try (ReadableWorkbook wb = new ReadableWorkbook(export.toFile())) {
+            s1 = dataExtractor.filterWorkSheet(wb.getFirstSheet());
+        }
+        try (OutputStream os = Files.newOutputStream(directory.resolve("S1.report.xlsx"));
+             Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            worksheetFiller.fillWorksheet(wb.newWorksheet("Sheet 1"), s1);
+        }
+
+        // A report split into files by chromosome, without its export
+        Path input = new SyntheticWorkbook(2, true).write(Files.createDirectory(directory.resolve("inputs"))
+                .resolve("S2.xlsx"), 5_000);
+        ValuableRows s2;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            s2 = dataExtractor.filterWorkSheet(wb.getFirstSheet());
+        }
+        List<ReportSplit.Part> parts = new ReportSplit(ReportSplit.By.CHROMOSOME, s2.filteredRows().size() / 3 + 1)
+                .split(s2);
+        for (ReportSplit.Part part : parts) {
+            Path file = directory.resolve("S2.report." + ReportSplit.fileName(part.name()) + ".xlsx");
+            try (OutputStream os = Files.newOutputStream(file); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+                worksheetFiller.fillWorksheet(wb.newWorksheet("Sheet 1"), part.rows());
+            }
+        }
+        Files.delete(input);
+        Files.delete(directory.resolve("inputs"));
+
+        assertEquals(Set.of("S1", "S2"), CohortIndexer.listSamples(directory).keySet());
+        assertEquals(List.of(directory.resolve("S1.report.xlsx")), CohortIndexer.listSamples(directory).get("S1"));
+        CohortIndex index = new CohortIndexer(dataExtractor, new SchemaResolver(Map.of()), 2).build(directory);
+
+        assertTrue(parts.size() > 1, parts.size() + " parts");
+        assertEquals(2, index.sampleCount());
+        assertEquals(s1.filteredRows().size() + s2.filteredRows().size(), index.recordCount());
+        assertThrows(IllegalArgumentException.class, () -> CohortIndex.of(List.of(
+                new CohortIndex.Sample("S1", List.of()), new CohortIndex.Sample("S1", List.of()))));
+    }
+
+    private static String mostFrequentGene(Map<String, List<Row>> samples) {
+        Map<String, Integer> counts = new HashMap<>();
+        VariantColumns columns = VariantColumns.defaultLayout();
+        samples.values().forEach(rows -> rows.forEach(row -> genes(row, columns)
+                .forEach(gene -> counts.merge(gene, 1, Integer::sum))));
+        return Collections.max(counts.entrySet(), Map.Entry.comparingByValue()).getKey();
+    }
+
+    private static List<String> genes(Row row, VariantColumns columns) {
+        return Arrays.stream(row.getCellText(columns.geneNames()).split(","))
+                .map(String::trim)
+                .filter(gene -> !gene.isEmpty())
+                .toList();
+    }
+
+    private static double vaf(Row row, VariantColumns columns) {
+        try {
+            return Double.parseDouble(row.getCellText(columns.variantAlleleFrequency()));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
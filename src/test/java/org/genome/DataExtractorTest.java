@@ -0,0 +1,195 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.CellType;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class DataExtractorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void parallelFilteringWritesTheSameReport() throws IOException {
+        Path input = new SyntheticWorkbook(11, false).write(directory.resolve("input.xlsx"), 20_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        WorksheetFiller worksheetFiller = new WorksheetFiller(new ClinvarFetcher(HttpClient.newHttpClient(),
+                new ClinvarXmlParser(), new RateLimiter(3, 1), null, ClinvarCache.inMemory()), genePanel);
+
+        // Chunks of an odd size, so that chunk borders fall anywhere
+        Path sequential = writeReport(input, new DataExtractor(genePanel), worksheetFiller, "sequential");
+        Path parallel = writeReport(input,
+                new DataExtractor(genePanel, FilterRules.bundled(), new SchemaResolver(Map.of()), 3, 97),
+                worksheetFiller, "parallel");
+
+        assertEquals(StreamingPipelineTest.readRows(sequential), StreamingPipelineTest.readRows(parallel));
+        assertEquals(zipEntries(sequential), zipEntries(parallel));
+    }
+
+    @Test
+    public void recordsStageAndFilterMetrics() throws IOException {
+        Path input = new SyntheticWorkbook(3, false).write(directory.resolve("input.xlsx"), 12_000);
+        PipelineMetrics metrics = new PipelineMetrics("input.xlsx");
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            rows = new DataExtractor(TestPanels.bundledPanel()).filterWorkSheet(wb.getFirstSheet(), metrics);
+        }
+
+        Path metricsFile = directory.resolve("input.metrics.json");
+        metrics.writeJson(metricsFile);
+        JsonNode json = new ObjectMapper().readTree(metricsFile.toFile());
+
+        assertEquals(12_000, json.at("/stages/read/rows").asLong());
+        assertEquals(rows.filteredRows().size(), json.at("/stages/filter/rows").asLong());
+        assertEquals(7, json.get("filters").size());
+        // Every filter sees every sampled row, and the read depth filter rejects the shallow ones among them
+        JsonNode readDepth = json.get("filters").get(0);
+        assertEquals("sufficientReadDepth", readDepth.get("name").asText());
+        assertTrue(readDepth.get("evaluated").asLong() >= 10_000);
+        assertTrue(readDepth.get("rejected").asLong() > 0);
+        // Roughly one synthetic row in a thousand lists two frequencies
+        assertTrue(json.at("/variantAlleleFrequencyProblems/count").asLong() > 0);
+        assertEquals("0.31,0.22",
+                json.at("/variantAlleleFrequencyProblems/rows/0/variantAlleleFrequency").asText());
+    }
+
+    @Test
+    public void projectedReadingHandsOverTheSameRows() throws IOException {
+        Path input = new SyntheticWorkbook(17, true).write(directory.resolve("input.xlsx"), 15_000);
+        DataExtractor fullRows = new DataExtractor(TestPanels.bundledPanel()).withProjection(false);
+        DataExtractor projected = new DataExtractor(TestPanels.bundledPanel(), FilterRules.bundled(),
+                new SchemaResolver(Map.of()), 2, 61).withProjection(true);
+
+        ValuableRows expected;
+        ValuableRows actual;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            expected = fullRows.filterWorkSheet(wb.getFirstSheet());
+            actual = projected.filterWorkSheet(wb.getFirstSheet());
+        }
+
+        assertTrue(expected.filteredRows().size() > 0);
+        assertEquals(cells(expected.header().rows()), cells(actual.header().rows()));
+        assertEquals(cells(expected.filteredRows()), cells(actual.filteredRows()));
+    }
+
+    @Test
+    public void projectedReadingKeepsSharedFormulasOfRejectedRows() throws IOException {
+        Path export = new SyntheticWorkbook(19, false).write(directory.resolve("export.xlsx"), 3_000);
+        DataExtractor fullRows = new DataExtractor(TestPanels.bundledPanel()).withProjection(false);
+        DataExtractor projected = new DataExtractor(TestPanels.bundledPanel()).withProjection(true);
+        Set<Integer> accepted = new HashSet<>();
+        try (ReadableWorkbook wb = new ReadableWorkbook(export.toFile())) {
+            fullRows.filterWorkSheet(wb.getFirstSheet()).filteredRows().forEach(row -> accepted.add(row.getRowNum()));
+        }
+        // The formula is given in the first rejected row and shared by every row below it
+        int master = 3;
+        while (accepted.contains(master)) {
+            master++;
+        }
+        Path input = withSharedFormula(export, directory.resolve("input.xlsx"), master, 3_001);
+
+        ValuableRows expected;
+        ValuableRows actual;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            expected = fullRows.filterWorkSheet(wb.getFirstSheet());
+            actual = projected.filterWorkSheet(wb.getFirstSheet());
+        }
+
+        assertTrue(expected.filteredRows().stream().anyMatch(row -> row.getRowNum() > 3 && row.getCell(115) != null
+                && row.getCell(115).getType() == CellType.FORMULA));
+        assertTrue(actual.filteredRows().stream().noneMatch(row -> row.getRowNum() == 3));
+        assertEquals(cells(expected.filteredRows()), cells(actual.filteredRows()));
+    }
+
+    // Adds a cell in column DL to the rows from master to last, with a formula shared from the one in master
+    private static Path withSharedFormula(Path workbook, Path output, int master, int last) throws IOException {
+        try (ZipFile zip = new ZipFile(workbook.toFile());
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(output))) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                byte[] content = zip.getInputStream(entry).readAllBytes();
+                if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+                    Matcher row = Pattern.compile("<row r=\"(\\d+)\"[^>]*>.*?</row>").matcher(
+                            new String(content, StandardCharsets.UTF_8));
+                    StringBuilder xml = new StringBuilder();
+                    while (row.find()) {
+                        int number = Integer.parseInt(row.group(1));
+                        String formula = number == master
+                                ? "<f t=\"shared\" ref=\"DL" + master + ":DL" + last + "\" si=\"0\">1+1</f>"
+                                : "<f t=\"shared\" si=\"0\"/>";
+                        String cell = number < master ? "" : "<c r=\"DL" + number + "\">" + formula + "<v>2</v></c>";
+                        row.appendReplacement(xml, Matcher.quoteReplacement(
+                                row.group().replace("</row>", cell + "</row>")));
+                    }
+                    row.appendTail(xml);
+                    content = xml.toString().getBytes(StandardCharsets.UTF_8);
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        return output;
+    }
+
+    // Type, address, value and raw value of every cell, as the report reads them
+    private static List<List<String>> cells(List<org.dhatim.fastexcel.reader.Row> rows) {
+        return rows.stream()
+                .map(row -> row.stream()
+                        .map(cell -> cell == null ? "" : cell.getType() + " " + cell.getAddress() + " "
+                                + cell.getValue() + " " + cell.getRawValue())
+                        .toList())
+                .toList();
+    }
+
+    // Every part of the workbook except docProps/core.xml, which holds the creation time
+    private static Map<String, String> zipEntries(Path workbook) throws IOException {
+        Map<String, String> entries = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(workbook.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (!entry.getName().equals("docProps/core.xml")) {
+                    byte[] content = zip.getInputStream(entry).readAllBytes();
+                    entries.put(entry.getName(), HexFormat.of().formatHex(
+                            MessageDigest.getInstance("SHA-256").digest(content)));
+                }
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return entries;
+    }
+
+    private Path writeReport(Path input, DataExtractor dataExtractor, WorksheetFiller worksheetFiller, String name)
+            throws IOException {
+        Path output = directory.resolve(name + ".xlsx");
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            rows = dataExtractor.filterWorkSheet(wb.getFirstSheet());
+        }
+        try (OutputStream os = Files.newOutputStream(output); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            worksheetFiller.fillWorksheet(wb.newWorksheet("Sheet 1"), rows);
+        }
+        return output;
+    }
+}
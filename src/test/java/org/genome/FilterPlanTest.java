@@ -0,0 +1,53 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class FilterPlanTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void acceptsTheSameRowsAsTheLegacyFilterChain() throws IOException {
+        // More rows than the plan samples, so the reordered filters are compared as well
+        Path input = new SyntheticWorkbook(7, true).write(directory.resolve("input.xlsx"), 15_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        LegacyRowFilter legacyFilter = new LegacyRowFilter(genePanel);
+        FilterPlan.RowFilter rowFilter = FilterPlan.compile(VariantColumns.defaultLayout(), genePanel)
+                .newRowFilter();
+
+        int accepted = 0;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile());
+             Stream<Row> rows = wb.getFirstSheet().openStream()) {
+            Iterator<Row> iterator = rows.skip(2).iterator();
+            while (iterator.hasNext()) {
+                Row row = iterator.next();
+                boolean expected = legacyFilter.accepts(row);
+                assertEquals(expected, rowFilter.accepts(row), "Row " + row.getRowNum());
+                accepted += expected ? 1 : 0;
+            }
+        }
+        assertTrue(accepted > 0);
+    }
+
+    @Test
+    public void matchesCaseInsensitively() {
+        assertTrue(new KeywordMatcher(List.of("pathogenic")).matchesAny("Likely Pathogenic"));
+        assertTrue(new KeywordMatcher(List.of("frameshift")).matchesAny("FRAMESHIFT_variant"));
+        assertFalse(new KeywordMatcher(List.of("pathogenic")).matchesAny("Benign"));
+        assertFalse(new KeywordMatcher(List.of("vus")).matchesAny(""));
+    }
+}
@@ -0,0 +1,128 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class FilterRulesTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void appliesConfiguredThresholdsAndDecisions() throws IOException {
+        Path input = new SyntheticWorkbook(5, true).write(directory.resolve("input.xlsx"), 12_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        VariantColumns columns = VariantColumns.defaultLayout();
+        FilterRules rules = rules("""
+                [filters]
+                readDepth >= 40   # deeper coverage than the bundled rules
+                variantAlleleFrequency > 0.25 and gnomadAltAlleleFrequency < 0.01
+                sequenceOntology contains FRAMESHIFT, stop
+
+                [classification]
+                reject if acmg contains benign
+                report if clinvar contains pathogenic
+                report if clinvar is empty and acmg is not empty
+                """);
+        FilterPlan.RowFilter rowFilter = FilterPlan.compile(columns, genePanel, rules).newRowFilter();
+        FilterPlan.RowFilter bundled = FilterPlan.compile(columns, genePanel).newRowFilter();
+
+        int accepted = 0;
+        int acceptedByBundled = 0;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile());
+             Stream<Row> rows = wb.getFirstSheet().openStream()) {
+            for (Row row : (Iterable<Row>) rows.skip(2)::iterator) {
+                String clinvar = row.getCellText(columns.clinvarClassification()).toLowerCase(Locale.ROOT);
+                String acmg = row.getCellText(columns.acmgClassification()).toLowerCase(Locale.ROOT);
+                String sequenceOntology = row.getCellText(columns.sequenceOntology()).toLowerCase(Locale.ROOT);
+                String variantAlleleFrequency = row.getCellText(columns.variantAlleleFrequency());
+                boolean expected = number(row.getCellText(columns.readDepth())) >= 40
+                        && !variantAlleleFrequency.contains(",") && number(variantAlleleFrequency) > 0.25
+                        && number(row.getCellText(columns.gnomadAltAlleleFrequency())) < 0.01
+                        && (sequenceOntology.contains("frameshift") || sequenceOntology.contains("stop"))
+                        && !acmg.contains("benign")
+                        && (clinvar.contains("pathogenic") || clinvar.isEmpty() && !acmg.isEmpty())
+                        && Stream.of(row.getCellText(columns.geneNames()).split(","))
+                        .anyMatch(gene -> genePanel.get(gene) != null);
+                assertEquals(expected, rowFilter.accepts(row), "Row " + row.getRowNum());
+                accepted += expected ? 1 : 0;
+                acceptedByBundled += bundled.accepts(row) ? 1 : 0;
+            }
+        }
+        assertTrue(accepted > 0);
+        assertNotEquals(acceptedByBundled, accepted);
+    }
+
+    @Test
+    public void fingerprintsRulesButNotTheirFormatting() throws IOException {
+        assertEquals(rules("[filters]\nreadDepth > 20\n").fingerprint(),
+                rules("# comment\n[filters]\n  readDepth   > 20  # minimum\n").fingerprint());
+        assertNotEquals(rules("[filters]\nreadDepth > 20\n").fingerprint(),
+                rules("[filters]\nreadDepth > 30\n").fingerprint());
+        assertEquals(FilterRules.bundled().fingerprint(), FilterRules.load(FilterRules.BUNDLED).fingerprint());
+    }
+
+    @Test
+    public void reportsTheLineOfAnInvalidRule() {
+        IOException unknownField = assertThrows(IOException.class,
+                () -> rules("[filters]\nreadDepth > 20\nquality > 30\n"));
+        assertTrue(unknownField.getMessage().startsWith("rules:3: unknown number field \"quality\""),
+                unknownField.getMessage());
+        IOException unknownInheritance = assertThrows(IOException.class,
+                () -> rules("[zygosity]\nAR: homozygousCount < 5\nAR, MT: homozygousCount < 1\n"));
+        assertTrue(unknownInheritance.getMessage().startsWith("rules:3: unknown inheritance code \"MT\""),
+                unknownInheritance.getMessage());
+        assertThrows(IOException.class, () -> rules("readDepth > 20\n"));
+        assertThrows(IOException.class, () -> rules("[filters]\nreadDepth > deep\n"));
+        assertThrows(IOException.class, () -> rules("[classification]\nreport when clinvar is empty\n"));
+    }
+
+    @Test
+    public void matchesKeywordsLikeRepeatedContains() {
+        List<String> keywords = List.of("frameshift", "missense", "disruptive_inframe", "splice", "stop", "ss", "s");
+        Random random = new Random(3);
+        for (int size = 1; size <= keywords.size(); size++) {
+            KeywordMatcher matcher = new KeywordMatcher(keywords.subList(0, size));
+            for (int i = 0; i < 2_000; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int length = random.nextInt(30); length > 0; length--) {
+                    text.append("aeFimnorsStT_ĉ,".charAt(random.nextInt(15)));
+                }
+                if (random.nextInt(4) == 0) {
+                    text.insert(random.nextInt(text.length() + 1), keywords.get(random.nextInt(size)).toUpperCase());
+                }
+                String lowerCase = text.toString().toLowerCase(Locale.ROOT);
+                boolean expected = keywords.subList(0, size).stream().anyMatch(lowerCase::contains);
+                assertEquals(expected, matcher.matchesAny(text.toString()), text.toString());
+            }
+        }
+    }
+
+    private static FilterRules rules(String text) throws IOException {
+        return FilterRules.read(new BufferedReader(new StringReader(text)), "rules");
+    }
+
+    private static double number(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class GenePanelTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void findsGenesInsideAGeneList() {
+        GenePanel panel = GenePanel.bundled();
+        String genes = "NOT_A_GENE,BRCA1,TP53";
+
+        assertNull(panel.find(genes, 0, 10));
+        assertEquals(Inheritance.AUTOSOMAL_DOMINANT, panel.find(genes, 11, 16).inheritance());
+        assertEquals(panel.get("BRCA1"), panel.find(genes, 11, 16));
+        assertNull(panel.find(genes, 11, 15), "A prefix of a gene is not the gene");
+        assertEquals("Ehlers-Danlos syndrome, vascular type", panel.get("COL3A1").name());
+    }
+
+    @Test
+    public void combinesExternalPanelsInOrder() throws IOException {
+        Path cardio = Files.writeString(directory.resolve("cardio.csv"), """
+                gene,inheritance,phenotype,omim
+                JPH2,AD,"Cardiomyopathy, hypertrophic, 17",613873
+                BRCA1,XL,Not the bundled phenotype,0
+                """);
+        Path research = Files.writeString(directory.resolve("research.csv"), """
+                # Genes under evaluation
+                NEW1,AD/AR,Unclassified,
+                """);
+
+        GenePanel panel = GenePanel.load(List.of(GenePanel.BUNDLED, cardio.toString(), research.toString()));
+
+        assertEquals("Cardiomyopathy, hypertrophic, 17", panel.get("JPH2").name());
+        assertEquals(Inheritance.AUTOSOMAL_DOMINANT, panel.get("BRCA1").inheritance(), "The first panel wins");
+        assertEquals(Inheritance.OTHER, panel.get("NEW1").inheritance());
+        assertEquals(GenePanel.bundled().size() + 2, panel.size());
+    }
+
+    @Test
+    public void reportsMalformedLines() throws IOException {
+        Path panel = Files.writeString(directory.resolve("broken.csv"), "MYH7,AD\n");
+
+        IOException e = assertThrows(IOException.class, () -> GenePanel.load(List.of(panel.toString())));
+
+        assertTrue(e.getMessage().startsWith(panel + ":1:"), e.getMessage());
+    }
+}
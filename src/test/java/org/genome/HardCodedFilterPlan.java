@@ -0,0 +1,111 @@
+package org.genome;
+
+import java.util.List;
+
+/**
+ * The FilterPlan stages as they were hand-written before {@link FilterRules}, kept as a reference for benchmarks.
+ */
+public class HardCodedFilterPlan {
+    private static final String[] REPORTED_SEQUENCE_ONTOLOGIES =
+            {"frameshift", "missense", "disruptive_inframe", "splice", "stop"};
+
+    public static FilterPlan compile(VariantColumns columns, GenePanel genePanel) {
+        return FilterPlan.of(columns, genePanel, List.of(
+                new FilterPlan.Stage("sufficientReadDepth", 1, HardCodedFilterPlan::hasSufficientReadDepth),
+                new FilterPlan.Stage("variantAlleleFrequency", 2, HardCodedFilterPlan::hasVariantAlleleFrequency),
+                new FilterPlan.Stage("sequenceOntology", 4, HardCodedFilterPlan::hasReportedSequenceOntology),
+                new FilterPlan.Stage("gnomadAltAlleleFreq", 2, r -> r.gnomadAltAlleleFrequency() < 0.05),
+                new FilterPlan.Stage("clinvarAndACMGClassification", 5,
+                        HardCodedFilterPlan::isReportedClassification),
+                new FilterPlan.Stage("genePanel", 3, VariantRecord::hasPanelGene),
+                new FilterPlan.Stage("gnomadZygosityDependingOnInheritance", 3,
+                        HardCodedFilterPlan::hasExpectedZygosity)));
+    }
+
+    private static boolean hasSufficientReadDepth(VariantRecord record) {
+        return record.readDepth() > 20;
+    }
+
+    // TODO: Figure out how to filter when having more than one value?
+    // TODO: Do I need to know the difference between homozygous and heterozygous for the filtering part?
+    private static boolean hasVariantAlleleFrequency(VariantRecord record) {
+        // Rows listing several frequencies are left out and recorded in the pipeline metrics by the row filter
+        return !record.hasMultipleVariantAlleleFrequencies() && record.variantAlleleFrequency() > 0.25;
+    }
+
+    private static boolean hasReportedSequenceOntology(VariantRecord record) {
+        String sequenceOntology = record.sequenceOntology();
+        if (sequenceOntology == null) {
+            return false;
+        }
+        for (String reported : REPORTED_SEQUENCE_ONTOLOGIES) {
+            if (containsIgnoreCase(sequenceOntology, reported)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isReportedClassification(VariantRecord record) {
+        String clinvarClassification = record.clinvarClassification();
+        String acmgClassification = record.acmgClassification();
+
+        // Ако в clinvar е vus -> не се докладва
+        if (containsIgnoreCase(clinvarClassification, "vus")
+                || containsIgnoreCase(clinvarClassification, "uncertain")) {
+            return false;
+        }
+
+        // Ако в clinvar го няма, а в acmg е VUS -> не се докладва
+        if (clinvarClassification.isEmpty()
+                && containsIgnoreCase(acmgClassification, "vus")) {
+            return false;
+        }
+
+        // Ако в clinvar го няма, а в acmg е pathogenic -> докладва СЕ
+        if (clinvarClassification.isEmpty()
+                && (containsIgnoreCase(acmgClassification, "pathogenic")
+                || containsIgnoreCase(acmgClassification, "conflicting"))) {
+            return true;
+        }
+
+        // Ако в clinvar е conflicting, гледаме следващата колона и ако там ИМА pathogenic,
+        // гледаме acmg и ако там има Pathogenic (или conflicting),
+        // тогава можем да докладваме
+        if (containsIgnoreCase(clinvarClassification, "conflicting")) {
+            return containsIgnoreCase(record.clinvarAggregatedSubmissions(), "pathogenic")
+                    && (containsIgnoreCase(acmgClassification, "pathogenic")
+                    || containsIgnoreCase(acmgClassification, "conflicting"));
+        }
+
+        // Ако в clinvar e патогенен, то най-вероятно и в acmg е pathogenic -> докладва СЕ без значение оценката в acmg
+        return containsIgnoreCase(clinvarClassification, "pathogenic");
+    }
+
+    private static boolean hasExpectedZygosity(VariantRecord record) {
+        Phenotype phenotype = record.firstGenePhenotype();
+        if (phenotype == null) {
+            return true;
+        }
+
+        return switch (phenotype.inheritance()) {
+            case AUTOSOMAL_RECESSIVE, SEMIDOMINANT -> record.homozygousCount() < 5;
+            case AUTOSOMAL_DOMINANT -> record.homozygousCount() < 1;
+            case X_LINKED -> record.hemizygousCount() < 1;
+            case OTHER -> true;
+        };
+    }
+
+    /**
+     * Case-insensitive {@code contains} for lower-case ASCII needles, without lower-casing a copy of the text.
+     */
+    private static boolean containsIgnoreCase(String text, String needle) {
+        int last = text.length() - needle.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,109 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class IncrementalRunTest {
+
+    @TempDir
+    Path directory;
+
+    private final Map<String, String> deceaseDefinitions = new HashMap<>();
+    private final ClinvarSource clinvarSource = (ids, metrics) -> {
+        Map<String, VariantSummary> summaries = new HashMap<>();
+        ids.forEach(id -> summaries.put(id,
+                new VariantSummary(deceaseDefinitions.getOrDefault(id, "Disease " + id), List.of())));
+        return CompletableFuture.completedFuture(summaries);
+    };
+
+    @Test
+    public void redoesOnlyWhatChangedSinceThePreviousRun() throws IOException {
+        Path input = new SyntheticWorkbook(7, true).write(directory.resolve("input.xlsx"), 20_000);
+        Path report = directory.resolve("report.xlsx");
+        GenePanel bundled = TestPanels.bundledPanel();
+
+        IncrementalRun.Result first = incrementalRun(bundled).transform(input, report, false, metrics());
+        assertTrue(first.inputRead());
+        assertTrue(first.reportWritten());
+        assertEquals(fullRun(input, bundled), StreamingPipelineTest.readRows(report));
+
+        IncrementalRun.Result unchanged = incrementalRun(bundled).transform(input, report, false, metrics());
+        assertFalse(unchanged.inputRead());
+        assertEquals(0, unchanged.refilteredRows());
+        assertEquals(0, unchanged.changedVariants());
+        assertFalse(unchanged.reportWritten());
+
+        String reportedId = StreamingPipelineTest.readRows(report).stream()
+                .skip(2)
+                .map(row -> row.split("\\|")[VariantColumns.defaultLayout().clinvarVariantId()])
+                .filter(cell -> !cell.isEmpty())
+                .findFirst()
+                .orElseThrow()
+                .replaceFirst("^[A-Z]+:", "");
+        deceaseDefinitions.put(reportedId, "Reclassified disease");
+        IncrementalRun.Result reclassified = incrementalRun(bundled).transform(input, report, false, metrics());
+        assertFalse(reclassified.inputRead());
+        assertEquals(1, reclassified.changedVariants());
+        assertTrue(reclassified.reportWritten());
+        assertEquals(fullRun(input, bundled), StreamingPipelineTest.readRows(report));
+
+        GenePanel smallerPanel = halfOfTheBundledPanel();
+        IncrementalRun.Result panelChanged = incrementalRun(smallerPanel).transform(input, report, false, metrics());
+        assertFalse(panelChanged.inputRead());
+        assertTrue(panelChanged.refilteredRows() > panelChanged.report().filteredRows());
+        assertTrue(panelChanged.report().filteredRows() < first.report().filteredRows());
+        assertEquals(fullRun(input, smallerPanel), StreamingPipelineTest.readRows(report));
+    }
+
+    private IncrementalRun incrementalRun(GenePanel genePanel) {
+        return new IncrementalRun(new DataExtractor(genePanel), SchemaResolver.fromSystemProperties(), genePanel,
+                new WorksheetFiller(clinvarSource, genePanel));
+    }
+
+    private List<String> fullRun(Path input, GenePanel genePanel) throws IOException {
+        Path output = directory.resolve("full.xlsx");
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            rows = new DataExtractor(genePanel).filterWorkSheet(wb.getFirstSheet());
+        }
+        try (OutputStream os = Files.newOutputStream(output); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            new WorksheetFiller(clinvarSource, genePanel).fillWorksheet(wb.newWorksheet("Sheet 1"), rows);
+        }
+        return StreamingPipelineTest.readRows(output);
+    }
+
+    private GenePanel halfOfTheBundledPanel() throws IOException {
+        List<String> lines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                IncrementalRunTest.class.getResourceAsStream("/genes.csv"), StandardCharsets.UTF_8))) {
+            lines = reader.lines().toList();
+        }
+        Path panel = directory.resolve("half.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(panel)) {
+            for (int i = 0; i < lines.size(); i += 2) {
+                writer.write(lines.get(i));
+                writer.newLine();
+            }
+        }
+        return GenePanel.load(List.of(panel.toString()));
+    }
+
+    private static PipelineMetrics metrics() {
+        return new PipelineMetrics("input.xlsx");
+    }
+}
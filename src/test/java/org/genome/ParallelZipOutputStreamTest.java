@@ -0,0 +1,73 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ParallelZipOutputStreamTest {
+
+    @Test
+    public void compressesTheSameOnAPoolAsOnTheWritingThread() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("empty.xml", new byte[0]);
+        entries.put("small.xml", "<sst count=\"1\"><si><t>BRCA1</t></si></sst>".getBytes(StandardCharsets.UTF_8));
+        entries.put("xl/worksheets/sheet1.xml", sheetXml(5 * ParallelZipOutputStream.BLOCK_SIZE + 123));
+
+        byte[] inline = zip(entries, null);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        byte[] parallel;
+        try {
+            parallel = zip(entries, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertArrayEquals(inline, parallel);
+        Map<String, byte[]> read = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(parallel))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                read.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        assertEquals(entries.keySet(), read.keySet());
+        entries.forEach((name, content) -> assertArrayEquals(content, read.get(name), name));
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries, ExecutorService pool) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelZipOutputStream zip = new ParallelZipOutputStream(bytes, 4, pool)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(entry.getKey());
+                // In pieces which do not line up with the blocks
+                for (int offset = 0; offset < entry.getValue().length; offset += 10_007) {
+                    zip.write(entry.getValue(), offset, Math.min(10_007, entry.getValue().length - offset));
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] sheetXml(int size) {
+        Random random = new Random(7);
+        StringBuilder xml = new StringBuilder(size + 100);
+        for (int row = 1; xml.length() < size; row++) {
+            xml.append("<row r=\"").append(row).append("\"><c r=\"A").append(row).append("\" t=\"s\"><v>")
+                    .append(random.nextInt(500)).append("</v></c><c r=\"B").append(row).append("\"><v>")
+                    .append(random.nextDouble()).append("</v></c></row>");
+        }
+        return xml.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+}
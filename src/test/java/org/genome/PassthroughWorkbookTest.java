@@ -0,0 +1,137 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.Worksheet;
+import org.dhatim.fastexcel.reader.Cell;
+import org.dhatim.fastexcel.reader.CellType;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
+
+public class PassthroughWorkbookTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void writesTheSameReportAsTheCellByCellPath() throws IOException {
+        Path input = new SyntheticWorkbook(23, true).write(directory.resolve("input.xlsx"), 8_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        // Every lookup fails, so that every row has its ClinVar column highlighted
+        WorksheetFiller worksheetFiller = new WorksheetFiller(
+                (ids, metrics) -> CompletableFuture.completedFuture(Map.of()), genePanel);
+        DataExtractor dataExtractor = new DataExtractor(genePanel);
+
+        Path cellByCell = directory.resolve("cell-by-cell.xlsx");
+        Path passthrough = directory.resolve("passthrough.xlsx");
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile());
+             OutputStream os = Files.newOutputStream(cellByCell);
+             Workbook output = new Workbook(os, "WGS", "1.0")) {
+            worksheetFiller.fillWorksheet(output.newWorksheet("Sheet 1"),
+                    dataExtractor.filterWorkSheet(wb.getFirstSheet()));
+        }
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile());
+             OutputStream os = Files.newOutputStream(passthrough);
+             PassthroughWorkbook output = new PassthroughWorkbook(wb, input, os)) {
+            rows = dataExtractor.filterWorkSheet(wb.getFirstSheet());
+            worksheetFiller.fillReport(output.newSheet("Sheet 1"), rows, new PipelineMetrics("input.xlsx"));
+        }
+
+        assertEquals(rows.filteredRows().size() + 2, rows.sourceXml().size());
+        assertEquals(readRows(cellByCell), readRows(passthrough));
+        try (ZipFile zip = new ZipFile(passthrough.toFile())) {
+            String styles = new String(zip.getInputStream(zip.getEntry("xl/styles.xml")).readAllBytes(),
+                    StandardCharsets.UTF_8);
+            assertTrue(styles.contains("<fgColor rgb=\"FFC7CE\"/>"), styles);
+        }
+    }
+
+    // Numbers are compared by value: the export writes some in exponent notation, which is kept when they are copied
+    private static List<String> readRows(Path workbook) throws IOException {
+        try (ReadableWorkbook wb = new ReadableWorkbook(workbook.toFile())) {
+            return wb.getFirstSheet().read().stream()
+                    .map(row -> row.stream()
+                            .map(cell -> cell == null ? "" : cell.getType() + ":" + (cell.getType() == CellType.NUMBER
+                                    ? cell.asNumber().stripTrailingZeros().toPlainString() : cell.getRawValue()))
+                            .collect(Collectors.joining("|")))
+                    .toList();
+        }
+    }
+
+    @Test
+    public void keepsFormulasErrorsAndStylesOfCopiedRows() throws IOException {
+        Path input = directory.resolve("input.xlsx");
+        try (OutputStream os = Files.newOutputStream(input); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            Worksheet ws = wb.newWorksheet("Variants");
+            ws.value(0, 0, "BRCA1");
+            ws.value(0, 1, "chr17:43057062");
+        }
+
+        Path report = directory.resolve("report.xlsx");
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile());
+             OutputStream os = Files.newOutputStream(report);
+             PassthroughWorkbook output = new PassthroughWorkbook(wb, input, os)) {
+            // Read from a sheet with prefixed elements, where the row was the tenth and shared strings in reverse
+            ReportSink sheet = output.newSheet("Report");
+            sheet.copyRow(2, null, ("<x:row r=\"10\" spans=\"1:6\" x14ac:dyDescent=\"0.25\">"
+                    + "<x:c r=\"A10\" t=\"s\"><x:v>1</x:v></x:c>"
+                    + "<x:c r=\"B10\" s=\"0\"><x:v>42.5</x:v></x:c>"
+                    + "<x:c r=\"C10\"><x:f>B10*2</x:f><x:v>85</x:v></x:c>"
+                    + "<x:c r=\"D10\"><x:f t=\"shared\" si=\"0\"/><x:v>7</x:v></x:c>"
+                    + "<x:c r=\"E10\" t=\"e\"><x:v>#N/A</x:v></x:c>"
+                    + "<x:c r=\"F10\" t=\"s\"><x:v>0</x:v></x:c>"
+                    + "</x:row>").getBytes(StandardCharsets.UTF_8));
+            sheet.value(2, 6, "Breast-ovarian cancer, familial, 1");
+            sheet.highlight(2, 6, "FFC7CE");
+            sheet.value(3, 0, "chr17:43057062");
+        }
+
+        // Patching a cell of the row, as --re-enrich does, leaves the rest of it as it was copied
+        Path patched = directory.resolve("patched.xlsx");
+        ReportPatch patch = new ReportPatch();
+        patch.sheet(0).value(2, 7, "Hereditary breast ovarian cancer syndrome");
+        patch.apply(report, patched);
+        for (Path workbook : List.of(report, patched)) {
+            assertCopiedRow(workbook);
+        }
+        try (ReadableWorkbook wb = new ReadableWorkbook(patched.toFile())) {
+            assertEquals("Hereditary breast ovarian cancer syndrome", wb.getFirstSheet().read().get(0).getCellText(7));
+        }
+    }
+
+    private static void assertCopiedRow(Path report) throws IOException {
+        try (ReadableWorkbook wb = new ReadableWorkbook(report.toFile())) {
+            List<Row> rows = wb.getFirstSheet().read();
+            assertEquals(2, rows.size());
+            Row row = rows.get(0);
+            assertEquals(3, row.getRowNum());
+            assertEquals("chr17:43057062", row.getCellText(0));
+            assertEquals("42.5", row.getCellText(1));
+            Cell formula = row.getCell(2);
+            assertEquals(CellType.FORMULA, formula.getType());
+            assertEquals("B10*2", formula.getFormula());
+            assertEquals("85", formula.getRawValue());
+            assertEquals(CellType.NUMBER, row.getCell(3).getType());
+            assertEquals(CellType.ERROR, row.getCell(4).getType());
+            assertEquals("BRCA1", row.getCellText(5));
+            assertEquals("Breast-ovarian cancer, familial, 1", row.getCellText(6));
+            assertEquals("chr17:43057062", rows.get(1).getCellText(0));
+        }
+    }
+}
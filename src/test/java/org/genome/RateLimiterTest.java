@@ -0,0 +1,36 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+
+    @Test
+    public void spacesPermitsByTheConfiguredRate() {
+        RateLimiter limiter = new RateLimiter(10, 1);
+
+        long first = limiter.reserve();
+        long second = limiter.reserve();
+        long third = limiter.reserve();
+
+        assertEquals(0, first);
+        assertTrue(second > TimeUnit.MILLISECONDS.toNanos(90));
+        assertTrue(third > TimeUnit.MILLISECONDS.toNanos(190));
+    }
+
+    @Test
+    public void storesPermitsUpToTheBurstWhileIdle() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(100, 3);
+
+        Thread.sleep(100);
+
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertTrue(limiter.reserve() > 0);
+    }
+}
@@ -0,0 +1,156 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReportDaemonTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void runsJobsFromTheSocketAtTheSameTime() throws Exception {
+        Path s1 = Files.writeString(directory.resolve("S1.xlsx"), "S1");
+        Path broken = Files.writeString(directory.resolve("broken.xlsx"), "broken");
+        // Both jobs must be running before either may finish
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        AtomicInteger idle = new AtomicInteger();
+        Path socket = directory.resolve("wgs.sock");
+
+        Path earlierReport = Files.writeString(directory.resolve("broken-report.xlsx"), "earlier");
+
+        try (ReportDaemon daemon = new ReportDaemon((input, output) -> ExcelTransformer.writeAtomically(output,
+                report -> {
+                    bothRunning.countDown();
+                    try {
+                        bothRunning.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    Files.writeString(report, "partial");
+                    if (input.equals(broken)) {
+                        throw new IOException("Not a\nworkbook");
+                    }
+                    return new BatchRunner.SampleReport(1, 42);
+                }), 2, idle::incrementAndGet)) {
+            daemon.listen(socket);
+
+            CompletableFuture<List<String>> first = CompletableFuture.supplyAsync(() -> send(socket, s1.toString()));
+            List<String> second = send(socket, broken + "\t" + directory.resolve("broken-report.xlsx"));
+
+            List<String> firstAnswer = first.join();
+            assertEquals(1, firstAnswer.size());
+            assertTrue(firstAnswer.get(0).matches("OK\t1\t42\t\\d+\\.\\d"), firstAnswer.get(0));
+            assertEquals(List.of("FAILED\tNot a workbook"), second);
+            assertTrue(Files.exists(directory.resolve("S1.report.xlsx")));
+            assertEquals("earlier", Files.readString(earlierReport), "A failed job replaced an earlier report");
+            assertFalse(Files.exists(directory.resolve("broken-report.xlsx.tmp")), "Partial reports are removed");
+
+            assertEquals(List.of("OK"), send(socket, ReportDaemon.SHUTDOWN));
+            daemon.awaitShutdown();
+        }
+        assertTrue(idle.get() >= 1);
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    public void holdsOffJobsWhileTheIdleTaskRuns() throws Exception {
+        Path s1 = Files.writeString(directory.resolve("S1.xlsx"), "S1");
+        AtomicBoolean idleRunning = new AtomicBoolean();
+        AtomicInteger idle = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        Path socket = directory.resolve("wgs.sock");
+
+        try (ReportDaemon daemon = new ReportDaemon((input, output) -> {
+            if (idleRunning.get()) {
+                overlaps.incrementAndGet();
+            }
+            Files.writeString(output, "report");
+            return new BatchRunner.SampleReport(1, 42);
+        }, 2, () -> {
+            idleRunning.set(true);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                idleRunning.set(false);
+                idle.incrementAndGet();
+            }
+        })) {
+            daemon.listen(socket);
+            CompletableFuture<List<String>> first = CompletableFuture.supplyAsync(() -> send(socket, s1.toString()));
+            for (int i = 0; i < 500 && !idleRunning.get(); i++) {
+                Thread.sleep(5);
+            }
+            // Sent while the idle task runs, so it must wait for it
+            assertTrue(send(socket, s1 + "\t" + directory.resolve("second.xlsx")).get(0).startsWith("OK"));
+            assertTrue(first.join().get(0).startsWith("OK"));
+            assertEquals(List.of("OK"), send(socket, ReportDaemon.SHUTDOWN));
+            daemon.awaitShutdown();
+        }
+        assertEquals(0, overlaps.get(), "A job ran while the idle task did");
+        assertTrue(idle.get() >= 1);
+    }
+
+    @Test
+    public void transformsWorkbooksPutIntoTheDropDirectory() throws Exception {
+        Path drop = Files.createDirectory(directory.resolve("drop"));
+        try (ReportDaemon daemon = new ReportDaemon((input, output) -> {
+            if (input.getFileName().toString().startsWith("broken")) {
+                throw new IOException("Not a workbook");
+            }
+            Files.copy(input, output);
+            return new BatchRunner.SampleReport(1, 42);
+        }, 1, () -> {
+        })) {
+            daemon.watch(drop, 20);
+            Files.writeString(drop.resolve("S1.xlsx"), "S1");
+            Files.writeString(drop.resolve("broken.xlsx"), "broken");
+            Files.writeString(drop.resolve("notes.txt"), "notes");
+
+            for (int i = 0; i < 500 && !(Files.exists(drop.resolve("done/S1.xlsx"))
+                    && Files.exists(drop.resolve("failed/broken.xlsx.error"))); i++) {
+                Thread.sleep(20);
+            }
+        }
+
+        assertEquals("S1", Files.readString(drop.resolve("reports/S1.report.xlsx")));
+        assertTrue(Files.exists(drop.resolve("failed/broken.xlsx")));
+        assertEquals("Not a workbook", Files.readString(drop.resolve("failed/broken.xlsx.error")));
+        assertFalse(Files.exists(drop.resolve("S1.xlsx")));
+        assertTrue(Files.exists(drop.resolve("notes.txt")));
+    }
+
+    private static List<String> send(Path socket, String line) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                     StandardCharsets.UTF_8))) {
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            out.write(line + "\n");
+            out.flush();
+            channel.shutdownOutput();
+            return in.lines().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class ReportSplitTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void packsChromosomesIntoWorksheetsOfLimitedLength() throws IOException {
+        Path input = new SyntheticWorkbook(29, false).write(directory.resolve("input.xlsx"), 20_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        WorksheetFiller worksheetFiller = new WorksheetFiller(
+                (ids, metrics) -> CompletableFuture.completedFuture(Map.of()), genePanel);
+
+        Path report = directory.resolve("report.xlsx");
+        ValuableRows rows;
+        List<ReportSplit.Part> parts;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile());
+             OutputStream os = Files.newOutputStream(report);
+             PassthroughWorkbook output = new PassthroughWorkbook(wb, input, os)) {
+            rows = new DataExtractor(genePanel).filterWorkSheet(wb.getFirstSheet());
+            parts = new ReportSplit(ReportSplit.By.CHROMOSOME, rows.filteredRows().size() / 4).split(rows);
+            for (ReportSplit.Part part : parts) {
+                worksheetFiller.fillReport(output.newSheet(part.name()), part.rows(), new PipelineMetrics("input"));
+            }
+        }
+
+        assertTrue(parts.size() >= 4, parts.size() + " parts");
+        Set<String> seen = new HashSet<>();
+        List<String> positions = new ArrayList<>();
+        try (ReadableWorkbook wb = new ReadableWorkbook(report.toFile())) {
+            List<String> sheetNames = wb.getSheets().map(sheet -> sheet.getName()).toList();
+            assertEquals(parts.stream().map(ReportSplit.Part::name).toList(), sheetNames);
+            for (var sheet : wb.getSheets().toList()) {
+                List<Row> sheetRows = sheet.read();
+                assertTrue(sheetRows.size() - 2 <= rows.filteredRows().size() / 4);
+                assertEquals("OMIM Codes", sheetRows.get(1).getCellText(rows.header().additionalInformationColumn()));
+                Set<String> chromosomes = new HashSet<>();
+                for (Row row : sheetRows.subList(2, sheetRows.size())) {
+                    String position = row.getCellText(0);
+                    positions.add(position);
+                    chromosomes.add(position.substring(0, position.indexOf(':')));
+                }
+                // A chromosome is in one worksheet only
+                chromosomes.forEach(chromosome -> assertTrue(seen.add(chromosome), chromosome));
+            }
+        }
+        assertEquals(rows.filteredRows().stream().map(row -> row.getCellText(0)).sorted().toList(),
+                positions.stream().sorted().toList());
+    }
+
+    @Test
+    public void cutsAGroupLargerThanAPart() throws IOException {
+        Path input = new SyntheticWorkbook(31, false).write(directory.resolve("input.xlsx"), 5_000);
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            rows = new DataExtractor(TestPanels.bundledPanel()).filterWorkSheet(wb.getFirstSheet());
+        }
+
+        List<ReportSplit.Part> unsplit = new ReportSplit(ReportSplit.By.GENE, ReportSplit.WORKSHEET_ROWS).split(rows);
+        List<ReportSplit.Part> cut = new ReportSplit(ReportSplit.By.GENE, 1).split(rows);
+
+        assertEquals(1, unsplit.size());
+        assertEquals(rows.filteredRows().size(), unsplit.get(0).rows().filteredRows().size());
+        assertEquals(rows.filteredRows().size(), cut.size());
+        assertTrue(cut.stream().allMatch(part -> part.rows().filteredRows().size() == 1));
+        assertTrue(cut.get(0).name().endsWith(" (1)") || !cut.get(0).name().contains("("), cut.get(0).name());
+    }
+
+    @Test
+    public void rejectsSplitsTheChosenPipelineCannotWrite() {
+        ExcelTransformer.checkFlags(Set.of("report.split", "report.splitFiles", "report.deflateThreads",
+                "pipeline.passthrough"));
+
+        IllegalArgumentException conflict = assertThrows(IllegalArgumentException.class,
+                () -> ExcelTransformer.checkFlags(Set.of("pipeline.incremental", "report.split")));
+        assertTrue(conflict.getMessage().contains("-Dpipeline.incremental"), conflict.getMessage());
+        assertTrue(conflict.getMessage().contains("-Dreport.split"), conflict.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> ExcelTransformer.checkFlags(Set.of("pipeline.streaming", "report.deflateThreads")));
+        assertThrows(IllegalArgumentException.class, () -> ExcelTransformer.checkFlags(Set.of("report.splitFiles")));
+    }
+}
@@ -0,0 +1,281 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class ResilientHttpClientTest {
+    private static final String EMPTY_ESUMMARY = "<eSummaryResult><DocumentSummarySet status=\"OK\">"
+            + "</DocumentSummarySet></eSummaryResult>";
+
+    @TempDir
+    Path directory;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+    private volatile StubResponse stub;
+
+    @FunctionalInterface
+    private interface StubResponse {
+        void send(HttpExchange exchange, int request) throws IOException;
+    }
+
+    @AfterEach
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void retriesThrottledRequestsAfterRetryAfter() {
+        startServer((exchange, request) -> {
+            if (request == 1) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, "");
+            } else {
+                respond(exchange, 200, "ok");
+            }
+        });
+
+        long start = System.nanoTime();
+        String body = client(5, Duration.ofSeconds(5), new CircuitBreaker(5, Duration.ofMinutes(1))).join();
+
+        assertEquals("ok", body);
+        assertEquals(2, requests.get());
+        assertTrue(System.nanoTime() - start >= Duration.ofSeconds(1).toNanos(), "Retry-After was not honoured");
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        startServer((exchange, request) -> respond(exchange, 400, "bad request"));
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client(5, Duration.ofSeconds(5), new CircuitBreaker(5, Duration.ofMinutes(1))).join());
+
+        assertEquals(1, requests.get());
+        assertTrue(e.getCause().getMessage().contains("HTTP status 400"), e.getCause().getMessage());
+    }
+
+    @Test
+    public void timesOutStalledResponseBodies() {
+        startServer((exchange, request) -> {
+            exchange.sendResponseHeaders(200, 0);
+            exchange.getResponseBody().write("<eSummaryResult>".getBytes(StandardCharsets.UTF_8));
+            exchange.getResponseBody().flush();
+            sleep(5_000);
+            exchange.close();
+        });
+
+        long start = System.nanoTime();
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client(1, Duration.ofMillis(300), new CircuitBreaker(5, Duration.ofMinutes(1))).join());
+
+        assertInstanceOf(HttpTimeoutException.class, e.getCause().getCause());
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(3).toNanos(), "The stalled body was not closed");
+    }
+
+    @Test
+    public void failsFastWhileTheCircuitBreakerIsOpen() {
+        startServer((exchange, request) -> respond(exchange, 503, "unavailable"));
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, Duration.ofMinutes(1));
+
+        assertThrows(CompletionException.class, () -> client(5, Duration.ofSeconds(5), circuitBreaker).join());
+        assertEquals(2, requests.get(), "The breaker should stop the retries once it opens");
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client(5, Duration.ofSeconds(5), circuitBreaker).join());
+        assertEquals(2, requests.get());
+        assertTrue(e.getCause().getMessage().contains("skipped for now"), e.getCause().getMessage());
+    }
+
+    @Test
+    public void marksFailedLookupsAndReEnrichesThemLater() throws IOException {
+        startServer((exchange, request) -> respond(exchange, 503, "unavailable"));
+        Path input = new SyntheticWorkbook(7, true).write(directory.resolve("input.xlsx"), 2_000);
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            rows = new DataExtractor(TestPanels.bundledPanel()).filterWorkSheet(wb.getFirstSheet());
+        }
+        WorksheetFiller worksheetFiller = new WorksheetFiller(fetcher(), TestPanels.bundledPanel());
+
+        Path report = directory.resolve("report.xlsx");
+        PipelineMetrics metrics = new PipelineMetrics("input.xlsx");
+        try (OutputStream os = Files.newOutputStream(report); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            worksheetFiller.fillWorksheet(wb.newWorksheet("Sheet 1"), rows, metrics);
+        }
+        List<String> marked = StreamingPipelineTest.readRows(report).stream()
+                .filter(row -> row.contains(WorksheetFiller.CLINVAR_LOOKUP_FAILED))
+                .toList();
+        assertTrue(marked.size() > 0, "The synthetic rows should have ClinVar IDs");
+        assertEquals(marked.size(), metrics.failedLookups());
+
+        stub = (exchange, request) -> respond(exchange, 200, EMPTY_ESUMMARY);
+        Path reEnriched = directory.resolve("re-enriched.xlsx");
+        ReportPatch patch = new ReportPatch();
+        int stillFailing;
+        try (ReadableWorkbook in = new ReadableWorkbook(report.toFile())) {
+            List<Row> reportRows = in.getFirstSheet().read();
+            stillFailing = worksheetFiller.reEnrichWorksheet(patch.sheet(0), reportRows,
+                    VariantColumns.defaultLayout(), new PipelineMetrics("report.xlsx"));
+        }
+        patch.apply(report, reEnriched);
+
+        assertEquals(0, stillFailing);
+        List<String> before = StreamingPipelineTest.readRows(report);
+        List<String> after = StreamingPipelineTest.readRows(reEnriched);
+        assertEquals(before.size(), after.size());
+        assertTrue(after.stream().noneMatch(row -> row.contains(WorksheetFiller.CLINVAR_LOOKUP_FAILED)));
+        for (int i = 0; i < before.size(); i++) {
+            if (!before.get(i).contains(WorksheetFiller.CLINVAR_LOOKUP_FAILED)) {
+                assertEquals(before.get(i), after.get(i));
+            }
+        }
+        // Everything but the worksheet, such as the styles, is copied as it was
+        try (ZipFile original = new ZipFile(report.toFile()); ZipFile patched = new ZipFile(reEnriched.toFile())) {
+            for (ZipEntry entry : Collections.list(original.entries())) {
+                if (!entry.getName().startsWith("xl/worksheets/")) {
+                    assertArrayEquals(original.getInputStream(entry).readAllBytes(),
+                            patched.getInputStream(patched.getEntry(entry.getName())).readAllBytes(), entry.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cachesVariantIdsClinvarDoesNotKnow() {
+        startServer((exchange, request) -> respond(exchange, 200, EMPTY_ESUMMARY));
+        ClinvarFetcher fetcher = fetcher();
+        PipelineMetrics metrics = new PipelineMetrics("test");
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Map<String, VariantSummary> summaries = fetcher.fetchVariantSummaries(List.of("12345"), metrics).join();
+            assertEquals(new VariantSummary(null, List.of()), summaries.get("12345"));
+        }
+        assertEquals(1, requests.get(), "The unknown ID was asked for again");
+    }
+
+    @Test
+    public void cachesRcvAccessionsTheClinvarSetsLeaveOut() {
+        startServer((exchange, request) -> {
+            if (exchange.getRequestURI().getPath().endsWith("esummary.fcgi")) {
+                try (InputStream esummary = getClass().getResourceAsStream("/clinvar/esummary.xml")) {
+                    respond(exchange, 200, new String(esummary.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            } else {
+                respond(exchange, 200, "<ReleaseSet></ReleaseSet>");
+            }
+        });
+        ClinvarFetcher fetcher = fetcher();
+        PipelineMetrics metrics = new PipelineMetrics("test");
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Map<String, VariantSummary> summaries = fetcher.fetchVariantSummaries(List.of("12345"), metrics).join();
+            assertEquals(new VariantSummary(null, List.of()), summaries.get("12345"));
+        }
+        assertEquals(2, requests.get(), "The left out RCV accession was asked for again");
+    }
+
+    @Test
+    public void completesLookupsWhoseRequestCannotBeSent() {
+        // Not a valid URI, so the request fails while it is being built
+        ClinvarFetcher fetcher = fetcher("http://eutils host/");
+        PipelineMetrics metrics = new PipelineMetrics("test");
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            assertEquals(Map.of(), fetcher.fetchVariantSummaries(List.of("12345", "67890"), metrics)
+                    .orTimeout(5, TimeUnit.SECONDS).join());
+        }
+        assertEquals(4, metrics.failedLookups());
+    }
+
+    private CompletableFuture<String> client(int maxAttempts, Duration requestTimeout, CircuitBreaker circuitBreaker) {
+        ResilientHttpClient client = new ResilientHttpClient(HttpClient.newHttpClient(), new RateLimiter(1000, 10),
+                circuitBreaker, requestTimeout, Duration.ofSeconds(10), maxAttempts, Duration.ofMillis(10));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl() + "esummary.fcgi")).build();
+        return client.send(request, "esummary", 1,
+                body -> new String(body.readAllBytes(), StandardCharsets.UTF_8), new PipelineMetrics("test"));
+    }
+
+    private ClinvarFetcher fetcher() {
+        return fetcher(baseUrl());
+    }
+
+    private static ClinvarFetcher fetcher(String eutilsUrl) {
+        ResilientHttpClient client = new ResilientHttpClient(HttpClient.newHttpClient(), new RateLimiter(1000, 10),
+                new CircuitBreaker(1000, Duration.ofMinutes(1)), Duration.ofSeconds(5), Duration.ofSeconds(10), 2,
+                Duration.ofMillis(10));
+        return new ClinvarFetcher(client, new ClinvarXmlParser(), eutilsUrl, null, ClinvarCache.inMemory());
+    }
+
+    private void startServer(StubResponse response) {
+        stub = response;
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                stub.send(exchange, requests.incrementAndGet());
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
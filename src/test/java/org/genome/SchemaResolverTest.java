@@ -0,0 +1,124 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class SchemaResolverTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void resolvesTheDefaultLayoutFromTheHeader() throws IOException {
+        Path input = new SyntheticWorkbook(1, true).write(directory.resolve("input.xlsx"), 1);
+        List<Row> headerRows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile());
+             Stream<Row> rows = wb.getFirstSheet().openStream()) {
+            headerRows = rows.limit(2).toList();
+        }
+
+        SchemaResolver resolver = new SchemaResolver(Map.of());
+        VariantColumns columns = resolver.resolve(headerRows);
+
+        assertEquals(VariantColumns.defaultLayout(), columns);
+        assertSame(columns, resolver.resolve(headerRows), "A known layout is served from the fingerprint cache");
+    }
+
+    @Test
+    public void followsInsertedColumns() throws IOException {
+        List<String> groups = defaultGroups();
+        List<String> names = defaultNames();
+        groups.add(10, "");
+        names.add(10, "New Annotation");
+
+        VariantColumns columns = new SchemaResolver(Map.of()).resolve(groups, names);
+
+        assertEquals(VariantColumns.defaultLayout().readDepth(), columns.readDepth());
+        assertEquals(VariantColumns.defaultLayout().geneNames() + 1, columns.geneNames());
+        assertEquals(VariantColumns.defaultLayout().acmgClassification() + 1, columns.acmgClassification());
+    }
+
+    @Test
+    public void prefersGenomesOverExomes() throws IOException {
+        List<String> groups = defaultGroups();
+        List<String> names = defaultNames();
+        groups.add("gnomAD Exomes");
+        names.add("Alt Allele Freq");
+
+        VariantColumns columns = new SchemaResolver(Map.of()).resolve(groups, names);
+
+        assertEquals(VariantColumns.defaultLayout().gnomadAltAlleleFrequency(), columns.gnomadAltAlleleFrequency());
+    }
+
+    @Test
+    public void reportsMissingAndAmbiguousColumns() {
+        List<String> groups = defaultGroups();
+        List<String> names = defaultNames();
+        names.set(6, "Depth");
+        groups.add("Second Sample");
+        names.add("Variant Allele Freq");
+
+        IOException e = assertThrows(IOException.class, () -> new SchemaResolver(Map.of()).resolve(groups, names));
+
+        assertTrue(e.getMessage().contains("readDepth: no column named"), e.getMessage());
+        assertTrue(e.getMessage().contains("variantAlleleFrequency: several matching columns E, DL"), e.getMessage());
+    }
+
+    @Test
+    public void overridesTakePrecedenceOverTheHeader() throws IOException {
+        List<String> names = defaultNames();
+        names.set(6, "Depth");
+
+        VariantColumns columns = new SchemaResolver(Map.of("readDepth", "g")).resolve(defaultGroups(), names);
+
+        assertEquals(VariantColumns.defaultLayout(), columns);
+        assertThrows(IllegalArgumentException.class, () -> new SchemaResolver(Map.of("depth", "G")));
+    }
+
+    // Same header as SyntheticWorkbook writes
+    private static List<String> defaultGroups() {
+        List<String> groups = new ArrayList<>(Collections.nCopies(SyntheticWorkbook.COLUMN_COUNT, ""));
+        groups.set(0, "Variant Info");
+        groups.set(29, "RefSeq Genes");
+        groups.set(57, "ClinVar");
+        groups.set(77, "gnomAD Genomes");
+        groups.set(114, "ACMG");
+        return groups;
+    }
+
+    private static List<String> defaultNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < SyntheticWorkbook.COLUMN_COUNT; i++) {
+            names.add("Field " + i);
+        }
+        names.set(0, "Chr:Pos");
+        names.set(1, "Ref/Alt");
+        names.set(4, "Variant Allele Freq");
+        names.set(6, "Read Depth");
+        names.set(29, "Gene Names");
+        names.set(30, "Sequence Ontology");
+        names.set(57, "Variation ID");
+        names.set(58, "Classification");
+        names.set(59, "Aggregated Submissions");
+        names.set(77, "Alt Allele Freq");
+        names.set(78, "# Hom Alt");
+        names.set(79, "# Hemi Alt");
+        names.set(114, "ACMG Classification");
+        return names;
+    }
+}
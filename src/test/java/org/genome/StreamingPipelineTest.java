@@ -0,0 +1,68 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class StreamingPipelineTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void writesTheSameRowsAsTheInMemoryPath() throws IOException {
+        Path input = new SyntheticWorkbook(42, false).write(directory.resolve("input.xlsx"), 5_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        DataExtractor dataExtractor = new DataExtractor(genePanel);
+        WorksheetFiller worksheetFiller = new WorksheetFiller(new ClinvarFetcher(HttpClient.newHttpClient(),
+                new ClinvarXmlParser(), new RateLimiter(3, 1), null, ClinvarCache.inMemory()), genePanel);
+
+        Path inMemoryOutput = directory.resolve("in-memory.xlsx");
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            rows = dataExtractor.filterWorkSheet(wb.getFirstSheet());
+        }
+        try (OutputStream os = Files.newOutputStream(inMemoryOutput); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            worksheetFiller.fillWorksheet(wb.newWorksheet("Sheet 1"), rows);
+        }
+
+        Path streamingOutput = directory.resolve("streaming.xlsx");
+        try (ReadableWorkbook input2 = new ReadableWorkbook(input.toFile());
+             OutputStream os = Files.newOutputStream(streamingOutput);
+             Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            new StreamingPipeline(dataExtractor, worksheetFiller, 7, 2)
+                    .run(input2.getFirstSheet(), wb.newWorksheet("Sheet 1"), new PipelineMetrics("input.xlsx"));
+        }
+
+        List<String> expected = readRows(inMemoryOutput);
+        assertTrue(expected.size() > 2 + 7 * 2, "The synthetic sheet should yield several batches");
+        assertEquals(rows.filteredRows().size() + 2, expected.size());
+        assertEquals(expected, readRows(streamingOutput));
+    }
+
+    static List<String> readRows(Path workbook) throws IOException {
+        try (ReadableWorkbook wb = new ReadableWorkbook(workbook.toFile())) {
+            return wb.getFirstSheet().read().stream()
+                    .map(StreamingPipelineTest::rowText)
+                    .toList();
+        }
+    }
+
+    private static String rowText(Row row) {
+        return row.stream()
+                .map(cell -> cell == null ? "" : cell.getType() + ":" + cell.getRawValue())
+                .collect(Collectors.joining("|"));
+    }
+}
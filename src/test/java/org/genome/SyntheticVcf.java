@@ -0,0 +1,280 @@
+package org.genome;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates annotated single-sample VCFs like SyntheticWorkbook generates exports: bgzip-compressed, with a tabix
+ * index, and a BED file of the intervals of their genes. Every gene, panel or not, gets its own interval, and a few
+ * variants fall between genes.
+ */
+public class SyntheticVcf {
+    private static final int GENE_LENGTH = 40_000;
+    private static final int GENE_SPACING = 150_000;
+    private static final String[] CHROMOSOMES = {"chr1", "chr2", "chrX"};
+    private static final String[] SEQUENCE_ONTOLOGIES = {"missense_variant", "synonymous_variant",
+            "frameshift_variant", "intron_variant", "splice_region_variant", "stop_gained", "3_prime_UTR_variant",
+            "disruptive_inframe_deletion", "upstream_gene_variant"};
+    private static final String[] CLINVAR_CLASSIFICATIONS = {"Pathogenic", "Likely_pathogenic", "Benign",
+            "Uncertain_significance", "Conflicting_classifications_of_pathogenicity", ".", ".", "."};
+    private static final String[] AGGREGATED_SUBMISSIONS = {"Pathogenic(3)|Uncertain_significance(1)",
+            "Benign(2)|Likely_benign(1)", "."};
+    private static final String[] ACMG_CLASSIFICATIONS = {"Pathogenic", "Likely_Pathogenic", "VUS",
+            "Likely_Benign", "Benign", "Conflicting"};
+
+    private record Gene(String name, String chromosome, int begin) {
+    }
+
+    private record Variant(int chromosome, int position, String line) {
+    }
+
+    private final List<Gene> genes = new ArrayList<>();
+    private final Random random;
+
+    public SyntheticVcf(long seed) {
+        this.random = new Random(seed);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                SyntheticVcf.class.getResourceAsStream("/genes.csv")))) {
+            List<String> names = new ArrayList<>(reader.lines().map(l -> l.split(",")[0]).toList());
+            for (int i = 0; i < 200; i++) {
+                names.add("GENE" + i);
+            }
+            Collections.shuffle(names, random);
+            for (int i = 0; i < names.size(); i++) {
+                int chromosome = i % CHROMOSOMES.length;
+                int begin = GENE_SPACING * (1 + i / CHROMOSOMES.length);
+                genes.add(new Gene(names.get(i), CHROMOSOMES[chromosome], begin));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The intervals of every gene, in BED format.
+     */
+    public Path writeBed(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("track name=genes\n");
+            for (Gene gene : genes) {
+                writer.write(gene.chromosome() + "\t" + gene.begin() + "\t" + (gene.begin() + GENE_LENGTH) + "\t"
+                        + gene.name() + "\n");
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes a bgzip-compressed VCF of the variants, and its tabix index next to it.
+     */
+    public Path write(Path file, int variantCount) throws IOException {
+        return write(file, variantCount, false);
+    }
+
+    /**
+     * Writes the VCF, with every tenth variant split into two records at the same position, as {@code bcftools norm
+     * -m-} splits multi-allelic sites, if {@code splitSites} is set.
+     */
+    public Path write(Path file, int variantCount, boolean splitSites) throws IOException {
+        List<Variant> variants = new ArrayList<>(variantCount);
+        for (int i = 0; i < variantCount; i++) {
+            Variant variant = variant();
+            variants.add(variant);
+            if (splitSites && i % 10 == 0) {
+                variants.add(new Variant(variant.chromosome(), variant.position(),
+                        variant.line().replace("\tA\tG\t", "\tA\tT\t")));
+            }
+        }
+        variants.sort(Comparator.comparingInt(Variant::chromosome).thenComparingInt(Variant::position));
+
+        TabixWriter index = new TabixWriter();
+        try (BgzfWriter out = new BgzfWriter(Files.newOutputStream(file))) {
+            out.write(header());
+            for (Variant variant : variants) {
+                long start = out.virtualOffset();
+                out.write(variant.line());
+                index.add(variant.chromosome(), variant.position() - 1, variant.position(), start,
+                        out.virtualOffset());
+            }
+        }
+        index.write(TabixIndex.of(file));
+        return file;
+    }
+
+    private static String header() {
+        return "##fileformat=VCFv4.2\n"
+                + "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total depth\">\n"
+                + "##INFO=<ID=ANN,Number=.,Type=String,Description=\"Functional annotations: 'Allele | Annotation"
+                + " | Annotation_Impact | Gene_Name | Gene_ID | Feature_Type | Feature_ID' \">\n"
+                + "##INFO=<ID=CLNSIG,Number=.,Type=String,Description=\"ClinVar classification\">\n"
+                + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+                + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tSAMPLE1\n";
+    }
+
+    private Variant variant() {
+        Gene gene = genes.get(random.nextInt(genes.size()));
+        int chromosome = Arrays.asList(CHROMOSOMES).indexOf(gene.chromosome());
+        boolean intergenic = random.nextInt(20) == 0;
+        int position = gene.begin() + (intergenic ? GENE_LENGTH + 1_000 : 0) + 1 + random.nextInt(GENE_LENGTH);
+
+        String annotation = "G|" + pick(SEQUENCE_ONTOLOGIES) + (random.nextInt(4) == 0 ? "&" + pick(SEQUENCE_ONTOLOGIES) : "")
+                + "|MODERATE|" + (intergenic ? "" : gene.name()) + "|ID|transcript|NM_1";
+        int depth = 1 + random.nextInt(200);
+        int alternate = random.nextInt(depth + 1);
+        String info = "DP=" + (depth + 3) + ";ANN=" + annotation + ";CLNSIG=" + pick(CLINVAR_CLASSIFICATIONS)
+                + ";CLNSIGCONF=" + pick(AGGREGATED_SUBMISSIONS).replace("|", "%7C")
+                + ";gnomAD_AF=" + Math.pow(random.nextDouble(), 4) / 2 + ";gnomAD_nhomalt=" + random.nextInt(8)
+                + ";gnomAD_nhemi=" + random.nextInt(3) + ";ACMG=" + pick(ACMG_CLASSIFICATIONS);
+        String line = gene.chromosome() + "\t" + position + "\trs" + random.nextInt(100_000_000) + "\tA\tG\t50\tPASS\t"
+                + info + "\tGT:AD:DP\t" + (random.nextBoolean() ? "0/1" : "1/1") + ":" + (depth - alternate) + ","
+                + alternate + ":" + depth + "\n";
+        return new Variant(chromosome, position, line);
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Compresses into bgzip blocks of at most 64 KiB and ends with the empty block bgzip writes.
+     */
+    private static final class BgzfWriter implements Closeable {
+        private static final int BLOCK_DATA = 0xff00;
+
+        private final OutputStream out;
+        private final byte[] block = new byte[BLOCK_DATA];
+        private int blockLength;
+        private long blockAddress;
+
+        BgzfWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        long virtualOffset() {
+            return blockAddress << 16 | blockLength;
+        }
+
+        void write(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int count = Math.min(bytes.length - offset, BLOCK_DATA - blockLength);
+                System.arraycopy(bytes, offset, block, blockLength, count);
+                blockLength += count;
+                offset += count;
+                if (blockLength == BLOCK_DATA) {
+                    flushBlock();
+                }
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            byte[] compressed = new byte[BLOCK_DATA + 1024];
+            int compressedLength = deflater.deflate(compressed);
+            deflater.end();
+            CRC32 crc = new CRC32();
+            crc.update(block, 0, blockLength);
+
+            ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) 0x1f).put((byte) 0x8b).put((byte) 8).put((byte) 4).putInt(0).put((byte) 0)
+                    .put((byte) 0xff).putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2)
+                    .putShort((short) (18 + compressedLength + 8 - 1));
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue()).putInt(blockLength);
+            out.write(header.array());
+            out.write(compressed, 0, compressedLength);
+            out.write(trailer.array());
+            blockAddress += 18 + compressedLength + 8;
+            blockLength = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (blockLength > 0) {
+                flushBlock();
+            }
+            flushBlock();
+            out.close();
+        }
+    }
+
+    /**
+     * Bins the records of every chromosome and keeps the linear index, like {@code tabix -p vcf}.
+     */
+    private static final class TabixWriter {
+        private final List<Map<Integer, List<long[]>>> bins = new ArrayList<>();
+        private final List<long[]> linearIndexes = new ArrayList<>();
+
+        TabixWriter() {
+            for (int i = 0; i < CHROMOSOMES.length; i++) {
+                bins.add(new TreeMap<>());
+                linearIndexes.add(new long[0]);
+            }
+        }
+
+        void add(int chromosome, int begin, int end, long start, long stop) {
+            List<long[]> chunks = bins.get(chromosome).computeIfAbsent(bin(begin, end), bin -> new ArrayList<>());
+            if (!chunks.isEmpty() && chunks.get(chunks.size() - 1)[1] == start) {
+                chunks.get(chunks.size() - 1)[1] = stop;
+            } else {
+                chunks.add(new long[]{start, stop});
+            }
+            long[] linear = linearIndexes.get(chromosome);
+            int window = begin >> 14;
+            if (window >= linear.length) {
+                int from = linear.length;
+                linear = Arrays.copyOf(linear, window + 1);
+                Arrays.fill(linear, from, linear.length, start);
+                linearIndexes.set(chromosome, linear);
+            }
+        }
+
+        private static int bin(int begin, int end) {
+            end--;
+            if (begin >> 14 == end >> 14) return 4681 + (begin >> 14);
+            if (begin >> 17 == end >> 17) return 585 + (begin >> 17);
+            if (begin >> 20 == end >> 20) return 73 + (begin >> 20);
+            if (begin >> 23 == end >> 23) return 9 + (begin >> 23);
+            if (begin >> 26 == end >> 26) return 1 + (begin >> 26);
+            return 0;
+        }
+
+        void write(Path file) throws IOException {
+            ByteArrayOutputStream names = new ByteArrayOutputStream();
+            for (String chromosome : CHROMOSOMES) {
+                names.writeBytes(chromosome.getBytes(StandardCharsets.US_ASCII));
+                names.write(0);
+            }
+            ByteBuffer index = ByteBuffer.allocate(1 << 22).order(ByteOrder.LITTLE_ENDIAN);
+            index.putInt(0x01494254).putInt(CHROMOSOMES.length)
+                    .putInt(2).putInt(1).putInt(2).putInt(0).putInt('#').putInt(0)
+                    .putInt(names.size()).put(names.toByteArray());
+            for (int chromosome = 0; chromosome < CHROMOSOMES.length; chromosome++) {
+                index.putInt(bins.get(chromosome).size());
+                bins.get(chromosome).forEach((bin, chunks) -> {
+                    index.putInt(bin).putInt(chunks.size());
+                    chunks.forEach(chunk -> index.putLong(chunk[0]).putLong(chunk[1]));
+                });
+                long[] linear = linearIndexes.get(chromosome);
+                index.putInt(linear.length);
+                for (long offset : linear) {
+                    index.putLong(offset);
+                }
+            }
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+                out.write(index.array(), 0, index.position());
+            }
+        }
+    }
+}
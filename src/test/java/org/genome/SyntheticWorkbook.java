@@ -0,0 +1,118 @@
+package org.genome;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.Worksheet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates WGS exports with the column layout DataExtractor expects: two header rows followed by one variant
+ * per row, 115 columns wide (up to DK), with gene names drawn partly from the bundled gene panel.
+ */
+public class SyntheticWorkbook {
+    static final int COLUMN_COUNT = 115;
+
+    private static final String[] SEQUENCE_ONTOLOGIES = {"missense_variant", "synonymous_variant",
+            "frameshift_variant", "intron_variant", "splice_region_variant", "stop_gained", "3_prime_UTR_variant",
+            "disruptive_inframe_deletion", "upstream_gene_variant"};
+    private static final String[] CLINVAR_CLASSIFICATIONS = {"Pathogenic", "Likely pathogenic", "Benign",
+            "Uncertain significance", "Conflicting classifications of pathogenicity", "", "", ""};
+    private static final String[] AGGREGATED_SUBMISSIONS = {"Pathogenic(3)|Uncertain significance(1)",
+            "Benign(2)|Likely benign(1)", ""};
+    private static final String[] ACMG_CLASSIFICATIONS = {"Pathogenic", "Likely Pathogenic", "VUS",
+            "Likely Benign", "Benign", "Conflicting"};
+
+    private final List<String> panelGenes;
+    private final Random random;
+    private final boolean withClinvarIds;
+
+    public SyntheticWorkbook(long seed, boolean withClinvarIds) {
+        this.random = new Random(seed);
+        this.withClinvarIds = withClinvarIds;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                SyntheticWorkbook.class.getResourceAsStream("/genes.csv")))) {
+            this.panelGenes = reader.lines().map(l -> l.split(",")[0]).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path write(Path file, int variantCount) throws IOException {
+        try (OutputStream os = Files.newOutputStream(file);
+             Workbook wb = new Workbook(os, "WGS Export", "1.0")) {
+            Worksheet ws = wb.newWorksheet("Variants");
+            writeHeader(ws);
+            for (int row = 2; row < variantCount + 2; row++) {
+                writeVariant(ws, row);
+                if (row % 10_000 == 0) {
+                    ws.flush();
+                }
+            }
+        }
+        return file;
+    }
+
+    private void writeHeader(Worksheet ws) {
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            ws.value(1, column, "Field " + column);
+        }
+        ws.value(0, 0, "Variant Info");
+        ws.value(1, 0, "Chr:Pos");
+        ws.value(1, 1, "Ref/Alt");
+        ws.value(1, 4, "Variant Allele Freq");
+        ws.value(1, 6, "Read Depth");
+        ws.value(0, 29, "RefSeq Genes");
+        ws.value(1, 29, "Gene Names");
+        ws.value(1, 30, "Sequence Ontology");
+        ws.value(0, 57, "ClinVar");
+        ws.value(1, 57, "Variation ID");
+        ws.value(1, 58, "Classification");
+        ws.value(1, 59, "Aggregated Submissions");
+        ws.value(0, 77, "gnomAD Genomes");
+        ws.value(1, 77, "Alt Allele Freq");
+        ws.value(1, 78, "# Hom Alt");
+        ws.value(1, 79, "# Hemi Alt");
+        ws.value(0, 114, "ACMG");
+        ws.value(1, 114, "ACMG Classification");
+    }
+
+    private void writeVariant(Worksheet ws, int row) {
+        ws.value(row, 0, "chr" + (1 + random.nextInt(22)) + ":" + random.nextInt(250_000_000));
+        ws.value(row, 1, "A/G");
+        ws.value(row, 2, "rs" + random.nextInt(100_000_000));
+        ws.value(row, 3, random.nextBoolean() ? "Het" : "Hom");
+        ws.value(row, 4, random.nextInt(1000) == 0
+                ? "0.31,0.22"
+                : String.valueOf(Math.round(random.nextDouble() * 1000) / 1000.0));
+        ws.value(row, 6, 1 + random.nextInt(200));
+        ws.value(row, 29, gene());
+        ws.value(row, 30, pick(SEQUENCE_ONTOLOGIES) + (random.nextInt(4) == 0 ? "," + pick(SEQUENCE_ONTOLOGIES) : ""));
+        if (withClinvarIds && random.nextInt(3) == 0) {
+            ws.value(row, 57, String.valueOf(10_000 + random.nextInt(1_000_000)));
+        }
+        ws.value(row, 58, pick(CLINVAR_CLASSIFICATIONS));
+        ws.value(row, 59, pick(AGGREGATED_SUBMISSIONS));
+        ws.value(row, 77, String.valueOf(Math.pow(random.nextDouble(), 4) / 2));
+        ws.value(row, 78, String.valueOf(random.nextInt(8)));
+        ws.value(row, 79, String.valueOf(random.nextInt(3)));
+        ws.value(row, 114, pick(ACMG_CLASSIFICATIONS));
+        for (int column = 80; column < 114; column += 3) {
+            ws.value(row, column, random.nextDouble());
+        }
+    }
+
+    private String gene() {
+        String gene = random.nextInt(3) == 0
+                ? panelGenes.get(random.nextInt(panelGenes.size()))
+                : "GENE" + random.nextInt(20_000);
+        return random.nextInt(10) == 0 ? gene + ",GENE" + random.nextInt(20_000) : gene;
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
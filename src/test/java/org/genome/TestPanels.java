@@ -0,0 +1,12 @@
+package org.genome;
+
+final class TestPanels {
+
+    private TestPanels() {
+    }
+
+    // The panel ExcelTransformer loads without -Dgene.panels
+    static GenePanel bundledPanel() {
+        return GenePanel.bundled();
+    }
+}
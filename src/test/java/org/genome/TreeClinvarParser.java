@@ -0,0 +1,145 @@
+package org.genome;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The tree-based parsing ClinvarFetcher used before ClinvarXmlParser, kept as a reference for tests and benchmarks.
+ */
+public class TreeClinvarParser {
+    private final XmlMapper mapper = new XmlMapper();
+
+    public Map<String, List<String>> parseRcvNumbers(InputStream stream) throws IOException {
+        return getRCVNumbers(mapper.readTree(stream));
+    }
+
+    public Map<String, VariantSummary> parseVariantSummaries(InputStream stream) throws IOException {
+        return constructVariantSummaries(mapper.readTree(stream));
+    }
+
+    private Map<String, List<String>> getRCVNumbers(JsonNode responseTree) {
+        Map<String, List<String>> rcvNumbersById = new HashMap<>();
+        elements(responseTree.path("DocumentSummarySet").path("DocumentSummary"))
+                .filter(documentSummary -> documentSummary.path("error").isMissingNode())
+                .forEach(documentSummary -> rcvNumbersById.put(
+                        documentSummary.path("uid").asText(),
+                        elements(documentSummary
+                                .path("supporting_submissions")
+                                .path("rcv")
+                                .path("string"))
+                                .map(JsonNode::asText)
+                                .toList()));
+
+        return rcvNumbersById;
+    }
+
+    private Map<String, VariantSummary> constructVariantSummaries(JsonNode responseTree) {
+        Map<String, VariantSummary> summariesByRcv = new HashMap<>();
+        elements(responseTree.path("ClinVarSet"))
+                .forEach(clinVarSet -> summariesByRcv.put(getRcvAccession(clinVarSet), constructVariantSummary(clinVarSet)));
+
+        return summariesByRcv;
+    }
+
+    private VariantSummary constructVariantSummary(JsonNode clinVarSet) {
+        String deceaseDefinition = getDeceaseDefinition(clinVarSet);
+
+        List<PublicationSummary> publicationSummaries = new ArrayList<>();
+        elements(clinVarSet.path("ClinVarAssertion"))
+                .forEach(publication -> {
+                    PublicationSummary publicationSummary = new PublicationSummary(
+                            getDateUpdated(publication),
+                            getSubmitter(publication),
+                            getSubmittedAssembly(publication),
+                            getClassification(publication),
+                            getSummary(publication));
+
+                    publicationSummaries.add(publicationSummary);
+                });
+
+        return new VariantSummary(deceaseDefinition, publicationSummaries);
+    }
+
+    private String getRcvAccession(JsonNode clinVarSet) {
+        return clinVarSet
+                .path("ReferenceClinVarAssertion")
+                .path("ClinVarAccession")
+                .path("Acc")
+                .asText();
+    }
+
+    private String getDeceaseDefinition(JsonNode clinVarSet) {
+        JsonNode trait = first(clinVarSet
+                .path("ReferenceClinVarAssertion")
+                .path("TraitSet")
+                .path("Trait"));
+        JsonNode attribute = first(first(trait.path("AttributeSet")).path("Attribute"));
+
+        return text(attribute);
+    }
+
+    private String getSubmitter(JsonNode publication) {
+        return publication
+                .path("ClinVarSubmissionID")
+                .path("submitter")
+                .asText();
+    }
+
+    private String getSubmittedAssembly(JsonNode publication) {
+        return publication
+                .path("ClinVarSubmissionID")
+                .path("submittedAssembly")
+                .asText();
+    }
+
+    private LocalDate getDateUpdated(JsonNode publication) {
+        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        String dateUpdated = publication
+                .path("ClinVarAccession")
+                .path("DateUpdated")
+                .asText();
+
+        try {
+            return LocalDate.parse(dateUpdated, dateFormatter);
+        } catch (Exception e) {
+            return LocalDate.MIN;
+        }
+    }
+
+    private String getClassification(JsonNode publication) {
+        return text(publication
+                .path("Classification")
+                .path("GermlineClassification"));
+    }
+
+    private String getSummary(JsonNode publication) {
+        return text(first(publication
+                .path("Classification")
+                .path("Comment")));
+    }
+
+    // Repeated XML elements are read as an array, a single one as a plain node
+    private static Stream<JsonNode> elements(JsonNode node) {
+        if (node.isArray()) {
+            return StreamSupport.stream(node.spliterator(), false);
+        }
+        return node.isMissingNode() ? Stream.empty() : Stream.of(node);
+    }
+
+    private static JsonNode first(JsonNode node) {
+        return node.isArray() ? node.path(0) : node;
+    }
+
+    // An element with attributes is read as an object, which keeps its text content under the empty name
+    private static String text(JsonNode node) {
+        return node.isObject() ? node.path("").asText() : node.asText();
+    }
+}
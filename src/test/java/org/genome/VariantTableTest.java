@@ -0,0 +1,101 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.reader.CellType;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+public class VariantTableTest {
+
+    @TempDir
+    Path directory;
+
+    // Every other variant could not be looked up, so the report has highlighted rows as well
+    private final ClinvarSource clinvarSource = (ids, metrics) -> {
+        Map<String, VariantSummary> summaries = new HashMap<>();
+        ids.stream()
+                .filter(id -> Integer.parseInt(id) % 2 == 0)
+                .forEach(id -> summaries.put(id, new VariantSummary("Disease " + id, List.of())));
+        return CompletableFuture.completedFuture(summaries);
+    };
+
+    @Test
+    public void rendersTheSameReportAsTheWorksheetFiller() throws IOException {
+        Path input = new SyntheticWorkbook(11, true).write(directory.resolve("input.xlsx"), 20_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        WorksheetFiller worksheetFiller = new WorksheetFiller(clinvarSource, genePanel);
+        ValuableRows rows;
+        try (ReadableWorkbook wb = new ReadableWorkbook(input.toFile())) {
+            rows = new DataExtractor(genePanel).filterWorkSheet(wb.getFirstSheet());
+        }
+
+        Path report = directory.resolve("report.xlsx");
+        try (OutputStream os = Files.newOutputStream(report); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            worksheetFiller.fillWorksheet(wb.newWorksheet("Sheet 1"), rows);
+        }
+        VariantTableWriter writer = new VariantTableWriter();
+        worksheetFiller.fillReport(writer.newSheet("Sheet 1"), rows, new PipelineMetrics("input.xlsx"));
+        Path tableFile = directory.resolve("report.variants");
+        writer.write(tableFile);
+
+        VariantTable.Sheet sheet = VariantTable.open(tableFile).sheets().get(0);
+        assertEquals(rows.filteredRows().size(), sheet.rowCount());
+        assertEquals(VariantTable.ColumnType.NUMBER, sheet.columnType(sheet.column("Read Depth")));
+        assertEquals(VariantTable.ColumnType.DICTIONARY, sheet.columnType(sheet.column("ACMG Classification")));
+        assertEquals("ClinVar", sheet.columnGroup(sheet.column("Variation ID")));
+        assertNull(sheet.columnGroup(sheet.column("Classification") + 1));
+        assertEquals(rows.filteredRows().get(0).getCellText(6), String.valueOf((long) sheet.number(0, 6)));
+
+        List<String> expected = readRows(report);
+        assertTrue(expected.stream().anyMatch(row -> row.contains(WorksheetFiller.CLINVAR_LOOKUP_FAILED)));
+        assertEquals(expected, readRows(render(worksheetFiller, tableFile, "rendered.xlsx")));
+
+        Path converted = directory.resolve("converted.variants");
+        VariantTableWriter.fromReport(report).write(converted);
+        assertEquals(expected, readRows(render(worksheetFiller, converted, "converted.xlsx")));
+    }
+
+    private Path render(WorksheetFiller worksheetFiller, Path tableFile, String name) throws IOException {
+        Path rendered = directory.resolve(name);
+        try (OutputStream os = Files.newOutputStream(rendered); Workbook wb = new Workbook(os, "WGS", "1.0")) {
+            for (VariantTable.Sheet sheet : VariantTable.open(tableFile).sheets()) {
+                worksheetFiller.renderWorksheet(wb.newWorksheet(sheet.name()), sheet);
+            }
+        }
+        return rendered;
+    }
+
+    // Numbers are compared by value, as the table keeps them as doubles rather than as the text of the export
+    private static List<String> readRows(Path workbook) throws IOException {
+        try (ReadableWorkbook wb = new ReadableWorkbook(workbook.toFile())) {
+            return wb.getFirstSheet().read().stream()
+                    .map(VariantTableTest::rowText)
+                    .toList();
+        }
+    }
+
+    private static String rowText(Row row) {
+        return row.stream()
+                .map(cell -> cell == null ? "" : cell.getType() + ":" + (cell.getType() == CellType.NUMBER
+                        ? new BigDecimal(cell.getRawValue()).doubleValue()
+                        : cell.getRawValue()))
+                .collect(Collectors.joining("|"));
+    }
+}
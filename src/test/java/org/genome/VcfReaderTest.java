@@ -0,0 +1,121 @@
+package org.genome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.dhatim.fastexcel.reader.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class VcfReaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void readsTheReportFieldsOfTheSample() throws IOException {
+        Path vcf = Files.writeString(directory.resolve("sample.vcf"), """
+                ##fileformat=VCFv4.2
+                ##INFO=<ID=CSQ,Number=.,Type=String,Description="Consequence annotations from Ensembl VEP. Format: Allele|Consequence|IMPACT|SYMBOL|Gene">
+                #CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tFATHER\tCHILD
+                chr17\t43057062\t.\tC\tT\t60\tPASS\tDP=40;CSQ=T|missense_variant&splice_region_variant|MODERATE|BRCA1|ENSG1,T|intron_variant|MODIFIER|NBR2|ENSG2;CLNSIG=Likely_pathogenic;CLNSIGCONF=Pathogenic(2)%7CUncertain_significance(1);gnomAD_AF=.\tGT:AD:DP\t0/0:30,0:30\t0/1:12,36:48
+                """);
+
+        try (VcfReader reader = VcfReader.open(vcf, Map.of(), "CHILD")) {
+            Row row = reader.variants().next();
+            VariantColumns columns = new SchemaResolver(Map.of()).resolve(reader.headerRows());
+
+            assertEquals("CHILD", reader.sampleName());
+            assertEquals("chr17:43057062", row.getCellText(columns.position()));
+            assertEquals("C/T", row.getCellText(columns.reading()));
+            assertEquals("Het", row.getCellText(3));
+            assertEquals("0.75", row.getCellText(columns.variantAlleleFrequency()));
+            assertEquals(48, row.getCellAsNumber(columns.readDepth()).orElseThrow().intValue());
+            assertEquals("BRCA1,NBR2", row.getCellText(columns.geneNames()));
+            assertEquals("missense_variant,splice_region_variant,intron_variant",
+                    row.getCellText(columns.sequenceOntology()));
+            assertEquals("Likely pathogenic", row.getCellText(columns.clinvarClassification()));
+            assertEquals("Pathogenic(2)|Uncertain significance(1)",
+                    row.getCellText(columns.clinvarAggregatedSubmissions()));
+            assertNull(row.getCell(columns.gnomadAltAlleleFrequency()));
+        }
+    }
+
+    @Test
+    public void readsOnlyThePanelRegionsThroughTheIndex() throws IOException {
+        SyntheticVcf synthetic = new SyntheticVcf(5);
+        Path vcf = synthetic.write(directory.resolve("sample.vcf.gz"), 30_000);
+        GenePanel genePanel = TestPanels.bundledPanel();
+        PanelRegions regions = PanelRegions.load(synthetic.writeBed(directory.resolve("genes.bed")), genePanel);
+        DataExtractor dataExtractor = new DataExtractor(genePanel);
+
+        ValuableRows everything;
+        ValuableRows panelOnly;
+        int everyVariant = 0;
+        int panelVariants = 0;
+        try (VcfReader reader = VcfReader.open(vcf, Map.of(), null)) {
+            assertTrue(reader.isIndexed());
+            everything = dataExtractor.filterVcf(reader, null, new PipelineMetrics("sample"));
+        }
+        try (VcfReader reader = VcfReader.open(vcf, Map.of(), null)) {
+            panelOnly = dataExtractor.filterVcf(reader, regions, new PipelineMetrics("sample"));
+        }
+        try (VcfReader reader = VcfReader.open(vcf, Map.of(), null)) {
+            for (Iterator<Row> rows = reader.variants(); rows.hasNext(); rows.next()) {
+                everyVariant++;
+            }
+        }
+        try (VcfReader reader = VcfReader.open(vcf, Map.of(), null)) {
+            for (Iterator<Row> rows = reader.variants(regions); rows.hasNext(); rows.next()) {
+                panelVariants++;
+            }
+        }
+
+        assertEquals(30_000, everyVariant);
+        assertTrue(panelVariants < everyVariant / 2, panelVariants + " of " + everyVariant + " variants were read");
+        assertTrue(everything.filteredRows().size() > 0);
+        assertEquals(texts(everything.filteredRows()), texts(panelOnly.filteredRows()));
+    }
+
+    @Test
+    public void readsEveryRecordAtAPositionThroughTheIndex() throws IOException {
+        SyntheticVcf synthetic = new SyntheticVcf(7);
+        Path vcf = synthetic.write(directory.resolve("sample.vcf.gz"), 5_000, true);
+        PanelRegions regions = PanelRegions.load(synthetic.writeBed(directory.resolve("genes.bed")),
+                TestPanels.bundledPanel());
+
+        List<String> everything = new ArrayList<>();
+        List<String> panelOnly = new ArrayList<>();
+        Set<String> panelPositions = new HashSet<>();
+        try (VcfReader reader = VcfReader.open(vcf, Map.of(), null)) {
+            for (Iterator<Row> rows = reader.variants(regions); rows.hasNext(); ) {
+                Row row = rows.next();
+                panelOnly.add(row.getCellText(0) + " " + row.getCellText(1));
+                panelPositions.add(row.getCellText(0));
+            }
+        }
+        try (VcfReader reader = VcfReader.open(vcf, Map.of(), null)) {
+            for (Iterator<Row> rows = reader.variants(); rows.hasNext(); ) {
+                Row row = rows.next();
+                if (panelPositions.contains(row.getCellText(0))) {
+                    everything.add(row.getCellText(0) + " " + row.getCellText(1));
+                }
+            }
+        }
+
+        assertTrue(panelOnly.size() > panelPositions.size(), "No position with several records was read");
+        assertEquals(everything, panelOnly);
+    }
+
+    private static List<List<String>> texts(List<Row> rows) {
+        return rows.stream()
+                .map(row -> row.stream().map(cell -> cell == null ? "" : cell.getText()).toList())
+                .toList();
+    }
+}